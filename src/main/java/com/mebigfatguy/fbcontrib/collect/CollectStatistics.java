@@ -18,12 +18,17 @@
  */
 package com.mebigfatguy.fbcontrib.collect;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.AnnotationEntry;
 import org.apache.bcel.classfile.Annotations;
@@ -31,6 +36,7 @@ import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 
+import com.mebigfatguy.fbcontrib.utils.BlockingCallUtils;
 import com.mebigfatguy.fbcontrib.utils.CollectionUtils;
 import com.mebigfatguy.fbcontrib.utils.QMethod;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
@@ -59,6 +65,13 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
 	// @formatter:on
     );
 
+    private static final Set<String> HASHED_COLLECTIONS = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_MAP, Values.SLASHED_JAVA_UTIL_SET,
+            "java/util/HashMap", "java/util/HashSet", "java/util/LinkedHashMap", "java/util/LinkedHashSet", "java/util/Hashtable",
+            "java/util/concurrent/ConcurrentHashMap", "java/util/concurrent/ConcurrentMap");
+
+    private static final Set<String> KEYED_METHODS = UnmodifiableSet.create("put", "get", "containsKey", "remove", "putIfAbsent", "getOrDefault",
+            "computeIfAbsent", "computeIfPresent", "compute", "merge", "add", "contains");
+
     private static final Set<String> BEAN_ANNOTATIONS = UnmodifiableSet.create(
     // @formatter:off
 			"Lorg/springframework/stereotype/Component;", "Lorg/springframework/stereotype/Controller;",
@@ -66,22 +79,24 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
 	// @formatter:on
     );
 
+    private final BugReporter bugReporter;
     private int numMethodCalls;
     private boolean modifiesState;
+    private boolean mayBlock;
     private boolean classHasAnnotation;
     private OpcodeStack stack;
     private Map<QMethod, Set<CalledMethod>> selfCallTree;
+    private Map<QMethod, Set<QMethod>> sameClassCallTree;
     private QMethod curMethod;
 
     /**
      * constructs a CollectStatistics detector which clears the singleton that holds the statistics for all classes parsed in the first pass.
      *
      * @param bugReporter
-     *            unused, but required by reflection contract
+     *            the sync of missing class reports
      */
-    // required for reflection
-    @SuppressWarnings("PMD.UnusedFormalParameter")
     public CollectStatistics(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
         Statistics.getStatistics().clear();
     }
 
@@ -99,13 +114,17 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
             classHasAnnotation = !CollectionUtils.isEmpty(annotations);
             stack = new OpcodeStack();
             selfCallTree = new HashMap<>();
+            sameClassCallTree = new HashMap<>();
             super.visitClassContext(classContext);
 
             performModifyStateClosure(classContext.getJavaClass());
+            performMayBlockClosure(classContext.getJavaClass());
+            collectImplementors(cls);
 
         } finally {
             stack = null;
             selfCallTree = null;
+            sameClassCallTree = null;
             curMethod = null;
         }
     }
@@ -125,6 +144,7 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
 
         numMethodCalls = 0;
         modifiesState = false;
+        mayBlock = false;
 
         byte[] code = obj.getCode();
         if (code == null) {
@@ -155,6 +175,7 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
         }
 
         mi.setModifiesState(modifiesState);
+        mi.setMayBlock(mayBlock);
     }
 
     @Override
@@ -168,6 +189,25 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
                 case Const.INVOKEDYNAMIC:
                     numMethodCalls++;
 
+                    if (seen != Const.INVOKEDYNAMIC) {
+                        String calledClass = getClassConstantOperand();
+                        if (BlockingCallUtils.isBlockingCall(calledClass, getNameConstantOperand(), getSigConstantOperand())) {
+                            mayBlock = true;
+                        } else if (calledClass.equals(getClassName())) {
+                            QMethod caller = new QMethod(getMethodName(), getMethodSig());
+                            Set<QMethod> calledMethods = sameClassCallTree.get(caller);
+                            if (calledMethods == null) {
+                                calledMethods = new HashSet<>();
+                                sameClassCallTree.put(caller, calledMethods);
+                            }
+                            calledMethods.add(new QMethod(getNameConstantOperand(), getSigConstantOperand()));
+                        }
+                    }
+
+                    if ((seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKEVIRTUAL)) {
+                        collectHashKeyClass();
+                    }
+
                     if (seen != Const.INVOKESTATIC) {
                         int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
                         if (stack.getStackDepth() > numParms) {
@@ -203,6 +243,122 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
         }
     }
 
+    /**
+     * records the class of the key passed to a hash based map or set, so that second pass detectors can look at the hashCode methods of classes used as keys
+     */
+    private void collectHashKeyClass() {
+        if (!HASHED_COLLECTIONS.contains(getClassConstantOperand()) || !KEYED_METHODS.contains(getNameConstantOperand())) {
+            return;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        if ((numParms == 0) || (stack.getStackDepth() < numParms)) {
+            return;
+        }
+
+        String keySig = stack.getStackItem(numParms - 1).getSignature();
+        if (keySig.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX) && !keySig.startsWith("Ljava/")) {
+            Statistics.getStatistics().addHashKeyClass(SignatureUtils.trimSignature(keySig));
+        }
+    }
+
+    /**
+     * records the methods of this class that implement abstract or interface methods of its super types, so that second pass detectors can tell how many
+     * implementations a call through an interface or abstract class may dispatch to. The implementor is recorded under every super type that declares or
+     * inherits the abstract method, as the call may name any of them as its owner. JDK super types, such as Iterator or Runnable, are skipped, as most of
+     * their implementations are in the JDK, and are never counted.
+     *
+     * @param cls
+     *            the currently parsed class
+     */
+    private void collectImplementors(JavaClass cls) {
+        if (cls.isInterface()) {
+            return;
+        }
+
+        try {
+            List<JavaClass> superTypes = new ArrayList<>();
+            for (JavaClass superCls : cls.getSuperClasses()) {
+                if (superCls.isAbstract() && !isJDKClass(superCls)) {
+                    superTypes.add(superCls);
+                }
+            }
+            for (JavaClass inf : cls.getAllInterfaces()) {
+                if (!isJDKClass(inf)) {
+                    superTypes.add(inf);
+                }
+            }
+            if (superTypes.isEmpty()) {
+                return;
+            }
+
+            Statistics statistics = Statistics.getStatistics();
+            String clsName = cls.getClassName().replace('.', '/');
+            for (Method m : cls.getMethods()) {
+                if (m.isAbstract() || m.isStatic() || m.isPrivate() || m.getName().startsWith("<")) {
+                    continue;
+                }
+
+                for (JavaClass superType : superTypes) {
+                    if (hasAbstractMethod(superType, m.getName(), m.getSignature())) {
+                        statistics.addImplementor(superType.getClassName().replace('.', '/'), m.getName(), m.getSignature(), clsName);
+                    }
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            bugReporter.reportMissingClass(e);
+        }
+    }
+
+    private static boolean isJDKClass(JavaClass cls) {
+        String clsName = cls.getClassName();
+        return clsName.startsWith("java.") || clsName.startsWith("javax.");
+    }
+
+    /**
+     * returns whether an interface or abstract class declares a method as abstract, or doesn't declare it and inherits it as abstract from one of its super
+     * types
+     *
+     * @param type
+     *            the interface or abstract class to check
+     * @param methodName
+     *            the name of the method
+     * @param signature
+     *            the signature of the method
+     * @return whether the method is abstract in the type
+     * @throws ClassNotFoundException
+     *             if a super type of the type can't be found
+     */
+    private static boolean hasAbstractMethod(JavaClass type, String methodName, String signature) throws ClassNotFoundException {
+        Method declared = findMethod(type, methodName, signature);
+        if (declared != null) {
+            return declared.isAbstract();
+        }
+
+        List<JavaClass> inheritedTypes = new ArrayList<>();
+        if (!type.isInterface()) {
+            Collections.addAll(inheritedTypes, type.getSuperClasses());
+        }
+        Collections.addAll(inheritedTypes, type.getAllInterfaces());
+        for (JavaClass inheritedType : inheritedTypes) {
+            Method inherited = findMethod(inheritedType, methodName, signature);
+            if ((inherited != null) && inherited.isAbstract()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Method findMethod(JavaClass cls, String methodName, String signature) {
+        for (Method m : cls.getMethods()) {
+            if (m.getName().equals(methodName) && m.getSignature().equals(signature)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
     private void performModifyStateClosure(JavaClass cls) {
         boolean foundNewCall = true;
         Statistics statistics = Statistics.getStatistics();
@@ -257,6 +413,45 @@ public class CollectStatistics extends BytecodeScanningDetector implements NonRe
         selfCallTree.clear();
     }
 
+    /**
+     * marks methods as possibly blocking if they call a private or static method of this class that may block
+     *
+     * @param cls
+     *            the currently parsed class
+     */
+    private void performMayBlockClosure(JavaClass cls) {
+        Statistics statistics = Statistics.getStatistics();
+        String clsName = cls.getClassName().replace('.', '/');
+
+        boolean foundNewBlocker = true;
+        while (foundNewBlocker && !sameClassCallTree.isEmpty()) {
+            foundNewBlocker = false;
+
+            Iterator<Map.Entry<QMethod, Set<QMethod>>> callerIt = sameClassCallTree.entrySet().iterator();
+            while (callerIt.hasNext()) {
+                Map.Entry<QMethod, Set<QMethod>> callerEntry = callerIt.next();
+                QMethod caller = callerEntry.getKey();
+                MethodInfo callerMi = statistics.getMethodStatistics(clsName, caller.getMethodName(), caller.getSignature());
+                if (callerMi.getMayBlock()) {
+                    callerIt.remove();
+                    continue;
+                }
+
+                for (QMethod callee : callerEntry.getValue()) {
+                    MethodInfo calleeMi = statistics.getMethodStatistics(clsName, callee.getMethodName(), callee.getSignature());
+                    if (calleeMi.getMayBlock() && !calleeMi.canBeOverridden()) {
+                        callerMi.setMayBlock(true);
+                        foundNewBlocker = true;
+                        callerIt.remove();
+                        break;
+                    }
+                }
+            }
+        }
+
+        sameClassCallTree.clear();
+    }
+
     private boolean isAssociationedWithAnnotations(Method m) {
         if (classHasAnnotation) {
             return true;
@@ -39,6 +39,7 @@ public class MethodInfo {
     private byte isCalledType;
     private boolean modifiesState;
     private boolean canReturnNull;
+    private boolean mayBlock;
 
     public int getNumBytes() {
         return 0x0000FFFF & numMethodBytes;
@@ -120,6 +121,24 @@ public class MethodInfo {
         this.canReturnNull = canReturnNull;
     }
 
+    public boolean getMayBlock() {
+        return mayBlock;
+    }
+
+    public void setMayBlock(boolean mayBlock) {
+        this.mayBlock = mayBlock;
+    }
+
+    /**
+     * returns whether a call to this method may run an override in a derived class instead, so that what is known about this method's code, such as whether
+     * it may block, does not necessarily apply to the call. Private, static and final methods can't be overridden.
+     *
+     * @return whether the method can be overridden
+     */
+    public boolean canBeOverridden() {
+        return (declaredAccess & (Const.ACC_PRIVATE | Const.ACC_STATIC | Const.ACC_FINAL)) == 0;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof MethodInfo)) {
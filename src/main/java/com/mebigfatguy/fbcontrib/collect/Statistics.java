@@ -42,6 +42,10 @@ public final class Statistics implements Iterable<Map.Entry<FQMethod, MethodInfo
 
     private final Set<String> autowiredBeans = new HashSet<>();
 
+    private final Set<String> hashKeyClasses = ConcurrentHashMap.newKeySet();
+
+    private final Map<FQMethod, Set<String>> implementors = new ConcurrentHashMap<>();
+
     private Statistics() {
     }
 
@@ -51,6 +55,8 @@ public final class Statistics implements Iterable<Map.Entry<FQMethod, MethodInfo
 
     public void clear() {
         methodStatistics.clear();
+        hashKeyClasses.clear();
+        implementors.clear();
     }
 
     public MethodInfo addMethodStatistics(String className, String methodName, String signature, int access, int numBytes, int numMethodCalls) {
@@ -99,6 +105,61 @@ public final class Statistics implements Iterable<Map.Entry<FQMethod, MethodInfo
         return autowiredBeans.contains(beanClass);
     }
 
+    /**
+     * records that a class is used as the key of a hash based map or set, somewhere in the analyzed code
+     *
+     * @param keyClass
+     *            the class used as a key
+     */
+    public void addHashKeyClass(@SlashedClassName String keyClass) {
+        hashKeyClasses.add(keyClass);
+    }
+
+    public boolean isHashKeyClass(@SlashedClassName String keyClass) {
+        return hashKeyClasses.contains(keyClass);
+    }
+
+    /**
+     * records that a class implements a method declared as abstract, or in an interface, by one of its super types
+     *
+     * @param declaringClass
+     *            the interface or abstract class that declares the method
+     * @param methodName
+     *            the name of the method
+     * @param signature
+     *            the signature of the method
+     * @param implementingClass
+     *            the class that implements the method
+     */
+    public void addImplementor(@SlashedClassName String declaringClass, String methodName, String signature, @SlashedClassName String implementingClass) {
+        FQMethod key = new FQMethod(declaringClass, methodName, signature);
+        Set<String> classes = implementors.get(key);
+        if (classes == null) {
+            classes = ConcurrentHashMap.newKeySet();
+            Set<String> existing = implementors.putIfAbsent(key, classes);
+            if (existing != null) {
+                classes = existing;
+            }
+        }
+        classes.add(implementingClass);
+    }
+
+    /**
+     * returns the number of classes in the analyzed code that implement an abstract or interface method
+     *
+     * @param declaringClass
+     *            the interface or abstract class that declares the method
+     * @param methodName
+     *            the name of the method
+     * @param signature
+     *            the signature of the method
+     * @return the number of implementing classes found
+     */
+    public int getNumImplementors(@SlashedClassName String declaringClass, String methodName, String signature) {
+        Set<String> classes = implementors.get(new FQMethod(declaringClass, methodName, signature));
+        return (classes == null) ? 0 : classes.size();
+    }
+
     @Override
     public String toString() {
         return ToString.build(this);
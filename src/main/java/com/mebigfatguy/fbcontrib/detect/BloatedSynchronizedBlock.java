@@ -18,43 +18,90 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
 import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ReferenceType;
+import org.apache.bcel.generic.Type;
 
-import com.mebigfatguy.fbcontrib.collect.MethodInfo;
-import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BlockingCallUtils;
 import com.mebigfatguy.fbcontrib.utils.BugType;
 import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 import com.mebigfatguy.fbcontrib.utils.Values;
 
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.BytecodeScanningDetector;
 import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
 import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
 
 /**
- * looks for methods that are implemented using synchronized blocks, but are overly synchronized because the beginning of the block only accesses local
- * variables, and not member variables, or this.
+ * looks for synchronized blocks, synchronized methods and regions guarded by a java.util.concurrent.locks.Lock, that hold the lock longer than needed. It
+ * finds which instructions in the region actually read or write shared state, that is fields, statics, this, the parameters, and anything derived from them,
+ * and reports code at the beginning or end of the region that only works on local values, as well as blocking calls, calls to unknown callbacks, logging, and
+ * allocations that don't depend on shared state, made while holding the lock.
  */
+@CustomUserValue
 public class BloatedSynchronizedBlock extends BytecodeScanningDetector {
     private static final String BSB_MIN_SAFE_CODE_SIZE = "fb-contrib.bsb.minsize";
 
+    enum EventKind {
+        SHARED, EXPENSIVE_CALL, CALLBACK, LOGGING, ALLOCATION
+    };
+
+    enum BSBUserValue {
+        SHARED
+    };
+
+    private static final Set<String> LOCK_CLASSES = UnmodifiableSet.create("java/util/concurrent/locks/Lock", "java/util/concurrent/locks/ReentrantLock",
+            "java/util/concurrent/locks/ReentrantReadWriteLock$ReadLock", "java/util/concurrent/locks/ReentrantReadWriteLock$WriteLock");
+
+    private static final Set<String> LOCK_METHODS = UnmodifiableSet.create("lock", "lockInterruptibly", "tryLock");
+
+    private static final Set<String> LOGGER_CLASSES = UnmodifiableSet.create("org/slf4j/Logger", "org/apache/logging/log4j/Logger",
+            "org/apache/log4j/Logger", "org/apache/log4j/Category", "java/util/logging/Logger", "org/apache/commons/logging/Log", "java/io/PrintStream");
+
+    private static final Set<String> CALLBACK_SUFFIXES = UnmodifiableSet.create("Listener", "Callback", "Handler", "Observer");
+
+    private static final Set<String> IMMUTABLE_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_LANG_STRING, Values.SLASHED_JAVA_LANG_INTEGER,
+            Values.SLASHED_JAVA_LANG_LONG, Values.SLASHED_JAVA_LANG_SHORT, Values.SLASHED_JAVA_LANG_BYTE, Values.SLASHED_JAVA_LANG_CHARACTER,
+            Values.SLASHED_JAVA_LANG_BOOLEAN, Values.SLASHED_JAVA_LANG_FLOAT, Values.SLASHED_JAVA_LANG_DOUBLE);
+
+    private static final Set<String> BUILDER_CLASSES = UnmodifiableSet.create("java/lang/StringBuilder", "java/lang/StringBuffer");
+
     private final BugReporter bugReporter;
+    private final int minSafeCodeLength;
     private OpcodeStack stack;
-    private BitSet unsafeAliases;
+    private BitSet sharedRegs;
     private Map<Integer, Integer> branchInfo;
-    private int syncPC;
+    private List<LockEvent> events;
+    private List<LockRegion> regions;
+    private Map<String, Integer> openRegions;
+    /** lock key to the last exit from its region seen on a normal path, outside of the catch-all handler that releases the lock */
+    private Map<String, Integer> normalExits;
+    private BitSet catchAllHandlers;
+    private boolean inCatchAllHandler;
+    private int[] prevPCs;
+    private int lastAStoreReg;
+    private int lastALoadReg;
     private boolean isStatic;
-    private final int minSafeCodeLength;
-    private boolean unsafeCallOccurred;
 
     /**
      * constructs a BSB detector given the reporter to report bugs on
@@ -67,34 +114,57 @@ public class BloatedSynchronizedBlock extends BytecodeScanningDetector {
         minSafeCodeLength = Integer.getInteger(BSB_MIN_SAFE_CODE_SIZE, 16).intValue();
     }
 
+    /**
+     * implements the visitor to create and clear the stack and collections
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
     @Override
     public void visitClassContext(ClassContext classContext) {
         try {
             stack = new OpcodeStack();
-            unsafeAliases = new BitSet();
+            sharedRegs = new BitSet();
             branchInfo = new HashMap<>();
+            events = new ArrayList<>();
+            regions = new ArrayList<>();
+            openRegions = new HashMap<>();
+            normalExits = new HashMap<>();
+            catchAllHandlers = new BitSet();
+            prevPCs = new int[2];
             super.visitClassContext(classContext);
         } finally {
             stack = null;
-            unsafeAliases = null;
+            sharedRegs = null;
             branchInfo = null;
+            events = null;
+            regions = null;
+            openRegions = null;
+            normalExits = null;
+            catchAllHandlers = null;
+            prevPCs = null;
         }
     }
 
     /**
-     * looks for methods that contain a MONITORENTER opcodes
+     * looks for methods that are synchronized, contain a MONITORENTER opcode, or call methods, which may be Lock.lock
      *
      * @param method
      *            the context object of the current method
-     * @return if the class uses synchronization
+     * @return if the method may hold a lock
      */
     private boolean prescreen(Method method) {
+        if (method.isSynchronized()) {
+            return true;
+        }
+
         BitSet bytecodeSet = getClassContext().getBytecodeSet(method);
-        return (bytecodeSet != null) && (bytecodeSet.get(Const.MONITORENTER));
+        return (bytecodeSet != null)
+                && (bytecodeSet.get(Const.MONITORENTER) || bytecodeSet.get(Const.INVOKEVIRTUAL) || bytecodeSet.get(Const.INVOKEINTERFACE));
     }
 
     /**
-     * implement the visitor to reset the sync count, the stack, and gather some information
+     * implements the visitor to reset the state, parse the method, and report the regions that hold a lock longer than needed
      *
      * @param obj
      *            the context object for the currently parsed method
@@ -102,119 +172,605 @@ public class BloatedSynchronizedBlock extends BytecodeScanningDetector {
     @Override
     public void visitCode(Code obj) {
         Method m = getMethod();
-        if (prescreen(m)) {
-            if (m.isSynchronized()) {
-                syncPC = 0;
-            } else {
-                syncPC = -1;
+        if (!prescreen(m)) {
+            return;
+        }
+
+        isStatic = m.isStatic();
+        sharedRegs.clear();
+        if (!isStatic) {
+            sharedRegs.set(0);
+        }
+        Type[] argTypes = m.getArgumentTypes();
+        int[] parmRegs = RegisterUtils.getParameterRegisters(m);
+        for (int i = 0; i < parmRegs.length; i++) {
+            if (argTypes[i] instanceof ReferenceType) {
+                sharedRegs.set(parmRegs[i]);
             }
-            isStatic = m.isStatic();
-            unsafeAliases.clear();
-            unsafeAliases.set(0);
-            branchInfo.clear();
-            unsafeCallOccurred = false;
-            stack.resetForMethodEntry(this);
+        }
+        branchInfo.clear();
+        events.clear();
+        regions.clear();
+        openRegions.clear();
+        normalExits.clear();
+        collectCatchAllHandlers(obj);
+        inCatchAllHandler = false;
+        prevPCs[0] = -1;
+        prevPCs[1] = -1;
+        lastAStoreReg = -1;
+        lastALoadReg = -1;
+        stack.resetForMethodEntry(this);
+
+        if (m.isSynchronized()) {
+            regions.add(new LockRegion(0, obj.getCode().length, false));
+        }
+
+        super.visitCode(obj);
+
+        for (Map.Entry<String, Integer> entry : normalExits.entrySet()) {
+            closeRegion(entry.getKey(), entry.getValue().intValue());
+        }
+        for (LockRegion region : regions) {
+            checkRegion(region);
         }
     }
 
     /**
-     * implement the visitor to find bloated sync blocks. This implementation only checks the outer most block
+     * implements the visitor to find lock regions, and to classify the instructions as accessing shared state, or as being costly to do while holding a lock
      *
      * @param seen
      *            the opcode of the currently parsed instruction
      */
     @Override
     public void sawOpcode(int seen) {
+        boolean sharedResult = false;
+        boolean allocation = false;
+        int aStoreReg = -1;
+        int aLoadReg = -1;
         try {
             stack.precomputation(this);
-
-            if (unsafeCallOccurred && OpcodeUtils.isAStore(seen)) {
-                int storeReg = RegisterUtils.getAStoreReg(this, seen);
-                if (storeReg >= 0) {
-                    unsafeAliases.set(storeReg);
-                }
+            if (catchAllHandlers.get(getPC())) {
+                inCatchAllHandler = true;
             }
 
-            if ((seen == Const.INVOKEVIRTUAL) || (seen == Const.INVOKESPECIAL) || (seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKEDYNAMIC)) {
-                String methodSig = getSigConstantOperand();
-
-                MethodInfo mi = Statistics.getStatistics().getMethodStatistics(getClassConstantOperand(), getNameConstantOperand(), methodSig);
-                if (mi.getModifiesState()) {
-                    unsafeCallOccurred = true;
-                } else {
-                    if (!Values.SIG_VOID.equals(SignatureUtils.getReturnSignature(methodSig))) {
-                        int parmCount = SignatureUtils.getNumParameters(methodSig);
-                        if (stack.getStackDepth() > parmCount) {
-                            OpcodeStack.Item itm = stack.getStackItem(parmCount);
-                            unsafeCallOccurred = unsafeAliases.get(itm.getRegisterNumber());
-                        } else {
-                            unsafeCallOccurred = false;
-                        }
-                    } else {
-                        unsafeCallOccurred = false;
+            switch (seen) {
+                case Const.MONITORENTER:
+                    addEvent(EventKind.SHARED);
+                    openRegion("m" + lastAStoreReg);
+                break;
+
+                case Const.MONITOREXIT:
+                    exitRegion("m" + lastALoadReg, prevPCs[0]);
+                break;
+
+                case Const.GETFIELD:
+                    sharedResult = isShared(0);
+                    if (sharedResult && !isFinalField()) {
+                        addEvent(EventKind.SHARED);
                     }
-                }
-            } else if (seen == Const.INVOKESTATIC) {
-                unsafeCallOccurred = getDottedClassConstantOperand().equals(this.getClassContext().getJavaClass().getClassName());
-            } else if (((seen >= Const.IFEQ) && (seen <= Const.GOTO)) || (seen == Const.GOTO_W)) {
-                Integer from = Integer.valueOf(getPC());
-                Integer to = Integer.valueOf(getBranchTarget());
-                branchInfo.put(from, to);
-                unsafeCallOccurred = false;
-            } else {
-                unsafeCallOccurred = false;
-            }
-
-            if (seen == Const.MONITORENTER) {
-                if (syncPC < 0) {
-                    syncPC = getPC();
-                    if (stack.getStackDepth() > 0) {
-                        OpcodeStack.Item itm = stack.getStackItem(0);
-                        int monitorReg = itm.getRegisterNumber();
-                        if (monitorReg >= 0) {
-                            unsafeAliases.set(monitorReg);
+                break;
+
+                case Const.PUTFIELD:
+                    if (isShared(1)) {
+                        addEvent(EventKind.SHARED);
+                    }
+                break;
+
+                case Const.GETSTATIC:
+                    sharedResult = true;
+                    if (!isFinalField()) {
+                        addEvent(EventKind.SHARED);
+                    }
+                break;
+
+                case Const.PUTSTATIC:
+                    addEvent(EventKind.SHARED);
+                break;
+
+                case Const.AALOAD:
+                case Const.IALOAD:
+                case Const.LALOAD:
+                case Const.FALOAD:
+                case Const.DALOAD:
+                case Const.BALOAD:
+                case Const.CALOAD:
+                case Const.SALOAD:
+                    sharedResult = isShared(1);
+                    if (sharedResult) {
+                        addEvent(EventKind.SHARED);
+                    }
+                break;
+
+                case Const.AASTORE:
+                case Const.IASTORE:
+                case Const.LASTORE:
+                case Const.FASTORE:
+                case Const.DASTORE:
+                case Const.BASTORE:
+                case Const.CASTORE:
+                case Const.SASTORE:
+                    if (isShared(2)) {
+                        addEvent(EventKind.SHARED);
+                    }
+                break;
+
+                case Const.NEW:
+                    allocation = !BUILDER_CLASSES.contains(getClassConstantOperand());
+                break;
+
+                case Const.NEWARRAY:
+                case Const.ANEWARRAY:
+                    if ((stack.getStackDepth() > 0) && !isShared(0)) {
+                        addEvent(EventKind.ALLOCATION);
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKESPECIAL:
+                case Const.INVOKESTATIC:
+                    sharedResult = processInvoke(seen);
+                break;
+
+                case Const.INVOKEDYNAMIC:
+                break;
+
+                default:
+                    if (OpcodeUtils.isAStore(seen)) {
+                        aStoreReg = RegisterUtils.getAStoreReg(this, seen);
+                        if ((aStoreReg >= 0) && (stack.getStackDepth() > 0)) {
+                            if (isShared(0)) {
+                                sharedRegs.set(aStoreReg);
+                            } else {
+                                sharedRegs.clear(aStoreReg);
+                            }
                         }
+                    } else if (OpcodeUtils.isALoad(seen)) {
+                        aLoadReg = RegisterUtils.getALoadReg(this, seen);
+                    } else if (((seen >= Const.IFEQ) && (seen <= Const.GOTO)) || (seen == Const.GOTO_W)) {
+                        branchInfo.put(Integer.valueOf(getPC()), Integer.valueOf(getBranchTarget()));
                     }
-                }
-            } else if (seen == Const.MONITOREXIT) {
-                syncPC = -1;
-            } else if (syncPC >= 0) {
-                processSyncBlockInstruction(seen);
+                break;
             }
         } finally {
+            if ((seen == Const.ATHROW) || (seen == Const.GOTO) || (seen == Const.GOTO_W) || OpcodeUtils.isReturn(seen)) {
+                inCatchAllHandler = false;
+            }
             stack.sawOpcode(this, seen);
+            if (sharedResult && (stack.getStackDepth() > 0)) {
+                stack.getStackItem(0).setUserValue(BSBUserValue.SHARED);
+            } else if (allocation && (stack.getStackDepth() > 0)) {
+                stack.getStackItem(0).setUserValue(Integer.valueOf(getPC()));
+            }
+            lastAStoreReg = aStoreReg;
+            lastALoadReg = aLoadReg;
+            prevPCs[1] = prevPCs[0];
+            prevPCs[0] = getPC();
         }
     }
 
-    private void processSyncBlockInstruction(int seen) {
-        // TODO: probably static calls are unsafe only if the monitor is
-        // on a static
-        boolean unsafe = unsafeCallOccurred;
-        unsafe |= ((seen == Const.PUTFIELD) || (seen == Const.GETFIELD) || (seen == Const.GETSTATIC) || (seen == Const.PUTSTATIC));
-        unsafe |= (!isStatic) && ((seen == Const.ALOAD_0) || (seen == Const.ASTORE_0));
-        int aloadReg = RegisterUtils.getALoadReg(this, seen);
-        unsafe |= (aloadReg >= 0) && unsafeAliases.get(aloadReg);
-        if (unsafe) {
-            // If a branch exists in the safe code, make sure the entire
-            // branch
-            // is in the safe code, otherwise trim before the branch
-            int pc = getPC();
-            if ((pc - syncPC) > minSafeCodeLength) {
-                for (Map.Entry<Integer, Integer> entry : branchInfo.entrySet()) {
-                    int bStart = entry.getKey().intValue();
-                    if ((bStart >= syncPC) && (bStart <= pc)) {
-                        int bEnd = entry.getValue().intValue();
-                        if (bEnd > pc) {
-                            pc = bStart - 1;
-                        }
-                    }
+    /**
+     * classifies a method call as a lock or unlock, as accessing shared state, as logging, as a blocking call or a call to an unknown callback, or as the
+     * constructor of an object that could have been allocated before taking the lock
+     *
+     * @param seen
+     *            the currently parsed opcode
+     * @return whether the result of the call is derived from shared state
+     */
+    private boolean processInvoke(int seen) {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+
+        if (seen == Const.INVOKESTATIC) {
+            if (BlockingCallUtils.isBlockingCall(clsName, methodName, signature)) {
+                addEvent(EventKind.EXPENSIVE_CALL);
+            }
+            if (clsName.equals(getClassName())) {
+                addEvent(EventKind.SHARED);
+                return true;
+            }
+            return false;
+        }
+
+        if (stack.getStackDepth() <= numParms) {
+            return false;
+        }
+        OpcodeStack.Item receiver = stack.getStackItem(numParms);
+
+        if (LOCK_CLASSES.contains(clsName)) {
+            String key = getLockKey(receiver);
+            if (key != null) {
+                if (LOCK_METHODS.contains(methodName)) {
+                    openRegion(key);
+                    return false;
+                }
+                if ("unlock".equals(methodName)) {
+                    XField field = receiver.getXField();
+                    exitRegion(key, ((field != null) && !field.isStatic()) ? prevPCs[1] : prevPCs[0]);
+                    return false;
+                }
+            }
+        }
+
+        if (Values.CONSTRUCTOR.equals(methodName)) {
+            Object newPC = receiver.getUserValue();
+            if ((newPC instanceof Integer) && !isThrowable(clsName) && !hasSharedArguments(numParms) && !hasEventSince(((Integer) newPC).intValue())) {
+                addEvent(EventKind.ALLOCATION);
+            }
+            return false;
+        }
+
+        if (IMMUTABLE_CLASSES.contains(clsName)) {
+            return false;
+        }
+
+        if (LOGGER_CLASSES.contains(clsName)) {
+            if (!methodName.startsWith("is")) {
+                addEvent(EventKind.LOGGING);
+            }
+            return false;
+        }
+
+        if (BlockingCallUtils.isBlockingCall(clsName, methodName, signature) && !BlockingCallUtils.isObjectWait(methodName, signature)) {
+            addEvent(EventKind.EXPENSIVE_CALL);
+        } else if ((seen == Const.INVOKEINTERFACE) && isCallback(clsName) && (receiver.getRegisterNumber() != 0)) {
+            addEvent(EventKind.CALLBACK);
+        }
+
+        boolean shared = isShared(numParms);
+        if (shared) {
+            addEvent(EventKind.SHARED);
+        }
+        return shared;
+    }
+
+    /**
+     * returns a key that identifies the lock object, either by the field or by the register it is held in
+     *
+     * @param receiver
+     *            the lock object
+     * @return the key of the lock, or null if it can't be identified
+     */
+    @Nullable
+    private static String getLockKey(OpcodeStack.Item receiver) {
+        XField field = receiver.getXField();
+        if (field != null) {
+            return "f" + field.getClassName() + '.' + field.getName();
+        }
+        int reg = receiver.getRegisterNumber();
+        if (reg >= 0) {
+            return "r" + reg;
+        }
+        return null;
+    }
+
+    /**
+     * finds the catch-all exception handlers of the method, which the compiler generates to release monitors, and that finally blocks use to release locks
+     *
+     * @param obj
+     *            the code of the current method
+     */
+    private void collectCatchAllHandlers(Code obj) {
+        catchAllHandlers.clear();
+        CodeException[] exceptionTable = obj.getExceptionTable();
+        if (exceptionTable != null) {
+            for (CodeException ce : exceptionTable) {
+                if (ce.getCatchType() == 0) {
+                    catchAllHandlers.set(ce.getHandlerPC());
                 }
-                if ((pc - syncPC) > minSafeCodeLength) {
-                    bugReporter.reportBug(new BugInstance(this, BugType.BSB_BLOATED_SYNCHRONIZED_BLOCK.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
-                            .addSourceLineRange(this, syncPC + 1, pc));
+            }
+        }
+    }
+
+    private void openRegion(String key) {
+        Integer normalExit = normalExits.remove(key);
+        if (normalExit != null) {
+            closeRegion(key, normalExit.intValue());
+        }
+        if (!openRegions.containsKey(key)) {
+            openRegions.put(key, Integer.valueOf(getNextPC()));
+        }
+    }
+
+    /**
+     * records a release of a lock. The compiler copies the release to every early return or break out of the region, so the region is only closed at the
+     * release in the catch-all handler, at the last release seen on a normal path before it, or at the end of the method.
+     *
+     * @param key
+     *            the key of the lock
+     * @param exitPC
+     *            the first pc of the code that releases the lock
+     */
+    private void exitRegion(String key, int exitPC) {
+        if (!openRegions.containsKey(key)) {
+            return;
+        }
+
+        if (inCatchAllHandler) {
+            Integer normalExit = normalExits.remove(key);
+            closeRegion(key, (normalExit != null) ? normalExit.intValue() : exitPC);
+        } else {
+            normalExits.put(key, Integer.valueOf(exitPC));
+        }
+    }
+
+    private void closeRegion(String key, int exitPC) {
+        Integer startPC = openRegions.remove(key);
+        if (startPC != null) {
+            regions.add(new LockRegion(startPC.intValue(), exitPC, true));
+        }
+    }
+
+    /**
+     * returns whether the stack item at the given depth is shared state, that is this, a parameter, a field or static, or a value derived from them
+     *
+     * @param depth
+     *            the depth of the item on the stack
+     * @return whether the item is shared
+     */
+    private boolean isShared(int depth) {
+        if (stack.getStackDepth() <= depth) {
+            return true;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(depth);
+        if ((itm.getUserValue() == BSBUserValue.SHARED) || (itm.getXField() != null)) {
+            return true;
+        }
+
+        int reg = itm.getRegisterNumber();
+        return (reg >= 0) && sharedRegs.get(reg);
+    }
+
+    private boolean isFinalField() {
+        XField field = getXFieldOperand();
+        return (field != null) && field.isFinal();
+    }
+
+    private boolean hasSharedArguments(int numParms) {
+        for (int i = 0; i < numParms; i++) {
+            if (isShared(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasEventSince(int pc) {
+        for (int i = events.size() - 1; i >= 0; i--) {
+            LockEvent event = events.get(i);
+            if (event.getPC() < pc) {
+                return false;
+            }
+            if (event.getKind() == EventKind.SHARED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isThrowable(String clsName) {
+        return clsName.endsWith("Exception") || clsName.endsWith("Error") || "java/lang/Throwable".equals(clsName);
+    }
+
+    private static boolean isCallback(String clsName) {
+        if (clsName.startsWith("java/util/function/") || "java/lang/Runnable".equals(clsName) || "java/util/concurrent/Callable".equals(clsName)) {
+            return true;
+        }
+
+        for (String suffix : CALLBACK_SUFFIXES) {
+            if (clsName.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addEvent(EventKind kind) {
+        events.add(new LockEvent(kind, getPC(), (kind == EventKind.SHARED) ? null : getClassConstantOperandOrNull()));
+    }
+
+    @Nullable
+    private String getClassConstantOperandOrNull() {
+        int seen = getOpcode();
+        if ((seen == Const.INVOKEVIRTUAL) || (seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKESPECIAL) || (seen == Const.INVOKESTATIC)) {
+            return getClassConstantOperand() + '.' + getNameConstantOperand() + getSigConstantOperand();
+        }
+        return null;
+    }
+
+    /**
+     * reports the code at the beginning and end of a lock region that doesn't access shared state, and the costly operations made in the region
+     *
+     * @param region
+     *            the region of code holding a lock
+     */
+    private void checkRegion(LockRegion region) {
+        int startPC = region.getStartPC();
+        int exitPC = region.getExitPC();
+        int firstShared = -1;
+        int lastShared = -1;
+        Set<EventKind> reported = EnumSet.noneOf(EventKind.class);
+
+        for (LockEvent event : events) {
+            int pc = event.getPC();
+            if ((pc >= startPC) && (pc < exitPC) && (event.getKind() == EventKind.SHARED)) {
+                if (firstShared < 0) {
+                    firstShared = pc;
                 }
+                lastShared = pc;
             }
-            syncPC = -1;
+        }
+
+        if (firstShared < 0) {
+            return;
+        }
+
+        checkLeadingCode(startPC, firstShared);
+        if (region.hasExit()) {
+            checkTrailingCode(lastShared, exitPC);
+        }
+
+        for (LockEvent event : events) {
+            int pc = event.getPC();
+            EventKind kind = event.getKind();
+            if ((pc < startPC) || (pc >= exitPC) || (kind == EventKind.SHARED) || reported.contains(kind)) {
+                continue;
+            }
+            if ((kind == EventKind.ALLOCATION) && ((pc < firstShared) || (pc > lastShared))) {
+                continue;
+            }
+
+            reported.add(kind);
+            BugInstance bug;
+            switch (kind) {
+                case EXPENSIVE_CALL:
+                    bug = new BugInstance(this, BugType.BSB_EXPENSIVE_CALL_UNDER_LOCK.name(), NORMAL_PRIORITY);
+                break;
+
+                case CALLBACK:
+                    bug = new BugInstance(this, BugType.BSB_EXPENSIVE_CALL_UNDER_LOCK.name(), LOW_PRIORITY);
+                break;
+
+                case LOGGING:
+                    bug = new BugInstance(this, BugType.BSB_LOGGING_UNDER_LOCK.name(), NORMAL_PRIORITY);
+                break;
+
+                default:
+                    bug = new BugInstance(this, BugType.BSB_ALLOCATION_UNDER_LOCK.name(), LOW_PRIORITY);
+                break;
+            }
+            bug.addClass(this).addMethod(this);
+            String calledMethod = event.getCalledMethod();
+            if ((calledMethod != null) && (kind != EventKind.ALLOCATION)) {
+                int dotPos = calledMethod.indexOf('.');
+                int sigPos = calledMethod.indexOf('(');
+                bug.addCalledMethod(calledMethod.substring(0, dotPos).replace('/', '.'), calledMethod.substring(dotPos + 1, sigPos),
+                        calledMethod.substring(sigPos), false);
+            }
+            bugReporter.reportBug(bug.addSourceLine(this, pc));
+        }
+    }
+
+    /**
+     * reports the code at the beginning of the region that only accesses local values, up to the first branch that jumps past the first shared access
+     *
+     * @param startPC
+     *            the first pc after the lock is taken
+     * @param firstShared
+     *            the first access of shared state in the region
+     */
+    private void checkLeadingCode(int startPC, int firstShared) {
+        int pc = firstShared;
+        if ((pc - startPC) <= minSafeCodeLength) {
+            return;
+        }
+
+        for (Map.Entry<Integer, Integer> entry : branchInfo.entrySet()) {
+            int bStart = entry.getKey().intValue();
+            if ((bStart >= startPC) && (bStart < pc) && (entry.getValue().intValue() > pc)) {
+                pc = bStart;
+            }
+        }
+
+        if ((pc - startPC) > minSafeCodeLength) {
+            bugReporter.reportBug(new BugInstance(this, BugType.BSB_BLOATED_SYNCHRONIZED_BLOCK.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                    .addSourceLineRange(this, startPC, pc - 1));
+        }
+    }
+
+    /**
+     * reports the code at the end of the region that only accesses local values, as long as no branch jumps into it from before the last shared access, or
+     * out of it back into the shared code
+     *
+     * @param lastShared
+     *            the last access of shared state in the region
+     * @param exitPC
+     *            the first pc of the code that releases the lock
+     */
+    private void checkTrailingCode(int lastShared, int exitPC) {
+        int pc = lastShared + 1;
+        for (Map.Entry<Integer, Integer> entry : branchInfo.entrySet()) {
+            int bStart = entry.getKey().intValue();
+            int bEnd = entry.getValue().intValue();
+            if ((bStart >= pc) && (bStart < exitPC) && (bEnd <= lastShared)) {
+                return;
+            }
+            if ((bStart < pc) && (bEnd >= pc) && (bEnd < exitPC)) {
+                pc = Math.max(pc, bEnd + 1);
+            }
+        }
+
+        if ((exitPC - pc) > minSafeCodeLength) {
+            bugReporter.reportBug(new BugInstance(this, BugType.BSB_BLOATED_SYNCHRONIZED_BLOCK.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                    .addSourceLineRange(this, pc, exitPC - 1));
+        }
+    }
+
+    /**
+     * holds an instruction inside a method that accesses shared state, or that is costly to do while holding a lock
+     */
+    static class LockEvent {
+        private final EventKind kind;
+        private final int pc;
+        private final String calledMethod;
+
+        LockEvent(EventKind kind, int pc, @Nullable String calledMethod) {
+            this.kind = kind;
+            this.pc = pc;
+            this.calledMethod = calledMethod;
+        }
+
+        EventKind getKind() {
+            return kind;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        @Nullable
+        String getCalledMethod() {
+            return calledMethod;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
+    /**
+     * holds the range of code where a lock is held, from the instruction after the one that takes the lock, to the first instruction of the code that releases it
+     */
+    static class LockRegion {
+        private final int startPC;
+        private final int exitPC;
+        private final boolean hasExit;
+
+        LockRegion(int startPC, int exitPC, boolean hasExit) {
+            this.startPC = startPC;
+            this.exitPC = exitPC;
+            this.hasExit = hasExit;
+        }
+
+        int getStartPC() {
+            return startPC;
+        }
+
+        int getExitPC() {
+            return exitPC;
+        }
+
+        boolean hasExit() {
+            return hasExit;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
         }
     }
 }
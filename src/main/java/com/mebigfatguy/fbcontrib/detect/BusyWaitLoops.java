@@ -0,0 +1,435 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for loops that wait for a condition to change by repeatedly checking it, either spinning on a volatile field, an atomic, or a method such as isDone or
+ * isEmpty, without doing any other work, or sleeping for a short, constant amount of time between checks. Spinning burns a core while waiting, and sleeping
+ * adds latency to noticing the change, when a CountDownLatch, CompletableFuture, LockSupport.park or a blocking queue would wake the thread when the condition
+ * changes.
+ */
+public class BusyWaitLoops extends BytecodeScanningDetector {
+
+    enum OpKind {
+        POLL, SLEEP, WORK
+    };
+
+    /** the longest constant sleep, in milliseconds, that is considered polling */
+    private static final long MAX_POLLING_SLEEP = 1000L;
+
+    private static final Set<String> POLLING_METHODS = UnmodifiableSet.create("isDone", "isCancelled", "isCompletedNormally", "isCompletedExceptionally",
+            "isAlive", "isInterrupted", "getState", "getCount", "isTerminated", "isShutdown", "isLocked", "hasQueuedThreads");
+
+    private static final Set<String> COLLECTION_POLLING_METHODS = UnmodifiableSet.create("isEmpty", "size", "peek", "peekFirst", "peekLast");
+
+    private static final Set<String> ATOMIC_POLLING_METHODS = UnmodifiableSet.create("get", "getPlain", "getOpaque", "getAcquire", "intValue", "longValue",
+            "sum", "getReference", "isMarked");
+
+    private static final Set<String> SPIN_METHODS = UnmodifiableSet.create("yield", "onSpinWait");
+
+    private static final Set<String> SUB_MILLISECOND_UNITS = UnmodifiableSet.create("NANOSECONDS", "MICROSECONDS");
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private List<Op> ops;
+    private Map<Integer, Integer> loops;
+    private Map<Integer, Integer> conditionalBranches;
+    private Set<Integer> handlerPCs;
+    private boolean inHandler;
+
+    /**
+     * constructs a BWL detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public BusyWaitLoops(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to create and clear the stack and collections
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            stack = new OpcodeStack();
+            ops = new ArrayList<>();
+            loops = new TreeMap<>();
+            conditionalBranches = new HashMap<>();
+            handlerPCs = new HashSet<>();
+            super.visitClassContext(classContext);
+        } finally {
+            stack = null;
+            ops = null;
+            loops = null;
+            conditionalBranches = null;
+            handlerPCs = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack and collect the exception handlers, and after parsing the method, to report loops that poll a condition
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        ops.clear();
+        loops.clear();
+        conditionalBranches.clear();
+        handlerPCs.clear();
+        inHandler = false;
+        CodeException[] handlers = obj.getExceptionTable();
+        if (handlers != null) {
+            for (CodeException handler : handlers) {
+                handlerPCs.add(Integer.valueOf(handler.getHandlerPC()));
+            }
+        }
+        super.visitCode(obj);
+
+        for (Map.Entry<Integer, Integer> loop : loops.entrySet()) {
+            checkLoop(loop.getKey().intValue(), loop.getValue().intValue());
+        }
+    }
+
+    /**
+     * implements the visitor to classify the instructions of the method as polling a condition, sleeping, or doing work, and to find loops. Instructions
+     * in exception handlers are not classified, as they only run when the wait is interrupted, from the start of the handler to the first jump or exit.
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        try {
+            stack.precomputation(this);
+
+            if (handlerPCs.contains(Integer.valueOf(getPC()))) {
+                inHandler = true;
+            }
+            if (inHandler) {
+                if ((seen == Const.GOTO) || (seen == Const.GOTO_W) || (seen == Const.ATHROW) || OpcodeUtils.isReturn(seen)) {
+                    inHandler = false;
+                    addLoop(seen);
+                }
+                return;
+            }
+
+            switch (seen) {
+                case Const.GETFIELD:
+                case Const.GETSTATIC:
+                    XField xf = getXFieldOperand();
+                    if ((xf != null) && xf.isVolatile()) {
+                        ops.add(new Op(OpKind.POLL, getPC()));
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKESTATIC:
+                case Const.INVOKESPECIAL:
+                case Const.INVOKEDYNAMIC:
+                    ops.add(new Op(classifyCall(seen), getPC()));
+                break;
+
+                case Const.PUTFIELD:
+                case Const.PUTSTATIC:
+                case Const.NEW:
+                case Const.NEWARRAY:
+                case Const.ANEWARRAY:
+                case Const.MULTIANEWARRAY:
+                case Const.MONITORENTER:
+                case Const.ATHROW:
+                case Const.IRETURN:
+                case Const.LRETURN:
+                case Const.FRETURN:
+                case Const.DRETURN:
+                case Const.ARETURN:
+                case Const.RETURN:
+                    ops.add(new Op(OpKind.WORK, getPC()));
+                break;
+
+                default:
+                    if (((seen >= Const.IALOAD) && (seen <= Const.SALOAD)) || ((seen >= Const.IASTORE) && (seen <= Const.SASTORE))
+                            || ((seen >= Const.IADD) && (seen <= Const.LXOR))) {
+                        ops.add(new Op(OpKind.WORK, getPC()));
+                    } else {
+                        addLoop(seen);
+                    }
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+        }
+    }
+
+    /**
+     * records the conditional branches, and the loop formed by a backward branch, keeping the furthest branch for loops that start at the same instruction
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void addLoop(int seen) {
+        if (!OpcodeUtils.isBranch(seen)) {
+            return;
+        }
+        if ((seen != Const.GOTO) && (seen != Const.GOTO_W)) {
+            conditionalBranches.put(Integer.valueOf(getPC()), Integer.valueOf(getBranchTarget()));
+        }
+        if (getBranchOffset() < 0) {
+            Integer start = Integer.valueOf(getBranchTarget());
+            Integer end = loops.get(start);
+            if ((end == null) || (end.intValue() < getPC())) {
+                loops.put(start, Integer.valueOf(getPC()));
+            }
+        }
+    }
+
+    /**
+     * classifies a method call as checking a condition, sleeping for a short constant time, or doing work
+     *
+     * @param seen
+     *            the currently parsed opcode
+     * @return the kind of operation the call performs
+     */
+    private OpKind classifyCall(int seen) {
+        if (seen == Const.INVOKEDYNAMIC) {
+            return OpKind.WORK;
+        }
+
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+
+        if ("sleep".equals(methodName)) {
+            if ("java/lang/Thread".equals(clsName)) {
+                return isShortSleep(SignatureUtils.getNumParameters(getSigConstantOperand()) - 1, null) ? OpKind.SLEEP : OpKind.WORK;
+            }
+            if ("java/util/concurrent/TimeUnit".equals(clsName) && (stack.getStackDepth() > 1)) {
+                XField unit = stack.getStackItem(1).getXField();
+                return isShortSleep(0, (unit == null) ? null : unit.getName()) ? OpKind.SLEEP : OpKind.WORK;
+            }
+        }
+
+        if ("java/lang/Thread".equals(clsName) && SPIN_METHODS.contains(methodName)) {
+            return OpKind.POLL;
+        }
+
+        if ((clsName.startsWith("java/util/concurrent/") || "java/lang/Thread".equals(clsName)) && POLLING_METHODS.contains(methodName)) {
+            return OpKind.POLL;
+        }
+
+        if (clsName.startsWith("java/util/") && COLLECTION_POLLING_METHODS.contains(methodName)) {
+            return OpKind.POLL;
+        }
+
+        if (clsName.startsWith("java/util/concurrent/atomic/") && ATOMIC_POLLING_METHODS.contains(methodName)) {
+            return OpKind.POLL;
+        }
+
+        return OpKind.WORK;
+    }
+
+    /**
+     * returns whether a sleep is for a short, constant amount of time
+     *
+     * @param durationOffset
+     *            the offset of the duration on the stack
+     * @param unit
+     *            the name of the TimeUnit constant, or null for milliseconds
+     * @return whether the sleep is short
+     */
+    private boolean isShortSleep(int durationOffset, String unit) {
+        if (stack.getStackDepth() <= durationOffset) {
+            return false;
+        }
+
+        Object duration = stack.getStackItem(durationOffset).getConstant();
+        if (!(duration instanceof Number)) {
+            return false;
+        }
+
+        long millis = ((Number) duration).longValue();
+        if (unit == null) {
+            return millis <= MAX_POLLING_SLEEP;
+        }
+        if (SUB_MILLISECOND_UNITS.contains(unit)) {
+            return true;
+        }
+        return "MILLISECONDS".equals(unit) && (millis <= MAX_POLLING_SLEEP);
+    }
+
+    /**
+     * reports a loop that polls a condition without doing any work, as a spin wait, or a loop that sleeps a short time and otherwise only checks the
+     * condition of the loop, as a sleep polling loop. A loop that does work besides the check, such as a periodic worker that flushes and then sleeps, is not
+     * reported.
+     *
+     * @param startPC
+     *            the start of the loop
+     * @param endPC
+     *            the end of the loop
+     */
+    private void checkLoop(int startPC, int endPC) {
+        int pollPC = -1;
+        int sleepPC = -1;
+        int workCount = 0;
+
+        for (Op op : ops) {
+            int pc = op.getPC();
+            if ((pc < startPC) || (pc > endPC)) {
+                continue;
+            }
+
+            switch (op.getKind()) {
+                case POLL:
+                    if (pollPC < 0) {
+                        pollPC = pc;
+                    }
+                break;
+
+                case SLEEP:
+                    if (sleepPC < 0) {
+                        sleepPC = pc;
+                    }
+                break;
+
+                default:
+                    workCount++;
+                break;
+            }
+        }
+
+        if (sleepPC >= 0) {
+            checkSleepLoop(startPC, endPC, sleepPC);
+        } else if ((pollPC >= 0) && (workCount == 0)) {
+            bugReporter.reportBug(
+                    new BugInstance(this, BugType.BWL_SPIN_WAIT_LOOP.name(), NORMAL_PRIORITY).addClass(this).addMethod(this).addSourceLine(this, pollPC));
+        }
+    }
+
+    /**
+     * reports a loop that sleeps, when the loop condition is the only check done, and the rest of the loop does no work. The condition of a while loop is
+     * the code before the first branch out of the loop, and that of a do-while loop is the code after the sleep. The condition may make one call, presumably
+     * the check, but the loop is only reported at normal priority when the condition polls a known source, such as a volatile field or Future.isDone.
+     *
+     * @param startPC
+     *            the start of the loop
+     * @param endPC
+     *            the end of the loop
+     * @param sleepPC
+     *            the first sleep in the loop
+     */
+    private void checkSleepLoop(int startPC, int endPC, int sleepPC) {
+        CodeRange condition;
+        if (conditionalBranches.containsKey(Integer.valueOf(endPC))) {
+            condition = new CodeRange(sleepPC + 1, endPC);
+        } else {
+            int exitPC = -1;
+            for (Map.Entry<Integer, Integer> branch : conditionalBranches.entrySet()) {
+                int pc = branch.getKey().intValue();
+                if ((pc > startPC) && (pc < endPC) && (branch.getValue().intValue() > endPC) && ((exitPC < 0) || (pc < exitPC))) {
+                    exitPC = pc;
+                }
+            }
+            if ((exitPC < 0) || (exitPC > sleepPC)) {
+                return;
+            }
+            condition = new CodeRange(startPC, exitPC);
+        }
+
+        boolean polls = false;
+        int checkCount = 0;
+        for (Op op : ops) {
+            int pc = op.getPC();
+            if ((pc < startPC) || (pc > endPC)) {
+                continue;
+            }
+
+            if (condition.contains(pc)) {
+                if (op.getKind() == OpKind.POLL) {
+                    polls = true;
+                } else if ((op.getKind() == OpKind.WORK) && (++checkCount > 1)) {
+                    return;
+                }
+            } else if (op.getKind() == OpKind.WORK) {
+                return;
+            }
+        }
+
+        bugReporter.reportBug(new BugInstance(this, BugType.BWL_SLEEP_POLLING_LOOP.name(), polls ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this)
+                .addMethod(this).addSourceLine(this, sleepPC));
+    }
+
+    /**
+     * holds an instruction that polls a condition, sleeps, or does some other work
+     */
+    static class Op {
+        private final OpKind kind;
+        private final int pc;
+
+        Op(OpKind kind, int pc) {
+            this.kind = kind;
+            this.pc = pc;
+        }
+
+        OpKind getKind() {
+            return kind;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
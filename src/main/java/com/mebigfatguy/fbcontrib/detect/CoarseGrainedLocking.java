@@ -0,0 +1,478 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.Type;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.FieldAnnotation;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for classes whose public methods are all guarded by one exclusive lock, either by being synchronized, synchronizing on a field, or locking a
+ * java.util.concurrent.locks.Lock field, where most of the methods only read the state of the class, so that a ReadWriteLock or StampedLock would let readers
+ * run concurrently, or where the lock guards groups of fields that no method accesses together, so that each group could have its own lock.
+ */
+public class CoarseGrainedLocking extends BytecodeScanningDetector {
+
+    private static final String THIS_LOCK = "this";
+    private static final int MIN_GUARDED_METHODS = 3;
+
+    private static final Set<String> LOCK_CLASSES = UnmodifiableSet.create("java/util/concurrent/locks/Lock", "java/util/concurrent/locks/ReentrantLock");
+
+    private static final Set<String> LOCK_METHODS = UnmodifiableSet.create("lock", "lockInterruptibly", "tryLock");
+
+    private static final Set<String> READ_ONLY_METHOD_PREFIXES = UnmodifiableSet.create("get", "is", "has", "contains", "size", "peek", "length", "indexOf",
+            "toString", "equals", "hashCode", "compareTo", "stream");
+
+    private static final Set<String> IMMUTABLE_SIGNATURES = UnmodifiableSet.create(Values.SIG_JAVA_LANG_STRING, Values.SIG_PRIMITIVE_BOOLEAN,
+            Values.SIG_PRIMITIVE_BYTE, Values.SIG_PRIMITIVE_CHAR, Values.SIG_PRIMITIVE_SHORT, Values.SIG_PRIMITIVE_INT, Values.SIG_PRIMITIVE_LONG,
+            Values.SIG_PRIMITIVE_FLOAT, Values.SIG_PRIMITIVE_DOUBLE);
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private String clsName;
+    private Map<String, String> methodLocks;
+    private Map<String, Set<String>> methodCallMutations;
+    private Set<String> lockFields;
+    private String methodLock;
+
+    /**
+     * constructs a CGL detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public CoarseGrainedLocking(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to find the lock that guards each method, and then to compare the fields the guarded methods read and write
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        JavaClass cls = classContext.getJavaClass();
+        if (cls.isInterface()) {
+            return;
+        }
+
+        try {
+            stack = new OpcodeStack();
+            clsName = cls.getClassName();
+            methodLocks = new HashMap<>();
+            methodCallMutations = new HashMap<>();
+            lockFields = new HashSet<>();
+            super.visitClassContext(classContext);
+
+            if (getCommonLock(cls) != null) {
+                FieldAccessCollector fac = new FieldAccessCollector();
+                fac.visitClassContext(classContext);
+                checkGuardedState(cls, fac);
+            }
+        } finally {
+            stack = null;
+            methodLocks = null;
+            methodCallMutations = null;
+            lockFields = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack, and to record the lock that guards the method, if any
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        Method m = getMethod();
+        if (m.isStatic()) {
+            return;
+        }
+
+        methodLock = m.isSynchronized() ? THIS_LOCK : null;
+        stack.resetForMethodEntry(this);
+        super.visitCode(obj);
+
+        if (methodLock != null) {
+            methodLocks.put(getMethodName() + getMethodSig(), methodLock);
+        }
+    }
+
+    /**
+     * implements the visitor to find synchronized blocks and Lock.lock calls, and calls that may change the objects held in fields
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        try {
+            stack.precomputation(this);
+
+            if (seen == Const.MONITORENTER) {
+                if ((methodLock == null) && (stack.getStackDepth() > 0)) {
+                    methodLock = getLockName(stack.getStackItem(0));
+                }
+            } else if ((seen == Const.INVOKEVIRTUAL) || (seen == Const.INVOKEINTERFACE)) {
+                int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+                if (stack.getStackDepth() > numParms) {
+                    OpcodeStack.Item receiver = stack.getStackItem(numParms);
+                    String methodName = getNameConstantOperand();
+                    if (LOCK_CLASSES.contains(getClassConstantOperand())) {
+                        if ((methodLock == null) && LOCK_METHODS.contains(methodName)) {
+                            methodLock = getLockName(receiver);
+                        }
+                    } else {
+                        XField field = receiver.getXField();
+                        if ((field != null) && !field.isStatic() && clsName.equals(field.getClassName()) && !isReadOnlyMethod(methodName)) {
+                            String methodDesc = getMethodName() + getMethodSig();
+                            Set<String> fields = methodCallMutations.get(methodDesc);
+                            if (fields == null) {
+                                fields = new HashSet<>();
+                                methodCallMutations.put(methodDesc, fields);
+                            }
+                            fields.add(field.getName());
+                        }
+                    }
+                }
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+        }
+    }
+
+    /**
+     * returns the name of the lock held by a synchronized block or lock call, and records lock fields, so they are not considered state
+     *
+     * @param lockItem
+     *            the object being locked
+     * @return the name of the lock, or "" if it isn't this or an instance field of this class
+     */
+    private String getLockName(OpcodeStack.Item lockItem) {
+        if (lockItem.getRegisterNumber() == 0) {
+            return THIS_LOCK;
+        }
+
+        XField field = lockItem.getXField();
+        if ((field != null) && !field.isStatic() && clsName.equals(field.getClassName())) {
+            lockFields.add(field.getName());
+            return field.getName();
+        }
+        return "";
+    }
+
+    private static boolean isReadOnlyMethod(String methodName) {
+        for (String prefix : READ_ONLY_METHOD_PREFIXES) {
+            if (methodName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns the lock that guards all the public instance methods of the class, as long as there are enough of them
+     *
+     * @param cls
+     *            the currently parsed class
+     * @return the name of the common lock, or null if there isn't one
+     */
+    private String getCommonLock(JavaClass cls) {
+        String commonLock = null;
+        int guardedCount = 0;
+        for (Method m : getPublicMethods(cls)) {
+            String lock = methodLocks.get(m.getName() + m.getSignature());
+            if ((lock == null) || lock.isEmpty() || ((commonLock != null) && !commonLock.equals(lock))) {
+                return null;
+            }
+            commonLock = lock;
+            guardedCount++;
+        }
+
+        return (guardedCount >= MIN_GUARDED_METHODS) ? commonLock : null;
+    }
+
+    private static List<Method> getPublicMethods(JavaClass cls) {
+        List<Method> methods = new ArrayList<>();
+        for (Method m : cls.getMethods()) {
+            if (m.isPublic() && !m.isStatic() && !m.isAbstract() && !m.isSynthetic() && !Values.CONSTRUCTOR.equals(m.getName())) {
+                methods.add(m);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * reports classes where most guarded methods only read the state, and classes where the state splits into groups of fields that no method accesses
+     * together
+     *
+     * @param cls
+     *            the currently parsed class
+     * @param fac
+     *            the fields read and written by each method of the class
+     */
+    private void checkGuardedState(JavaClass cls, FieldAccessCollector fac) {
+        Set<String> stateFields = getStateFields(cls);
+        if (stateFields.isEmpty()) {
+            return;
+        }
+
+        Map<String, Set<String>> readers = fac.getMethodFieldReaders();
+        Map<String, Set<String>> writers = fac.getMethodFieldModifiers();
+        Map<String, Set<String>> callMutators = fac.getTransitiveAccesses(methodCallMutations);
+
+        Map<String, FieldAccess> accessMatrix = new TreeMap<>();
+        for (Method m : getPublicMethods(cls)) {
+            String methodDesc = m.getName() + m.getSignature();
+            Set<String> written = new TreeSet<>();
+            addStateFields(written, writers.get(methodDesc), stateFields);
+            addStateFields(written, callMutators.get(methodDesc), stateFields);
+            Set<String> read = new TreeSet<>();
+            addStateFields(read, readers.get(methodDesc), stateFields);
+            read.removeAll(written);
+            if (!read.isEmpty() || !written.isEmpty()) {
+                accessMatrix.put(getMethodDescription(m), new FieldAccess(read, written));
+            }
+        }
+
+        if (accessMatrix.size() < MIN_GUARDED_METHODS) {
+            return;
+        }
+
+        String matrix = buildMatrix(accessMatrix);
+        checkReadMostly(accessMatrix, matrix);
+        checkIndependentFields(accessMatrix, matrix);
+    }
+
+    /**
+     * returns the name of the method along with the simple names of its parameter types, for describing the method in the access matrix
+     *
+     * @param m
+     *            the method to describe
+     * @return the description, such as put(Object,Object)
+     */
+    private static String getMethodDescription(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        String separator = "";
+        for (Type argType : m.getArgumentTypes()) {
+            String typeName = argType.toString();
+            sb.append(separator).append(typeName.substring(typeName.lastIndexOf('.') + 1));
+            separator = ",";
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * returns the instance fields that hold mutable state, which are the fields that aren't locks, synthetic, or final fields of immutable types
+     *
+     * @param cls
+     *            the currently parsed class
+     * @return the names of the state fields
+     */
+    private Set<String> getStateFields(JavaClass cls) {
+        Set<String> stateFields = new HashSet<>();
+        for (Field f : cls.getFields()) {
+            if (f.isStatic() || f.isSynthetic() || (f.getName().indexOf(Values.SYNTHETIC_MEMBER_CHAR) >= 0) || lockFields.contains(f.getName())) {
+                continue;
+            }
+            if (f.isFinal() && IMMUTABLE_SIGNATURES.contains(f.getSignature())) {
+                continue;
+            }
+            stateFields.add(f.getName());
+        }
+        return stateFields;
+    }
+
+    private static void addStateFields(Set<String> target, Set<String> fields, Set<String> stateFields) {
+        if (fields != null) {
+            for (String field : fields) {
+                if (stateFields.contains(field)) {
+                    target.add(field);
+                }
+            }
+        }
+    }
+
+    /**
+     * reports classes where most of the guarded methods only read state, but still take the exclusive lock
+     *
+     * @param accessMatrix
+     *            the fields read and written by each guarded method
+     * @param matrix
+     *            the description of the access matrix for the bug report
+     */
+    private void checkReadMostly(Map<String, FieldAccess> accessMatrix, String matrix) {
+        int readerCount = 0;
+        int writerCount = 0;
+        for (FieldAccess access : accessMatrix.values()) {
+            if (access.getWritten().isEmpty()) {
+                readerCount++;
+            } else {
+                writerCount++;
+            }
+        }
+
+        if ((writerCount > 0) && (readerCount > writerCount)) {
+            bugReporter.reportBug(new BugInstance(this, BugType.CGL_READ_MOSTLY_EXCLUSIVE_LOCK.name(),
+                    (readerCount >= (2 * writerCount)) ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addString(matrix));
+        }
+    }
+
+    /**
+     * reports classes where the guarded fields split into groups that no method accesses together, and that are each written to
+     *
+     * @param accessMatrix
+     *            the fields read and written by each guarded method
+     * @param matrix
+     *            the description of the access matrix for the bug report
+     */
+    private void checkIndependentFields(Map<String, FieldAccess> accessMatrix, String matrix) {
+        List<Set<String>> groups = new ArrayList<>();
+        for (FieldAccess access : accessMatrix.values()) {
+            Set<String> merged = new TreeSet<>(access.getRead());
+            merged.addAll(access.getWritten());
+            for (int i = groups.size() - 1; i >= 0; i--) {
+                if (!Collections.disjoint(groups.get(i), merged)) {
+                    merged.addAll(groups.remove(i));
+                }
+            }
+            groups.add(merged);
+        }
+
+        if (groups.size() < 2) {
+            return;
+        }
+
+        for (Set<String> group : groups) {
+            boolean isWritten = false;
+            for (FieldAccess access : accessMatrix.values()) {
+                if (!Collections.disjoint(group, access.getWritten())) {
+                    isWritten = true;
+                    break;
+                }
+            }
+            if (!isWritten) {
+                return;
+            }
+        }
+
+        BugInstance bug = new BugInstance(this, BugType.CGL_INDEPENDENT_FIELDS_SHARE_LOCK.name(), NORMAL_PRIORITY).addClass(this);
+        // anchor the bug to the class, rather than to the first field, which has no source line
+        bug.addSourceLine(bug.getPrimaryClass().getSourceLines()).addString(matrix);
+        for (Set<String> group : groups) {
+            for (String field : group) {
+                Field f = findField(field);
+                if (f != null) {
+                    bug.addField(new FieldAnnotation(clsName, f.getName(), f.getSignature(), false));
+                }
+            }
+        }
+        bugReporter.reportBug(bug);
+    }
+
+    private Field findField(String fieldName) {
+        for (Field f : getClassContext().getJavaClass().getFields()) {
+            if (f.getName().equals(fieldName)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * builds a description of the fields each guarded method reads and writes, such as "get(Object): reads map; put(Object,Object): writes map"
+     *
+     * @param accessMatrix
+     *            the fields read and written by each guarded method
+     * @return the description
+     */
+    private static String buildMatrix(Map<String, FieldAccess> accessMatrix) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, FieldAccess> entry : accessMatrix.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(entry.getKey()).append(':');
+            FieldAccess access = entry.getValue();
+            if (!access.getRead().isEmpty()) {
+                sb.append(" reads ").append(String.join(", ", access.getRead()));
+            }
+            if (!access.getWritten().isEmpty()) {
+                sb.append(" writes ").append(String.join(", ", access.getWritten()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * holds the state fields a guarded method only reads, and the ones it writes
+     */
+    static class FieldAccess {
+        private final Set<String> read;
+        private final Set<String> written;
+
+        FieldAccess(Set<String> read, Set<String> written) {
+            this.read = read;
+            this.written = written;
+        }
+
+        Set<String> getRead() {
+            return read;
+        }
+
+        Set<String> getWritten() {
+            return written;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.BootstrapMethods;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.collect.MethodInfo;
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BlockingCallUtils;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.LambdaUtils;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+
+/**
+ * looks for misuse of CompletableFuture that costs more than it gains. This includes tasks run on the common ForkJoinPool, by supplyAsync, runAsync or the
+ * Async stages without an explicit executor, whose lambdas make blocking calls and so starve the pool, futures that are joined right after they are started,
+ * which just runs the task synchronously with the overhead of a thread hand off, and Async stages whose lambdas are so cheap that hopping to another thread
+ * costs more than running them in place.
+ */
+@CustomUserValue
+public class CompletableFutureIssues extends BytecodeScanningDetector {
+
+    /** the largest lambda body, in bytes, that is considered too cheap to run in its own async stage */
+    private static final int MAX_CHEAP_STAGE_LENGTH = 32;
+
+    private static final String COMPLETABLE_FUTURE = "java/util/concurrent/CompletableFuture";
+
+    private static final Set<String> FUTURE_CLASSES = UnmodifiableSet.create(COMPLETABLE_FUTURE, "java/util/concurrent/CompletionStage");
+
+    private static final Set<String> ASYNC_FACTORIES = UnmodifiableSet.create("supplyAsync", "runAsync");
+
+    private static final Set<String> WAIT_METHODS = UnmodifiableSet.create("join", "get");
+
+    private static final String EXECUTOR_SIG = "Ljava/util/concurrent/Executor;";
+
+    enum Stage {
+        FIND_ASYNC_TASKS, CHECK_LAMBDAS
+    }
+
+    enum TaskKind {
+        COMMON_POOL_TASK, ASYNC_STAGE
+    }
+
+    private final BugReporter bugReporter;
+    private JavaClass cls;
+    private OpcodeStack stack;
+    private BootstrapMethods bootstrapAtt;
+    private Map<String, AsyncUse> asyncLambdas;
+    private Stage stage;
+    private AsyncUse currentUse;
+    /** pc of the last call, branch or wait on a future, that is work done while an earlier started future runs */
+    private int lastUnrelatedWorkPC;
+    /** pc of the last invokedynamic, whose result has not yet been passed to a future */
+    private int lastDynamicPC;
+    /** pc of the last supplyAsync or runAsync call */
+    private int lastAsyncStartPC;
+    private boolean lambdaMayBeCostly;
+
+    /**
+     * constructs a CFI detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public CompletableFutureIssues(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to find the lambdas that are run asynchronously on the common pool, and then to look at their bodies
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            cls = classContext.getJavaClass();
+            if (cls.getMajor() >= Const.MAJOR_1_8) {
+                stack = new OpcodeStack();
+                bootstrapAtt = LambdaUtils.getBootstrapAttribute(cls);
+                asyncLambdas = new HashMap<>();
+                stage = Stage.FIND_ASYNC_TASKS;
+                super.visitClassContext(classContext);
+
+                if ((bootstrapAtt != null) && !asyncLambdas.isEmpty()) {
+                    stage = Stage.CHECK_LAMBDAS;
+                    super.visitClassContext(classContext);
+                }
+            }
+        } finally {
+            currentUse = null;
+            asyncLambdas = null;
+            bootstrapAtt = null;
+            stack = null;
+            cls = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack, and only parse the lambda bodies of async tasks in the second stage, reporting the small ones, without loops
+     * or calls outside of java.lang, that are run as their own async stage
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (stage == Stage.CHECK_LAMBDAS) {
+            Method m = getMethod();
+            currentUse = asyncLambdas.get(m.getName() + m.getSignature());
+            if (currentUse == null) {
+                return;
+            }
+            lambdaMayBeCostly = false;
+        }
+
+        stack.resetForMethodEntry(this);
+        lastUnrelatedWorkPC = -1;
+        lastDynamicPC = -1;
+        lastAsyncStartPC = -1;
+        super.visitCode(obj);
+
+        if ((stage == Stage.CHECK_LAMBDAS) && (currentUse.getKind() == TaskKind.ASYNC_STAGE) && !currentUse.isReported(BugType.CFI_BLOCKING_CALL_IN_COMMON_POOL)
+                && !lambdaMayBeCostly && (obj.getCode().length <= MAX_CHEAP_STAGE_LENGTH)) {
+            reportLambdaBug(BugType.CFI_NEEDLESS_ASYNC_STAGE, LOW_PRIORITY, false);
+        }
+    }
+
+    /**
+     * implements the visitor to track lambdas and futures started asynchronously in the first stage, and look for blocking calls inside the lambdas of async
+     * tasks in the second stage
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        Object userValue = null;
+        try {
+            if (stage == Stage.FIND_ASYNC_TASKS) {
+                userValue = sawOpcodeInMethod(seen);
+            } else {
+                sawOpcodeInLambda(seen);
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((userValue != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(userValue);
+            }
+        }
+    }
+
+    @Nullable
+    private Object sawOpcodeInMethod(int seen) {
+        switch (seen) {
+            case Const.INVOKEDYNAMIC:
+                lastDynamicPC = getPC();
+                return getLambdaKey();
+
+            case Const.INVOKESTATIC:
+                if (COMPLETABLE_FUTURE.equals(getClassConstantOperand()) && ASYNC_FACTORIES.contains(getNameConstantOperand())) {
+                    String signature = getSigConstantOperand();
+                    if (!hasExecutorParameter(signature)) {
+                        recordAsyncLambdas(SignatureUtils.getNumParameters(signature), TaskKind.COMMON_POOL_TASK);
+                    }
+                    lastDynamicPC = -1;
+                    lastAsyncStartPC = getPC();
+                    return new AsyncFuture(getPC());
+                }
+                lastUnrelatedWorkPC = getPC();
+            break;
+
+            case Const.INVOKEVIRTUAL:
+            case Const.INVOKEINTERFACE:
+                if (FUTURE_CLASSES.contains(getClassConstantOperand())) {
+                    return processFutureCall();
+                }
+                lastUnrelatedWorkPC = getPC();
+            break;
+
+            case Const.INVOKESPECIAL:
+                lastUnrelatedWorkPC = getPC();
+            break;
+
+            default:
+                if (OpcodeUtils.isBranch(seen)) {
+                    lastUnrelatedWorkPC = getPC();
+                }
+            break;
+        }
+
+        return null;
+    }
+
+    /**
+     * looks at a call on a CompletableFuture, reporting joins of futures that were just started, and recording the lambdas of Async stages that run on the
+     * common pool. A join is only reported if the future is the last one started, and no calls, branches, or invokedynamics other than the lambdas passed to
+     * its stages, happened since, as otherwise that work overlaps with the task.
+     *
+     * @return the future that was just started, if the call returns the same chain of futures
+     */
+    @Nullable
+    private AsyncFuture processFutureCall() {
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return null;
+        }
+
+        Object receiverValue = stack.getStackItem(numParms).getUserValue();
+        AsyncFuture future = (receiverValue instanceof AsyncFuture) ? (AsyncFuture) receiverValue : null;
+
+        if (WAIT_METHODS.contains(methodName)) {
+            if ((numParms == 0) && (future != null) && (future.getPC() == lastAsyncStartPC) && (future.getPC() > lastUnrelatedWorkPC)
+                    && (future.getPC() > lastDynamicPC)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.CFI_JOIN_IMMEDIATELY_AFTER_ASYNC.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this));
+            }
+            lastUnrelatedWorkPC = getPC();
+            return null;
+        }
+
+        if (numParms > 0) {
+            // the lambdas passed to stages are not work done in the meantime
+            lastDynamicPC = -1;
+        }
+        if (methodName.endsWith("Async") && !hasExecutorParameter(signature)) {
+            recordAsyncLambdas(numParms, TaskKind.ASYNC_STAGE);
+        }
+
+        if ((future != null) && FUTURE_CLASSES.contains(SignatureUtils.trimSignature(SignatureUtils.getReturnSignature(signature)))) {
+            return future;
+        }
+        return null;
+    }
+
+    private static boolean hasExecutorParameter(String signature) {
+        return signature.contains(EXECUTOR_SIG);
+    }
+
+    /**
+     * records the lambdas passed as arguments to the current call as being run asynchronously on the common pool
+     *
+     * @param numParms
+     *            the number of parameters of the current call
+     * @param kind
+     *            whether the lambdas are the task that starts the future, or a later stage
+     */
+    private void recordAsyncLambdas(int numParms, TaskKind kind) {
+        for (int i = 0; (i < numParms) && (i < stack.getStackDepth()); i++) {
+            Object argValue = stack.getStackItem(i).getUserValue();
+            if ((argValue instanceof String) && !asyncLambdas.containsKey(argValue)) {
+                asyncLambdas.put((String) argValue, new AsyncUse(getMethod(), SourceLineAnnotation.fromVisitedInstruction(this), kind));
+            }
+        }
+    }
+
+    /**
+     * returns the name and signature of the implementation method of a lambda or method reference, if it is defined in this class
+     *
+     * @return the key of the implementation method, or null if it is not in this class
+     */
+    @Nullable
+    private String getLambdaKey() {
+        if (bootstrapAtt == null) {
+            return null;
+        }
+
+        ConstantInvokeDynamic cid = (ConstantInvokeDynamic) getConstantRefOperand();
+        ConstantPool cp = getConstantPool();
+        ConstantMethodHandle cmh = LambdaUtils.getMethodHandle(bootstrapAtt, cp, cid.getBootstrapMethodAttrIndex());
+        if (cmh == null) {
+            return null;
+        }
+
+        ConstantCP methodRef = (ConstantCP) cp.getConstant(cmh.getReferenceIndex());
+        if (!methodRef.getClass(cp).equals(cls.getClassName())) {
+            return null;
+        }
+
+        ConstantNameAndType implNameAndType = (ConstantNameAndType) cp.getConstant(methodRef.getNameAndTypeIndex());
+        return implNameAndType.getName(cp) + implNameAndType.getSignature(cp);
+    }
+
+    private void sawOpcodeInLambda(int seen) {
+        switch (seen) {
+            case Const.INVOKEVIRTUAL:
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKESPECIAL:
+            case Const.INVOKESTATIC:
+                processLambdaCall();
+            break;
+
+            default:
+                if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                    lambdaMayBeCostly = true;
+                }
+            break;
+        }
+    }
+
+    private void processLambdaCall() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+
+        if (!clsName.startsWith("java/lang/")) {
+            lambdaMayBeCostly = true;
+        }
+
+        if (BlockingCallUtils.isBlockingCall(clsName, methodName, signature)) {
+            reportLambdaBug(BugType.CFI_BLOCKING_CALL_IN_COMMON_POOL, NORMAL_PRIORITY, true);
+            return;
+        }
+
+        if (clsName.equals(getClassName())) {
+            MethodInfo mi = Statistics.getStatistics().getMethodStatistics(clsName, methodName, signature);
+            if (mi.getMayBlock() && !mi.canBeOverridden()) {
+                reportLambdaBug(BugType.CFI_BLOCKING_CALL_IN_COMMON_POOL, NORMAL_PRIORITY, true);
+            }
+        }
+    }
+
+    /**
+     * reports a bug found in a lambda body against the method that starts the async task, once per lambda and bug type
+     *
+     * @param bugType
+     *            the type of bug to report
+     * @param priority
+     *            the priority of the bug
+     * @param addCalledMethod
+     *            whether the currently invoked method should be added to the bug
+     */
+    private void reportLambdaBug(BugType bugType, int priority, boolean addCalledMethod) {
+        if (!currentUse.markReported(bugType)) {
+            return;
+        }
+
+        BugInstance bug = new BugInstance(this, bugType.name(), priority).addClass(this).addMethod(cls, currentUse.getMethod());
+        if (addCalledMethod) {
+            bug.addCalledMethod(this);
+        }
+        bugReporter.reportBug(bug.addSourceLine(currentUse.getSourceLine()));
+    }
+
+    /**
+     * represents a future started by supplyAsync or runAsync, along with the later stages chained on to it
+     */
+    static class AsyncFuture {
+        private final int pc;
+
+        AsyncFuture(int pc) {
+            this.pc = pc;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
+    /**
+     * represents the use of a lambda as a task or stage that runs on the common pool
+     */
+    static class AsyncUse {
+        private final Method method;
+        private final SourceLineAnnotation sourceLine;
+        private final TaskKind kind;
+        private final Set<BugType> reported;
+
+        AsyncUse(Method method, SourceLineAnnotation sourceLine, TaskKind kind) {
+            this.method = method;
+            this.sourceLine = sourceLine;
+            this.kind = kind;
+            reported = EnumSet.noneOf(BugType.class);
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        SourceLineAnnotation getSourceLine() {
+            return sourceLine;
+        }
+
+        TaskKind getKind() {
+            return kind;
+        }
+
+        boolean markReported(BugType bugType) {
+            return reported.add(bugType);
+        }
+
+        boolean isReported(BugType bugType) {
+            return reported.contains(bugType);
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.internalAnnotations.DottedClassName;
+
+/**
+ * a visitor that determines what methods read and write what instance fields of the class being parsed, either directly, or through calls to other methods
+ * of the class. Methods are keyed by name and signature, and fields by name.
+ */
+class FieldAccessCollector extends BytecodeScanningDetector {
+
+    private final Map<String, Set<String>> methodCallChain = new HashMap<>();
+    private final Map<String, Set<String>> mfReaders = new HashMap<>();
+    private final Map<String, Set<String>> mfModifiers = new HashMap<>();
+    private @DottedClassName String clsName;
+
+    /**
+     * returns the fields each method writes to, including the fields written by the methods of this class that it calls
+     *
+     * @return a map of method name and signature to the names of the fields written
+     */
+    public Map<String, Set<String>> getMethodFieldModifiers() {
+        return getTransitiveAccesses(mfModifiers);
+    }
+
+    /**
+     * returns the fields each method reads, including the fields read by the methods of this class that it calls
+     *
+     * @return a map of method name and signature to the names of the fields read
+     */
+    public Map<String, Set<String>> getMethodFieldReaders() {
+        return getTransitiveAccesses(mfReaders);
+    }
+
+    /**
+     * adds the fields accessed by called methods to the fields accessed by the calling method, until no more are found. Detectors may pass in accesses they
+     * collected themselves, to propagate them along the calls this visitor found.
+     *
+     * @param accesses
+     *            the fields directly accessed by each method
+     * @return the fields accessed by each method, directly or through calls
+     */
+    public Map<String, Set<String>> getTransitiveAccesses(Map<String, Set<String>> accesses) {
+        Map<String, Set<String>> closure = new HashMap<>(accesses.size(), 1.0F);
+        for (Map.Entry<String, Set<String>> method : accesses.entrySet()) {
+            closure.put(method.getKey(), new HashSet<>(method.getValue()));
+        }
+
+        boolean modified = true;
+        while (modified) {
+            modified = false;
+            for (Map.Entry<String, Set<String>> entry : methodCallChain.entrySet()) {
+                String methodDesc = entry.getKey();
+                Set<String> calledMethods = entry.getValue();
+
+                for (String calledMethodDesc : calledMethods) {
+                    Set<String> fields = closure.get(calledMethodDesc);
+                    if (fields != null) {
+                        Set<String> flds = closure.get(methodDesc);
+                        if (flds == null) {
+                            flds = new HashSet<>();
+                            closure.put(methodDesc, flds);
+                        }
+                        if (flds.addAll(fields)) {
+                            modified = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return closure;
+    }
+
+    @Override
+    public void visitClassContext(ClassContext context) {
+        clsName = context.getJavaClass().getClassName();
+        super.visitClassContext(context);
+    }
+
+    @Override
+    public void sawOpcode(int seen) {
+        if ((seen == Const.PUTFIELD) || (seen == Const.GETFIELD)) {
+            if (clsName.equals(getDottedClassConstantOperand())) {
+                addAccess((seen == Const.PUTFIELD) ? mfModifiers : mfReaders, getNameConstantOperand());
+            }
+        } else if (((seen == Const.INVOKEVIRTUAL) || ((seen == Const.INVOKESPECIAL) && !Values.CONSTRUCTOR.equals(getNameConstantOperand())))
+                && clsName.equals(getDottedClassConstantOperand())) {
+            addAccess(methodCallChain, getNameConstantOperand() + getSigConstantOperand());
+        }
+    }
+
+    private void addAccess(Map<String, Set<String>> accesses, String accessed) {
+        String methodDesc = getMethodName() + getMethodSig();
+        Set<String> accessedItems = accesses.get(methodDesc);
+        if (accessedItems == null) {
+            accessedItems = new HashSet<>();
+            accesses.put(methodDesc, accessedItems);
+        }
+        accessedItems.add(accessed);
+    }
+
+    @Override
+    public String toString() {
+        return ToString.build(this);
+    }
+}
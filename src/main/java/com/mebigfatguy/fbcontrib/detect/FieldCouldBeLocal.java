@@ -25,7 +25,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.bcel.Const;
@@ -62,7 +61,6 @@ import edu.umd.cs.findbugs.ba.CFG;
 import edu.umd.cs.findbugs.ba.CFGBuilderException;
 import edu.umd.cs.findbugs.ba.ClassContext;
 import edu.umd.cs.findbugs.ba.Edge;
-import edu.umd.cs.findbugs.internalAnnotations.DottedClassName;
 
 /**
  * finds fields that are used in a locals only fashion, specifically private fields that are accessed first in each method with a store vs. a load.
@@ -316,9 +314,9 @@ public class FieldCouldBeLocal extends BytecodeScanningDetector {
      *            the context object of the currently parsed class
      */
     private void buildMethodFieldModifiers(ClassContext classContext) {
-        FieldModifier fm = new FieldModifier();
-        fm.visitClassContext(classContext);
-        methodFieldModifiers = fm.getMethodFieldModifiers();
+        FieldAccessCollector fac = new FieldAccessCollector();
+        fac.visitClassContext(classContext);
+        methodFieldModifiers = fac.getMethodFieldModifiers();
     }
 
     /**
@@ -478,81 +476,4 @@ public class FieldCouldBeLocal extends BytecodeScanningDetector {
             return ToString.build(this);
         }
     }
-
-    /**
-     * a visitor that determines what methods write to what fields
-     */
-    private static class FieldModifier extends BytecodeScanningDetector {
-
-        private final Map<String, Set<String>> methodCallChain = new HashMap<>();
-        private final Map<String, Set<String>> mfModifiers = new HashMap<>();
-        private @DottedClassName String clsName;
-
-        public Map<String, Set<String>> getMethodFieldModifiers() {
-            Map<String, Set<String>> modifiers = new HashMap<>(mfModifiers.size(), 1.0F);
-            modifiers.putAll(mfModifiers);
-            for (Entry<String, Set<String>> method : modifiers.entrySet()) {
-                modifiers.put(method.getKey(), new HashSet<>(method.getValue()));
-            }
-
-            boolean modified = true;
-            while (modified) {
-                modified = false;
-                for (Map.Entry<String, Set<String>> entry : methodCallChain.entrySet()) {
-                    String methodDesc = entry.getKey();
-                    Set<String> calledMethods = entry.getValue();
-
-                    for (String calledMethodDesc : calledMethods) {
-                        Set<String> fields = mfModifiers.get(calledMethodDesc);
-                        if (fields != null) {
-                            Set<String> flds = modifiers.get(methodDesc);
-                            if (flds == null) {
-                                flds = new HashSet<>();
-                                modifiers.put(methodDesc, flds);
-                            }
-                            if (flds.addAll(fields)) {
-                                modified = true;
-                            }
-                        }
-                    }
-                }
-            }
-
-            return modifiers;
-        }
-
-        @Override
-        public void visitClassContext(ClassContext context) {
-            clsName = context.getJavaClass().getClassName();
-            super.visitClassContext(context);
-        }
-
-        @Override
-        public void sawOpcode(int seen) {
-            if (seen == Const.PUTFIELD) {
-                if (clsName.equals(getDottedClassConstantOperand())) {
-                    String methodDesc = getMethodName() + getMethodSig();
-                    Set<String> fields = mfModifiers.get(methodDesc);
-                    if (fields == null) {
-                        fields = new HashSet<>();
-                        mfModifiers.put(methodDesc, fields);
-                    }
-                    fields.add(getNameConstantOperand());
-                }
-            } else if ((seen == Const.INVOKEVIRTUAL) && clsName.equals(getDottedClassConstantOperand())) {
-                String methodDesc = getMethodName() + getMethodSig();
-                Set<String> methods = methodCallChain.get(methodDesc);
-                if (methods == null) {
-                    methods = new HashSet<>();
-                    methodCallChain.put(methodDesc, methods);
-                }
-                methods.add(getNameConstantOperand() + getSigConstantOperand());
-            }
-        }
-
-        @Override
-        public String toString() {
-            return ToString.build(this);
-        }
-    }
 }
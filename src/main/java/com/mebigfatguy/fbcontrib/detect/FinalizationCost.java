@@ -0,0 +1,260 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+
+/**
+ * looks for the costs of finalization. This includes classes that override finalize, even with an empty method, as every instance of such a class must be
+ * registered with the garbage collector when allocated, and takes at least two collections to be reclaimed; allocations of classes with finalizers in loops;
+ * and registrations of Cleaners or PhantomReferences for objects that are allocated by the method doing the registration, or in a loop.
+ */
+@CustomUserValue
+public class FinalizationCost extends BytecodeScanningDetector {
+
+    private static final String FINALIZE = "finalize";
+
+    private static final FQMethod[] CLEANER_REGISTRATIONS = { new FQMethod("java/lang/ref/Cleaner", "register",
+            new SignatureBuilder().withParamTypes(Values.SLASHED_JAVA_LANG_OBJECT, "java/lang/Runnable").withReturnType("java/lang/ref/Cleaner$Cleanable")
+                    .toString()),
+            new FQMethod("sun/misc/Cleaner", "create",
+                    new SignatureBuilder().withParamTypes(Values.SLASHED_JAVA_LANG_OBJECT, "java/lang/Runnable").withReturnType("sun/misc/Cleaner").toString()),
+            new FQMethod("java/lang/ref/PhantomReference", Values.CONSTRUCTOR,
+                    new SignatureBuilder().withParamTypes(Values.SLASHED_JAVA_LANG_OBJECT, "java/lang/ref/ReferenceQueue").toString()) };
+
+    private final BugReporter bugReporter;
+    private final Map<String, Boolean> finalizableClasses = new HashMap<>();
+    private OpcodeStack stack;
+    private String clsName;
+    private boolean allocatedInLoop;
+    private List<CostlySite> sites;
+
+    /**
+     * constructs a FC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public FinalizationCost(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to look for allocations and cleanup registrations in loops, and after parsing the class, to report it if it overrides finalize
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            JavaClass cls = classContext.getJavaClass();
+            clsName = cls.getClassName().replace('.', '/');
+            allocatedInLoop = false;
+            stack = new OpcodeStack();
+            sites = new ArrayList<>();
+            super.visitClassContext(classContext);
+
+            Method finalizer = findFinalizer(cls);
+            if ((finalizer != null) && !cls.isInterface()) {
+                BugInstance bug = new BugInstance(this, BugType.FC_FINALIZER_OVERRIDE.name(), allocatedInLoop ? HIGH_PRIORITY : NORMAL_PRIORITY).addClass(cls)
+                        .addMethod(cls, finalizer);
+                bug.addSourceLine(SourceLineAnnotation.forEntireMethod(cls, finalizer));
+                bugReporter.reportBug(bug);
+            }
+        } finally {
+            stack = null;
+            sites = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack and the sites seen, and after parsing the method, to report the ones found to be in a loop
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        sites.clear();
+        super.visitCode(obj);
+
+        for (CostlySite site : sites) {
+            int priority;
+            if (site.inLoop) {
+                priority = NORMAL_PRIORITY;
+                if ((site.bugType == BugType.FC_FINALIZABLE_ALLOCATION_IN_LOOP) && clsName.equals(site.className)) {
+                    allocatedInLoop = true;
+                }
+            } else if (site.localReferent) {
+                priority = LOW_PRIORITY;
+            } else {
+                continue;
+            }
+
+            bugReporter.reportBug(new BugInstance(this, site.bugType.name(), priority).addClass(this).addMethod(this).addSourceLine(this, site.pc)
+                    .addString(site.className.replace('/', '.')));
+        }
+    }
+
+    /**
+     * implements the visitor to record allocations of classes with finalizers, and registrations of cleanup actions, and to mark them as being in a loop when
+     * a backwards branch is found that jumps over them
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        boolean sawLocalAllocation = false;
+        try {
+            stack.precomputation(this);
+
+            if (seen == Const.NEW) {
+                sawLocalAllocation = true;
+                String newClass = getClassConstantOperand();
+                if (hasFinalizer(newClass)) {
+                    sites.add(new CostlySite(BugType.FC_FINALIZABLE_ALLOCATION_IN_LOOP, newClass, getPC(), false));
+                }
+            } else if ((seen == Const.NEWARRAY) || (seen == Const.ANEWARRAY) || (seen == Const.MULTIANEWARRAY)) {
+                sawLocalAllocation = true;
+            } else if ((seen == Const.INVOKEVIRTUAL) || (seen == Const.INVOKESTATIC) || (seen == Const.INVOKESPECIAL)) {
+                FQMethod fqm = new FQMethod(getClassConstantOperand(), getNameConstantOperand(), getSigConstantOperand());
+                for (FQMethod registration : CLEANER_REGISTRATIONS) {
+                    if (registration.equals(fqm)) {
+                        if (stack.getStackDepth() > 1) {
+                            OpcodeStack.Item referent = stack.getStackItem(1);
+                            sites.add(new CostlySite(BugType.FC_PER_OBJECT_CLEANUP_REGISTRATION, fqm.getClassName(), getPC(),
+                                    referent.getUserValue() != null));
+                        }
+                        break;
+                    }
+                }
+            } else if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                int loopTop = getBranchTarget();
+                for (CostlySite site : sites) {
+                    if (loopTop < site.pc) {
+                        site.inLoop = true;
+                    }
+                }
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if (sawLocalAllocation && (stack.getStackDepth() > 0)) {
+                stack.getStackItem(0).setUserValue(Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * determines whether instances of a class are finalizable, because it, or one of its super classes other than java.lang.Object, defines a finalize method
+     *
+     * @param slashedClsName
+     *            the class to check
+     * @return whether the class has a finalizer
+     */
+    private boolean hasFinalizer(String slashedClsName) {
+        Boolean finalizable = finalizableClasses.get(slashedClsName);
+        if (finalizable == null) {
+            finalizable = Boolean.FALSE;
+            if (!slashedClsName.startsWith(Values.SIG_ARRAY_PREFIX)) {
+                try {
+                    JavaClass cls = Repository.lookupClass(slashedClsName);
+                    while ((cls != null) && !Values.DOTTED_JAVA_LANG_OBJECT.equals(cls.getClassName())) {
+                        if (findFinalizer(cls) != null) {
+                            finalizable = Boolean.TRUE;
+                            break;
+                        }
+                        cls = cls.getSuperClass();
+                    }
+                } catch (ClassNotFoundException e) {
+                    bugReporter.reportMissingClass(e);
+                }
+            }
+            finalizableClasses.put(slashedClsName, finalizable);
+        }
+
+        return finalizable.booleanValue();
+    }
+
+    /**
+     * returns the finalize method defined directly in this class, if there is one
+     *
+     * @param cls
+     *            the class to look in
+     * @return the finalize method, or null if there isn't one
+     */
+    private static Method findFinalizer(JavaClass cls) {
+        for (Method m : cls.getMethods()) {
+            if (FINALIZE.equals(m.getName()) && SignatureBuilder.SIG_VOID_TO_VOID.equals(m.getSignature()) && !m.isAbstract() && !m.isStatic()) {
+                return m;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * holds an allocation or cleanup registration that is costly if done repeatedly
+     */
+    static class CostlySite {
+        BugType bugType;
+        String className;
+        int pc;
+        boolean localReferent;
+        boolean inLoop;
+
+        CostlySite(BugType type, String clsName, int sitePC, boolean isLocalReferent) {
+            bugType = type;
+            className = clsName;
+            pc = sitePC;
+            localReferent = isLocalReferent;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -23,15 +23,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.apache.bcel.Const;
-import org.apache.bcel.classfile.Attribute;
-import org.apache.bcel.classfile.BootstrapMethod;
 import org.apache.bcel.classfile.BootstrapMethods;
 import org.apache.bcel.classfile.Code;
-import org.apache.bcel.classfile.Constant;
 import org.apache.bcel.classfile.ConstantCP;
 import org.apache.bcel.classfile.ConstantInvokeDynamic;
 import org.apache.bcel.classfile.ConstantMethodHandle;
@@ -42,12 +40,14 @@ import org.apache.bcel.classfile.Method;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
 import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.LambdaUtils;
 import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.QMethod;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.StopOpcodeParsingException;
 import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 import com.mebigfatguy.fbcontrib.utils.Values;
 
 import edu.umd.cs.findbugs.BugInstance;
@@ -78,6 +78,19 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
 			SignatureBuilder.SIG_VOID_TO_BOOLEAN);
 	private static final FQMethod GET = new FQMethod("java/util/List", "get", SignatureBuilder.SIG_INT_TO_OBJECT);
 
+	private static final String SLASHED_STREAM = "java/util/stream/Stream";
+	private static final String SIG_FUNCTION = "Ljava/util/function/Function;";
+
+	private static final Set<String> PRIMITIVE_STREAMS = UnmodifiableSet.create("java/util/stream/IntStream",
+			"java/util/stream/LongStream", "java/util/stream/DoubleStream");
+	private static final Set<String> BOXED_NUMBER_SIGS = UnmodifiableSet.create("Ljava/lang/Integer;", "Ljava/lang/Long;",
+			"Ljava/lang/Double;", "Ljava/lang/Short;", "Ljava/lang/Byte;", "Ljava/lang/Float;");
+	private static final Set<String> BOXED_STREAM_PASS_THROUGHS = UnmodifiableSet.create("distinct", "limit", "skip", "peek",
+			"sequential", "parallel", "unordered");
+	private static final Set<String> BOXED_STREAM_REDUCTIONS = UnmodifiableSet.create("reduce", "max", "min");
+	private static final Set<String> NUMERIC_COLLECTORS = UnmodifiableSet.create("summingInt", "summingLong", "summingDouble",
+			"averagingInt", "averagingLong", "averagingDouble", "summarizingInt", "summarizingLong", "summarizingDouble");
+
 	enum ParseState {
 		NORMAL, LAMBDA;
 	}
@@ -87,7 +100,7 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
 	}
 
 	enum FIIUserValue {
-		COLLECT_ITEM, FILTER_ITEM, FINDFIRST_ITEM;
+		COLLECT_ITEM, FILTER_ITEM, FINDFIRST_ITEM, BOXING_FUNCTION, BOXED_STREAM, BOXED_FILTER_ITEM, NUMERIC_COLLECTOR;
 	}
 
 	private BugReporter bugReporter;
@@ -110,7 +123,7 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
 		try {
 			cls = classContext.getJavaClass();
             if (cls.getMajor() >= Const.MAJOR_1_8) {
-				bootstrapAtt = getBootstrapAttribute(cls);
+				bootstrapAtt = LambdaUtils.getBootstrapAttribute(cls);
 				if (bootstrapAtt != null) {
 					stack = new OpcodeStack();
 					functionalInterfaceInfo = new HashMap<>();
@@ -271,7 +284,8 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
                     case Const.INVOKEDYNAMIC:
 					ConstantInvokeDynamic cid = (ConstantInvokeDynamic) getConstantRefOperand();
 
-					ConstantMethodHandle cmh = getMethodHandle(cid.getBootstrapMethodAttrIndex());
+					ConstantMethodHandle cmh = LambdaUtils.getMethodHandle(bootstrapAtt, getConstantPool(),
+							cid.getBootstrapMethodAttrIndex());
 					String anonName = getAnonymousName(cmh);
 					if (anonName != null) {
 
@@ -286,6 +300,17 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
                                     (lastOp == Const.GETFIELD) || (lastOp == Const.GETSTATIC) || OpcodeUtils.isALoad(lastOp));
 						fiis.add(fii);
 					}
+
+					if (isBoxingFunction(cid)) {
+						userValue = FIIUserValue.BOXING_FUNCTION;
+					}
+					break;
+
+                    case Const.INVOKESTATIC:
+					if ("java/util/stream/Collectors".equals(getClassConstantOperand())
+							&& NUMERIC_COLLECTORS.contains(getNameConstantOperand())) {
+						userValue = FIIUserValue.NUMERIC_COLLECTOR;
+					}
 					break;
 
                     case Const.INVOKEINTERFACE:
@@ -312,22 +337,25 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
 					} else {
 						FQMethod fqm = new FQMethod(getClassConstantOperand(), getNameConstantOperand(),
 								getSigConstantOperand());
+						userValue = processBoxedStreamCall();
 						if (COLLECT.equals(fqm)) {
 							userValue = FIIUserValue.COLLECT_ITEM;
 						} else if (FILTER.equals(fqm)) {
+							boolean isBoxed = false;
 							if (stack.getStackDepth() > 1) {
 								OpcodeStack.Item itm = stack.getStackItem(1);
-								if ((itm.getUserValue() == FIIUserValue.FILTER_ITEM) && (itm.getRegisterNumber() < 0)) {
+								if (isFilterItem(itm.getUserValue()) && (itm.getRegisterNumber() < 0)) {
 									bugReporter.reportBug(
 											new BugInstance(this, BugType.FII_COMBINE_FILTERS.name(), LOW_PRIORITY)
 													.addClass(this).addMethod(this).addSourceLine(this));
 								}
+								isBoxed = isBoxedStream(itm.getUserValue());
 							}
-							userValue = FIIUserValue.FILTER_ITEM;
+							userValue = isBoxed ? FIIUserValue.BOXED_FILTER_ITEM : FIIUserValue.FILTER_ITEM;
 						} else if (FINDFIRST.equals(fqm)) {
 							if (stack.getStackDepth() > 0) {
 								OpcodeStack.Item itm = stack.getStackItem(0);
-								if (itm.getUserValue() == FIIUserValue.FILTER_ITEM) {
+								if (isFilterItem(itm.getUserValue())) {
 									userValue = FIIUserValue.FINDFIRST_ITEM;
 								}
 							}
@@ -372,31 +400,80 @@ public class FunctionalInterfaceIssues extends BytecodeScanningDetector {
 		}
 	}
 
+	/**
+	 * looks for stream methods called on streams of boxed numbers, reporting reductions that would be done
+	 * without boxing on an IntStream, LongStream or DoubleStream, and tracking the boxed stream through
+	 * intermediate operations
+	 *
+	 * @return the user value to apply to the result of the call, or null
+	 */
 	@Nullable
-    private BootstrapMethods getBootstrapAttribute(JavaClass clz) {
-		for (Attribute att : clz.getAttributes()) {
-            if (att instanceof BootstrapMethods) {
-                return (BootstrapMethods) att;
-			}
+	private FIIUserValue processBoxedStreamCall() {
+		String clsName = getClassConstantOperand();
+		String methodName = getNameConstantOperand();
+		if (PRIMITIVE_STREAMS.contains(clsName)) {
+			return "boxed".equals(methodName) ? FIIUserValue.BOXED_STREAM : null;
 		}
 
-		return null;
-	}
+		if (!SLASHED_STREAM.equals(clsName)) {
+			return null;
+		}
 
-	@Nullable
-	private ConstantMethodHandle getMethodHandle(int bootstrapIndex) {
-        BootstrapMethod bsMethod = bootstrapAtt.getBootstrapMethods()[bootstrapIndex];
+		int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+		if (stack.getStackDepth() <= numParms) {
+			return null;
+		}
 
-        for (int arg : bsMethod.getBootstrapArguments()) {
-			Constant c = getConstantPool().getConstant(arg);
-			if (c instanceof ConstantMethodHandle) {
-				return (ConstantMethodHandle) c;
-			}
+		if ("map".equals(methodName)) {
+			return (stack.getStackItem(0).getUserValue() == FIIUserValue.BOXING_FUNCTION) ? FIIUserValue.BOXED_STREAM
+					: null;
+		}
+
+		if (!isBoxedStream(stack.getStackItem(numParms).getUserValue())) {
+			return null;
+		}
+
+		if (BOXED_STREAM_PASS_THROUGHS.contains(methodName) || ("sorted".equals(methodName) && (numParms == 1))) {
+			return FIIUserValue.BOXED_STREAM;
+		}
+
+		if (BOXED_STREAM_REDUCTIONS.contains(methodName) || ("sorted".equals(methodName) && (numParms == 0))
+				|| ("collect".equals(methodName) && (numParms == 1)
+						&& (stack.getStackItem(0).getUserValue() == FIIUserValue.NUMERIC_COLLECTOR))) {
+			bugReporter.reportBug(new BugInstance(this, BugType.FII_USE_PRIMITIVE_STREAM.name(), NORMAL_PRIORITY)
+					.addClass(this).addMethod(this).addCalledMethod(this).addSourceLine(this));
 		}
 
 		return null;
 	}
 
+	/**
+	 * returns whether the invokedynamic creates a java.util.function.Function whose result is a boxed number, such
+	 * as a method reference to a getter returning an int
+	 *
+	 * @param cid
+	 *            the invokedynamic constant
+	 * @return whether the function boxes numbers
+	 */
+	private boolean isBoxingFunction(ConstantInvokeDynamic cid) {
+		ConstantPool cp = getConstantPool();
+		ConstantNameAndType nameAndType = (ConstantNameAndType) cp.getConstant(cid.getNameAndTypeIndex());
+		if (!SIG_FUNCTION.equals(SignatureUtils.getReturnSignature(nameAndType.getSignature(cp)))) {
+			return false;
+		}
+
+		String instantiatedSig = LambdaUtils.getInstantiatedSignature(bootstrapAtt, cp, cid.getBootstrapMethodAttrIndex());
+		return (instantiatedSig != null) && BOXED_NUMBER_SIGS.contains(SignatureUtils.getReturnSignature(instantiatedSig));
+	}
+
+	private static boolean isFilterItem(Object userValue) {
+		return (userValue == FIIUserValue.FILTER_ITEM) || (userValue == FIIUserValue.BOXED_FILTER_ITEM);
+	}
+
+	private static boolean isBoxedStream(Object userValue) {
+		return (userValue == FIIUserValue.BOXED_STREAM) || (userValue == FIIUserValue.BOXED_FILTER_ITEM);
+	}
+
 	@Nullable
 	private String getAnonymousName(ConstantMethodHandle cmh) {
         if (cmh == null || cmh.getReferenceKind() != Const.REF_invokeStatic) {
@@ -19,6 +19,7 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,12 +29,15 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
 import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.Field;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.ToString;
 import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
@@ -45,6 +49,7 @@ import edu.umd.cs.findbugs.BytecodeScanningDetector;
 import edu.umd.cs.findbugs.Detector;
 import edu.umd.cs.findbugs.FieldAnnotation;
 import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
 import edu.umd.cs.findbugs.Priorities;
 import edu.umd.cs.findbugs.ba.ClassContext;
 import edu.umd.cs.findbugs.ba.XFactory;
@@ -52,7 +57,9 @@ import edu.umd.cs.findbugs.ba.XField;
 import edu.umd.cs.findbugs.ba.XMethod;
 
 /**
- * looks for executors that are never shutdown, which will not allow the application to terminate
+ * looks for executors that are never shutdown, which will not allow the application to terminate, as well as for code that can create an unbounded number of
+ * threads, by starting new threads per call or per loop iteration, by feeding cached thread pools from loops, or by building thread pools whose maximum size
+ * can never take effect.
  */
 public class HangingExecutors extends BytecodeScanningDetector {
 
@@ -70,10 +77,12 @@ public class HangingExecutors extends BytecodeScanningDetector {
     private boolean isInitializer;
 
     private final LocalHangingExecutor localHEDetector;
+    private final UnboundedThreadCreation threadCreationDetector;
 
     public HangingExecutors(BugReporter reporter) {
         this.bugReporter = reporter;
         this.localHEDetector = new LocalHangingExecutor(this, reporter);
+        this.threadCreationDetector = new UnboundedThreadCreation(this, reporter);
     }
 
     /**
@@ -86,6 +95,7 @@ public class HangingExecutors extends BytecodeScanningDetector {
     @Override
     public void visitClassContext(ClassContext classContext) {
         localHEDetector.visitClassContext(classContext);
+        threadCreationDetector.visitClassContext(classContext);
         try {
             hangingFieldCandidates = new HashMap<>();
             exemptExecutors = new HashMap<>();
@@ -371,3 +381,335 @@ class LocalHangingExecutor extends LocalTypeDetector {
 
     }
 }
+
+/**
+ * looks for code that can create an unbounded number of threads, by starting a new thread on every call or loop iteration, by submitting tasks to a cached
+ * thread pool from a loop, or by creating a ThreadPoolExecutor with an unbounded work queue, where threads beyond the core pool size are never created.
+ */
+@CustomUserValue
+class UnboundedThreadCreation extends BytecodeScanningDetector {
+
+    enum ThreadingKind {
+        THREAD, CACHED_POOL, UNBOUNDED_QUEUE
+    };
+
+    private static final Set<String> unboundedQueues = UnmodifiableSet.create("java/util/concurrent/LinkedBlockingQueue",
+            "java/util/concurrent/LinkedBlockingDeque", "java/util/concurrent/LinkedTransferQueue", "java/util/concurrent/PriorityBlockingQueue");
+
+    private static final Set<String> unboundedQueueCtorSigs = UnmodifiableSet.create("()V", "(Ljava/util/Collection;)V");
+
+    private static final Set<String> submitMethods = UnmodifiableSet.create("execute", "submit", "invokeAll", "invokeAny");
+
+    private static final String THREAD_POOL_EXECUTOR_CTOR_PREFIX = "(IIJLjava/util/concurrent/TimeUnit;Ljava/util/concurrent/BlockingQueue;";
+
+    private final BugReporter bugReporter;
+    private final Detector delegatingDetector;
+    private JavaClass threadClass;
+    private OpcodeStack stack;
+    private List<CodeRange> loops;
+    private List<ThreadingCall> threadingCalls;
+    private Set<XField> cachedPoolFields;
+    private Set<Integer> cachedPoolRegisters;
+    private Map<XField, List<BugInstance>> fieldSubmissions;
+    private boolean isStartupMethod;
+
+    UnboundedThreadCreation(Detector delegatingDetector, BugReporter reporter) {
+        this.bugReporter = reporter;
+        this.delegatingDetector = delegatingDetector;
+    }
+
+    /**
+     * implements the visitor to create and clear the stack and collections, and after parsing the class, to report submissions in loops to fields that hold
+     * cached thread pools
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            threadClass = Repository.lookupClass("java/lang/Thread");
+            stack = new OpcodeStack();
+            loops = new ArrayList<>();
+            threadingCalls = new ArrayList<>();
+            cachedPoolFields = new HashSet<>();
+            cachedPoolRegisters = new HashSet<>();
+            fieldSubmissions = new HashMap<>();
+            super.visitClassContext(classContext);
+
+            for (Map.Entry<XField, List<BugInstance>> entry : fieldSubmissions.entrySet()) {
+                if (cachedPoolFields.contains(entry.getKey())) {
+                    for (BugInstance bug : entry.getValue()) {
+                        bugReporter.reportBug(bug);
+                    }
+                }
+            }
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+        } finally {
+            threadClass = null;
+            stack = null;
+            loops = null;
+            threadingCalls = null;
+            cachedPoolFields = null;
+            cachedPoolRegisters = null;
+            fieldSubmissions = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack, and after parsing the method, to report the thread creations and pool submissions that happen in loops
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        loops.clear();
+        threadingCalls.clear();
+        cachedPoolRegisters.clear();
+
+        String methodName = getMethodName();
+        isStartupMethod = Values.STATIC_INITIALIZER.equals(methodName) || Values.CONSTRUCTOR.equals(methodName)
+                || ("main".equals(methodName) && getMethod().isStatic());
+
+        super.visitCode(obj);
+
+        for (ThreadingCall call : threadingCalls) {
+            boolean inLoop = isInLoop(call.getPC());
+            switch (call.getKind()) {
+                case THREAD:
+                    if (inLoop || !isStartupMethod) {
+                        bugReporter.reportBug(new BugInstance(delegatingDetector, BugType.HES_UNBOUNDED_THREAD_CREATION.name(),
+                                inLoop ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addMethod(this).addSourceLine(this, call.getPC()));
+                    }
+                break;
+
+                case CACHED_POOL:
+                    if (inLoop) {
+                        BugInstance bug = new BugInstance(delegatingDetector, BugType.HES_CACHED_THREAD_POOL_FED_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this)
+                                .addMethod(this).addSourceLine(this, call.getPC());
+                        XField field = call.getField();
+                        if (field == null) {
+                            bugReporter.reportBug(bug);
+                        } else {
+                            List<BugInstance> bugs = fieldSubmissions.get(field);
+                            if (bugs == null) {
+                                bugs = new ArrayList<>();
+                                fieldSubmissions.put(field, bugs);
+                            }
+                            bugs.add(bug);
+                        }
+                    }
+                break;
+
+                default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to track new threads, cached thread pools and unbounded queues, and to find where threads are started, where tasks are submitted
+     * to pools, and where loops are
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        ThreadingKind kind = null;
+        try {
+            stack.precomputation(this);
+
+            switch (seen) {
+                case Const.INVOKESPECIAL:
+                    kind = processConstructor();
+                break;
+
+                case Const.INVOKESTATIC:
+                    if ("java/util/concurrent/Executors".equals(getClassConstantOperand()) && "newCachedThreadPool".equals(getNameConstantOperand())) {
+                        kind = ThreadingKind.CACHED_POOL;
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                    processInvoke();
+                break;
+
+                case Const.PUTFIELD:
+                case Const.PUTSTATIC:
+                    if (stack.getStackDepth() > 0) {
+                        XField field = getXFieldOperand();
+                        if ((field != null) && (stack.getStackItem(0).getUserValue() == ThreadingKind.CACHED_POOL)) {
+                            cachedPoolFields.add(field);
+                        }
+                    }
+                break;
+
+                default:
+                    if (OpcodeUtils.isAStore(seen)) {
+                        Integer reg = Integer.valueOf(getRegisterOperand());
+                        if ((stack.getStackDepth() > 0) && (stack.getStackItem(0).getUserValue() == ThreadingKind.CACHED_POOL)) {
+                            cachedPoolRegisters.add(reg);
+                        } else {
+                            cachedPoolRegisters.remove(reg);
+                        }
+                    } else if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                        loops.add(new CodeRange(getBranchTarget(), getPC()));
+                    }
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((kind != null) && (stack.getStackDepth() > 0)) {
+                stack.getStackItem(0).setUserValue(kind);
+            }
+        }
+    }
+
+    /**
+     * looks at a constructor call, to find new threads and unbounded queues, and ThreadPoolExecutors whose maximum pool size can't take effect
+     *
+     * @return the kind of object constructed, or null if it isn't interesting
+     */
+    private ThreadingKind processConstructor() {
+        if (!Values.CONSTRUCTOR.equals(getNameConstantOperand())) {
+            return null;
+        }
+
+        String clsName = getClassConstantOperand();
+        String sig = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(sig);
+        if ((stack.getStackDepth() <= numParms) || (stack.getStackItem(numParms).getRegisterNumber() >= 0)) {
+            // a super() or this() call, not a new object
+            return null;
+        }
+
+        if (unboundedQueues.contains(clsName)) {
+            return unboundedQueueCtorSigs.contains(sig) ? ThreadingKind.UNBOUNDED_QUEUE : null;
+        }
+
+        if ("java/util/concurrent/ThreadPoolExecutor".equals(clsName)) {
+            return sig.startsWith(THREAD_POOL_EXECUTOR_CTOR_PREFIX) ? checkThreadPoolExecutor(numParms) : null;
+        }
+
+        return isThread(clsName) ? ThreadingKind.THREAD : null;
+    }
+
+    /**
+     * reports a ThreadPoolExecutor that is given an unbounded queue, and a maximum pool size larger than the core pool size, as threads beyond the core size
+     * are only created when the queue is full
+     *
+     * @param numParms
+     *            the number of parameters of the constructor
+     * @return CACHED_POOL if the executor is built like a cached thread pool, otherwise null
+     */
+    private ThreadingKind checkThreadPoolExecutor(int numParms) {
+        OpcodeStack.Item queueItem = stack.getStackItem(numParms - 5);
+        Object maxSize = stack.getStackItem(numParms - 2).getConstant();
+        Object coreSize = stack.getStackItem(numParms - 1).getConstant();
+
+        if (!(maxSize instanceof Integer)) {
+            return null;
+        }
+
+        int max = ((Integer) maxSize).intValue();
+        if (queueItem.getUserValue() == ThreadingKind.UNBOUNDED_QUEUE) {
+            if ((coreSize instanceof Integer) && (max > ((Integer) coreSize).intValue())) {
+                bugReporter.reportBug(new BugInstance(delegatingDetector, BugType.HES_UNBOUNDED_QUEUE_IGNORES_MAX_POOL_SIZE.name(), NORMAL_PRIORITY)
+                        .addClass(this).addMethod(this).addSourceLine(this));
+            }
+            return null;
+        }
+
+        return (max == Integer.MAX_VALUE) ? ThreadingKind.CACHED_POOL : null;
+    }
+
+    /**
+     * records calls to start a new thread, and submissions of tasks to executors, which may be cached thread pools
+     */
+    private void processInvoke() {
+        String methodName = getNameConstantOperand();
+        String sig = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(sig);
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        OpcodeStack.Item item = stack.getStackItem(numParms);
+        if ("start".equals(methodName) && "()V".equals(sig)) {
+            if (item.getUserValue() == ThreadingKind.THREAD) {
+                threadingCalls.add(new ThreadingCall(ThreadingKind.THREAD, getPC(), null));
+            }
+        } else if (submitMethods.contains(methodName)) {
+            if ((item.getUserValue() == ThreadingKind.CACHED_POOL) || cachedPoolRegisters.contains(Integer.valueOf(item.getRegisterNumber()))) {
+                threadingCalls.add(new ThreadingCall(ThreadingKind.CACHED_POOL, getPC(), null));
+            } else {
+                XField field = item.getXField();
+                if (field != null) {
+                    threadingCalls.add(new ThreadingCall(ThreadingKind.CACHED_POOL, getPC(), field));
+                }
+            }
+        }
+    }
+
+    private boolean isThread(String clsName) {
+        if ("java/lang/Thread".equals(clsName)) {
+            return true;
+        }
+        if (clsName.startsWith("java/")) {
+            return false;
+        }
+
+        try {
+            return Repository.lookupClass(clsName).instanceOf(threadClass);
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+            return false;
+        }
+    }
+
+    private boolean isInLoop(int pc) {
+        for (CodeRange loop : loops) {
+            if (loop.contains(pc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * holds the start of a thread, or a submission of a task to a cached thread pool held in a local, or to a possibly cached thread pool held in a field
+     */
+    static class ThreadingCall {
+        private final ThreadingKind kind;
+        private final int pc;
+        private final XField field;
+
+        ThreadingCall(ThreadingKind kind, int pc, XField field) {
+            this.kind = kind;
+            this.pc = pc;
+            this.field = field;
+        }
+
+        ThreadingKind getKind() {
+            return kind;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        XField getField() {
+            return field;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
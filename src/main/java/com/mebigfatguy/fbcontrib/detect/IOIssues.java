@@ -18,6 +18,10 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -28,7 +32,10 @@ import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
 import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 import com.mebigfatguy.fbcontrib.utils.Values;
@@ -47,7 +54,7 @@ import edu.umd.cs.findbugs.ba.ClassContext;
 public class IOIssues extends BytecodeScanningDetector {
 
     enum IOIUserValue {
-        BUFFER, READER
+        BUFFER, READER, UNBUFFERED_STREAM, UNBUFFERED_READER, UNBUFFERED_WRITER
     };
 
     private static final String ANY_PARMS = "(*)";
@@ -72,11 +79,48 @@ public class IOIssues extends BytecodeScanningDetector {
     //@formatter:on
     );
 
+    private static final Set<String> UNBUFFERED_READER_CLASSES = UnmodifiableSet.create(
+    //@formatter:off
+            "java.io.InputStreamReader",
+            "java.io.FileReader"
+    //@formatter:on
+    );
+
+    private static final Set<String> UNBUFFERED_WRITER_CLASSES = UnmodifiableSet.create(
+    //@formatter:off
+            "java.io.OutputStreamWriter",
+            "java.io.FileWriter"
+    //@formatter:on
+    );
+
+    private static final Set<String> PASS_THROUGH_FILTER_CLASSES = UnmodifiableSet.create(
+    //@formatter:off
+            "java.io.DataInputStream",
+            "java.io.DataOutputStream"
+    //@formatter:on
+    );
+
+    private static final Set<FQMethod> UNBUFFERED_STREAM_FACTORIES = UnmodifiableSet.create(
+    //@formatter:off
+            new FQMethod("java/net/Socket", "getInputStream", ANY_PARMS),
+            new FQMethod("java/net/Socket", "getOutputStream", ANY_PARMS),
+            new FQMethod("java/nio/channels/Channels", "newInputStream", ANY_PARMS),
+            new FQMethod("java/nio/channels/Channels", "newOutputStream", ANY_PARMS),
+            new FQMethod("java/nio/file/Files", "newInputStream", ANY_PARMS),
+            new FQMethod("java/nio/file/Files", "newOutputStream", ANY_PARMS)
+    //@formatter:on
+    );
+
     private JavaClass readerClass;
 
     private BugReporter bugReporter;
     private OpcodeStack stack;
     private int clsVersion;
+    /** reg, user value of stream stored there */
+    private Map<Integer, IOIUserValue> registerUserValues;
+    /** pc of single unit read/write, priority of report */
+    private Map<Integer, Integer> singleUnitIOs;
+    private List<CodeRange> loops;
 
     /**
      * constructs a IOI detector given the reporter to report bugs on
@@ -106,15 +150,21 @@ public class IOIssues extends BytecodeScanningDetector {
 
         try {
             stack = new OpcodeStack();
+            registerUserValues = new HashMap<>();
+            singleUnitIOs = new HashMap<>();
+            loops = new ArrayList<>();
             clsVersion = clsContext.getJavaClass().getMajor();
             super.visitClassContext(clsContext);
         } finally {
             stack = null;
+            registerUserValues = null;
+            singleUnitIOs = null;
+            loops = null;
         }
     }
 
     /**
-     * implements the visitor to reset the opcode stack
+     * implements the visitor to reset the opcode stack, and report single byte/char reads or writes on unbuffered streams that occur in loops
      *
      * @param obj
      *            the currently parsed code block
@@ -123,14 +173,29 @@ public class IOIssues extends BytecodeScanningDetector {
     public void visitCode(Code obj) {
 
         stack.resetForMethodEntry(this);
+        registerUserValues.clear();
+        singleUnitIOs.clear();
+        loops.clear();
         super.visitCode(obj);
+
+        for (Map.Entry<Integer, Integer> entry : singleUnitIOs.entrySet()) {
+            int pc = entry.getKey().intValue();
+            for (CodeRange loop : loops) {
+                if (loop.contains(pc)) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.IOI_UNBUFFERED_SINGLE_BYTE_IO.name(), entry.getValue().intValue()).addClass(this)
+                            .addMethod(this).addSourceLine(this, pc));
+                    break;
+                }
+            }
+        }
     }
 
     /**
      * implements the visitor to look for common api copy utilities to copy streams where the passed in Stream is Buffered. Since these libraries already handle
      * the buffering, you are just slowing them down by the extra copy. Also look for copies where the source is a Reader, as this is just wasteful. Can't wrap
      * my head around whether a Writer output is sometime valid, might be, so for now ignoring that. Also reports uses of java.io.FileInputStream and
-     * java.io.FileOutputStream on {@code java >= 1.7} as those classes have finalize methods that junk up gc.
+     * java.io.FileOutputStream on {@code java >= 1.7} as those classes have finalize methods that junk up gc. Finally tracks streams, readers and writers that
+     * are not buffered, to find single byte or char reads and writes on them, as each of these may be a system call.
      *
      * @param seen
      *            the currently parsed opcode
@@ -146,7 +211,60 @@ public class IOIssues extends BytecodeScanningDetector {
                 break;
 
                 case INVOKESTATIC:
-                    processInvokeStatic();
+                    uvSawBuffer = processInvokeStatic();
+                break;
+
+                case INVOKEVIRTUAL:
+                case INVOKEINTERFACE:
+                    uvSawBuffer = processInvokeInstance();
+                break;
+
+                case ASTORE:
+                case ASTORE_0:
+                case ASTORE_1:
+                case ASTORE_2:
+                case ASTORE_3:
+                    if (stack.getStackDepth() > 0) {
+                        OpcodeStack.Item itm = stack.getStackItem(0);
+                        IOIUserValue uv = (IOIUserValue) itm.getUserValue();
+                        Integer reg = Integer.valueOf(RegisterUtils.getAStoreReg(this, seen));
+                        if (uv == null) {
+                            registerUserValues.remove(reg);
+                        } else {
+                            registerUserValues.put(reg, uv);
+                        }
+                    }
+                break;
+
+                case ALOAD:
+                case ALOAD_0:
+                case ALOAD_1:
+                case ALOAD_2:
+                case ALOAD_3:
+                    uvSawBuffer = registerUserValues.get(Integer.valueOf(RegisterUtils.getALoadReg(this, seen)));
+                break;
+
+                case GOTO:
+                case GOTO_W:
+                case IFEQ:
+                case IFNE:
+                case IFLT:
+                case IFGE:
+                case IFGT:
+                case IFLE:
+                case IF_ICMPEQ:
+                case IF_ICMPNE:
+                case IF_ICMPLT:
+                case IF_ICMPGE:
+                case IF_ICMPGT:
+                case IF_ICMPLE:
+                case IF_ACMPEQ:
+                case IF_ACMPNE:
+                case IFNULL:
+                case IFNONNULL:
+                    if (getBranchOffset() < 0) {
+                        loops.add(new CodeRange(getBranchTarget(), getPC()));
+                    }
                 break;
 
                 default:
@@ -186,6 +304,18 @@ public class IOIssues extends BytecodeScanningDetector {
                     bugReporter.reportBug(new BugInstance(this, BugType.IOI_USE_OF_FILE_STREAM_CONSTRUCTORS.name(), NORMAL_PRIORITY).addClass(this)
                             .addMethod(this).addSourceLine(this));
                 }
+                return IOIUserValue.UNBUFFERED_STREAM;
+            } else if (UNBUFFERED_READER_CLASSES.contains(clsName)) {
+                return IOIUserValue.UNBUFFERED_READER;
+            } else if (UNBUFFERED_WRITER_CLASSES.contains(clsName)) {
+                return IOIUserValue.UNBUFFERED_WRITER;
+            } else if (PASS_THROUGH_FILTER_CLASSES.contains(clsName)) {
+                if (stack.getStackDepth() > 0) {
+                    OpcodeStack.Item itm = stack.getStackItem(0);
+                    if (itm.getUserValue() == IOIUserValue.UNBUFFERED_STREAM) {
+                        return IOIUserValue.UNBUFFERED_STREAM;
+                    }
+                }
             } else if (readerClass != null) {
                 JavaClass cls = Repository.lookupClass(clsName);
                 if (cls.instanceOf(readerClass)) {
@@ -197,10 +327,15 @@ public class IOIssues extends BytecodeScanningDetector {
         return null;
     }
 
-    private void processInvokeStatic() {
+    @Nullable
+    private IOIUserValue processInvokeStatic() {
         String clsName = getClassConstantOperand();
         String methodName = getNameConstantOperand();
         FQMethod m = new FQMethod(clsName, methodName, ANY_PARMS);
+        if (UNBUFFERED_STREAM_FACTORIES.contains(m)) {
+            return IOIUserValue.UNBUFFERED_STREAM;
+        }
+
         if (COPY_METHODS.contains(m)) {
             String signature = getSigConstantOperand();
             int numArguments = SignatureUtils.getNumParameters(signature);
@@ -208,7 +343,7 @@ public class IOIssues extends BytecodeScanningDetector {
                 for (int i = 0; i < numArguments; i++) {
                     OpcodeStack.Item itm = stack.getStackItem(i);
                     IOIUserValue uv = (IOIUserValue) itm.getUserValue();
-                    if (uv != null) {
+                    if ((uv != null) && (uv != IOIUserValue.UNBUFFERED_STREAM) && (uv != IOIUserValue.UNBUFFERED_WRITER)) {
                         switch (uv) {
                             case BUFFER:
                                 bugReporter.reportBug(new BugInstance(this, BugType.IOI_DOUBLE_BUFFER_COPY.name(), NORMAL_PRIORITY).addClass(this)
@@ -216,14 +351,59 @@ public class IOIssues extends BytecodeScanningDetector {
                             break;
 
                             case READER:
+                            case UNBUFFERED_READER:
                                 bugReporter.reportBug(new BugInstance(this, BugType.IOI_COPY_WITH_READER.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
                                         .addSourceLine(this));
+                            break;
+
+                            default:
+                            break;
                         }
                         break;
                     }
                 }
             }
         }
+
+        return null;
+    }
+
+    /**
+     * looks for stream factory methods that return unbuffered streams, and for single byte or char reads and writes on streams, readers or writers that have
+     * been found to be unbuffered. Reads and writes of streams are considered more costly than those of readers and writers, as the latter do byte
+     * conversion through an internal buffer.
+     *
+     * @return the user value to place on the result of the method call, if any
+     */
+    @Nullable
+    private IOIUserValue processInvokeInstance() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        if (UNBUFFERED_STREAM_FACTORIES.contains(new FQMethod(clsName, methodName, ANY_PARMS))) {
+            return IOIUserValue.UNBUFFERED_STREAM;
+        }
+
+        String signature = getSigConstantOperand();
+        int objectOffset;
+        if ("read".equals(methodName) && SignatureBuilder.SIG_VOID_TO_INT.equals(signature)) {
+            objectOffset = 0;
+        } else if ("write".equals(methodName) && SignatureBuilder.SIG_INT_TO_VOID.equals(signature)) {
+            objectOffset = 1;
+        } else {
+            return null;
+        }
+
+        if (stack.getStackDepth() > objectOffset) {
+            OpcodeStack.Item itm = stack.getStackItem(objectOffset);
+            IOIUserValue uv = (IOIUserValue) itm.getUserValue();
+            if (uv == IOIUserValue.UNBUFFERED_STREAM) {
+                singleUnitIOs.put(Integer.valueOf(getPC()), Values.NORMAL_BUG_PRIORITY);
+            } else if ((uv == IOIUserValue.UNBUFFERED_READER) || (uv == IOIUserValue.UNBUFFERED_WRITER)) {
+                singleUnitIOs.put(Integer.valueOf(getPC()), Values.LOW_BUG_PRIORITY);
+            }
+        }
+
+        return null;
     }
 
 }
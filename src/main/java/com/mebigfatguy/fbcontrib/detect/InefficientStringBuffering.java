@@ -18,15 +18,26 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
 import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantNameAndType;
 import org.apache.bcel.classfile.ConstantString;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
 import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.TernaryPatcher;
@@ -42,11 +53,15 @@ import edu.umd.cs.findbugs.ba.ClassContext;
 import edu.umd.cs.findbugs.ba.XMethod;
 
 /**
- * looks for appending strings inside of calls to StringBuffer or StringBuilder append.
+ * looks for appending strings inside of calls to StringBuffer or StringBuilder append. Also looks for StringBuilders that
+ * are allocated and discarded on every iteration of a loop, Strings built with += in a loop, and StringBuilders created
+ * with the default capacity that are guaranteed to grow.
  */
 @CustomUserValue
 public class InefficientStringBuffering extends BytecodeScanningDetector {
 
+    private static final int DEFAULT_BUILDER_CAPACITY = 16;
+
     private enum AppendType {
         CLEAR, NESTED, TOSTRING
     };
@@ -54,6 +69,13 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
     private BugReporter bugReporter;
     private OpcodeStack stack;
     private boolean sawLDCEmpty;
+    private List<CodeRange> loops;
+    private List<CodeRange> conditionalRanges;
+    private List<BuilderInfo> builders;
+    private Map<Integer, BuilderInfo> registerToBuilder;
+    private Map<Integer, List<Integer>> concatenationPCs;
+    private BuilderInfo pendingBuilder;
+    private int concatSourceReg;
 
     /**
      * constructs a ISB detector given the reporter to report bugs on
@@ -75,9 +97,19 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
     public void visitClassContext(ClassContext classContext) {
         try {
             stack = new OpcodeStack();
+            loops = new ArrayList<>();
+            conditionalRanges = new ArrayList<>();
+            builders = new ArrayList<>();
+            registerToBuilder = new HashMap<>();
+            concatenationPCs = new HashMap<>();
             super.visitClassContext(classContext);
         } finally {
             stack = null;
+            loops = null;
+            conditionalRanges = null;
+            builders = null;
+            registerToBuilder = null;
+            concatenationPCs = null;
         }
     }
 
@@ -92,7 +124,25 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
         if (obj.getCode() != null) {
             stack.resetForMethodEntry(this);
             sawLDCEmpty = false;
+            loops.clear();
+            conditionalRanges.clear();
+            builders.clear();
+            registerToBuilder.clear();
+            concatenationPCs.clear();
+            pendingBuilder = null;
+            concatSourceReg = -1;
+
+            CodeException[] exceptionTable = obj.getExceptionTable();
+            if (exceptionTable != null) {
+                for (CodeException ce : exceptionTable) {
+                    conditionalRanges.add(new CodeRange(ce.getStartPC(), ce.getHandlerPC()));
+                }
+            }
+
             super.visitCode(obj);
+
+            reportBuilderIssues();
+            reportConcatenationsInLoops();
         }
     }
 
@@ -102,6 +152,7 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
 
         try {
             stack.precomputation(this);
+            trackBuilderLifecycle(seen);
 
             if (seen == Const.INVOKESPECIAL) {
                 userValue = sawInvokeSpecial();
@@ -126,7 +177,7 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
                     }
                 }
             } else if (OpcodeUtils.isALoad(seen)) {
-                userValue = new ISBUserValue(AppendType.CLEAR, true);
+                userValue = new ISBUserValue(AppendType.CLEAR, true, registerToBuilder.get(Integer.valueOf(RegisterUtils.getALoadReg(this, seen))));
             }
         } finally {
             handleOpcode(seen);
@@ -153,6 +204,12 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
                 OpcodeStack.Item itm = getStringBufferItemAt(1);
                 if (itm != null) {
                     userValue = (ISBUserValue) itm.getUserValue();
+                    if ((userValue != null) && (userValue.getBuilder() != null)) {
+                        List<String> parmSigs = SignatureUtils.getParameterSignatures(getSigConstantOperand());
+                        if (parmSigs.size() == 1) {
+                            userValue.getBuilder().addAppend(getPC(), minimumAppendedLength(stack.getStackItem(0), parmSigs.get(0)));
+                        }
+                    }
                 }
 
                 if (stack.getStackDepth() > 0) {
@@ -188,13 +245,16 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
                     if (userValue == null) {
                         userValue = new ISBUserValue(AppendType.CLEAR, true);
                     } else {
-                        userValue = new ISBUserValue(userValue.getAppendType(), true);
+                        userValue = new ISBUserValue(userValue.getAppendType(), true, userValue.getBuilder());
                     }
                 }
             } else if (Values.TOSTRING.equals(methodName)) {
                 OpcodeStack.Item itm = getStringBufferItemAt(0);
                 if (itm != null) {
                     userValue = (ISBUserValue) itm.getUserValue();
+                    if ((userValue != null) && (userValue.getBuilder() != null)) {
+                        userValue = new ISBUserValue(userValue.getAppendType(), userValue.hasResolvedString());
+                    }
                 }
             }
         } else if (Values.TOSTRING.equals(getNameConstantOperand()) && SignatureBuilder.SIG_VOID_TO_STRING.equals(getSigConstantOperand())
@@ -266,18 +326,309 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
         return null;
     }
 
+    /**
+     * tracks the allocation, storing, escaping, and sizing of StringBuilders, as well as String concatenation back into the
+     * register that is being concatenated
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void trackBuilderLifecycle(int seen) {
+        if (OpcodeUtils.isBranch(seen)) {
+            if (getBranchOffset() < 0) {
+                loops.add(new CodeRange(getBranchTarget(), getPC()));
+            } else {
+                conditionalRanges.add(new CodeRange(getPC(), getBranchTarget()));
+            }
+        }
+
+        switch (seen) {
+            case Const.TABLESWITCH:
+            case Const.LOOKUPSWITCH:
+                int maxOffset = getDefaultSwitchOffset();
+                for (int offset : getSwitchOffsets()) {
+                    maxOffset = Math.max(maxOffset, offset);
+                }
+                conditionalRanges.add(new CodeRange(getPC(), getPC() + maxOffset));
+            break;
+
+            case Const.INVOKESPECIAL:
+                pendingBuilder = null;
+                if (isBuilderClass(getClassConstantOperand()) && Values.CONSTRUCTOR.equals(getNameConstantOperand())) {
+                    pendingBuilder = new BuilderInfo(getPC(), SignatureBuilder.SIG_VOID_TO_VOID.equals(getSigConstantOperand()));
+                }
+                checkForEscapes();
+            break;
+
+            case Const.INVOKEVIRTUAL:
+                if (isBuilderClass(getClassConstantOperand()) && "append".equals(getNameConstantOperand())
+                        && getSigConstantOperand().startsWith(SignatureBuilder.PARAM_STRING)
+                        && OpcodeUtils.isALoad(getPrevOpcode(1)) && (getPrevOpcode(2) == Const.INVOKESPECIAL) && (stack.getStackDepth() > 0)) {
+                    concatSourceReg = stack.getStackItem(0).getRegisterNumber();
+                }
+                checkForEscapes();
+            break;
+
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKESTATIC:
+                checkForEscapes();
+            break;
+
+            case Const.INVOKEDYNAMIC:
+                ConstantInvokeDynamic cid = (ConstantInvokeDynamic) getConstantRefOperand();
+                ConstantNameAndType nameAndType = (ConstantNameAndType) getConstantPool().getConstant(cid.getNameAndTypeIndex());
+                String indyName = nameAndType.getName(getConstantPool());
+                if ("makeConcatWithConstants".equals(indyName) || "makeConcat".equals(indyName)) {
+                    int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+                    if ((numParms > 0) && (stack.getStackDepth() >= numParms)) {
+                        concatSourceReg = stack.getStackItem(numParms - 1).getRegisterNumber();
+                    }
+                }
+                checkForEscapes();
+            break;
+
+            case Const.ARETURN:
+            case Const.PUTFIELD:
+            case Const.PUTSTATIC:
+            case Const.AASTORE:
+                if (stack.getStackDepth() > 0) {
+                    markEscaped(stack.getStackItem(0));
+                }
+            break;
+
+            default:
+                if (OpcodeUtils.isAStore(seen)) {
+                    sawAStore(seen);
+                } else if (OpcodeUtils.isALoad(seen)) {
+                    BuilderInfo builder = registerToBuilder.get(Integer.valueOf(RegisterUtils.getALoadReg(this, seen)));
+                    if (builder != null) {
+                        builder.addLoad(getPC());
+                    }
+                }
+            break;
+        }
+    }
+
+    private void sawAStore(int seen) {
+        Integer reg = Integer.valueOf(RegisterUtils.getAStoreReg(this, seen));
+        registerToBuilder.remove(reg);
+        if (stack.getStackDepth() == 0) {
+            return;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        if ((pendingBuilder != null) && (getPrevOpcode(1) == Const.INVOKESPECIAL) && (getStringBufferItemAt(0) != null)) {
+            builders.add(pendingBuilder);
+            registerToBuilder.put(reg, pendingBuilder);
+        } else if ((concatSourceReg == reg.intValue()) && Values.SIG_JAVA_LANG_STRING.equals(itm.getSignature())) {
+            int prevOp = getPrevOpcode(1);
+            XMethod xm = itm.getReturnValueOf();
+            if ((prevOp == Const.INVOKEDYNAMIC) || ((xm != null) && Values.TOSTRING.equals(xm.getName()) && isBuilderClass(xm.getClassName().replace('.', '/')))) {
+                List<Integer> pcs = concatenationPCs.get(reg);
+                if (pcs == null) {
+                    pcs = new ArrayList<>();
+                    concatenationPCs.put(reg, pcs);
+                }
+                pcs.add(Integer.valueOf(getPC()));
+            }
+        }
+        pendingBuilder = null;
+        concatSourceReg = -1;
+    }
+
+    private void checkForEscapes() {
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        for (int i = 0; (i < numParms) && (i < stack.getStackDepth()); i++) {
+            markEscaped(stack.getStackItem(i));
+        }
+    }
+
+    private static void markEscaped(OpcodeStack.Item itm) {
+        ISBUserValue uv = (ISBUserValue) itm.getUserValue();
+        if ((uv != null) && (uv.getBuilder() != null)) {
+            uv.getBuilder().setEscaped();
+        }
+    }
+
+    private static boolean isBuilderClass(String clsName) {
+        return "java/lang/StringBuilder".equals(clsName) || "java/lang/StringBuffer".equals(clsName);
+    }
+
+    /**
+     * returns the minimum number of characters that appending the item to a StringBuilder is guaranteed to add
+     *
+     * @param itm
+     *            the item being appended
+     * @param parmSig
+     *            the signature of the parameter of the append method
+     * @return the minimum appended length
+     */
+    private static int minimumAppendedLength(OpcodeStack.Item itm, String parmSig) {
+        Object cons = itm.getConstant();
+        switch (parmSig) {
+            case "C":
+                return 1;
+
+            case "Z":
+                return Integer.valueOf(0).equals(cons) ? 5 : 4;
+
+            case "I":
+            case "J":
+            case "S":
+            case "B":
+                return (cons != null) ? String.valueOf(cons).length() : 1;
+
+            case "F":
+            case "D":
+                return (cons != null) ? String.valueOf(cons).length() : 3;
+
+            default:
+                return (cons instanceof String) ? ((String) cons).length() : 0;
+        }
+    }
+
+    /**
+     * reports StringBuilders that are allocated and only used inside one iteration of a loop, and StringBuilders allocated
+     * with the default capacity that are guaranteed to grow
+     */
+    private void reportBuilderIssues() {
+        for (BuilderInfo builder : builders) {
+            CodeRange loop = findLoop(builder.getAllocPC());
+            if (loop != null) {
+                if (!builder.isEscaped() && builder.isOnlyUsedIn(loop)) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.ISB_STRING_BUILDER_ALLOCATED_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this)
+                            .addMethod(this).addSourceLine(this, builder.getAllocPC()));
+                }
+            } else if (builder.hasDefaultCapacity()) {
+                int minLength = 0;
+                for (int[] append : builder.getAppends()) {
+                    if ((findLoop(append[0]) == null) && !isConditional(builder.getAllocPC(), append[0])) {
+                        minLength += append[1];
+                    }
+                }
+
+                if (minLength > DEFAULT_BUILDER_CAPACITY) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.ISB_UNDERSIZED_STRING_BUILDER.name(),
+                            (minLength > ((DEFAULT_BUILDER_CAPACITY * 2) + 2)) ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addMethod(this)
+                                    .addInt(minLength).addSourceLine(this, builder.getAllocPC()));
+                }
+            }
+        }
+    }
+
+    /**
+     * reports local Strings that are built up by concatenating to themselves inside a loop
+     */
+    private void reportConcatenationsInLoops() {
+        for (List<Integer> pcs : concatenationPCs.values()) {
+            for (Integer pc : pcs) {
+                if (findLoop(pc.intValue()) != null) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.ISB_STRING_CONCATENATION_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this)
+                            .addMethod(this).addSourceLine(this, pc.intValue()));
+                    break;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private CodeRange findLoop(int pc) {
+        CodeRange innermost = null;
+        for (CodeRange loop : loops) {
+            if (loop.contains(pc) && ((innermost == null) || (loop.size() < innermost.size()))) {
+                innermost = loop;
+            }
+        }
+        return innermost;
+    }
+
+    private boolean isConditional(int startPC, int pc) {
+        for (CodeRange range : conditionalRanges) {
+            if ((range.getStartPC() > startPC) && (range.getStartPC() < pc) && (range.getEndPC() > pc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * represents a StringBuilder or StringBuffer that is allocated and stored in a local variable
+     */
+    static class BuilderInfo {
+        private final int allocPC;
+        private final boolean defaultCapacity;
+        private final BitSet loadPCs;
+        private final List<int[]> appends;
+        private boolean escaped;
+
+        BuilderInfo(int pc, boolean isDefaultCapacity) {
+            allocPC = pc;
+            defaultCapacity = isDefaultCapacity;
+            loadPCs = new BitSet();
+            appends = new ArrayList<>();
+        }
+
+        int getAllocPC() {
+            return allocPC;
+        }
+
+        boolean hasDefaultCapacity() {
+            return defaultCapacity;
+        }
+
+        void addLoad(int pc) {
+            loadPCs.set(pc);
+        }
+
+        void addAppend(int pc, int minLength) {
+            appends.add(new int[] { pc, minLength });
+        }
+
+        List<int[]> getAppends() {
+            return appends;
+        }
+
+        boolean isEscaped() {
+            return escaped;
+        }
+
+        void setEscaped() {
+            escaped = true;
+        }
+
+        boolean isOnlyUsedIn(CodeRange range) {
+            for (int pc = loadPCs.nextSetBit(0); pc >= 0; pc = loadPCs.nextSetBit(pc + 1)) {
+                if (!range.contains(pc)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
     static class ISBUserValue {
 
         private AppendType appendType;
         private boolean hasResolvedString;
+        private BuilderInfo builder;
 
         public ISBUserValue(AppendType appType) {
             this(appType, false);
         }
 
         public ISBUserValue(AppendType appType, boolean resolved) {
+            this(appType, resolved, null);
+        }
+
+        public ISBUserValue(AppendType appType, boolean resolved, BuilderInfo builderInfo) {
             appendType = appType;
             hasResolvedString = resolved;
+            builder = builderInfo;
         }
 
         public AppendType getAppendType() {
@@ -288,6 +639,11 @@ public class InefficientStringBuffering extends BytecodeScanningDetector {
             return hasResolvedString;
         }
 
+        @Nullable
+        public BuilderInfo getBuilder() {
+            return builder;
+        }
+
         @Override
         public int hashCode() {
             return appendType.hashCode() ^ (hasResolvedString ? 1 : 0);
@@ -0,0 +1,429 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for list operations that are linear in the size of the list, given the concrete type of list used, that are performed in a loop, making the loop
+ * quadratic. This includes indexed access into a LinkedList, removing from or inserting at the front of an ArrayList, mutating a CopyOnWriteArrayList, and
+ * searching a list with contains or indexOf. It also looks for removeAll and retainAll calls on collections that are passed a List, as each element checked
+ * does a linear search of that list. The concrete list type is tracked from its allocation through locals and private fields.
+ */
+@CustomUserValue
+public class ListAccessComplexity extends BytecodeScanningDetector {
+
+    enum ListKind {
+        LINKED_LIST, ARRAY_LIST, COPY_ON_WRITE_LIST, ARRAYS_AS_LIST
+    };
+
+    enum Stage {
+        COLLECT_FIELDS, FIND_BUGS
+    };
+
+    private static final Map<String, ListKind> CLASS_KINDS;
+
+    static {
+        Map<String, ListKind> ck = new HashMap<>();
+        ck.put("java/util/LinkedList", ListKind.LINKED_LIST);
+        ck.put("java/util/ArrayList", ListKind.ARRAY_LIST);
+        ck.put("java/util/concurrent/CopyOnWriteArrayList", ListKind.COPY_ON_WRITE_LIST);
+        CLASS_KINDS = Collections.unmodifiableMap(ck);
+    }
+
+    private static final Set<String> LIST_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_LIST, "java/util/AbstractList", "java/util/ArrayList",
+            "java/util/LinkedList", "java/util/Vector", "java/util/concurrent/CopyOnWriteArrayList");
+
+    private static final Set<String> COLLECTION_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_COLLECTION, Values.SLASHED_JAVA_UTIL_LIST,
+            Values.SLASHED_JAVA_UTIL_SET, "java/util/AbstractCollection", "java/util/AbstractList", "java/util/AbstractSet", "java/util/ArrayList",
+            "java/util/LinkedList", "java/util/Vector", "java/util/HashSet", "java/util/LinkedHashSet", "java/util/TreeSet", "java/util/ArrayDeque",
+            "java/util/concurrent/CopyOnWriteArrayList", "java/util/concurrent/CopyOnWriteArraySet");
+
+    private static final Set<String> SEARCH_METHODS = UnmodifiableSet.create("contains", "indexOf", "lastIndexOf");
+
+    private static final Set<String> BULK_REMOVE_METHODS = UnmodifiableSet.create("removeAll", "retainAll");
+
+    private static final Set<String> MUTATING_METHODS = UnmodifiableSet.create("add", "addAll", "remove", "removeAll", "retainAll", "set", "clear", "removeIf",
+            "replaceAll", "sort", "addIfAbsent", "addAllAbsent");
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private Stage stage;
+    private String clsName;
+    /** private fields that may hold a list */
+    private Set<String> privateFields;
+    /** field name to the kind of list always assigned to it */
+    private Map<String, ListKind> fieldKinds;
+    /** fields assigned a list of more than one kind, or an unknown kind */
+    private Set<String> mixedFields;
+    /** register to the kind of list stored there */
+    private Map<Integer, ListKind> registerKinds;
+    private List<ListOperation> loopOperations;
+    private List<CodeRange> loops;
+
+    /**
+     * constructs a LAC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public ListAccessComplexity(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to first collect the kinds of lists assigned to private fields, and then to look for list operations on them
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            JavaClass cls = classContext.getJavaClass();
+            clsName = cls.getClassName();
+            privateFields = new HashSet<>();
+            for (Field f : cls.getFields()) {
+                if (f.isPrivate() && isListFieldSignature(f.getSignature())) {
+                    privateFields.add(f.getName());
+                }
+            }
+            stack = new OpcodeStack();
+            fieldKinds = new HashMap<>();
+            mixedFields = new HashSet<>();
+            registerKinds = new HashMap<>();
+            loopOperations = new ArrayList<>();
+            loops = new ArrayList<>();
+
+            if (!privateFields.isEmpty()) {
+                stage = Stage.COLLECT_FIELDS;
+                super.visitClassContext(classContext);
+                fieldKinds.keySet().removeAll(mixedFields);
+            }
+
+            stage = Stage.FIND_BUGS;
+            super.visitClassContext(classContext);
+        } finally {
+            stack = null;
+            privateFields = null;
+            fieldKinds = null;
+            mixedFields = null;
+            registerKinds = null;
+            loopOperations = null;
+            loops = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack, and after parsing the method, report linear list operations that are in loops
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        registerKinds.clear();
+        loopOperations.clear();
+        loops.clear();
+        super.visitCode(obj);
+
+        if (stage == Stage.FIND_BUGS) {
+            for (ListOperation op : loopOperations) {
+                for (CodeRange loop : loops) {
+                    if (loop.contains(op.getPC())) {
+                        bugReporter.reportBug(new BugInstance(this, op.getBugType().name(), op.getPriority()).addClass(this).addMethod(this)
+                                .addSourceLine(this, op.getPC()));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to track the kinds of lists through locals and fields, and to look for linear list operations
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        ListKind kind = null;
+        try {
+            stack.precomputation(this);
+
+            if (OpcodeUtils.isAStore(seen)) {
+                processStore(RegisterUtils.getAStoreReg(this, seen));
+            } else if (OpcodeUtils.isALoad(seen)) {
+                kind = registerKinds.get(Integer.valueOf(RegisterUtils.getALoadReg(this, seen)));
+            } else {
+                switch (seen) {
+                    case Const.INVOKESPECIAL:
+                        if (Values.CONSTRUCTOR.equals(getNameConstantOperand())) {
+                            kind = CLASS_KINDS.get(getClassConstantOperand());
+                        }
+                    break;
+
+                    case Const.INVOKESTATIC:
+                        if ("java/util/Arrays".equals(getClassConstantOperand()) && "asList".equals(getNameConstantOperand())) {
+                            kind = ListKind.ARRAYS_AS_LIST;
+                        }
+                    break;
+
+                    case Const.INVOKEVIRTUAL:
+                    case Const.INVOKEINTERFACE:
+                        if (stage == Stage.FIND_BUGS) {
+                            processListCall();
+                        }
+                    break;
+
+                    case Const.GETFIELD:
+                    case Const.GETSTATIC:
+                        if (clsName.equals(getDottedClassConstantOperand())) {
+                            kind = fieldKinds.get(getNameConstantOperand());
+                        }
+                    break;
+
+                    case Const.PUTFIELD:
+                    case Const.PUTSTATIC:
+                        if (stage == Stage.COLLECT_FIELDS) {
+                            processFieldStore();
+                        }
+                    break;
+
+                    default:
+                        if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                            loops.add(new CodeRange(getBranchTarget(), getPC()));
+                        }
+                    break;
+                }
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((kind != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(kind);
+            }
+        }
+    }
+
+    private void processStore(int reg) {
+        if ((reg < 0) || (stack.getStackDepth() == 0)) {
+            return;
+        }
+
+        ListKind kind = getListKind(stack.getStackItem(0));
+        if (kind == null) {
+            registerKinds.remove(Integer.valueOf(reg));
+        } else {
+            registerKinds.put(Integer.valueOf(reg), kind);
+        }
+    }
+
+    private void processFieldStore() {
+        String fieldName = getNameConstantOperand();
+        if (!clsName.equals(getDottedClassConstantOperand()) || !privateFields.contains(fieldName) || (stack.getStackDepth() == 0)) {
+            return;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        if (itm.isNull()) {
+            return;
+        }
+
+        ListKind kind = getListKind(itm);
+        ListKind existingKind = fieldKinds.get(fieldName);
+        if (kind == null) {
+            mixedFields.add(fieldName);
+        } else if (existingKind == null) {
+            fieldKinds.put(fieldName, kind);
+        } else if (existingKind != kind) {
+            mixedFields.add(fieldName);
+        }
+    }
+
+    private void processListCall() {
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        OpcodeStack.Item listItem = stack.getStackItem(numParms);
+        ListKind kind = getListKind(listItem);
+        String methodName = getNameConstantOperand();
+
+        if (BULK_REMOVE_METHODS.contains(methodName) && (numParms == 1) && COLLECTION_CLASSES.contains(getClassConstantOperand())) {
+            OpcodeStack.Item argItem = stack.getStackItem(0);
+            if (isList(argItem) && (getListKind(argItem) != ListKind.ARRAYS_AS_LIST)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.LAC_REMOVE_ALL_WITH_LIST.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this).addCalledMethod(this));
+            }
+        }
+
+        if (kind == ListKind.LINKED_LIST) {
+            if (isIndexedAccess(methodName, signature)) {
+                loopOperations.add(new ListOperation(getPC(), BugType.LAC_LINKED_LIST_INDEXED_ACCESS, NORMAL_PRIORITY));
+            }
+        } else if (kind == ListKind.ARRAY_LIST) {
+            if (isHeadModification(methodName, signature)) {
+                loopOperations.add(new ListOperation(getPC(), BugType.LAC_ARRAY_LIST_AS_QUEUE, NORMAL_PRIORITY));
+            }
+        } else if ((kind == ListKind.COPY_ON_WRITE_LIST) && MUTATING_METHODS.contains(methodName)) {
+            loopOperations.add(new ListOperation(getPC(), BugType.LAC_COPY_ON_WRITE_MUTATION_IN_LOOP, NORMAL_PRIORITY));
+        }
+
+        if (SEARCH_METHODS.contains(methodName) && (numParms == 1) && ((kind != null) || LIST_CLASSES.contains(getClassConstantOperand()))) {
+            int priority = ((kind == null) || (kind == ListKind.ARRAYS_AS_LIST)) ? LOW_PRIORITY : NORMAL_PRIORITY;
+            loopOperations.add(new ListOperation(getPC(), BugType.LAC_LINEAR_SEARCH_IN_LOOP, priority));
+        }
+    }
+
+    /**
+     * returns whether the call is an indexed get, set, add or remove, other than at the head of the list, which a LinkedList does in constant time
+     */
+    private boolean isIndexedAccess(String methodName, String signature) {
+        if (!"get".equals(methodName) && !"remove".equals(methodName) && !"set".equals(methodName) && !"add".equals(methodName)) {
+            return false;
+        }
+        if (!signature.startsWith("(I")) {
+            return false;
+        }
+
+        Object index = stack.getStackItem(SignatureUtils.getNumParameters(signature) - 1).getConstant();
+        return !(index instanceof Integer) || (((Integer) index).intValue() != 0);
+    }
+
+    private boolean isHeadModification(String methodName, String signature) {
+        int indexOffset;
+        if ("remove".equals(methodName) && "(I)Ljava/lang/Object;".equals(signature)) {
+            indexOffset = 0;
+        } else if ("add".equals(methodName) && "(ILjava/lang/Object;)V".equals(signature)) {
+            indexOffset = 1;
+        } else {
+            return false;
+        }
+
+        Object index = stack.getStackItem(indexOffset).getConstant();
+        return (index instanceof Integer) && (((Integer) index).intValue() == 0);
+    }
+
+    private boolean isList(OpcodeStack.Item itm) {
+        if (getListKind(itm) != null) {
+            return true;
+        }
+
+        String signature = itm.getSignature();
+        if (signature.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX)) {
+            return LIST_CLASSES.contains(SignatureUtils.trimSignature(signature));
+        }
+        return false;
+    }
+
+    private static boolean isListFieldSignature(String signature) {
+        if (!signature.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX)) {
+            return false;
+        }
+
+        String clsName = SignatureUtils.trimSignature(signature);
+        return LIST_CLASSES.contains(clsName) || Values.SLASHED_JAVA_UTIL_COLLECTION.equals(clsName) || "java/lang/Iterable".equals(clsName);
+    }
+
+    private ListKind getListKind(OpcodeStack.Item itm) {
+        Object uv = itm.getUserValue();
+        if (uv instanceof ListKind) {
+            return (ListKind) uv;
+        }
+
+        XField xf = itm.getXField();
+        if ((xf != null) && clsName.equals(xf.getClassName())) {
+            ListKind kind = fieldKinds.get(xf.getName());
+            if (kind != null) {
+                return kind;
+            }
+        }
+
+        String signature = itm.getSignature();
+        if (signature.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX)) {
+            return CLASS_KINDS.get(SignatureUtils.trimSignature(signature));
+        }
+        return null;
+    }
+
+    /**
+     * holds a list operation that is linear in the size of the list, to be reported if it is found in a loop
+     */
+    static class ListOperation {
+        private final int pc;
+        private final BugType bugType;
+        private final int priority;
+
+        ListOperation(int pc, BugType bugType, int priority) {
+            this.pc = pc;
+            this.bugType = bugType;
+            this.priority = priority;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        BugType getBugType() {
+            return bugType;
+        }
+
+        int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -34,7 +34,9 @@ import com.mebigfatguy.fbcontrib.utils.CodeByteUtils;
 import com.mebigfatguy.fbcontrib.utils.FQMethod;
 import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.QMethod;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.ToString;
 import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 import com.mebigfatguy.fbcontrib.utils.Values;
@@ -61,6 +63,17 @@ public class MapUsageIssues extends BytecodeScanningDetector {
 
     private static final QMethod SIZE_METHOD = new QMethod("size", SignatureBuilder.SIG_VOID_TO_INT);
 
+    private static final String CONTAINSKEY = "containsKey";
+    private static final String PUT = "put";
+
+    private static final Set<String> LOOKUP_MAP_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_MAP, "java/util/concurrent/ConcurrentMap",
+            "java/util/HashMap", "java/util/LinkedHashMap", "java/util/TreeMap", "java/util/Hashtable", "java/util/concurrent/ConcurrentHashMap");
+
+    private static final Set<String> LOOKUP_METHODS = UnmodifiableSet.create("get", "getOrDefault", CONTAINSKEY);
+
+    private static final Set<String> READ_ONLY_METHODS = UnmodifiableSet.create("containsValue", "size", "isEmpty", "keySet", "entrySet", "values", "forEach",
+            Values.HASHCODE, "equals", Values.TOSTRING);
+
     private static final Set<String> COLLECTION_ACCESSORS = UnmodifiableSet.create("keySet", "entrySet", "values");
 
     private static JavaClass mapClass;
@@ -77,6 +90,12 @@ public class MapUsageIssues extends BytecodeScanningDetector {
     private OpcodeStack stack;
     private Map<MapRef, ContainsKey> mapContainsKeyUsed;
     private Map<MapRef, Get> mapGetUsed;
+    private Map<MapRef, Map<KeyRef, Lookup>> mapLookups;
+    /** the lookups known at the target of a forward branch, on all the branches seen so far that jump to it */
+    private Map<Integer, Map<MapRef, Map<KeyRef, Lookup>>> branchLookups;
+    /** the pc of the first repeated get of a key, to the most gets of that key seen */
+    private Map<Integer, Integer> repeatedGets;
+    private boolean fallsThrough;
 
     /**
      * constructs a MUI detector given the reporter to report bugs on
@@ -94,10 +113,16 @@ public class MapUsageIssues extends BytecodeScanningDetector {
             stack = new OpcodeStack();
             mapContainsKeyUsed = new HashMap<>();
             mapGetUsed = new HashMap<>();
+            mapLookups = new HashMap<>();
+            branchLookups = new HashMap<>();
+            repeatedGets = new HashMap<>();
             super.visitClassContext(classContext);
         } finally {
             mapContainsKeyUsed = null;
             mapGetUsed = null;
+            mapLookups = null;
+            branchLookups = null;
+            repeatedGets = null;
             stack = null;
         }
     }
@@ -107,7 +132,16 @@ public class MapUsageIssues extends BytecodeScanningDetector {
         stack.resetForMethodEntry(this);
         mapContainsKeyUsed.clear();
         mapGetUsed.clear();
+        mapLookups.clear();
+        branchLookups.clear();
+        repeatedGets.clear();
+        fallsThrough = true;
         super.visitCode(obj);
+
+        for (Map.Entry<Integer, Integer> repeat : repeatedGets.entrySet()) {
+            bugReporter.reportBug(new BugInstance(this, BugType.MUI_REPEATED_GET.name(), (repeat.getValue().intValue() > 2) ? NORMAL_PRIORITY : LOW_PRIORITY)
+                    .addClass(this).addMethod(this).addSourceLine(this, repeat.getKey().intValue()));
+        }
     }
 
     @Override
@@ -133,6 +167,8 @@ public class MapUsageIssues extends BytecodeScanningDetector {
                 }
             }
 
+            processLookups(seen);
+
             if ((seen == Const.IFNULL) || (seen == Const.IFNONNULL)) {
                 if (stack.getStackDepth() > 0) {
                     OpcodeStack.Item itm = stack.getStackItem(0);
@@ -213,6 +249,210 @@ public class MapUsageIssues extends BytecodeScanningDetector {
         }
     }
 
+    /**
+     * tracks the keys looked up in each map with get, getOrDefault and containsKey, so that a later put of the same key, or a repeated get of the same key,
+     * can be reported. The lookups of a map are forgotten when the map is modified, reassigned, or passed to another method, the lookups of maps in fields
+     * are forgotten when a method of this class is called, and the lookups of a key are forgotten when the key is reassigned. Where branches join, only the
+     * lookups made on every path are kept.
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void processLookups(int seen) {
+        mergeBranchLookups();
+        trackLookups(seen);
+        saveBranchLookups(seen);
+    }
+
+    /**
+     * joins the lookups saved by the branches to the current instruction with the lookups of the previous instruction, if it falls through to this one
+     */
+    private void mergeBranchLookups() {
+        Map<MapRef, Map<KeyRef, Lookup>> saved = branchLookups.remove(Integer.valueOf(getPC()));
+        if (saved == null) {
+            if (!fallsThrough) {
+                mapLookups.clear();
+            }
+        } else if (fallsThrough) {
+            retainCommonLookups(mapLookups, saved);
+        } else {
+            mapLookups.clear();
+            mapLookups.putAll(saved);
+        }
+    }
+
+    /**
+     * saves a copy of the current lookups for the targets of a forward branch or switch, and records whether the instruction falls through to the next one
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void saveBranchLookups(int seen) {
+        if ((seen == Const.TABLESWITCH) || (seen == Const.LOOKUPSWITCH)) {
+            int pc = getPC();
+            for (int offset : getSwitchOffsets()) {
+                saveLookupsForTarget(pc + offset);
+            }
+            saveLookupsForTarget(pc + getDefaultSwitchOffset());
+        } else if (OpcodeUtils.isBranch(seen) && (getBranchOffset() > 0)) {
+            saveLookupsForTarget(getBranchTarget());
+        }
+
+        fallsThrough = (seen != Const.GOTO) && (seen != Const.GOTO_W) && (seen != Const.TABLESWITCH) && (seen != Const.LOOKUPSWITCH)
+                && (seen != Const.ATHROW) && !OpcodeUtils.isReturn(seen);
+    }
+
+    private void saveLookupsForTarget(int target) {
+        Map<MapRef, Map<KeyRef, Lookup>> copy = new HashMap<>();
+        for (Map.Entry<MapRef, Map<KeyRef, Lookup>> entry : mapLookups.entrySet()) {
+            Map<KeyRef, Lookup> lookups = new HashMap<>();
+            for (Map.Entry<KeyRef, Lookup> lookup : entry.getValue().entrySet()) {
+                lookups.put(lookup.getKey(), new Lookup(lookup.getValue()));
+            }
+            copy.put(entry.getKey(), lookups);
+        }
+
+        Integer targetPC = Integer.valueOf(target);
+        Map<MapRef, Map<KeyRef, Lookup>> saved = branchLookups.get(targetPC);
+        if (saved == null) {
+            branchLookups.put(targetPC, copy);
+        } else {
+            retainCommonLookups(saved, copy);
+        }
+    }
+
+    /**
+     * removes the lookups that were not also made on the other path, keeping the fewer gets of a key when both paths looked it up
+     *
+     * @param lookups
+     *            the lookups to reduce
+     * @param otherLookups
+     *            the lookups made on the other path
+     */
+    private static void retainCommonLookups(Map<MapRef, Map<KeyRef, Lookup>> lookups, Map<MapRef, Map<KeyRef, Lookup>> otherLookups) {
+        Iterator<Map.Entry<MapRef, Map<KeyRef, Lookup>>> it = lookups.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MapRef, Map<KeyRef, Lookup>> entry = it.next();
+            Map<KeyRef, Lookup> otherKeys = otherLookups.get(entry.getKey());
+            if (otherKeys == null) {
+                it.remove();
+                continue;
+            }
+
+            Iterator<Map.Entry<KeyRef, Lookup>> keyIt = entry.getValue().entrySet().iterator();
+            while (keyIt.hasNext()) {
+                Map.Entry<KeyRef, Lookup> keyEntry = keyIt.next();
+                Lookup other = otherKeys.get(keyEntry.getKey());
+                if (other == null) {
+                    keyIt.remove();
+                } else if (other.getCount() < keyEntry.getValue().getCount()) {
+                    keyEntry.setValue(other);
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void trackLookups(int seen) {
+        if (mapLookups.isEmpty() && (seen != Const.INVOKEINTERFACE) && (seen != Const.INVOKEVIRTUAL)) {
+            return;
+        }
+
+        if (OpcodeUtils.isAStore(seen) || (seen == Const.PUTFIELD) || (seen == Const.PUTSTATIC)) {
+            if (stack.getStackDepth() > 0) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                int reg = OpcodeUtils.isAStore(seen) ? RegisterUtils.getAStoreReg(this, seen) : -1;
+                XField xf = (reg < 0) ? getXFieldOperand() : null;
+                Iterator<Map.Entry<MapRef, Map<KeyRef, Lookup>>> it = mapLookups.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<MapRef, Map<KeyRef, Lookup>> entry = it.next();
+                    if (entry.getKey().isStoredTo(reg, xf) || ((reg < 0) && entry.getKey().equals(new MapRef(itm)))) {
+                        it.remove();
+                    } else {
+                        Iterator<KeyRef> keyIt = entry.getValue().keySet().iterator();
+                        while (keyIt.hasNext()) {
+                            if (keyIt.next().isStoredTo(reg, xf)) {
+                                keyIt.remove();
+                            }
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        if ((seen != Const.INVOKEINTERFACE) && (seen != Const.INVOKEVIRTUAL) && (seen != Const.INVOKESPECIAL) && (seen != Const.INVOKESTATIC)
+                && (seen != Const.INVOKEDYNAMIC)) {
+            return;
+        }
+
+        String sig = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(sig);
+        if (stack.getStackDepth() < numParms) {
+            return;
+        }
+
+        String methodName = getNameConstantOperand();
+        boolean isMapCall = ((seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKEVIRTUAL)) && LOOKUP_MAP_CLASSES.contains(getClassConstantOperand())
+                && (stack.getStackDepth() > numParms);
+
+        for (int i = 0; i < numParms; i++) {
+            mapLookups.remove(new MapRef(stack.getStackItem(i)));
+        }
+
+        if ((seen == Const.INVOKEDYNAMIC) || getClassConstantOperand().equals(getClassName())) {
+            Iterator<MapRef> it = mapLookups.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().isField()) {
+                    it.remove();
+                }
+            }
+        }
+
+        if (!isMapCall) {
+            return;
+        }
+
+        MapRef mapRef = new MapRef(stack.getStackItem(numParms));
+        if (!mapRef.isValid()) {
+            return;
+        }
+
+        if (LOOKUP_METHODS.contains(methodName) && (numParms > 0)) {
+            KeyRef keyRef = new KeyRef(stack.getStackItem(numParms - 1));
+            if (keyRef.isValid()) {
+                Map<KeyRef, Lookup> lookups = mapLookups.get(mapRef);
+                if (lookups == null) {
+                    lookups = new HashMap<>();
+                    mapLookups.put(mapRef, lookups);
+                }
+                Lookup lookup = lookups.get(keyRef);
+                if (lookup == null) {
+                    lookups.put(keyRef, new Lookup(!CONTAINSKEY.equals(methodName)));
+                } else if (!CONTAINSKEY.equals(methodName)) {
+                    lookup.sawGet(getPC());
+                    if (lookup.getCount() > 1) {
+                        Integer repeatPC = Integer.valueOf(lookup.getRepeatPC());
+                        Integer count = repeatedGets.get(repeatPC);
+                        if ((count == null) || (count.intValue() < lookup.getCount())) {
+                            repeatedGets.put(repeatPC, Integer.valueOf(lookup.getCount()));
+                        }
+                    }
+                }
+            }
+        } else if (PUT.equals(methodName) && (numParms == 2)) {
+            Map<KeyRef, Lookup> lookups = mapLookups.remove(mapRef);
+            if ((lookups != null) && lookups.containsKey(new KeyRef(stack.getStackItem(1)))) {
+                bugReporter.reportBug(new BugInstance(this, BugType.MUI_GET_BEFORE_PUT.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this));
+            }
+        } else if (!READ_ONLY_METHODS.contains(methodName)) {
+            mapLookups.remove(mapRef);
+        }
+    }
+
     @SuppressWarnings("CPD-START")
     static class ContainsKey {
         private Object keyValue;
@@ -341,6 +581,92 @@ public class MapUsageIssues extends BytecodeScanningDetector {
         }
     }
 
+    /**
+     * represents the key of a map lookup, as a register, field or constant, so that lookups of the same key can be matched
+     */
+    static class KeyRef {
+        private int register;
+        private XField field;
+        private Object constant;
+
+        public KeyRef(OpcodeStack.Item itm) {
+            register = itm.getRegisterNumber();
+            if (register < 0) {
+                field = itm.getXField();
+                if (field == null) {
+                    constant = itm.getConstant();
+                }
+            }
+        }
+
+        public boolean isValid() {
+            return (register >= 0) || (field != null) || (constant != null);
+        }
+
+        public boolean isStoredTo(int reg, XField xf) {
+            return ((register >= 0) && (register == reg)) || ((field != null) && field.equals(xf));
+        }
+
+        @Override
+        public int hashCode() {
+            return register ^ Objects.hashCode(field) ^ Objects.hashCode(constant);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KeyRef)) {
+                return false;
+            }
+
+            KeyRef that = (KeyRef) o;
+
+            return (register == that.register) && Objects.equals(field, that.field) && Objects.equals(constant, that.constant);
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
+    /**
+     * holds the lookups of one key in a map, and where the first repeated get of that key occurred
+     */
+    static class Lookup {
+        private int getCount;
+        private int repeatPC;
+
+        public Lookup(boolean isGet) {
+            getCount = isGet ? 1 : 0;
+            repeatPC = -1;
+        }
+
+        public Lookup(Lookup lookup) {
+            getCount = lookup.getCount;
+            repeatPC = lookup.repeatPC;
+        }
+
+        public void sawGet(int pc) {
+            getCount++;
+            if ((getCount > 1) && (repeatPC < 0)) {
+                repeatPC = pc;
+            }
+        }
+
+        public int getCount() {
+            return getCount;
+        }
+
+        public int getRepeatPC() {
+            return repeatPC;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
     static class MapRef {
         private int register;
         private XField field;
@@ -375,6 +701,14 @@ public class MapUsageIssues extends BytecodeScanningDetector {
             return (register >= 0) || (field != null);
         }
 
+        public boolean isStoredTo(int reg, XField xf) {
+            return ((register >= 0) && (register == reg)) || ((field != null) && field.equals(xf));
+        }
+
+        public boolean isField() {
+            return field != null;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (!(o instanceof MapRef)) {
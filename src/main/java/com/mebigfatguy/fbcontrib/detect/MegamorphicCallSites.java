@@ -0,0 +1,144 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.MethodAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+
+/**
+ * looks for calls through interfaces or abstract classes inside of loops, where the called method has three or more implementations in the analyzed code. The
+ * JIT can inline a call site that has only seen one or two receiver types, but when more are seen, the call becomes a megamorphic dispatch through the vtable
+ * or itable, which can not be inlined, and blocks the optimizations that inlining would allow in the loop.
+ */
+public class MegamorphicCallSites extends BytecodeScanningDetector {
+
+    private static final int MIN_IMPLEMENTORS = 3;
+    private static final int MANY_IMPLEMENTORS = 5;
+
+    private final BugReporter bugReporter;
+    private List<CallSite> callSites;
+
+    /**
+     * constructs a MCS detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public MegamorphicCallSites(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to create and clear the call site list
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            callSites = new ArrayList<>();
+            super.visitClassContext(classContext);
+        } finally {
+            callSites = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the call sites seen, and after parsing the method, to report the ones found to be in a loop
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        callSites.clear();
+        super.visitCode(obj);
+
+        for (CallSite site : callSites) {
+            if (site.inLoop) {
+                int priority = (site.numImplementors >= MANY_IMPLEMENTORS) ? NORMAL_PRIORITY : LOW_PRIORITY;
+                bugReporter.reportBug(new BugInstance(this, BugType.MCS_MEGAMORPHIC_CALL_IN_LOOP.name(), priority).addClass(this).addMethod(this)
+                        .addMethod(site.calledMethod).describe(MethodAnnotation.METHOD_CALLED).addInt(site.numImplementors).addSourceLine(this, site.pc));
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to record calls to methods with many implementations, and to mark them as being in a loop when a backwards branch is found that
+     * jumps over them
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        if ((seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKEVIRTUAL)) {
+            String clsName = getClassConstantOperand();
+            String methodName = getNameConstantOperand();
+            String signature = getSigConstantOperand();
+            int numImplementors = Statistics.getStatistics().getNumImplementors(clsName, methodName, signature);
+            if (numImplementors >= MIN_IMPLEMENTORS) {
+                callSites.add(new CallSite(new MethodAnnotation(clsName.replace('/', '.'), methodName, signature, false), getPC(), numImplementors));
+            }
+        } else if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+            int loopTop = getBranchTarget();
+            for (CallSite site : callSites) {
+                if (loopTop < site.pc) {
+                    site.inLoop = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * holds a call to a method that has many implementations
+     */
+    static class CallSite {
+        MethodAnnotation calledMethod;
+        int pc;
+        int numImplementors;
+        boolean inLoop;
+
+        CallSite(MethodAnnotation called, int sitePC, int implementors) {
+            calledMethod = called;
+            pc = sitePC;
+            numImplementors = implementors;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for byte arrays that are copied only to be immediately consumed by something that could have used the original data directly. This includes
+ * ByteArrayOutputStream.toByteArray() results fed into ByteArrayInputStreams, Strings or OutputStreams, String.getBytes() results turned back into Strings,
+ * copies of byte arrays that are never modified, and copies of the backing array of a ByteBuffer.
+ */
+@CustomUserValue
+public class NeedlessByteArrayCopy extends BytecodeScanningDetector {
+
+    enum SourceKind {
+        STREAM_BYTES, STRING_BYTES, BUFFER_ARRAY, ARRAY_COPY
+    };
+
+    private static final String ANY_PARMS = "(*)";
+
+    private static final FQMethod BAOS_TO_BYTE_ARRAY = new FQMethod("java/io/ByteArrayOutputStream", "toByteArray", ANY_PARMS);
+    private static final FQMethod BYTE_BUFFER_ARRAY = new FQMethod("java/nio/ByteBuffer", "array", ANY_PARMS);
+
+    private static final Set<FQMethod> ARRAY_COPY_METHODS = UnmodifiableSet.create(
+    // @formatter:off
+            new FQMethod("java/util/Arrays", "copyOf", "([BI)[B"),
+            new FQMethod("java/util/Arrays", "copyOfRange", "([BII)[B")
+    // @formatter:on
+    );
+
+    private static final String SIG_BYTE_ARRAY_PARM_PREFIX = "(" + SignatureBuilder.SIG_BYTE_ARRAY;
+    private static final String SIG_TO_BYTE_ARRAY_SUFFIX = ")" + SignatureBuilder.SIG_BYTE_ARRAY;
+    private static final Set<String> CHARSET_SIGS = UnmodifiableSet.create(Values.SIG_JAVA_LANG_STRING, "Ljava/nio/charset/Charset;");
+
+    private BugReporter bugReporter;
+    private JavaClass outputStreamClass;
+    private OpcodeStack stack;
+    /** reg, source of byte array stored there */
+    private Map<Integer, ByteArraySource> registerSources;
+    private List<ByteArraySource> arrayCopies;
+
+    /**
+     * constructs a NBAC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public NeedlessByteArrayCopy(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+
+        try {
+            outputStreamClass = Repository.lookupClass("java.io.OutputStream");
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+        }
+    }
+
+    /**
+     * implements the visitor to create and tear down the opcode stack and source collections
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            stack = new OpcodeStack();
+            registerSources = new HashMap<>();
+            arrayCopies = new ArrayList<>();
+            super.visitClassContext(classContext);
+        } finally {
+            stack = null;
+            registerSources = null;
+            arrayCopies = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack and source collections, and after parsing the method, report array copies that were never modified or
+     * handed off to other code
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        registerSources.clear();
+        arrayCopies.clear();
+        super.visitCode(obj);
+
+        for (ByteArraySource copy : arrayCopies) {
+            if (!copy.isModified() && (copy.getRegister() >= 0)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.NBAC_UNMODIFIED_ARRAY_COPY.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this, copy.getPC()));
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to tag byte arrays with where they came from, and to look for those byte arrays being consumed in ways that make the copy
+     * needless
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        ByteArraySource sawSource = null;
+        try {
+            markModifications(seen);
+
+            switch (seen) {
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKESTATIC:
+                    sawSource = processInvoke();
+                break;
+
+                case Const.INVOKESPECIAL:
+                    processConstructor();
+                break;
+
+                case Const.ASTORE:
+                case Const.ASTORE_0:
+                case Const.ASTORE_1:
+                case Const.ASTORE_2:
+                case Const.ASTORE_3:
+                    processAStore(seen);
+                break;
+
+                case Const.ALOAD:
+                case Const.ALOAD_0:
+                case Const.ALOAD_1:
+                case Const.ALOAD_2:
+                case Const.ALOAD_3:
+                    sawSource = registerSources.get(Integer.valueOf(RegisterUtils.getALoadReg(this, seen)));
+                break;
+
+                default:
+                break;
+            }
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((sawSource != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(sawSource);
+            }
+        }
+    }
+
+    /**
+     * looks for array copies, or the sources of array copies, being handed off to code that may modify them, or being stored in ways this detector can't
+     * follow. Such copies are then considered to be needed.
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void markModifications(int seen) {
+        if (arrayCopies.isEmpty()) {
+            return;
+        }
+
+        switch (seen) {
+            case Const.BASTORE:
+            case Const.AASTORE:
+                if (stack.getStackDepth() >= 3) {
+                    markModified(stack.getStackItem(2));
+                    markModified(stack.getStackItem(0));
+                }
+            break;
+
+            case Const.PUTFIELD:
+            case Const.PUTSTATIC:
+            case Const.ARETURN:
+                if (stack.getStackDepth() > 0) {
+                    markModified(stack.getStackItem(0));
+                }
+            break;
+
+            case Const.INVOKEVIRTUAL:
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKESPECIAL:
+            case Const.INVOKESTATIC:
+            case Const.INVOKEDYNAMIC:
+                if ((seen != Const.INVOKEDYNAMIC) && isArrayCopy(getClassConstantOperand(), getNameConstantOperand(), getSigConstantOperand())) {
+                    // copying an array doesn't modify the array being copied
+                    break;
+                }
+                int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+                if (stack.getStackDepth() >= numParms) {
+                    for (int i = 0; i < numParms; i++) {
+                        markModified(stack.getStackItem(i));
+                    }
+                }
+            break;
+
+            default:
+            break;
+        }
+    }
+
+    /**
+     * marks the array copy represented by this stack item, or the array copies made from this stack item, as being modified
+     *
+     * @param itm
+     *            the stack item that is being modified or handed off
+     */
+    private void markModified(OpcodeStack.Item itm) {
+        ByteArraySource source = (ByteArraySource) itm.getUserValue();
+        if ((source != null) && (source.getKind() == SourceKind.ARRAY_COPY)) {
+            source.setModified();
+        }
+
+        int reg = itm.getRegisterNumber();
+        if (reg >= 0) {
+            for (ByteArraySource copy : arrayCopies) {
+                if ((copy.getSourceRegister() == reg) || (copy.getRegister() == reg)) {
+                    copy.setModified();
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private ByteArraySource processInvoke() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+
+        FQMethod fqm = new FQMethod(clsName, methodName, ANY_PARMS);
+        if (BAOS_TO_BYTE_ARRAY.equals(fqm)) {
+            return new ByteArraySource(SourceKind.STREAM_BYTES, getPC());
+        }
+        if (BYTE_BUFFER_ARRAY.equals(fqm)) {
+            return new ByteArraySource(SourceKind.BUFFER_ARRAY, getPC());
+        }
+        if (Values.SLASHED_JAVA_LANG_STRING.equals(clsName) && "getBytes".equals(methodName) && signature.endsWith(SIG_TO_BYTE_ARRAY_SUFFIX)) {
+            ByteArraySource source = new ByteArraySource(SourceKind.STRING_BYTES, getPC());
+            if (SignatureUtils.getNumParameters(signature) > 0) {
+                source.setCharset(getCharset());
+            }
+            return source;
+        }
+
+        if (ARRAY_COPY_METHODS.contains(new FQMethod(clsName, methodName, signature))) {
+            return processArrayCopy(SignatureUtils.getNumParameters(signature) - 1);
+        }
+        if (SignatureBuilder.SIG_BYTE_ARRAY.equals(clsName) && "clone".equals(methodName)) {
+            return processArrayCopy(0);
+        }
+
+        if ("write".equals(methodName) && signature.startsWith(SIG_BYTE_ARRAY_PARM_PREFIX)) {
+            ByteArraySource source = getByteArrayArgument(signature);
+            if ((source != null) && (source.getKind() == SourceKind.STREAM_BYTES) && isOutputStream(clsName)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.NBAC_BYTE_ARRAY_OUTPUT_STREAM_COPY.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addSourceLine(this));
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isArrayCopy(String clsName, String methodName, String signature) {
+        return ARRAY_COPY_METHODS.contains(new FQMethod(clsName, methodName, signature))
+                || (SignatureBuilder.SIG_BYTE_ARRAY.equals(clsName) && "clone".equals(methodName));
+    }
+
+    /**
+     * returns an identity of the character set that is on the top of the stack, that only equals the identity of the same constant character set. Character
+     * sets that aren't constants get an identity of their own.
+     *
+     * @return the identity of the character set
+     */
+    private Object getCharset() {
+        if (stack.getStackDepth() == 0) {
+            return new Object();
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        Object constant = itm.getConstant();
+        if (constant != null) {
+            return constant;
+        }
+
+        XField field = itm.getXField();
+        if ((field != null) && field.isStatic() && field.isFinal()) {
+            return field;
+        }
+
+        return new Object();
+    }
+
+    /**
+     * processes Arrays.copyOf, Arrays.copyOfRange or clone of a byte array, reporting copies of a ByteBuffer's array and otherwise tagging the copy so that
+     * its later use can be followed
+     *
+     * @param sourceOffset
+     *            the stack offset of the array being copied
+     * @return the source to tag the copy with
+     */
+    @Nullable
+    private ByteArraySource processArrayCopy(int sourceOffset) {
+        if (stack.getStackDepth() <= sourceOffset) {
+            return null;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(sourceOffset);
+        ByteArraySource source = (ByteArraySource) itm.getUserValue();
+        if ((source != null) && (source.getKind() == SourceKind.BUFFER_ARRAY)) {
+            bugReporter.reportBug(new BugInstance(this, BugType.NBAC_BYTE_BUFFER_ARRAY_COPY.name(), LOW_PRIORITY).addClass(this).addMethod(this)
+                    .addSourceLine(this));
+            return null;
+        }
+
+        int sourceReg = itm.getRegisterNumber();
+        if (sourceReg < 0) {
+            return null;
+        }
+
+        ByteArraySource copy = new ByteArraySource(SourceKind.ARRAY_COPY, getPC(), sourceReg);
+        arrayCopies.add(copy);
+        return copy;
+    }
+
+    private void processConstructor() throws ClassNotFoundException {
+        if (!Values.CONSTRUCTOR.equals(getNameConstantOperand())) {
+            return;
+        }
+
+        String signature = getSigConstantOperand();
+        if (!signature.startsWith(SIG_BYTE_ARRAY_PARM_PREFIX)) {
+            return;
+        }
+
+        ByteArraySource source = getByteArrayArgument(signature);
+        if (source == null) {
+            return;
+        }
+
+        String clsName = getClassConstantOperand();
+        if ("java/io/ByteArrayInputStream".equals(clsName)) {
+            if (source.getKind() == SourceKind.STREAM_BYTES) {
+                bugReporter.reportBug(new BugInstance(this, BugType.NBAC_BYTE_ARRAY_OUTPUT_STREAM_COPY.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addSourceLine(this));
+            }
+        } else if (Values.SLASHED_JAVA_LANG_STRING.equals(clsName)) {
+            if (source.getKind() == SourceKind.STREAM_BYTES) {
+                bugReporter.reportBug(new BugInstance(this, BugType.NBAC_BYTE_ARRAY_OUTPUT_STREAM_COPY.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addSourceLine(this));
+            } else if ((source.getKind() == SourceKind.STRING_BYTES) && isSameCharset(source, signature)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.NBAC_STRING_BYTES_ROUND_TRIP.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this));
+            }
+        }
+    }
+
+    /**
+     * returns whether the String constructor being called decodes the bytes with the same character set that String.getBytes encoded them with. Either both
+     * use the default character set, or both are passed the same constant character set. Otherwise this may be a deliberate conversion between character
+     * sets.
+     *
+     * @param source
+     *            the String.getBytes source of the byte array
+     * @param signature
+     *            the signature of the String constructor
+     * @return whether the same character set is used for both conversions
+     */
+    private boolean isSameCharset(ByteArraySource source, String signature) {
+        List<String> parmSigs = SignatureUtils.getParameterSignatures(signature);
+        Object charset = CHARSET_SIGS.contains(parmSigs.get(parmSigs.size() - 1)) ? getCharset() : null;
+        Object bytesCharset = source.getCharset();
+        return (charset == null) ? (bytesCharset == null) : charset.equals(bytesCharset);
+    }
+
+    private void processAStore(int seen) {
+        if (stack.getStackDepth() == 0) {
+            return;
+        }
+
+        Integer reg = Integer.valueOf(RegisterUtils.getAStoreReg(this, seen));
+        ByteArraySource source = (ByteArraySource) stack.getStackItem(0).getUserValue();
+        if (source == null) {
+            registerSources.remove(reg);
+            return;
+        }
+
+        if (source.getKind() == SourceKind.ARRAY_COPY) {
+            if (source.getRegister() < 0) {
+                source.setRegister(reg.intValue());
+            } else if (source.getRegister() != reg.intValue()) {
+                // aliased, don't bother following it
+                source.setModified();
+            }
+        }
+        registerSources.put(reg, source);
+    }
+
+    /**
+     * returns the source of the byte array passed as the first parameter of the method currently being called
+     *
+     * @param signature
+     *            the signature of the method being called, whose first parameter is a byte array
+     * @return the source of the byte array if known
+     */
+    @Nullable
+    private ByteArraySource getByteArrayArgument(String signature) {
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() < numParms) {
+            return null;
+        }
+
+        return (ByteArraySource) stack.getStackItem(numParms - 1).getUserValue();
+    }
+
+    private boolean isOutputStream(String clsName) {
+        if (outputStreamClass == null) {
+            return false;
+        }
+
+        try {
+            return Repository.lookupClass(clsName).instanceOf(outputStreamClass);
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+            return false;
+        }
+    }
+
+    /**
+     * represents where a byte array on the stack came from, and in the case of copies, whether the copy was later modified or handed off
+     */
+    static class ByteArraySource {
+        private final SourceKind kind;
+        private final int pc;
+        private final int sourceRegister;
+        private int register;
+        private boolean modified;
+        private Object charset;
+
+        ByteArraySource(SourceKind kind, int pc) {
+            this(kind, pc, -1);
+        }
+
+        ByteArraySource(SourceKind kind, int pc, int sourceReg) {
+            this.kind = kind;
+            this.pc = pc;
+            sourceRegister = sourceReg;
+            register = -1;
+        }
+
+        SourceKind getKind() {
+            return kind;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        int getSourceRegister() {
+            return sourceRegister;
+        }
+
+        int getRegister() {
+            return register;
+        }
+
+        void setRegister(int reg) {
+            register = reg;
+        }
+
+        boolean isModified() {
+            return modified;
+        }
+
+        void setModified() {
+            modified = true;
+        }
+
+        Object getCharset() {
+            return charset;
+        }
+
+        void setCharset(Object charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
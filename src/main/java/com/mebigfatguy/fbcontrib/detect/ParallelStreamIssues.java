@@ -0,0 +1,655 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.BootstrapMethods;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.collect.MethodInfo;
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BlockingCallUtils;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.LambdaUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for parallel streams that are likely to be slower than their sequential equivalent, or that starve the common
+ * ForkJoinPool. This includes parallel streams over small, constant sized sources, or over sources that split poorly
+ * such as LinkedLists and Iterator based spliterators, as well as parallel pipelines whose lambdas synchronize, make
+ * blocking calls, or mutate shared collections that are not thread safe.
+ */
+@CustomUserValue
+public class ParallelStreamIssues extends BytecodeScanningDetector {
+
+    private static final int SMALL_SOURCE_SIZE = 16;
+
+    private static final Set<String> STREAM_CLASSES = UnmodifiableSet.create("java/util/stream/BaseStream", "java/util/stream/Stream",
+            "java/util/stream/IntStream", "java/util/stream/LongStream", "java/util/stream/DoubleStream");
+
+    private static final Set<String> SMALL_COLLECTION_FACTORIES = UnmodifiableSet.create("singleton", "singletonList", "singletonMap", "emptyList",
+            "emptySet", "emptyMap");
+
+    private static final Set<String> NON_CONCURRENT_COLLECTIONS = UnmodifiableSet.create("java/util/ArrayList", "java/util/LinkedList",
+            "java/util/HashMap", "java/util/HashSet", "java/util/LinkedHashMap", "java/util/LinkedHashSet", "java/util/TreeMap", "java/util/TreeSet",
+            "java/util/ArrayDeque", "java/util/PriorityQueue", "java/util/IdentityHashMap", "java/util/WeakHashMap", "java/util/EnumMap");
+
+    private static final Set<String> COLLECTION_INTERFACES = UnmodifiableSet.create("java/util/Collection", "java/util/List", "java/util/Set",
+            "java/util/Map", "java/util/Queue", "java/util/Deque", "java/util/SortedSet", "java/util/SortedMap", "java/util/NavigableSet",
+            "java/util/NavigableMap");
+
+    private static final Set<String> MUTATORS = UnmodifiableSet.create("add", "addAll", "addFirst", "addLast", "put", "putAll", "putIfAbsent", "remove",
+            "removeAll", "removeIf", "retainAll", "clear", "set", "offer", "push", "poll", "pop", "compute", "computeIfAbsent", "computeIfPresent", "merge",
+            "replace", "replaceAll");
+
+    enum Stage {
+        FIND_PIPELINES, CHECK_LAMBDAS
+    }
+
+    enum PSIUserValue {
+        SMALL_ARRAY, SMALL_SOURCE, POOR_SPLIT_SOURCE, SMALL_STREAM, POOR_SPLIT_STREAM, PARALLEL_STREAM, NON_CONCURRENT_COLLECTION, LINKED_LIST
+    }
+
+    private final BugReporter bugReporter;
+    private JavaClass cls;
+    private OpcodeStack stack;
+    private BootstrapMethods bootstrapAtt;
+    private Map<String, ParallelUse> parallelLambdas;
+    private Stage stage;
+    private ParallelUse currentUse;
+
+    /**
+     * constructs a PSI detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public ParallelStreamIssues(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to find the parallel stream pipelines of the class, and then to look at the lambdas that are
+     * passed to them
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            cls = classContext.getJavaClass();
+            if (cls.getMajor() >= Const.MAJOR_1_8) {
+                stack = new OpcodeStack();
+                bootstrapAtt = LambdaUtils.getBootstrapAttribute(cls);
+                parallelLambdas = new HashMap<>();
+                stage = Stage.FIND_PIPELINES;
+                super.visitClassContext(classContext);
+
+                if ((bootstrapAtt != null) && !parallelLambdas.isEmpty()) {
+                    stage = Stage.CHECK_LAMBDAS;
+                    super.visitClassContext(classContext);
+                }
+            }
+        } finally {
+            currentUse = null;
+            parallelLambdas = null;
+            bootstrapAtt = null;
+            stack = null;
+            cls = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack, and only parse the lambda bodies of parallel pipelines in the second stage
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (stage == Stage.CHECK_LAMBDAS) {
+            Method m = getMethod();
+            currentUse = parallelLambdas.get(m.getName() + m.getSignature());
+            if (currentUse == null) {
+                return;
+            }
+
+            if (m.isSynchronized()) {
+                reportLambdaBug(BugType.PSI_SYNCHRONIZATION_IN_PARALLEL_STREAM, NORMAL_PRIORITY, false);
+            }
+        }
+
+        stack.resetForMethodEntry(this);
+        super.visitCode(obj);
+    }
+
+    /**
+     * implements the visitor to track stream sources and parallel streams in the first stage, and look for costly
+     * operations inside the lambdas of parallel streams in the second stage
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        Object userValue = null;
+        try {
+            if (stage == Stage.FIND_PIPELINES) {
+                userValue = sawOpcodeInPipelines(seen);
+            } else {
+                sawOpcodeInLambda(seen);
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((userValue != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(userValue);
+            }
+        }
+    }
+
+    @Nullable
+    private Object sawOpcodeInPipelines(int seen) {
+        switch (seen) {
+            case Const.ANEWARRAY:
+            case Const.NEWARRAY:
+                if (stack.getStackDepth() > 0) {
+                    Object size = stack.getStackItem(0).getConstant();
+                    if ((size instanceof Integer) && (((Integer) size).intValue() <= SMALL_SOURCE_SIZE)) {
+                        return PSIUserValue.SMALL_ARRAY;
+                    }
+                }
+            break;
+
+            case Const.NEW:
+                if ("java/util/LinkedList".equals(getClassConstantOperand())) {
+                    return PSIUserValue.LINKED_LIST;
+                }
+                if (NON_CONCURRENT_COLLECTIONS.contains(getClassConstantOperand())) {
+                    return PSIUserValue.NON_CONCURRENT_COLLECTION;
+                }
+            break;
+
+            case Const.INVOKEDYNAMIC:
+                return buildLambdaRef();
+
+            case Const.INVOKESTATIC:
+                return processStaticCall();
+
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKEVIRTUAL:
+                return processInstanceCall();
+
+            default:
+            break;
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private PSIUserValue processStaticCall() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+
+        switch (clsName) {
+            case "java/util/Collections":
+                return SMALL_COLLECTION_FACTORIES.contains(methodName) ? PSIUserValue.SMALL_SOURCE : null;
+
+            case "java/util/Arrays":
+                if ("asList".equals(methodName)) {
+                    return isSmallArrayArgument(signature) ? PSIUserValue.SMALL_SOURCE : null;
+                }
+                if ("stream".equals(methodName)) {
+                    return isSmallArrayArgument(signature) ? PSIUserValue.SMALL_STREAM : null;
+                }
+            break;
+
+            case "java/util/List":
+            case "java/util/Set":
+                if ("of".equals(methodName)) {
+                    return isSmallArrayArgument(signature) ? PSIUserValue.SMALL_SOURCE : null;
+                }
+            break;
+
+            case "java/util/stream/Stream":
+            case "java/util/stream/IntStream":
+            case "java/util/stream/LongStream":
+            case "java/util/stream/DoubleStream":
+                if ("of".equals(methodName)) {
+                    return isSmallArrayArgument(signature) ? PSIUserValue.SMALL_STREAM : null;
+                }
+                if (("range".equals(methodName) || "rangeClosed".equals(methodName)) && isSmallRange()) {
+                    return PSIUserValue.SMALL_STREAM;
+                }
+            break;
+
+            case "java/util/Spliterators":
+                if (signature.startsWith("(Ljava/util/Iterator;") || signature.startsWith("(Ljava/util/PrimitiveIterator")) {
+                    return PSIUserValue.POOR_SPLIT_SOURCE;
+                }
+            break;
+
+            case "java/util/stream/StreamSupport":
+                return processStreamSupport(signature);
+
+            default:
+            break;
+        }
+
+        return null;
+    }
+
+    /**
+     * returns whether the array passed as the last argument of a method was allocated with a small constant size, or
+     * whether the method is a fixed arity overload that takes no array at all
+     *
+     * @param signature
+     *            the signature of the called method
+     * @return whether the source of the stream is small
+     */
+    private boolean isSmallArrayArgument(String signature) {
+        if (signature.indexOf('[') < 0) {
+            return true;
+        }
+
+        return (stack.getStackDepth() > 0) && (stack.getStackItem(0).getUserValue() == PSIUserValue.SMALL_ARRAY);
+    }
+
+    private boolean isSmallRange() {
+        if (stack.getStackDepth() < 2) {
+            return false;
+        }
+
+        Object end = stack.getStackItem(0).getConstant();
+        Object start = stack.getStackItem(1).getConstant();
+        return (start instanceof Number) && (end instanceof Number) && ((((Number) end).longValue() - ((Number) start).longValue()) <= SMALL_SOURCE_SIZE);
+    }
+
+    @Nullable
+    private PSIUserValue processStreamSupport(String signature) {
+        if (!signature.endsWith("Z)Ljava/util/stream/Stream;") && !signature.endsWith("Z)Ljava/util/stream/IntStream;")
+                && !signature.endsWith("Z)Ljava/util/stream/LongStream;") && !signature.endsWith("Z)Ljava/util/stream/DoubleStream;")) {
+            return null;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() < numParms) {
+            return null;
+        }
+
+        boolean isParallel = Integer.valueOf(1).equals(stack.getStackItem(0).getConstant());
+        boolean isPoorSplit = stack.getStackItem(numParms - 1).getUserValue() == PSIUserValue.POOR_SPLIT_SOURCE;
+        if (!isParallel) {
+            return isPoorSplit ? PSIUserValue.POOR_SPLIT_STREAM : null;
+        }
+
+        if (isPoorSplit) {
+            reportSourceBug(BugType.PSI_PARALLEL_STREAM_ON_POOR_SPLITTER);
+        }
+        return PSIUserValue.PARALLEL_STREAM;
+    }
+
+    @Nullable
+    private Object processInstanceCall() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return null;
+        }
+
+        OpcodeStack.Item receiver = stack.getStackItem(numParms);
+        Object receiverValue = receiver.getUserValue();
+
+        if ("parallelStream".equals(methodName) && (numParms == 0)) {
+            if (receiverValue == PSIUserValue.SMALL_SOURCE) {
+                reportSourceBug(BugType.PSI_PARALLEL_STREAM_ON_SMALL_SOURCE);
+            } else if (isPoorSplitter(receiver)) {
+                reportSourceBug(BugType.PSI_PARALLEL_STREAM_ON_POOR_SPLITTER);
+            }
+            return PSIUserValue.PARALLEL_STREAM;
+        }
+
+        if ("stream".equals(methodName) && (numParms == 0)) {
+            if (receiverValue == PSIUserValue.SMALL_SOURCE) {
+                return PSIUserValue.SMALL_STREAM;
+            }
+            return isPoorSplitter(receiver) ? PSIUserValue.POOR_SPLIT_STREAM : null;
+        }
+
+        if ("spliterator".equals(methodName) && (numParms == 0)) {
+            return ("java/lang/Iterable".equals(clsName) || isPoorSplitter(receiver)) ? PSIUserValue.POOR_SPLIT_SOURCE : null;
+        }
+
+        if (!STREAM_CLASSES.contains(clsName)) {
+            return null;
+        }
+
+        if ("parallel".equals(methodName)) {
+            if (receiverValue == PSIUserValue.SMALL_STREAM) {
+                reportSourceBug(BugType.PSI_PARALLEL_STREAM_ON_SMALL_SOURCE);
+            } else if (receiverValue == PSIUserValue.POOR_SPLIT_STREAM) {
+                reportSourceBug(BugType.PSI_PARALLEL_STREAM_ON_POOR_SPLITTER);
+            }
+            return PSIUserValue.PARALLEL_STREAM;
+        }
+
+        if ("sequential".equals(methodName)) {
+            return null;
+        }
+
+        if (receiverValue == PSIUserValue.PARALLEL_STREAM) {
+            for (int i = 0; i < numParms; i++) {
+                Object argValue = stack.getStackItem(i).getUserValue();
+                if (argValue instanceof LambdaRef) {
+                    LambdaRef ref = (LambdaRef) argValue;
+                    if (!parallelLambdas.containsKey(ref.getKey())) {
+                        parallelLambdas.put(ref.getKey(), new ParallelUse(getMethod(), SourceLineAnnotation.fromVisitedInstruction(this), ref));
+                    }
+                }
+            }
+        }
+
+        if (((receiverValue == PSIUserValue.SMALL_STREAM) || (receiverValue == PSIUserValue.POOR_SPLIT_STREAM)
+                || (receiverValue == PSIUserValue.PARALLEL_STREAM))
+                && STREAM_CLASSES.contains(SignatureUtils.trimSignature(SignatureUtils.getReturnSignature(signature)))) {
+            return receiverValue;
+        }
+
+        return null;
+    }
+
+    private static boolean isPoorSplitter(OpcodeStack.Item itm) {
+        return (itm.getUserValue() == PSIUserValue.POOR_SPLIT_SOURCE) || (itm.getUserValue() == PSIUserValue.LINKED_LIST)
+                || "Ljava/util/LinkedList;".equals(itm.getSignature());
+    }
+
+    private void reportSourceBug(BugType bugType) {
+        bugReporter.reportBug(new BugInstance(this, bugType.name(), NORMAL_PRIORITY).addClass(this).addMethod(this).addSourceLine(this));
+    }
+
+    /**
+     * builds a reference to the implementation method of a lambda or method reference, if it is defined in this class,
+     * along with the registers in the implementation method that hold captured values
+     *
+     * @return the lambda reference, or null if the implementation is not in this class
+     */
+    @Nullable
+    private LambdaRef buildLambdaRef() {
+        if (bootstrapAtt == null) {
+            return null;
+        }
+
+        ConstantInvokeDynamic cid = (ConstantInvokeDynamic) getConstantRefOperand();
+        ConstantPool cp = getConstantPool();
+        ConstantMethodHandle cmh = LambdaUtils.getMethodHandle(bootstrapAtt, cp, cid.getBootstrapMethodAttrIndex());
+        if (cmh == null) {
+            return null;
+        }
+
+        ConstantCP methodRef = (ConstantCP) cp.getConstant(cmh.getReferenceIndex());
+        if (!methodRef.getClass(cp).equals(cls.getClassName())) {
+            return null;
+        }
+
+        ConstantNameAndType implNameAndType = (ConstantNameAndType) cp.getConstant(methodRef.getNameAndTypeIndex());
+        ConstantNameAndType indyNameAndType = (ConstantNameAndType) cp.getConstant(cid.getNameAndTypeIndex());
+        int numCaptures = SignatureUtils.getNumParameters(indyNameAndType.getSignature(cp));
+        if (stack.getStackDepth() < numCaptures) {
+            return null;
+        }
+
+        boolean isStatic = cmh.getReferenceKind() == Const.REF_invokeStatic;
+        int firstCapture = isStatic ? 0 : 1;
+        String implSignature = implNameAndType.getSignature(cp);
+        LambdaRef ref = new LambdaRef(implNameAndType.getName(cp) + implSignature);
+
+        Iterator<Integer> slots = SignatureUtils.getParameterSlotAndSignatures(isStatic, implSignature).keySet().iterator();
+        for (int c = firstCapture; (c < numCaptures) && slots.hasNext(); c++) {
+            Integer reg = slots.next();
+            OpcodeStack.Item capture = stack.getStackItem(numCaptures - 1 - c);
+            Object captureValue = capture.getUserValue();
+            boolean isNonConcurrent = (captureValue == PSIUserValue.NON_CONCURRENT_COLLECTION) || (captureValue == PSIUserValue.LINKED_LIST)
+                    || NON_CONCURRENT_COLLECTIONS.contains(SignatureUtils.trimSignature(capture.getSignature()));
+            ref.addCapture(reg, isNonConcurrent);
+        }
+
+        return ref;
+    }
+
+    private void sawOpcodeInLambda(int seen) {
+        switch (seen) {
+            case Const.MONITORENTER:
+                reportLambdaBug(BugType.PSI_SYNCHRONIZATION_IN_PARALLEL_STREAM, NORMAL_PRIORITY, false);
+            break;
+
+            case Const.INVOKEVIRTUAL:
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKESPECIAL:
+            case Const.INVOKESTATIC:
+                processLambdaCall();
+            break;
+
+            default:
+            break;
+        }
+    }
+
+    private void processLambdaCall() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+
+        if (BlockingCallUtils.isBlockingCall(clsName, methodName, signature)) {
+            reportLambdaBug(BugType.PSI_BLOCKING_CALL_IN_PARALLEL_STREAM, NORMAL_PRIORITY, true);
+            return;
+        }
+
+        if (clsName.equals(getClassName())) {
+            MethodInfo mi = Statistics.getStatistics().getMethodStatistics(clsName, methodName, signature);
+            if (!mi.canBeOverridden()) {
+                if (mi.getMayBlock()) {
+                    reportLambdaBug(BugType.PSI_BLOCKING_CALL_IN_PARALLEL_STREAM, NORMAL_PRIORITY, true);
+                } else if ((mi.getDeclaredAccess() & Const.ACC_SYNCHRONIZED) != 0) {
+                    reportLambdaBug(BugType.PSI_SYNCHRONIZATION_IN_PARALLEL_STREAM, NORMAL_PRIORITY, true);
+                }
+            }
+            return;
+        }
+
+        if (!MUTATORS.contains(methodName) || (!NON_CONCURRENT_COLLECTIONS.contains(clsName) && !COLLECTION_INTERFACES.contains(clsName))) {
+            return;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        OpcodeStack.Item receiver = stack.getStackItem(numParms);
+        String receiverSig = receiver.getSignature();
+        if (receiverSig.startsWith("Ljava/util/concurrent/")) {
+            return;
+        }
+
+        int reg = receiver.getRegisterNumber();
+        boolean isCaptured = currentUse.getLambdaRef().isCaptured(reg);
+        if (!isCaptured && !isSharedField(receiver)) {
+            return;
+        }
+
+        int priority = (currentUse.getLambdaRef().isNonConcurrentCapture(reg) || NON_CONCURRENT_COLLECTIONS.contains(SignatureUtils.trimSignature(receiverSig)))
+                ? NORMAL_PRIORITY
+                : LOW_PRIORITY;
+        reportLambdaBug(BugType.PSI_SHARED_COLLECTION_MUTATION_IN_PARALLEL_STREAM, priority, true);
+    }
+
+    /**
+     * returns whether an item is a collection held in a field that all the elements of the stream share, either a static field, or a field of this class read
+     * through the captured this. A field of the stream element, or of some other object, is not shared.
+     *
+     * @param itm
+     *            the receiver of the mutating call
+     * @return whether the collection is held in a shared field
+     */
+    private boolean isSharedField(OpcodeStack.Item itm) {
+        XField xf = itm.getXField();
+        if (xf == null) {
+            return false;
+        }
+
+        if (xf.isStatic()) {
+            return true;
+        }
+
+        return !getMethod().isStatic() && (itm.getFieldLoadedFromRegister() == 0) && xf.getClassName().equals(getDottedClassName());
+    }
+
+    /**
+     * reports a bug found in a lambda body against the method that builds the parallel pipeline, once per lambda and bug
+     * type
+     *
+     * @param bugType
+     *            the type of bug to report
+     * @param priority
+     *            the priority of the bug
+     * @param addCalledMethod
+     *            whether the currently invoked method should be added to the bug
+     */
+    private void reportLambdaBug(BugType bugType, int priority, boolean addCalledMethod) {
+        if (!currentUse.markReported(bugType)) {
+            return;
+        }
+
+        BugInstance bug = new BugInstance(this, bugType.name(), priority).addClass(this).addMethod(cls, currentUse.getMethod());
+        if (addCalledMethod) {
+            bug.addCalledMethod(this);
+        }
+        bugReporter.reportBug(bug.addSourceLine(currentUse.getSourceLine()));
+    }
+
+    /**
+     * represents a lambda or method reference implemented in this class, and the registers of its implementation that
+     * hold captured values
+     */
+    static class LambdaRef {
+        private final String key;
+        private final Set<Integer> capturedRegs;
+        private final Set<Integer> nonConcurrentRegs;
+
+        LambdaRef(String key) {
+            this.key = key;
+            capturedRegs = new HashSet<>();
+            nonConcurrentRegs = new HashSet<>();
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        void addCapture(Integer reg, boolean isNonConcurrent) {
+            capturedRegs.add(reg);
+            if (isNonConcurrent) {
+                nonConcurrentRegs.add(reg);
+            }
+        }
+
+        boolean isCaptured(int reg) {
+            return capturedRegs.contains(Integer.valueOf(reg));
+        }
+
+        boolean isNonConcurrentCapture(int reg) {
+            return nonConcurrentRegs.contains(Integer.valueOf(reg));
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
+    /**
+     * represents the use of a lambda in a parallel stream pipeline
+     */
+    static class ParallelUse {
+        private final Method method;
+        private final SourceLineAnnotation sourceLine;
+        private final LambdaRef lambdaRef;
+        private final Set<BugType> reported;
+
+        ParallelUse(Method method, SourceLineAnnotation sourceLine, LambdaRef lambdaRef) {
+            this.method = method;
+            this.sourceLine = sourceLine;
+            this.lambdaRef = lambdaRef;
+            reported = EnumSet.noneOf(BugType.class);
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        SourceLineAnnotation getSourceLine() {
+            return sourceLine;
+        }
+
+        LambdaRef getLambdaRef() {
+            return lambdaRef;
+        }
+
+        boolean markReported(BugType bugType) {
+            return reported.add(bugType);
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
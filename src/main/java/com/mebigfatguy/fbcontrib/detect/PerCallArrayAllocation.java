@@ -0,0 +1,375 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeByteUtils;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XMethod;
+
+/**
+ * looks for array allocations that are hidden behind method calls, and that are made on every iteration of a loop. This includes calling the values() method
+ * of an enum, which clones the array of constants each time, calling varargs methods, which allocate an array to hold the arguments, and calling getters that
+ * return a defensive clone of an array field. It also looks for indexing directly into the result of an enum's values() method, which copies the whole array
+ * to fetch one element.
+ */
+@CustomUserValue
+public class PerCallArrayAllocation extends BytecodeScanningDetector {
+
+    enum AllocationKind {
+        ENUM_VALUES, NEW_ARRAY
+    };
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private List<CodeRange> loops;
+    private List<Allocation> allocations;
+    private Map<FQMethod, Boolean> cloningGetters;
+
+    /**
+     * constructs a PCAA detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public PerCallArrayAllocation(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+        cloningGetters = new HashMap<>();
+    }
+
+    /**
+     * implements the visitor to create and clear the stack, and collections
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            stack = new OpcodeStack();
+            loops = new ArrayList<>();
+            allocations = new ArrayList<>();
+            super.visitClassContext(classContext);
+        } finally {
+            stack = null;
+            loops = null;
+            allocations = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack, and after parsing the method, report the hidden allocations that are made in loops
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (Values.STATIC_INITIALIZER.equals(getMethodName())) {
+            return;
+        }
+
+        stack.resetForMethodEntry(this);
+        loops.clear();
+        allocations.clear();
+        super.visitCode(obj);
+
+        reportAllocations();
+    }
+
+    /**
+     * implements the visitor to look for calls that allocate arrays, and to find loops
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        AllocationKind kind = null;
+        try {
+            stack.precomputation(this);
+
+            switch (seen) {
+                case Const.INVOKESTATIC:
+                    if (isEnumValues()) {
+                        allocations.add(new Allocation(BugType.PCAA_ENUM_VALUES_IN_LOOP, getPC(), null));
+                        kind = AllocationKind.ENUM_VALUES;
+                    } else {
+                        processVarargsCall();
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKESPECIAL:
+                    if (!processVarargsCall() && (seen == Const.INVOKEVIRTUAL)) {
+                        FQMethod getter = new FQMethod(getClassConstantOperand(), getNameConstantOperand(), getSigConstantOperand());
+                        if (isCloningGetter(getter)) {
+                            allocations.add(new Allocation(BugType.PCAA_ARRAY_CLONING_GETTER_IN_LOOP, getPC(), getter));
+                        }
+                    }
+                break;
+
+                case Const.AALOAD:
+                    if (stack.getStackDepth() >= 2) {
+                        OpcodeStack.Item arrayItem = stack.getStackItem(1);
+                        if ((arrayItem.getUserValue() == AllocationKind.ENUM_VALUES) && (arrayItem.getRegisterNumber() < 0)) {
+                            allocations.add(new Allocation(BugType.PCAA_ENUM_VALUES_INDEXED, getPC(), null));
+                        }
+                    }
+                break;
+
+                case Const.ANEWARRAY:
+                case Const.NEWARRAY:
+                    kind = AllocationKind.NEW_ARRAY;
+                break;
+
+                default:
+                    if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                        loops.add(new CodeRange(getBranchTarget(), getPC()));
+                    }
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((kind != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(kind);
+            }
+        }
+    }
+
+    /**
+     * returns whether the current instruction is a call to the synthetic values() method of an enum
+     *
+     * @return whether values() is being called
+     */
+    private boolean isEnumValues() {
+        if (!"values".equals(getNameConstantOperand())) {
+            return false;
+        }
+
+        String clsName = getClassConstantOperand();
+        return getSigConstantOperand().equals("()" + Values.SIG_ARRAY_PREFIX + SignatureUtils.classToSignature(clsName));
+    }
+
+    /**
+     * looks for a call to a varargs method where the array of arguments is allocated at the call site
+     *
+     * @return whether the current call is a varargs call
+     */
+    private boolean processVarargsCall() {
+        String sig = getSigConstantOperand();
+        List<String> parmSigs = SignatureUtils.getParameterSignatures(sig);
+        if (parmSigs.isEmpty() || !parmSigs.get(parmSigs.size() - 1).startsWith(Values.SIG_ARRAY_PREFIX) || (stack.getStackDepth() == 0)) {
+            return false;
+        }
+
+        OpcodeStack.Item arrayItem = stack.getStackItem(0);
+        if ((arrayItem.getUserValue() != AllocationKind.NEW_ARRAY) || (arrayItem.getRegisterNumber() >= 0)) {
+            return false;
+        }
+
+        XMethod xm = getXMethodOperand();
+        if ((xm == null) || !xm.isVarArgs()) {
+            return false;
+        }
+
+        allocations.add(new Allocation(BugType.PCAA_VARARGS_CALL_IN_LOOP, getPC(), null));
+        return true;
+    }
+
+    /**
+     * returns whether a method does nothing but return a clone of an array field, by looking at the byte code of the method, which should be either
+     * <code>ALOAD_0, GETFIELD, INVOKEVIRTUAL clone, CHECKCAST, ARETURN</code> or <code>GETSTATIC, INVOKEVIRTUAL clone, CHECKCAST, ARETURN</code>
+     *
+     * @param getter
+     *            the method to check
+     * @return whether the method returns a clone of an array field
+     */
+    private boolean isCloningGetter(FQMethod getter) {
+        if (!getter.getSignature().startsWith("()" + Values.SIG_ARRAY_PREFIX)) {
+            return false;
+        }
+
+        Boolean isCloning = cloningGetters.get(getter);
+        if (isCloning != null) {
+            return isCloning.booleanValue();
+        }
+
+        isCloning = Boolean.FALSE;
+        try {
+            JavaClass cls = Repository.lookupClass(getter.getClassName());
+            for (Method m : cls.getMethods()) {
+                if (getter.getMethodName().equals(m.getName()) && getter.getSignature().equals(m.getSignature())) {
+                    Code code = m.getCode();
+                    if (code != null) {
+                        isCloning = Boolean.valueOf(isArrayFieldClone(code.getCode(), cls.getConstantPool()));
+                    }
+                    break;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            bugReporter.reportMissingClass(e);
+        }
+
+        cloningGetters.put(getter, isCloning);
+        return isCloning.booleanValue();
+    }
+
+    private static boolean isArrayFieldClone(byte[] code, ConstantPool pool) {
+        int offset;
+        if ((code.length == 11) && ((code[0] & 0x00FF) == Const.ALOAD_0) && ((code[1] & 0x00FF) == Const.GETFIELD)) {
+            offset = 4;
+        } else if ((code.length == 10) && ((code[0] & 0x00FF) == Const.GETSTATIC)) {
+            offset = 3;
+        } else {
+            return false;
+        }
+
+        if (((code[offset] & 0x00FF) != Const.INVOKEVIRTUAL) || ((code[offset + 3] & 0x00FF) != Const.CHECKCAST)
+                || ((code[offset + 6] & 0x00FF) != Const.ARETURN)) {
+            return false;
+        }
+
+        Constant c = pool.getConstant(CodeByteUtils.getshort(code, offset + 1));
+        if (!(c instanceof ConstantCP)) {
+            return false;
+        }
+
+        ConstantCP methodRef = (ConstantCP) c;
+        ConstantNameAndType nameAndType = (ConstantNameAndType) pool.getConstant(methodRef.getNameAndTypeIndex());
+        return "clone".equals(nameAndType.getName(pool)) && methodRef.getClass(pool).startsWith(Values.SIG_ARRAY_PREFIX);
+    }
+
+    /**
+     * reports the allocations found in the method. Enum values() calls and varargs calls are reported when they are in a loop, cloning getters are reported
+     * once per loop, with a higher priority if the same getter is called more than once in that loop, and indexing into values() is reported when it is not
+     * already covered by a report of the values() call in a loop.
+     */
+    private void reportAllocations() {
+        Set<String> reportedGetters = new HashSet<>();
+        for (Allocation allocation : allocations) {
+            CodeRange loop = findInnermostLoop(allocation.getPC());
+            BugType bugType = allocation.getBugType();
+
+            if (bugType == BugType.PCAA_ENUM_VALUES_INDEXED) {
+                if (loop == null) {
+                    bugReporter.reportBug(new BugInstance(this, bugType.name(), LOW_PRIORITY).addClass(this).addMethod(this)
+                            .addSourceLine(this, allocation.getPC()));
+                }
+            } else if (loop != null) {
+                int priority = NORMAL_PRIORITY;
+                FQMethod getter = allocation.getGetter();
+                if (getter != null) {
+                    if (!reportedGetters.add(loop.getStartPC() + ":" + getter)) {
+                        continue;
+                    }
+                    priority = (countCallsInLoop(getter, loop) > 1) ? NORMAL_PRIORITY : LOW_PRIORITY;
+                }
+
+                bugReporter.reportBug(
+                        new BugInstance(this, bugType.name(), priority).addClass(this).addMethod(this).addSourceLine(this, allocation.getPC()));
+            }
+        }
+    }
+
+    private CodeRange findInnermostLoop(int pc) {
+        CodeRange innermost = null;
+        for (CodeRange loop : loops) {
+            if (loop.contains(pc) && ((innermost == null) || (loop.size() < innermost.size()))) {
+                innermost = loop;
+            }
+        }
+
+        return innermost;
+    }
+
+    private int countCallsInLoop(FQMethod getter, CodeRange loop) {
+        int count = 0;
+        for (Allocation allocation : allocations) {
+            if (getter.equals(allocation.getGetter()) && loop.contains(allocation.getPC())) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * holds a call that allocates an array, and, for array cloning getters, the getter that was called
+     */
+    static class Allocation {
+        private final BugType bugType;
+        private final int pc;
+        private final FQMethod getter;
+
+        Allocation(BugType bugType, int pc, FQMethod getter) {
+            this.bugType = bugType;
+            this.pc = pc;
+            this.getter = getter;
+        }
+
+        BugType getBugType() {
+            return bugType;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        FQMethod getGetter() {
+            return getter;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
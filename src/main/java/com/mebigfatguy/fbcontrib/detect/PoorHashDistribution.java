@@ -0,0 +1,409 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CollectionUtils;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for hashCode methods of classes that are used as keys of hash based maps and sets, whose values are poorly distributed, causing many keys to fall
+ * into the same bucket. This includes hashCode methods that return a constant, that only hash boolean or enum fields while equals compares other fields as
+ * well, that simply xor two fields of the same type, and that iterate over collections.
+ */
+@CustomUserValue
+public class PoorHashDistribution extends BytecodeScanningDetector {
+
+    enum HashValue {
+        CONSTANT
+    };
+
+    private static final String SIG_JAVA_LANG_CLASS = SignatureUtils.classToSignature(Values.SLASHED_JAVA_LANG_CLASS);
+    private static final String SIG_OBJECT_TO_BOOLEAN = new SignatureBuilder().withParamTypes(Values.SLASHED_JAVA_LANG_OBJECT)
+            .withReturnType(Values.SIG_PRIMITIVE_BOOLEAN).toString();
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private JavaClass cls;
+    private boolean isHashKey;
+    private boolean isHashCode;
+    private Method hashCodeMethod;
+    private Set<String> hashCodeFields;
+    private Set<String> equalsFields;
+    private boolean hashCodeCallsThis;
+    private boolean allReturnsConstant;
+    private boolean sawReturn;
+    private boolean reportedIteration;
+    /** pc of the last read of an element of a collection, iterator or object array field of this class */
+    private int lastElementReadPC;
+
+    /**
+     * constructs a PHD detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public PoorHashDistribution(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to look at the hashCode and equals methods of classes that implement hashCode
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            cls = classContext.getJavaClass();
+            if (cls.isEnum() || cls.isInterface() || (findMethod(Values.HASHCODE, SignatureBuilder.SIG_VOID_TO_INT) == null)) {
+                return;
+            }
+
+            isHashKey = Statistics.getStatistics().isHashKeyClass(cls.getClassName().replace('.', '/'));
+            stack = new OpcodeStack();
+            hashCodeFields = new HashSet<>();
+            equalsFields = new HashSet<>();
+            hashCodeMethod = null;
+            hashCodeCallsThis = false;
+            super.visitClassContext(classContext);
+
+            if (isHashKey && (hashCodeMethod != null) && !hashCodeCallsThis) {
+                checkLowCardinalityFields();
+            }
+        } finally {
+            stack = null;
+            cls = null;
+            hashCodeMethod = null;
+            hashCodeFields = null;
+            equalsFields = null;
+        }
+    }
+
+    /**
+     * implements the visitor to parse the hashCode and equals methods, and report hashCode methods that always return a constant
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        Method m = getMethod();
+        String methodName = m.getName();
+        isHashCode = Values.HASHCODE.equals(methodName) && SignatureBuilder.SIG_VOID_TO_INT.equals(m.getSignature());
+        boolean isEquals = "equals".equals(methodName) && SIG_OBJECT_TO_BOOLEAN.equals(m.getSignature());
+        if ((!isHashCode && !isEquals) || m.isStatic()) {
+            return;
+        }
+
+        if (isHashCode) {
+            hashCodeMethod = m;
+            allReturnsConstant = true;
+            sawReturn = false;
+            reportedIteration = false;
+            lastElementReadPC = -1;
+        }
+
+        stack.resetForMethodEntry(this);
+        super.visitCode(obj);
+
+        if (isHashCode && sawReturn && allReturnsConstant) {
+            bugReporter.reportBug(new BugInstance(this, BugType.PHD_CONSTANT_HASHCODE.name(), isHashKey ? HIGH_PRIORITY : LOW_PRIORITY).addClass(this)
+                    .addMethod(this));
+        }
+    }
+
+    /**
+     * implements the visitor to collect the fields used by hashCode and equals, and to look for xors of like fields and iteration in hashCode
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        Object userValue = null;
+        try {
+            stack.precomputation(this);
+
+            switch (seen) {
+                case Const.GETFIELD:
+                    if (cls.getClassName().equals(getDottedClassConstantOperand())) {
+                        (isHashCode ? hashCodeFields : equalsFields).add(getNameConstantOperand());
+                    }
+                    if (isHashCode) {
+                        // fields that are never written are seen as constants by the stack
+                        allReturnsConstant = false;
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKESPECIAL:
+                case Const.INVOKESTATIC:
+                    if (isHashCode) {
+                        userValue = processHashCodeCall(seen);
+                    }
+                break;
+
+                case Const.AASTORE:
+                    if (isHashCode && isHashKey && (stack.getStackDepth() > 0) && isCollection(stack.getStackItem(0).getSignature())) {
+                        reportIteration();
+                    }
+                break;
+
+                case Const.AALOAD:
+                    if (isHashCode && (stack.getStackDepth() > 1) && isFieldOfThisClass(stack.getStackItem(1))) {
+                        lastElementReadPC = getPC();
+                    }
+                break;
+
+                case Const.IXOR:
+                    if (isHashCode && isHashKey) {
+                        checkSymmetricXor();
+                    }
+                break;
+
+                case Const.IRETURN:
+                    if (isHashCode && (stack.getStackDepth() > 0)) {
+                        sawReturn = true;
+                        OpcodeStack.Item itm = stack.getStackItem(0);
+                        if ((itm.getConstant() == null) && (itm.getUserValue() != HashValue.CONSTANT)) {
+                            allReturnsConstant = false;
+                        }
+                    }
+                break;
+
+                default:
+                    if (isHashCode && isHashKey && OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0) && (lastElementReadPC >= getBranchTarget())) {
+                        reportIteration();
+                    }
+                break;
+            }
+        } catch (ClassNotFoundException e) {
+            bugReporter.reportMissingClass(e);
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((userValue != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(userValue);
+            }
+        }
+    }
+
+    /**
+     * looks at a method call made from hashCode, noting calls on this object, and passing along the field being hashed, or the fact that the hash is a
+     * constant, when a field or class is hashed
+     *
+     * @param seen
+     *            the currently parsed opcode
+     * @return the user value to place on the result of the call, if any
+     * @throws ClassNotFoundException
+     *             if the class of a hashed object can not be found
+     */
+    private Object processHashCodeCall(int seen) throws ClassNotFoundException {
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        String methodName = getNameConstantOperand();
+
+        if (seen == Const.INVOKESTATIC) {
+            if (Values.HASHCODE.equals(methodName) && (numParms == 1) && (stack.getStackDepth() > 0)) {
+                return getHashValue(stack.getStackItem(0));
+            }
+            return null;
+        }
+
+        if (stack.getStackDepth() <= numParms) {
+            return null;
+        }
+
+        OpcodeStack.Item receiver = stack.getStackItem(numParms);
+        if (receiver.getRegisterNumber() == 0) {
+            hashCodeCallsThis = true;
+        }
+
+        if (isElementRead(methodName, receiver)) {
+            lastElementReadPC = getPC();
+        }
+
+        if (numParms == 0) {
+            if ("getClass".equals(methodName)) {
+                return HashValue.CONSTANT;
+            }
+            if (Values.HASHCODE.equals(methodName)) {
+                return getHashValue(receiver);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * returns what is known about the hash of an object, either that it is a constant, as is the case for classes, or the field that holds the object. When
+     * the object is a collection, all of its elements are hashed, and this is reported.
+     *
+     * @param hashedItem
+     *            the object being hashed
+     * @return the user value describing the hash
+     * @throws ClassNotFoundException
+     *             if the class of the object can not be found
+     */
+    private Object getHashValue(OpcodeStack.Item hashedItem) throws ClassNotFoundException {
+        String hashedSig = hashedItem.getSignature();
+        if (SIG_JAVA_LANG_CLASS.equals(hashedSig) || (hashedItem.getUserValue() == HashValue.CONSTANT)) {
+            return HashValue.CONSTANT;
+        }
+
+        if (isHashKey && isCollection(hashedSig)) {
+            reportIteration();
+        }
+        return getHashedField(hashedItem);
+    }
+
+    /**
+     * returns whether a call reads an element of a collection field of this class, or from an iterator, so that a loop around it iterates over a collection
+     *
+     * @param methodName
+     *            the name of the method being called
+     * @param receiver
+     *            the object the method is called on
+     * @return whether an element is read
+     * @throws ClassNotFoundException
+     *             if the class of the receiver can not be found
+     */
+    private boolean isElementRead(String methodName, OpcodeStack.Item receiver) throws ClassNotFoundException {
+        if ("next".equals(methodName)) {
+            return "java/util/Iterator".equals(getClassConstantOperand());
+        }
+
+        return "get".equals(methodName) && isFieldOfThisClass(receiver) && isCollection(receiver.getSignature());
+    }
+
+    private boolean isFieldOfThisClass(OpcodeStack.Item itm) {
+        XField field = itm.getXField();
+        return (field != null) && cls.getClassName().equals(field.getClassName());
+    }
+
+    private static boolean isCollection(String sig) throws ClassNotFoundException {
+        return sig.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX) && CollectionUtils.isListSetMap(SignatureUtils.stripSignature(sig));
+    }
+
+    /**
+     * reports an xor of the hashes of two different fields of the same type, as swapping the values of the fields, or giving them the same value, produces
+     * the same hash
+     */
+    private void checkSymmetricXor() {
+        if (stack.getStackDepth() < 2) {
+            return;
+        }
+
+        XField left = getHashedField(stack.getStackItem(1));
+        XField right = getHashedField(stack.getStackItem(0));
+        if ((left != null) && (right != null) && !left.getName().equals(right.getName()) && left.getSignature().equals(right.getSignature())) {
+            bugReporter.reportBug(new BugInstance(this, BugType.PHD_SYMMETRIC_XOR_HASHCODE.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                    .addField(left).addField(right).addSourceLine(this));
+        }
+    }
+
+    private static XField getHashedField(OpcodeStack.Item itm) {
+        Object uv = itm.getUserValue();
+        if (uv instanceof XField) {
+            return (XField) uv;
+        }
+
+        return itm.getXField();
+    }
+
+    private void reportIteration() {
+        if (!reportedIteration) {
+            reportedIteration = true;
+            bugReporter.reportBug(new BugInstance(this, BugType.PHD_HASHCODE_ITERATES_COLLECTION.name(), LOW_PRIORITY).addClass(this).addMethod(this)
+                    .addSourceLine(this));
+        }
+    }
+
+    /**
+     * reports hashCode methods that only use boolean or enum fields, when equals compares other fields as well, as such a hashCode has only a handful of
+     * distinct values
+     */
+    private void checkLowCardinalityFields() {
+        if (hashCodeFields.isEmpty() || hashCodeFields.containsAll(equalsFields)) {
+            return;
+        }
+
+        Map<String, String> fieldSigs = new HashMap<>();
+        for (Field f : cls.getFields()) {
+            fieldSigs.put(f.getName(), f.getSignature());
+        }
+
+        try {
+            for (String fieldName : hashCodeFields) {
+                String sig = fieldSigs.get(fieldName);
+                if (sig == null) {
+                    return;
+                }
+
+                if (!Values.SIG_PRIMITIVE_BOOLEAN.equals(sig) && !Values.SIG_JAVA_LANG_BOOLEAN.equals(sig)) {
+                    if (!sig.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX) || !Repository.lookupClass(SignatureUtils.trimSignature(sig)).isEnum()) {
+                        return;
+                    }
+                }
+            }
+
+            bugReporter.reportBug(new BugInstance(this, BugType.PHD_HASHCODE_USES_LOW_CARDINALITY_FIELDS.name(), NORMAL_PRIORITY).addClass(cls)
+                    .addMethod(cls, hashCodeMethod).addSourceLine(SourceLineAnnotation.forEntireMethod(cls, hashCodeMethod)));
+        } catch (ClassNotFoundException e) {
+            bugReporter.reportMissingClass(e);
+        }
+    }
+
+    private Method findMethod(String name, String signature) {
+        for (Method m : cls.getMethods()) {
+            if (name.equals(m.getName()) && signature.equals(m.getSignature())) {
+                return m;
+            }
+        }
+
+        return null;
+    }
+}
@@ -18,45 +18,61 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.apache.bcel.Const;
+import org.apache.bcel.classfile.BootstrapMethods;
 import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
 import org.apache.bcel.classfile.Field;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+import com.mebigfatguy.fbcontrib.utils.LambdaUtils;
 import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
 import com.mebigfatguy.fbcontrib.utils.StopOpcodeParsingException;
+import com.mebigfatguy.fbcontrib.utils.ToString;
 import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 import com.mebigfatguy.fbcontrib.utils.Values;
 
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.Detector;
 import edu.umd.cs.findbugs.FieldAnnotation;
 import edu.umd.cs.findbugs.OpcodeStack;
 import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
 import edu.umd.cs.findbugs.ba.ClassContext;
 import edu.umd.cs.findbugs.ba.XFactory;
 import edu.umd.cs.findbugs.ba.XField;
 
 /**
  * looks for classes that maintain collections or StringBuffer/StringBuilders in static member variables, and that do not appear to provide a way to clear or
- * remove items from these members. Such class fields are likely causes of memory bloat.
- *
+ * remove items from these members. Such class fields are likely causes of memory bloat. Also looks for ThreadLocals that are instance fields, and with
+ * ThreadLocalUsage, for ThreadLocals that are costly to use, or that leak their values on pooled threads.
  */
 @CustomUserValue
 public class PossibleMemoryBloat extends BytecodeScanningDetector {
 
-    private static final Set<String> bloatableSigs = UnmodifiableSet.create("Ljava/util/concurrent/ArrayBlockingQueue;", "Ljava/util/ArrayList;",
+    static final Set<String> bloatableSigs = UnmodifiableSet.create("Ljava/util/concurrent/ArrayBlockingQueue;", "Ljava/util/ArrayList;",
             "Ljava/util/concurrent/BlockingQueue;", "Ljava/util/Collection;", "Ljava/util/concurrent/ConcurrentHashMap;",
             "Ljava/util/concurrent/ConcurrentSkipListMap;", "Ljava/util/concurrent/ConcurrentSkipListSet;", "Ljava/util/concurrent/CopyOnWriteArraySet;",
             "Ljava/util/EnumSet;", "Ljava/util/EnumMap;", "Ljava/util/HashMap;", "Ljava/util/HashSet;", "Ljava/util/Hashtable;", "Ljava/util/IdentityHashMap;",
@@ -82,6 +98,7 @@ public class PossibleMemoryBloat extends BytecodeScanningDetector {
     private String methodName;
     private Set<FieldAnnotation> threadLocalNonStaticFields;
     private Map<Integer, XField> userValues;
+    private final ThreadLocalUsage threadLocalDetector;
 
     /**
      * constructs a PMB detector given the reporter to report bugs on
@@ -91,6 +108,7 @@ public class PossibleMemoryBloat extends BytecodeScanningDetector {
      */
     public PossibleMemoryBloat(BugReporter bugReporter) {
         this.bugReporter = bugReporter;
+        this.threadLocalDetector = new ThreadLocalUsage(this, bugReporter);
     }
 
     /**
@@ -101,6 +119,7 @@ public class PossibleMemoryBloat extends BytecodeScanningDetector {
      */
     @Override
     public void visitClassContext(ClassContext classContext) {
+        threadLocalDetector.visitClassContext(classContext);
         try {
             bloatableCandidates = new HashMap<>();
             bloatableFields = new HashMap<>();
@@ -289,3 +308,504 @@ public class PossibleMemoryBloat extends BytecodeScanningDetector {
         }
     }
 }
+
+/**
+ * looks for costly uses of ThreadLocal fields: calls to get() inside loops that don't change the value, ThreadLocals holding buffers or collections that are
+ * never removed in a finally block, and ThreadLocal.withInitial suppliers that allocate large objects, which are not reused when threads are short lived,
+ * such as virtual threads.
+ */
+@CustomUserValue
+class ThreadLocalUsage extends BytecodeScanningDetector {
+
+    enum Stage {
+        FIND_USES, CHECK_INITIAL_VALUES
+    };
+
+    enum TLUserValue {
+        HEAVY_INITIAL_VALUE
+    };
+
+    private static final String THREAD_LOCAL = "java/lang/ThreadLocal";
+
+    private static final Set<String> heavyClasses = UnmodifiableSet.create("java/util/ArrayList", "java/util/HashMap", "java/util/HashSet",
+            "java/util/LinkedHashMap", "java/util/LinkedHashSet", "java/util/LinkedList", "java/util/TreeMap", "java/util/TreeSet", "java/util/ArrayDeque",
+            "java/util/concurrent/ConcurrentHashMap", "java/lang/StringBuilder", "java/lang/StringBuffer", "java/io/ByteArrayOutputStream",
+            "java/text/SimpleDateFormat", "java/security/MessageDigest", "javax/crypto/Cipher", "java/util/zip/Deflater", "java/util/zip/Inflater");
+
+    private static final Set<String> heavyValueSigs = UnmodifiableSet.create("Ljava/nio/ByteBuffer;", "Ljava/io/ByteArrayOutputStream;",
+            "Ljava/util/ArrayDeque;", "Ljava/util/Deque;");
+
+    private static final Set<String> heavyFactoryClasses = UnmodifiableSet.create("java/nio/ByteBuffer", "java/security/MessageDigest",
+            "javax/crypto/Cipher");
+
+    private static final Set<String> virtualThreadMethods = UnmodifiableSet.create("ofVirtual", "startVirtualThread", "newVirtualThreadPerTaskExecutor");
+
+    /** the smallest array, in elements, that is considered a large allocation */
+    private static final int MIN_HEAVY_ARRAY_SIZE = 1024;
+
+    private final BugReporter bugReporter;
+    private final Detector delegatingDetector;
+    private JavaClass cls;
+    private BootstrapMethods bootstrapAtt;
+    private Stage stage;
+    private OpcodeStack stack;
+    private Map<XField, ThreadLocalInfo> threadLocals;
+    private Map<String, SourceLineAnnotation> initialValueLambdas;
+    private List<CodeRange> loops;
+    private List<ThreadLocalCall> calls;
+    private List<Integer> finallyHandlers;
+    private List<Integer> throwPCs;
+    private boolean usesVirtualThreads;
+    private SourceLineAnnotation currentInitialValue;
+
+    ThreadLocalUsage(Detector delegatingDetector, BugReporter reporter) {
+        this.bugReporter = reporter;
+        this.delegatingDetector = delegatingDetector;
+    }
+
+    /**
+     * implements the visitor to find the uses of ThreadLocal fields, and then to look at the bodies of the withInitial suppliers, and at the end to report the
+     * ThreadLocals holding heavy values that are never removed in a finally block
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            cls = classContext.getJavaClass();
+            threadLocals = new HashMap<>();
+            for (Field f : cls.getFields()) {
+                if (("L" + THREAD_LOCAL + ';').equals(f.getSignature())) {
+                    threadLocals.put(XFactory.createXField(cls.getClassName(), f.getName(), f.getSignature(), f.isStatic()),
+                            new ThreadLocalInfo(FieldAnnotation.fromBCELField(cls, f), isHeavyValue(f.getGenericSignature())));
+                }
+            }
+
+            stack = new OpcodeStack();
+            bootstrapAtt = LambdaUtils.getBootstrapAttribute(cls);
+            initialValueLambdas = new HashMap<>();
+            loops = new ArrayList<>();
+            calls = new ArrayList<>();
+            finallyHandlers = new ArrayList<>();
+            throwPCs = new ArrayList<>();
+            usesVirtualThreads = false;
+            stage = Stage.FIND_USES;
+            super.visitClassContext(classContext);
+
+            if (!initialValueLambdas.isEmpty()) {
+                stage = Stage.CHECK_INITIAL_VALUES;
+                super.visitClassContext(classContext);
+            }
+
+            for (ThreadLocalInfo info : threadLocals.values()) {
+                if (info.isHeavy() && !info.isRemovedInFinally() && (info.getFirstUse() != null)) {
+                    bugReporter.reportBug(new BugInstance(delegatingDetector, BugType.PMB_THREAD_LOCAL_NOT_REMOVED.name(),
+                            info.isSet() ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(cls).addField(info.getFieldAnnotation()).addSourceLine(info.getFirstUse()));
+                }
+            }
+        } finally {
+            cls = null;
+            bootstrapAtt = null;
+            stack = null;
+            threadLocals = null;
+            initialValueLambdas = null;
+            loops = null;
+            calls = null;
+            finallyHandlers = null;
+            throwPCs = null;
+            currentInitialValue = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the state, and after parsing the method, to report ThreadLocal.get calls in loops that don't change the value. In the
+     * second stage only the withInitial suppliers are parsed.
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (stage == Stage.CHECK_INITIAL_VALUES) {
+            Method m = getMethod();
+            currentInitialValue = initialValueLambdas.get(m.getName() + m.getSignature());
+            if (currentInitialValue == null) {
+                return;
+            }
+        }
+
+        stack.resetForMethodEntry(this);
+        loops.clear();
+        calls.clear();
+        finallyHandlers.clear();
+        throwPCs.clear();
+        CodeException[] handlers = obj.getExceptionTable();
+        if (handlers != null) {
+            for (CodeException handler : handlers) {
+                if (handler.getCatchType() == 0) {
+                    finallyHandlers.add(Integer.valueOf(handler.getHandlerPC()));
+                }
+            }
+        }
+
+        super.visitCode(obj);
+
+        if (stage == Stage.FIND_USES) {
+            checkCalls();
+        }
+    }
+
+    /**
+     * implements the visitor to find calls on ThreadLocal fields, withInitial suppliers and loops, or in the second stage, large allocations in suppliers
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        Object userValue = null;
+        try {
+            stack.precomputation(this);
+
+            if (stage == Stage.CHECK_INITIAL_VALUES) {
+                if ((currentInitialValue != null) && isHeavyAllocation(seen)) {
+                    reportHeavyInitialValue(currentInitialValue);
+                    currentInitialValue = null;
+                }
+                return;
+            }
+
+            switch (seen) {
+                case Const.INVOKEVIRTUAL:
+                    processThreadLocalCall();
+                break;
+
+                case Const.INVOKESTATIC:
+                    if (THREAD_LOCAL.equals(getClassConstantOperand()) && "withInitial".equals(getNameConstantOperand()) && (stack.getStackDepth() > 0)) {
+                        Object supplier = stack.getStackItem(0).getUserValue();
+                        SourceLineAnnotation sla = SourceLineAnnotation.fromVisitedInstruction(getClassContext(), this, getPC());
+                        if (supplier == TLUserValue.HEAVY_INITIAL_VALUE) {
+                            reportHeavyInitialValue(sla);
+                        } else if (supplier instanceof String) {
+                            initialValueLambdas.put((String) supplier, sla);
+                        }
+                    } else {
+                        checkVirtualThreadCall();
+                    }
+                break;
+
+                case Const.INVOKEINTERFACE:
+                    checkVirtualThreadCall();
+                break;
+
+                case Const.INVOKEDYNAMIC:
+                    userValue = getSupplierImplementation();
+                break;
+
+                case Const.ATHROW:
+                    throwPCs.add(Integer.valueOf(getPC()));
+                break;
+
+                default:
+                    if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                        loops.add(new CodeRange(getBranchTarget(), getPC()));
+                    }
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((userValue != null) && (stack.getStackDepth() > 0)) {
+                stack.getStackItem(0).setUserValue(userValue);
+            }
+        }
+    }
+
+    /**
+     * records get, set and remove calls on ThreadLocal fields of this class
+     */
+    private void processThreadLocalCall() {
+        if (!THREAD_LOCAL.equals(getClassConstantOperand())) {
+            return;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        XField field = stack.getStackItem(numParms).getXField();
+        ThreadLocalInfo info = (field == null) ? null : threadLocals.get(field);
+        if (info == null) {
+            return;
+        }
+
+        String methodName = getNameConstantOperand();
+        if ("get".equals(methodName) || "set".equals(methodName)) {
+            if (info.getFirstUse() == null) {
+                info.setFirstUse(SourceLineAnnotation.fromVisitedInstruction(getClassContext(), this, getPC()));
+            }
+            if ("set".equals(methodName)) {
+                info.setSet();
+            }
+            calls.add(new ThreadLocalCall(field, getPC(), "get".equals(methodName)));
+        } else if ("remove".equals(methodName)) {
+            if (isInFinallyHandler(getPC())) {
+                info.setRemovedInFinally();
+            }
+            calls.add(new ThreadLocalCall(field, getPC(), false));
+        }
+    }
+
+    private void checkVirtualThreadCall() {
+        if (virtualThreadMethods.contains(getNameConstantOperand())) {
+            usesVirtualThreads = true;
+        }
+    }
+
+    /**
+     * returns whether the pc is in the copy of a finally block that javac generates for exceptions, that is after the start of a catch all handler, and
+     * before the athrow that ends it
+     *
+     * @param pc
+     *            the pc to check
+     * @return whether the pc is in a finally block
+     */
+    private boolean isInFinallyHandler(int pc) {
+        for (Integer handlerPC : finallyHandlers) {
+            if (pc >= handlerPC.intValue()) {
+                boolean thrown = false;
+                for (Integer throwPC : throwPCs) {
+                    int tpc = throwPC.intValue();
+                    if ((tpc >= handlerPC.intValue()) && (tpc < pc)) {
+                        thrown = true;
+                        break;
+                    }
+                }
+                if (!thrown) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * reports ThreadLocal.get calls in loops, where the loop doesn't set or remove the value of that ThreadLocal, once per field per method
+     */
+    private void checkCalls() {
+        Set<XField> reported = new HashSet<>();
+        for (ThreadLocalCall call : calls) {
+            if (!call.isGet() || reported.contains(call.getField())) {
+                continue;
+            }
+
+            CodeRange loop = getInnermostLoop(call.getPC());
+            if ((loop != null) && !isChangedInLoop(call.getField(), loop)) {
+                reported.add(call.getField());
+                bugReporter.reportBug(new BugInstance(delegatingDetector, BugType.PMB_THREAD_LOCAL_GET_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addField(call.getField()).addSourceLine(this, call.getPC()));
+            }
+        }
+    }
+
+    private CodeRange getInnermostLoop(int pc) {
+        CodeRange innermost = null;
+        for (CodeRange loop : loops) {
+            if (loop.contains(pc) && ((innermost == null) || (loop.getStartPC() > innermost.getStartPC()))) {
+                innermost = loop;
+            }
+        }
+        return innermost;
+    }
+
+    private boolean isChangedInLoop(XField field, CodeRange loop) {
+        for (ThreadLocalCall call : calls) {
+            if (!call.isGet() && field.equals(call.getField()) && loop.contains(call.getPC())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns the key of the implementation of a lambda passed to withInitial when it is in this class, or a marker if it is a constructor reference to a
+     * heavy class, such as ArrayList::new
+     *
+     * @return the user value of the supplier, or null if it isn't interesting
+     */
+    @Nullable
+    private Object getSupplierImplementation() {
+        if (bootstrapAtt == null) {
+            return null;
+        }
+
+        ConstantInvokeDynamic cid = (ConstantInvokeDynamic) getConstantRefOperand();
+        ConstantPool cp = getConstantPool();
+        ConstantMethodHandle cmh = LambdaUtils.getMethodHandle(bootstrapAtt, cp, cid.getBootstrapMethodAttrIndex());
+        if (cmh == null) {
+            return null;
+        }
+
+        ConstantCP methodRef = (ConstantCP) cp.getConstant(cmh.getReferenceIndex());
+        String implClass = methodRef.getClass(cp).replace('.', '/');
+        ConstantNameAndType implNameAndType = (ConstantNameAndType) cp.getConstant(methodRef.getNameAndTypeIndex());
+        String implName = implNameAndType.getName(cp);
+        if (Values.CONSTRUCTOR.equals(implName)) {
+            return heavyClasses.contains(implClass) ? TLUserValue.HEAVY_INITIAL_VALUE : null;
+        }
+        if (!implClass.equals(cls.getClassName().replace('.', '/'))) {
+            return null;
+        }
+        return implName + implNameAndType.getSignature(cp);
+    }
+
+    /**
+     * returns whether the current instruction, in a withInitial supplier, allocates a large array, a collection or buffer, or an object that is costly to
+     * create
+     *
+     * @param seen
+     *            the currently parsed opcode
+     * @return whether the instruction is a heavy allocation
+     */
+    private boolean isHeavyAllocation(int seen) {
+        switch (seen) {
+            case Const.NEWARRAY:
+            case Const.ANEWARRAY:
+                if (stack.getStackDepth() > 0) {
+                    Object size = stack.getStackItem(0).getConstant();
+                    return (size instanceof Integer) && (((Integer) size).intValue() >= MIN_HEAVY_ARRAY_SIZE);
+                }
+                return false;
+
+            case Const.NEW:
+                return heavyClasses.contains(getClassConstantOperand());
+
+            case Const.INVOKESTATIC:
+                String methodName = getNameConstantOperand();
+                return heavyFactoryClasses.contains(getClassConstantOperand()) && (methodName.startsWith("allocate") || "getInstance".equals(methodName));
+
+            default:
+                return false;
+        }
+    }
+
+    private void reportHeavyInitialValue(SourceLineAnnotation sla) {
+        bugReporter.reportBug(new BugInstance(delegatingDetector, BugType.PMB_HEAVY_THREAD_LOCAL_INITIAL_VALUE.name(),
+                usesVirtualThreads ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(cls).addSourceLine(sla));
+    }
+
+    /**
+     * returns whether the generic signature of a ThreadLocal field shows that it holds an array, a collection or a buffer
+     *
+     * @param genericSignature
+     *            the generic signature of the field, such as Ljava/lang/ThreadLocal&lt;[B&gt;;
+     * @return whether the value is heavy
+     */
+    private static boolean isHeavyValue(@Nullable String genericSignature) {
+        if (genericSignature == null) {
+            return false;
+        }
+
+        int start = genericSignature.indexOf('<');
+        int end = genericSignature.lastIndexOf('>');
+        if ((start < 0) || (end <= start)) {
+            return false;
+        }
+
+        String valueSig = genericSignature.substring(start + 1, end);
+        if (valueSig.startsWith(Values.SIG_ARRAY_PREFIX)) {
+            return true;
+        }
+        int genericStart = valueSig.indexOf('<');
+        if (genericStart >= 0) {
+            valueSig = valueSig.substring(0, genericStart) + ';';
+        }
+        return PossibleMemoryBloat.bloatableSigs.contains(valueSig) || heavyValueSigs.contains(valueSig);
+    }
+
+    /**
+     * holds what is known about the use of a ThreadLocal field
+     */
+    static class ThreadLocalInfo {
+        private final FieldAnnotation fieldAnnotation;
+        private final boolean heavy;
+        private SourceLineAnnotation firstUse;
+        private boolean set;
+        private boolean removedInFinally;
+
+        ThreadLocalInfo(FieldAnnotation fieldAnnotation, boolean heavy) {
+            this.fieldAnnotation = fieldAnnotation;
+            this.heavy = heavy;
+        }
+
+        FieldAnnotation getFieldAnnotation() {
+            return fieldAnnotation;
+        }
+
+        boolean isHeavy() {
+            return heavy;
+        }
+
+        SourceLineAnnotation getFirstUse() {
+            return firstUse;
+        }
+
+        void setFirstUse(SourceLineAnnotation firstUse) {
+            this.firstUse = firstUse;
+        }
+
+        boolean isSet() {
+            return set;
+        }
+
+        void setSet() {
+            set = true;
+        }
+
+        boolean isRemovedInFinally() {
+            return removedInFinally;
+        }
+
+        void setRemovedInFinally() {
+            removedInFinally = true;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
+    /**
+     * holds a call to get, set or remove on a ThreadLocal field
+     */
+    static class ThreadLocalCall {
+        private final XField field;
+        private final int pc;
+        private final boolean isGet;
+
+        ThreadLocalCall(XField field, int pc, boolean isGet) {
+            this.field = field;
+            this.pc = pc;
+            this.isGet = isGet;
+        }
+
+        XField getField() {
+            return field;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        boolean isGet() {
+            return isGet;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
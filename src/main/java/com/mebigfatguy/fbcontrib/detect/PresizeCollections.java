@@ -19,6 +19,7 @@
 package com.mebigfatguy.fbcontrib.detect;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -35,7 +36,9 @@ import org.apache.bcel.classfile.CodeException;
 import org.apache.bcel.classfile.JavaClass;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
 import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.QMethod;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
 import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
@@ -49,6 +52,7 @@ import edu.umd.cs.findbugs.BytecodeScanningDetector;
 import edu.umd.cs.findbugs.OpcodeStack;
 import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
 import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
 import edu.umd.cs.findbugs.ba.XMethod;
 
 /**
@@ -87,6 +91,21 @@ public class PresizeCollections extends BytecodeScanningDetector {
     private static final FQMethod HASHMAP_SIZED_CTOR = new FQMethod("java/util/HashMap", "<init>", SignatureBuilder.SIG_INT_TO_VOID);
     private static final FQMethod HASHSET_SIZED_CTOR = new FQMethod("java/util/HashSet", "<init>", SignatureBuilder.SIG_INT_TO_VOID);
 
+    private static final Set<String> HASHED_COLLECTIONS = UnmodifiableSet.create("java/util/HashMap", "java/util/HashSet", "java/util/LinkedHashMap",
+            "java/util/LinkedHashSet");
+
+    private static final Set<String> EXACTLY_SIZED_COLLECTIONS = UnmodifiableSet.create("java/util/ArrayList", "java/util/PriorityQueue",
+            "java/util/Vector");
+
+    private static final Set<String> SOURCE_VISIT_METHODS = UnmodifiableSet.create("size", "get", "iterator", "listIterator", "entrySet", "keySet",
+            "values");
+
+    private static final double DEFAULT_LOAD_FACTOR = 0.75;
+
+    enum CapacityKind {
+        CONSTANT, SOURCE_SIZE, VARIABLE
+    }
+
     private BugReporter bugReporter;
     private JavaClass collectionClass;
     private boolean guavaOnPath;
@@ -95,7 +114,12 @@ public class PresizeCollections extends BytecodeScanningDetector {
     private Map<Comparable<?>, PSCUserValue> storeToUserValue;
     private Map<Integer, Integer> allocLocation;
     private Map<Integer, List<Integer>> allocToAddPCs;
-    private List<CodeRange> optionalRanges;
+    private Map<Integer, SizedAllocation> sizedAllocations;
+    private Map<Integer, Comparable<?>> registerSources;
+    private Map<Comparable<?>, BitSet> sourceVisits;
+    private Comparable<?> lastVisitedSource;
+    private List<OptionalRange> optionalRanges;
+    private List<CodeRange> loops;
 
     public PresizeCollections(BugReporter bugReporter) {
         this.bugReporter = bugReporter;
@@ -128,14 +152,22 @@ public class PresizeCollections extends BytecodeScanningDetector {
             storeToUserValue = new HashMap<>();
             allocLocation = new HashMap<>();
             allocToAddPCs = new HashMap<>();
+            sizedAllocations = new HashMap<>();
+            registerSources = new HashMap<>();
+            sourceVisits = new HashMap<>();
             optionalRanges = new ArrayList<>();
+            loops = new ArrayList<>();
             super.visitClassContext(classContext);
         } finally {
             stack = null;
             storeToUserValue = null;
             allocLocation = null;
             allocToAddPCs = null;
+            sizedAllocations = null;
+            registerSources = null;
+            sourceVisits = null;
             optionalRanges = null;
+            loops = null;
         }
     }
 
@@ -152,7 +184,12 @@ public class PresizeCollections extends BytecodeScanningDetector {
         storeToUserValue.clear();
         allocLocation.clear();
         allocToAddPCs.clear();
+        sizedAllocations.clear();
+        registerSources.clear();
+        sourceVisits.clear();
+        lastVisitedSource = null;
         optionalRanges.clear();
+        loops.clear();
 
         addExceptionRanges(obj);
 
@@ -164,6 +201,18 @@ public class PresizeCollections extends BytecodeScanningDetector {
                         .addSourceLine(this, pcs.get(0).intValue()));
             }
         }
+
+        for (Map.Entry<Integer, SizedAllocation> entry : sizedAllocations.entrySet()) {
+            Integer allocPC = allocLocation.get(entry.getKey());
+            SizedAllocation sizedAlloc = entry.getValue();
+            if ((allocPC != null) && !sizedAlloc.isBulkFilled() && !sizedAlloc.getInsertPCs().isEmpty()) {
+                if (sizedAlloc.getKind() == CapacityKind.CONSTANT) {
+                    checkConstantSizedAllocation(allocPC.intValue(), sizedAlloc);
+                } else {
+                    checkLoopSizedAllocation(allocPC.intValue(), sizedAlloc);
+                }
+            }
+        }
     }
 
     /**
@@ -183,6 +232,11 @@ public class PresizeCollections extends BytecodeScanningDetector {
         try {
             stack.precomputation(this);
 
+            if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                loops.add(new CodeRange(getBranchTarget(), getPC()));
+            }
+            recordSourceVisit(seen);
+
             switch (seen) {
                 case Const.INVOKESPECIAL:
                     String clsName = getClassConstantOperand();
@@ -193,14 +247,27 @@ public class PresizeCollections extends BytecodeScanningDetector {
                             if (SignatureBuilder.SIG_VOID_TO_VOID.equals(signature)) {
                                 userValue = new PSCUserValue(Integer.valueOf(nextAllocNumber++));
                                 sawAlloc = true;
-                            } else if (guavaOnPath && (stack.getStackDepth() > 0)) {
-                                FQMethod fqMethod = new FQMethod(clsName, methodName, signature);
-                                if (HASHMAP_SIZED_CTOR.equals(fqMethod) || HASHSET_SIZED_CTOR.equals(fqMethod)) {
-                                    OpcodeStack.Item itm = stack.getStackItem(0);
-                                    XMethod xm = itm.getReturnValueOf();
-                                    if ((xm != null) && "size".equals(xm.getMethodDescriptor().getName())) {
-                                        bugReporter.reportBug(new BugInstance(this, BugType.PSC_SUBOPTIMAL_COLLECTION_SIZING.name(), NORMAL_PRIORITY)
-                                                .addClass(this).addMethod(this).addSourceLine(this));
+                            } else if (SignatureBuilder.SIG_INT_TO_VOID.equals(signature) && (stack.getStackDepth() > 0)) {
+                                boolean reported = false;
+                                if (guavaOnPath) {
+                                    FQMethod fqMethod = new FQMethod(clsName, methodName, signature);
+                                    if (HASHMAP_SIZED_CTOR.equals(fqMethod) || HASHSET_SIZED_CTOR.equals(fqMethod)) {
+                                        OpcodeStack.Item itm = stack.getStackItem(0);
+                                        XMethod xm = itm.getReturnValueOf();
+                                        if ((xm != null) && "size".equals(xm.getMethodDescriptor().getName())) {
+                                            bugReporter.reportBug(new BugInstance(this, BugType.PSC_SUBOPTIMAL_COLLECTION_SIZING.name(), NORMAL_PRIORITY)
+                                                    .addClass(this).addMethod(this).addSourceLine(this));
+                                            reported = true;
+                                        }
+                                    }
+                                }
+
+                                if (!reported) {
+                                    SizedAllocation sizedAlloc = buildSizedAllocation(clsName, stack.getStackItem(0));
+                                    if (sizedAlloc != null) {
+                                        userValue = new PSCUserValue(Integer.valueOf(nextAllocNumber++));
+                                        sizedAllocations.put(userValue.getAllocationNumber(), sizedAlloc);
+                                        sawAlloc = true;
                                     }
                                 }
                             }
@@ -229,7 +296,10 @@ public class PresizeCollections extends BytecodeScanningDetector {
                             PSCUserValue uv = (PSCUserValue) item.getUserValue();
                             if (uv != null) {
                                 Integer allocNum = uv.getAllocationNumber();
-                                if (allocNum != null) {
+                                SizedAllocation sizedAlloc = sizedAllocations.get(allocNum);
+                                if (sizedAlloc != null) {
+                                    sizedAlloc.addInsert(getPC(), "addAll".equals(methodName));
+                                } else if (allocNum != null) {
                                     if ("addAll".equals(methodName)) {
                                         allocToAddPCs.remove(allocNum);
                                     } else {
@@ -251,7 +321,10 @@ public class PresizeCollections extends BytecodeScanningDetector {
                             PSCUserValue uv = (PSCUserValue) item.getUserValue();
                             if (uv != null) {
                                 Integer allocNum = uv.getAllocationNumber();
-                                if (allocNum != null) {
+                                SizedAllocation sizedAlloc = sizedAllocations.get(allocNum);
+                                if (sizedAlloc != null) {
+                                    sizedAlloc.addInsert(getPC(), false);
+                                } else if (allocNum != null) {
                                     if ("putAll".equals(methodName)) {
                                         allocToAddPCs.remove(allocNum);
                                     } else {
@@ -264,6 +337,14 @@ public class PresizeCollections extends BytecodeScanningDetector {
                                     }
                                 }
                             }
+                        } else if ((numArguments == 1) && (stack.getStackDepth() > 1)) {
+                            PSCUserValue uv = (PSCUserValue) stack.getStackItem(1).getUserValue();
+                            if (uv != null) {
+                                SizedAllocation sizedAlloc = sizedAllocations.get(uv.getAllocationNumber());
+                                if (sizedAlloc != null) {
+                                    sizedAlloc.addInsert(getPC(), true);
+                                }
+                            }
                         }
                     }
                 break;
@@ -284,7 +365,7 @@ public class PresizeCollections extends BytecodeScanningDetector {
                         int thisOffset = pc + offsets[0];
                         for (int o = 0; o < (offsets.length - 1); o++) {
                             int nextOffset = offsets[o + 1] + pc;
-                            CodeRange db = new CodeRange(thisOffset, nextOffset, false);
+                            OptionalRange db = new OptionalRange(thisOffset, nextOffset, false);
                             optionalRanges.add(db);
                             thisOffset = nextOffset;
                         }
@@ -331,7 +412,7 @@ public class PresizeCollections extends BytecodeScanningDetector {
                             }
                         }
                     } else {
-                        CodeRange db = new CodeRange(getPC(), getBranchTarget(), !branchBasedOnUnsizedObject(seen));
+                        OptionalRange db = new OptionalRange(getPC(), getBranchTarget(), !branchBasedOnUnsizedObject(seen));
                         optionalRanges.add(db);
                     }
                 break;
@@ -342,7 +423,7 @@ public class PresizeCollections extends BytecodeScanningDetector {
                 case Const.IFGT:
                     // null check and >, >= branches are hard to presize
                     if (getBranchOffset() > 0) {
-                        CodeRange db = new CodeRange(getPC(), getBranchTarget(), false);
+                        OptionalRange db = new OptionalRange(getPC(), getBranchTarget(), false);
                         optionalRanges.add(db);
                     }
                 break;
@@ -353,10 +434,18 @@ public class PresizeCollections extends BytecodeScanningDetector {
                 case Const.ASTORE_2:
                 case Const.ASTORE_3: {
                     if (stack.getStackDepth() > 0) {
-                        PSCUserValue uv = (PSCUserValue) stack.getStackItem(0).getUserValue();
+                        OpcodeStack.Item itm = stack.getStackItem(0);
+                        PSCUserValue uv = (PSCUserValue) itm.getUserValue();
                         if (uv != null) {
                             storeToUserValue.put(getRegisterOperand(), uv);
                         }
+
+                        Comparable<?> source = getSource(itm);
+                        if (source != null) {
+                            registerSources.put(getRegisterOperand(), source);
+                        } else {
+                            registerSources.remove(getRegisterOperand());
+                        }
                     }
                 }
                 break;
@@ -397,9 +486,251 @@ public class PresizeCollections extends BytecodeScanningDetector {
         }
     }
 
+    /**
+     * builds the description of an allocation of a collection that is passed an initial capacity, if that capacity is
+     * something that can be related to the number of elements inserted
+     *
+     * @param clsName
+     *            the collection class being allocated
+     * @param capacity
+     *            the stack item of the initial capacity
+     * @return the sized allocation or null
+     */
+    @Nullable
+    private SizedAllocation buildSizedAllocation(String clsName, OpcodeStack.Item capacity) {
+        boolean isHashed = HASHED_COLLECTIONS.contains(clsName);
+        if (!isHashed && !EXACTLY_SIZED_COLLECTIONS.contains(clsName)) {
+            return null;
+        }
+
+        Object cons = capacity.getConstant();
+        if (cons instanceof Integer) {
+            return new SizedAllocation(isHashed, CapacityKind.CONSTANT, ((Integer) cons).intValue(), null);
+        }
+
+        int prevOp = getPrevOpcode(1);
+        XMethod xm = capacity.getReturnValueOf();
+        if (((xm != null) && "size".equals(xm.getName())) || (prevOp == Const.ARRAYLENGTH)) {
+            boolean sourceKnown = (prevOp == Const.ARRAYLENGTH) || (prevOp == Const.INVOKEINTERFACE) || (prevOp == Const.INVOKEVIRTUAL);
+            return new SizedAllocation(isHashed, CapacityKind.SOURCE_SIZE, 0, sourceKnown ? lastVisitedSource : null);
+        }
+
+        if (capacity.getRegisterNumber() >= 0) {
+            return new SizedAllocation(isHashed, CapacityKind.VARIABLE, 0, null);
+        }
+
+        return null;
+    }
+
+    /**
+     * looks at a collection allocated with a constant capacity that is filled with a known number of inserts outside of
+     * any loop or conditional, and reports when those inserts are guaranteed to resize the collection
+     *
+     * @param allocPC
+     *            the pc of the allocation
+     * @param sizedAlloc
+     *            the description of the allocation
+     */
+    private void checkConstantSizedAllocation(int allocPC, SizedAllocation sizedAlloc) {
+        List<Integer> insertPCs = sizedAlloc.getInsertPCs();
+        for (Integer pc : insertPCs) {
+            if ((findLoop(allocPC, pc.intValue()) != null) || isConditional(allocPC, pc.intValue(), Integer.MAX_VALUE)) {
+                return;
+            }
+        }
+
+        int capacity = sizedAlloc.getCapacity();
+        int inserts = insertPCs.size();
+        if (sizedAlloc.isHashed()) {
+            if (inserts > (int) (tableSizeFor(capacity) * DEFAULT_LOAD_FACTOR)) {
+                bugReporter.reportBug(new BugInstance(this, BugType.PSC_HASH_CAPACITY_IGNORES_LOAD_FACTOR.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addSourceLine(this, allocPC));
+            }
+        } else if ((capacity > 0) && (inserts > capacity)) {
+            bugReporter.reportBug(new BugInstance(this, BugType.PSC_CAPACITY_SMALLER_THAN_INSERTS.name(), NORMAL_PRIORITY).addClass(this)
+                    .addMethod(this).addString(String.valueOf(capacity)).addString(String.valueOf(inserts)).addSourceLine(this, allocPC));
+        }
+    }
+
+    /**
+     * looks at a collection allocated with a capacity of the size of some source, or a variable, that is filled in a loop, and
+     * reports hashed collections that are sized without accounting for the load factor, or lists that are filled with more
+     * than one element per iteration. Only when the loop visits the source whose size was used is the loop known to run that
+     * many times, otherwise the report is low priority.
+     *
+     * @param allocPC
+     *            the pc of the allocation
+     * @param sizedAlloc
+     *            the description of the allocation
+     */
+    private void checkLoopSizedAllocation(int allocPC, SizedAllocation sizedAlloc) {
+        CodeRange loop = null;
+        int unconditionalInserts = 0;
+        for (Integer pc : sizedAlloc.getInsertPCs()) {
+            CodeRange insertLoop = findLoop(allocPC, pc.intValue());
+            if (insertLoop == null) {
+                return;
+            }
+            if (loop == null) {
+                loop = insertLoop;
+            } else if (!loop.equals(insertLoop)) {
+                return;
+            }
+            if (!isConditional(loop.getStartPC(), pc.intValue(), loop.getEndPC())) {
+                unconditionalInserts++;
+            }
+        }
+
+        int priority = ((sizedAlloc.getKind() == CapacityKind.SOURCE_SIZE) && visitsSource(sizedAlloc.getSource(), allocPC, loop.getEndPC()))
+                ? NORMAL_PRIORITY
+                : LOW_PRIORITY;
+        if (sizedAlloc.isHashed()) {
+            if (unconditionalInserts > 0) {
+                bugReporter.reportBug(new BugInstance(this, BugType.PSC_HASH_CAPACITY_IGNORES_LOAD_FACTOR.name(), priority).addClass(this)
+                        .addMethod(this).addSourceLine(this, allocPC));
+            }
+        } else if (unconditionalInserts > 1) {
+            bugReporter.reportBug(new BugInstance(this, BugType.PSC_CAPACITY_SMALLER_THAN_INSERTS.name(), priority).addClass(this).addMethod(this)
+                    .addString("n").addString(unconditionalInserts + " * n").addSourceLine(this, allocPC));
+        }
+    }
+
+    /**
+     * records the array or collection, held in a local or field, whose length is taken, or that is indexed or iterated, so that a loop filling a collection
+     * can be related to the source whose size was used as the capacity
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    private void recordSourceVisit(int seen) {
+        int offset;
+        if (seen == Const.ARRAYLENGTH) {
+            offset = 0;
+        } else if ((seen >= Const.IALOAD) && (seen <= Const.SALOAD)) {
+            offset = 1;
+        } else if (((seen == Const.INVOKEINTERFACE) || (seen == Const.INVOKEVIRTUAL)) && SOURCE_VISIT_METHODS.contains(getNameConstantOperand())) {
+            offset = SignatureUtils.getNumParameters(getSigConstantOperand());
+        } else {
+            return;
+        }
+
+        if (stack.getStackDepth() > offset) {
+            lastVisitedSource = getSource(stack.getStackItem(offset));
+            if (lastVisitedSource != null) {
+                BitSet pcs = sourceVisits.get(lastVisitedSource);
+                if (pcs == null) {
+                    pcs = new BitSet();
+                    sourceVisits.put(lastVisitedSource, pcs);
+                }
+                pcs.set(getPC());
+            }
+        }
+    }
+
+    /**
+     * returns the local or field that holds an item, following locals that were copied from another, such as the copy of the array a for-each loop iterates
+     * over
+     *
+     * @param itm
+     *            the stack item to find the source of
+     * @return the register number or field name, or null if not held in a local or field
+     */
+    @Nullable
+    private Comparable<?> getSource(OpcodeStack.Item itm) {
+        int reg = itm.getRegisterNumber();
+        if (reg >= 0) {
+            Comparable<?> source = registerSources.get(Integer.valueOf(reg));
+            return (source != null) ? source : Integer.valueOf(reg);
+        }
+
+        XField xf = itm.getXField();
+        return (xf != null) ? xf.getName() : null;
+    }
+
+    /**
+     * returns whether a source is visited after the allocation, up to the end of the loop filling the collection
+     *
+     * @param source
+     *            the source whose size was used as the capacity
+     * @param allocPC
+     *            the pc of the allocation
+     * @param endPC
+     *            the end of the loop
+     * @return whether the source is visited
+     */
+    private boolean visitsSource(@Nullable Comparable<?> source, int allocPC, int endPC) {
+        if (source == null) {
+            return false;
+        }
+
+        BitSet pcs = sourceVisits.get(source);
+        if (pcs == null) {
+            return false;
+        }
+
+        int pc = pcs.nextSetBit(allocPC + 1);
+        return (pc >= 0) && (pc <= endPC);
+    }
+
+    /**
+     * finds the innermost loop that starts after the allocation and contains the pc
+     *
+     * @param allocPC
+     *            the pc of the allocation
+     * @param pc
+     *            the pc to find the loop of
+     * @return the innermost loop or null
+     */
+    @Nullable
+    private CodeRange findLoop(int allocPC, int pc) {
+        CodeRange innermost = null;
+        for (CodeRange loop : loops) {
+            if ((loop.getStartPC() > allocPC) && loop.contains(pc) && ((innermost == null) || (loop.size() < innermost.size()))) {
+                innermost = loop;
+            }
+        }
+        return innermost;
+    }
+
+    /**
+     * returns whether the pc is skipped by a forward branch, or is in an exception range, that begins after the start pc
+     * and ends before the limit pc
+     *
+     * @param startPC
+     *            the pc after which ranges are considered
+     * @param pc
+     *            the pc to check
+     * @param limitPC
+     *            the pc before which ranges must end, so that loop exits are not considered
+     * @return whether the pc is conditionally executed
+     */
+    private boolean isConditional(int startPC, int pc, int limitPC) {
+        for (OptionalRange range : optionalRanges) {
+            if ((range.fromPC >= startPC) && (range.fromPC < pc) && (range.toPC > pc) && (range.toPC <= limitPC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns the size of the hash table that HashMap allocates for a requested capacity, the next power of two
+     *
+     * @param capacity
+     *            the requested capacity
+     * @return the table size
+     */
+    private static int tableSizeFor(int capacity) {
+        int tableSize = 1;
+        while ((tableSize < capacity) && (tableSize < (1 << 30))) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
     private boolean hasSinglePossiblySizedBranch(int allocationPos, int addPC) {
         int numDownBranches = 0;
-        for (CodeRange db : optionalRanges) {
+        for (OptionalRange db : optionalRanges) {
             if ((db.fromPC > allocationPos) && (db.fromPC < addPC) && (db.toPC > addPC)) {
                 numDownBranches++;
 
@@ -424,11 +755,11 @@ public class PresizeCollections extends BytecodeScanningDetector {
      */
     private void addExceptionRanges(Code c) {
 
-        Map<CodeRange, List<Integer>> ranges = new HashMap<>();
+        Map<OptionalRange, List<Integer>> ranges = new HashMap<>();
         CodeException[] ces = c.getExceptionTable();
         if (ces != null) {
             for (CodeException ce : ces) {
-                CodeRange range = new CodeRange(ce.getStartPC(), ce.getEndPC(), false);
+                OptionalRange range = new OptionalRange(ce.getStartPC(), ce.getEndPC(), false);
                 List<Integer> handlers = ranges.get(range);
                 if (handlers == null) {
                     handlers = new ArrayList<>(6);
@@ -438,12 +769,12 @@ public class PresizeCollections extends BytecodeScanningDetector {
             }
         }
 
-        for (Map.Entry<CodeRange, List<Integer>> entry : ranges.entrySet()) {
+        for (Map.Entry<OptionalRange, List<Integer>> entry : ranges.entrySet()) {
             optionalRanges.add(entry.getKey());
             List<Integer> handlers = entry.getValue();
             Collections.sort(handlers);
             for (int h = 0; h < (handlers.size() - 1); h++) {
-                optionalRanges.add(new CodeRange(handlers.get(h), handlers.get(h + 1), false));
+                optionalRanges.add(new OptionalRange(handlers.get(h), handlers.get(h + 1), false));
             }
         }
     }
@@ -501,12 +832,12 @@ public class PresizeCollections extends BytecodeScanningDetector {
         return null;
     }
 
-    static class CodeRange {
+    static class OptionalRange {
         public int fromPC;
         public int toPC;
         public boolean isPossiblySized;
 
-        CodeRange(int from, int to, boolean isSized) {
+        OptionalRange(int from, int to, boolean isSized) {
             fromPC = from;
             toPC = to;
             isPossiblySized = isSized;
@@ -519,11 +850,11 @@ public class PresizeCollections extends BytecodeScanningDetector {
 
         @Override
         public boolean equals(Object o) {
-            if (!(o instanceof CodeRange)) {
+            if (!(o instanceof OptionalRange)) {
                 return false;
             }
 
-            CodeRange that = (CodeRange) o;
+            OptionalRange that = (OptionalRange) o;
             return (fromPC == that.fromPC) && (toPC == that.toPC);
         }
 
@@ -533,6 +864,63 @@ public class PresizeCollections extends BytecodeScanningDetector {
         }
     }
 
+    /**
+     * represents the allocation of a collection that is passed an initial capacity, and the inserts made into it
+     */
+    static class SizedAllocation {
+        private final boolean isHashed;
+        private final CapacityKind kind;
+        private final int capacity;
+        private final Comparable<?> source;
+        private final List<Integer> insertPCs;
+        private boolean bulkFilled;
+
+        SizedAllocation(boolean hashed, CapacityKind capacityKind, int cap, Comparable<?> sizeSource) {
+            isHashed = hashed;
+            kind = capacityKind;
+            capacity = cap;
+            source = sizeSource;
+            insertPCs = new ArrayList<>();
+        }
+
+        boolean isHashed() {
+            return isHashed;
+        }
+
+        CapacityKind getKind() {
+            return kind;
+        }
+
+        int getCapacity() {
+            return capacity;
+        }
+
+        Comparable<?> getSource() {
+            return source;
+        }
+
+        List<Integer> getInsertPCs() {
+            return insertPCs;
+        }
+
+        boolean isBulkFilled() {
+            return bulkFilled;
+        }
+
+        void addInsert(int pc, boolean isBulk) {
+            if (isBulk) {
+                bulkFilled = true;
+            } else {
+                insertPCs.add(Integer.valueOf(pc));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+
     static class PSCUserValue {
 
         private Integer allocationNumber;
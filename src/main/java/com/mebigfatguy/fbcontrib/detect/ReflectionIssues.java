@@ -18,27 +18,48 @@
  */
 package com.mebigfatguy.fbcontrib.detect;
 
-import org.apache.bcel.Const;
 import java.lang.reflect.AccessibleObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
+import org.apache.bcel.Const;
 import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
 import com.mebigfatguy.fbcontrib.utils.FQMethod;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
 import com.mebigfatguy.fbcontrib.utils.QMethod;
 import com.mebigfatguy.fbcontrib.utils.SignatureBuilder;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
 
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.OpcodeStack;
 import edu.umd.cs.findbugs.ba.ClassContext;
 
+/**
+ * looks for issues around the use of java reflection. This includes changing the accessibility of members with setAccessible, looking up classes and members
+ * reflectively on every call or on every iteration of a loop rather than caching them, and invoking methods and constructors reflectively in loops.
+ */
 public class ReflectionIssues extends BytecodeScanningDetector {
 
+    enum ReflectionKind {
+        LOOKUP, INVOKE
+    };
+
     private static final QMethod SETACCESSIBLE = new QMethod("setAccessible", SignatureBuilder.SIG_BOOLEAN_TO_VOID);
     private static final FQMethod SETACCESSIBLE_ARRAY = new FQMethod("java/lang/reflect/AccessibleObject", "setAccessible",
             new SignatureBuilder().withParamTypes(AccessibleObject[].class, boolean.class).build());
+    private static final Set<String> LOOKUP_METHODS = UnmodifiableSet.create("getMethod", "getDeclaredMethod", "getMethods", "getDeclaredMethods", "getField",
+            "getDeclaredField", "getFields", "getDeclaredFields", "getConstructor", "getDeclaredConstructor", "getConstructors", "getDeclaredConstructors");
     private static final JavaClass ACCESSIBLE_OBJECT_CLASS;
 
     static {
@@ -52,22 +73,64 @@ public class ReflectionIssues extends BytecodeScanningDetector {
 
     }
     private BugReporter bugReporter;
+    private OpcodeStack stack;
+    private List<ReflectionCall> reflectionCalls;
+    private List<CodeRange> loops;
 
+    /**
+     * constructs a RFI detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
     public ReflectionIssues(BugReporter bugReporter) {
         this.bugReporter = bugReporter;
     }
 
+    /**
+     * implements the visitor to create and clear the stack and collections
+     *
+     * @param clsContext
+     *            the context object of the currently parsed class
+     */
     @Override
     public void visitClassContext(ClassContext clsContext) {
         if (ACCESSIBLE_OBJECT_CLASS != null) {
-            super.visitClassContext(clsContext);
+            try {
+                stack = new OpcodeStack();
+                reflectionCalls = new ArrayList<>();
+                loops = new ArrayList<>();
+                super.visitClassContext(clsContext);
+            } finally {
+                stack = null;
+                reflectionCalls = null;
+                loops = null;
+            }
         }
     }
 
+    /**
+     * implements the visitor to reset the stack, and after parsing the method, report reflective calls that are not cached or are made in loops
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        reflectionCalls.clear();
+        loops.clear();
+        super.visitCode(obj);
+
+        reportReflectionCalls();
+    }
+
     @Override
     public void sawOpcode(int seen) {
 
         try {
+            stack.precomputation(this);
+
             if (seen == Const.INVOKEVIRTUAL) {
                 QMethod m = new QMethod(getNameConstantOperand(), getSigConstantOperand());
                 if (SETACCESSIBLE.equals(m)) {
@@ -77,6 +140,8 @@ public class ReflectionIssues extends BytecodeScanningDetector {
                         bugReporter.reportBug(
                                 new BugInstance(this, BugType.RFI_SET_ACCESSIBLE.name(), NORMAL_PRIORITY).addClass(this).addMethod(this).addSourceLine(this));
                     }
+                } else {
+                    processReflectionCall();
                 }
 
             } else if (seen == Const.INVOKESTATIC) {
@@ -84,10 +149,105 @@ public class ReflectionIssues extends BytecodeScanningDetector {
                 if (SETACCESSIBLE_ARRAY.equals(m)) {
                     bugReporter.reportBug(
                             new BugInstance(this, BugType.RFI_SET_ACCESSIBLE.name(), NORMAL_PRIORITY).addClass(this).addMethod(this).addSourceLine(this));
+                } else if (Values.SLASHED_JAVA_LANG_CLASS.equals(getClassConstantOperand()) && "forName".equals(getNameConstantOperand())) {
+                    int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+                    if (stack.getStackDepth() >= numParms) {
+                        boolean constantName = stack.getStackItem(numParms - 1).getConstant() instanceof String;
+                        reflectionCalls.add(new ReflectionCall(ReflectionKind.LOOKUP, getPC(), constantName));
+                    }
                 }
+            } else if (OpcodeUtils.isBranch(seen) && (getBranchOffset() < 0)) {
+                loops.add(new CodeRange(getBranchTarget(), getPC()));
             }
         } catch (ClassNotFoundException e) {
             bugReporter.reportMissingClass(e);
+        } finally {
+            stack.sawOpcode(this, seen);
+        }
+    }
+
+    /**
+     * records calls that look up members of a class, noting whether the class and the name of the member are constants, and thus whether the lookup always
+     * returns the same member, as well as calls that reflectively invoke methods or constructors
+     */
+    private void processReflectionCall() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+
+        if (Values.SLASHED_JAVA_LANG_CLASS.equals(clsName)) {
+            if (LOOKUP_METHODS.contains(methodName)) {
+                int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+                if (stack.getStackDepth() > numParms) {
+                    boolean constantClass = stack.getStackItem(numParms).getConstant() != null;
+                    boolean constantName = (numParms == 0) || !getSigConstantOperand().startsWith("(Ljava/lang/String;")
+                            || (stack.getStackItem(numParms - 1).getConstant() instanceof String);
+                    reflectionCalls.add(new ReflectionCall(ReflectionKind.LOOKUP, getPC(), constantClass && constantName));
+                }
+            }
+        } else if (("java/lang/reflect/Method".equals(clsName) && "invoke".equals(methodName))
+                || ("java/lang/reflect/Constructor".equals(clsName) && "newInstance".equals(methodName))) {
+            reflectionCalls.add(new ReflectionCall(ReflectionKind.INVOKE, getPC(), false));
+        }
+    }
+
+    /**
+     * reports lookups and invocations made in loops, and lookups of constant members made outside of the static initializer, which could be cached in a static
+     * field
+     */
+    private void reportReflectionCalls() {
+        for (ReflectionCall call : reflectionCalls) {
+            boolean inLoop = false;
+            for (CodeRange loop : loops) {
+                if (loop.contains(call.getPC())) {
+                    inLoop = true;
+                    break;
+                }
+            }
+
+            if (call.getKind() == ReflectionKind.INVOKE) {
+                if (inLoop) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.RFI_REFLECTIVE_INVOKE_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
+                            .addSourceLine(this, call.getPC()));
+                }
+            } else if (inLoop) {
+                bugReporter.reportBug(new BugInstance(this, BugType.RFI_REFLECTIVE_LOOKUP_IN_LOOP.name(), call.isConstant() ? NORMAL_PRIORITY : LOW_PRIORITY)
+                        .addClass(this).addMethod(this).addSourceLine(this, call.getPC()));
+            } else if (call.isConstant() && !Values.STATIC_INITIALIZER.equals(getMethodName())) {
+                bugReporter.reportBug(new BugInstance(this, BugType.RFI_UNCACHED_REFLECTIVE_LOOKUP.name(), LOW_PRIORITY).addClass(this).addMethod(this)
+                        .addSourceLine(this, call.getPC()));
+            }
+        }
+    }
+
+    /**
+     * holds a reflective lookup or invocation, and whether the lookup always finds the same class or member
+     */
+    static class ReflectionCall {
+        private final ReflectionKind kind;
+        private final int pc;
+        private final boolean constant;
+
+        ReflectionCall(ReflectionKind kind, int pc, boolean constant) {
+            this.kind = kind;
+            this.pc = pc;
+            this.constant = constant;
+        }
+
+        ReflectionKind getKind() {
+            return kind;
+        }
+
+        int getPC() {
+            return pc;
+        }
+
+        boolean isConstant() {
+            return constant;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
         }
     }
 }
@@ -26,7 +26,7 @@ import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Code;
 
 import com.mebigfatguy.fbcontrib.utils.BugType;
-import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
 import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
 
 import edu.umd.cs.findbugs.BugInstance;
@@ -45,7 +45,7 @@ public class SQLInLoop extends BytecodeScanningDetector {
 
     private final BugReporter bugReporter;
     List<Integer> queryLocations;
-    List<LoopLocation> loops;
+    List<CodeRange> loops;
 
     /**
      * constructs a SIL detector given the reporter to report bugs on
@@ -87,8 +87,8 @@ public class SQLInLoop extends BytecodeScanningDetector {
         loops.clear();
         super.visitCode(obj);
         for (Integer qLoc : queryLocations) {
-            for (LoopLocation lLoc : loops) {
-                if (lLoc.isInLoop(qLoc.intValue())) {
+            for (CodeRange lLoc : loops) {
+                if (lLoc.contains(qLoc.intValue())) {
                     bugReporter.reportBug(new BugInstance(this, BugType.SIL_SQL_IN_LOOP.name(), NORMAL_PRIORITY).addClass(this).addMethod(this)
                             .addSourceLine(this, qLoc.intValue()));
                     break;
@@ -116,30 +116,8 @@ public class SQLInLoop extends BytecodeScanningDetector {
             int branchTarget = getBranchTarget();
             int pc = getPC();
             if (branchTarget < pc) {
-                loops.add(new LoopLocation(branchTarget, pc));
+                loops.add(new CodeRange(branchTarget, pc));
             }
         }
     }
-
-    /**
-     * holds the start and end position of a loop
-     */
-    private static class LoopLocation {
-        private final int startPC;
-        private final int endPC;
-
-        LoopLocation(int start, int end) {
-            startPC = start;
-            endPC = end;
-        }
-
-        boolean isInLoop(int pc) {
-            return (pc >= startPC) && (pc <= endPC);
-        }
-
-        @Override
-        public String toString() {
-            return ToString.build(this);
-        }
-    }
 }
@@ -0,0 +1,409 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.TernaryPatcher;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.FieldAnnotation;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for private fields holding synchronized collections, built with Collections.synchronizedXXX, or Hashtable or Vector, that are used in ways that
+ * contend on the collection's lock more than needed. This includes check-then-act sequences, such as containsKey followed by put, across several methods, or
+ * collections that are read far more often than they are written. java.util.concurrent collections, or immutable snapshots, scale better for these uses.
+ */
+@CustomUserValue
+public class SynchronizedCollectionContention extends BytecodeScanningDetector {
+
+    private static final String SYNC_COLLECTION_PROPERTY_READ_RATIO = "fb-contrib.scc.readratio";
+
+    private static final Set<String> SYNC_COLLECTION_CLASSES = UnmodifiableSet.create("java/util/Hashtable", "java/util/Vector");
+
+    private static final Set<String> SYNC_COLLECTION_FACTORIES = UnmodifiableSet.create("synchronizedMap", "synchronizedSortedMap", "synchronizedNavigableMap",
+            "synchronizedList", "synchronizedSet", "synchronizedSortedSet", "synchronizedNavigableSet", "synchronizedCollection");
+
+    private static final Set<String> CHECK_METHODS = UnmodifiableSet.create("get", "getOrDefault", "containsKey", "containsValue", "contains", "isEmpty",
+            "size", "indexOf");
+
+    private static final Set<String> READ_METHODS = UnmodifiableSet.create("get", "getOrDefault", "containsKey", "containsValue", "contains", "containsAll",
+            "isEmpty", "size", "indexOf", "lastIndexOf", "keySet", "values", "entrySet", "iterator", "listIterator", "elementAt", "firstElement", "lastElement",
+            "elements", "keys", "forEach", "stream", "toArray", "subList", "firstKey", "lastKey", "first", "last");
+
+    private static final Set<String> WRITE_METHODS = UnmodifiableSet.create("put", "putAll", "putIfAbsent", "remove", "removeAll", "retainAll", "removeIf",
+            "add", "addAll", "addElement", "insertElementAt", "removeElement", "removeElementAt", "removeAllElements", "set", "setElementAt", "clear", "compute",
+            "computeIfAbsent", "computeIfPresent", "merge", "replace", "replaceAll", "sort");
+
+    private static JavaClass collectionClass;
+    private static JavaClass mapClass;
+
+    static {
+        try {
+            collectionClass = Repository.lookupClass(Values.SLASHED_JAVA_UTIL_COLLECTION);
+            mapClass = Repository.lookupClass(Values.SLASHED_JAVA_UTIL_MAP);
+        } catch (ClassNotFoundException cnfe) {
+            collectionClass = null;
+            mapClass = null;
+        }
+    }
+
+    private final BugReporter bugReporter;
+    private final int readRatio;
+    private OpcodeStack stack;
+    private String clsName;
+    private Map<String, FieldInfo> collectionFields;
+    private Set<String> checkedFields;
+    private boolean isInitializer;
+
+    /**
+     * constructs a SCC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public SynchronizedCollectionContention(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+        readRatio = Integer.getInteger(SYNC_COLLECTION_PROPERTY_READ_RATIO, 4).intValue();
+    }
+
+    /**
+     * implements the visitor to collect the private collection fields, and after parsing the class, report synchronized ones that are contended
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        if ((collectionClass == null) || (mapClass == null)) {
+            return;
+        }
+
+        try {
+            JavaClass cls = classContext.getJavaClass();
+            clsName = cls.getClassName();
+            collectionFields = new HashMap<>();
+            for (Field f : cls.getFields()) {
+                if (f.isPrivate() && !f.isSynthetic() && isCollectionSignature(f.getSignature())) {
+                    collectionFields.put(f.getName(), new FieldInfo(new FieldAnnotation(clsName, f.getName(), f.getSignature(), f.isStatic())));
+                }
+            }
+
+            if (!collectionFields.isEmpty()) {
+                stack = new OpcodeStack();
+                checkedFields = new HashSet<>();
+                super.visitClassContext(classContext);
+                reportContendedCollections(Statistics.getStatistics().isAutowiredBean(clsName));
+            }
+        } finally {
+            stack = null;
+            collectionFields = null;
+            checkedFields = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack and the fields checked in this method
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (!collectionFields.isEmpty()) {
+            String methodName = getMethodName();
+            isInitializer = Values.CONSTRUCTOR.equals(methodName) || Values.STATIC_INITIALIZER.equals(methodName);
+            checkedFields.clear();
+            stack.resetForMethodEntry(this);
+            super.visitCode(obj);
+        }
+    }
+
+    /**
+     * implements the visitor to find how synchronized collections are created, and to count how they are read and written
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        boolean isSyncCollection = false;
+        try {
+            stack.precomputation(this);
+
+            switch (seen) {
+                case Const.INVOKESPECIAL:
+                    if (Values.CONSTRUCTOR.equals(getNameConstantOperand())) {
+                        isSyncCollection = SYNC_COLLECTION_CLASSES.contains(getClassConstantOperand());
+                        countCopies();
+                    } else {
+                        removeEscapingArguments();
+                    }
+                break;
+
+                case Const.INVOKESTATIC:
+                    isSyncCollection = "java/util/Collections".equals(getClassConstantOperand()) && SYNC_COLLECTION_FACTORIES.contains(getNameConstantOperand());
+                    if (!isSyncCollection) {
+                        removeEscapingArguments();
+                    }
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                case Const.INVOKEINTERFACE:
+                    processCollectionCall();
+                    removeEscapingArguments();
+                break;
+
+                case Const.INVOKEDYNAMIC:
+                    removeEscapingArguments();
+                break;
+
+                case Const.PUTFIELD:
+                case Const.PUTSTATIC:
+                    processFieldStore();
+                break;
+
+                case Const.ARETURN:
+                case Const.AASTORE:
+                    removeEscapingField(0);
+                break;
+
+                default:
+                break;
+            }
+        } finally {
+            TernaryPatcher.pre(stack, seen);
+            stack.sawOpcode(this, seen);
+            TernaryPatcher.post(stack, seen);
+            if (isSyncCollection && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(Boolean.TRUE);
+            }
+        }
+    }
+
+    private void processCollectionCall() {
+        if (isInitializer) {
+            return;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        String fieldName = getCollectionFieldName(stack.getStackItem(numParms));
+        if (fieldName == null) {
+            return;
+        }
+
+        FieldInfo fi = collectionFields.get(fieldName);
+        String methodName = getNameConstantOperand();
+        if (WRITE_METHODS.contains(methodName)) {
+            fi.addWrite(getMethodName() + getMethodSig());
+            if (checkedFields.remove(fieldName)) {
+                fi.addCheckThenAct();
+            }
+        } else if (READ_METHODS.contains(methodName)) {
+            fi.addRead(getMethodName() + getMethodSig());
+            if (CHECK_METHODS.contains(methodName)) {
+                checkedFields.add(fieldName);
+            }
+        }
+    }
+
+    private void processFieldStore() {
+        if (stack.getStackDepth() == 0) {
+            return;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        removeEscapingField(0);
+
+        if (clsName.equals(getDottedClassConstantOperand())) {
+            FieldInfo fi = collectionFields.get(getNameConstantOperand());
+            if (fi != null) {
+                if (itm.getUserValue() != null) {
+                    fi.setSyncAssigned();
+                } else if (!itm.isNull()) {
+                    collectionFields.remove(getNameConstantOperand());
+                }
+            }
+        }
+    }
+
+    /**
+     * passing the collection to a constructor is almost always a copy, so count it as a read, rather than removing the field
+     */
+    private void countCopies() {
+        if (isInitializer) {
+            return;
+        }
+
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        for (int i = 0; (i < numParms) && (i < stack.getStackDepth()); i++) {
+            String fieldName = getCollectionFieldName(stack.getStackItem(i));
+            if (fieldName != null) {
+                collectionFields.get(fieldName).addRead(getMethodName() + getMethodSig());
+            }
+        }
+    }
+
+    private void removeEscapingArguments() {
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        for (int i = 0; i < numParms; i++) {
+            removeEscapingField(i);
+        }
+    }
+
+    private void removeEscapingField(int stackOffset) {
+        if (stack.getStackDepth() > stackOffset) {
+            String fieldName = getCollectionFieldName(stack.getStackItem(stackOffset));
+            if (fieldName != null) {
+                collectionFields.remove(fieldName);
+            }
+        }
+    }
+
+    private String getCollectionFieldName(OpcodeStack.Item itm) {
+        XField xf = itm.getXField();
+        if ((xf == null) || !clsName.equals(xf.getClassName())) {
+            return null;
+        }
+
+        String fieldName = xf.getName();
+        return collectionFields.containsKey(fieldName) ? fieldName : null;
+    }
+
+    private void reportContendedCollections(boolean isSingleton) {
+        for (FieldInfo fi : collectionFields.values()) {
+            if (!fi.isSyncAssigned() || (fi.getNumAccessingMethods() < 2)) {
+                continue;
+            }
+
+            FieldAnnotation fa = fi.getFieldAnnotation();
+            if (fi.getCheckThenActs() > 0) {
+                bugReporter.reportBug(new BugInstance(this, BugType.SCC_CHECK_THEN_ACT_ON_SYNCHRONIZED_COLLECTION.name(), NORMAL_PRIORITY).addClass(this)
+                        .addField(fa).addInt(fi.getNumAccessingMethods()).addInt(fi.getCheckThenActs()).addInt(fi.getReads()).addInt(fi.getWrites()));
+            } else if ((fi.getWrites() > 0) && (fi.getReads() >= (readRatio * fi.getWrites()))) {
+                // collections never written outside of initializers are reported by NMCS
+                bugReporter.reportBug(new BugInstance(this, BugType.SCC_READ_MOSTLY_SYNCHRONIZED_COLLECTION.name(),
+                        (fa.isStatic() || isSingleton) ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addField(fa).addInt(fi.getNumAccessingMethods())
+                                .addInt(fi.getReads()).addInt(fi.getWrites()));
+            }
+        }
+    }
+
+    private static boolean isCollectionSignature(String signature) {
+        if (!signature.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX)) {
+            return false;
+        }
+
+        try {
+            JavaClass cls = Repository.lookupClass(SignatureUtils.stripSignature(signature));
+            return cls.implementationOf(collectionClass) || cls.implementationOf(mapClass);
+        } catch (ClassNotFoundException cnfe) {
+            return false;
+        }
+    }
+
+    /**
+     * holds how a collection field is assigned, and read and written
+     */
+    static class FieldInfo {
+        private final FieldAnnotation fieldAnnotation;
+        private final Set<String> accessingMethods = new HashSet<>();
+        private boolean syncAssigned;
+        private int reads;
+        private int writes;
+        private int checkThenActs;
+
+        FieldInfo(FieldAnnotation fa) {
+            fieldAnnotation = fa;
+        }
+
+        FieldAnnotation getFieldAnnotation() {
+            return fieldAnnotation;
+        }
+
+        boolean isSyncAssigned() {
+            return syncAssigned;
+        }
+
+        void setSyncAssigned() {
+            syncAssigned = true;
+        }
+
+        void addRead(String method) {
+            reads++;
+            accessingMethods.add(method);
+        }
+
+        void addWrite(String method) {
+            writes++;
+            accessingMethods.add(method);
+        }
+
+        void addCheckThenAct() {
+            checkThenActs++;
+        }
+
+        int getReads() {
+            return reads;
+        }
+
+        int getWrites() {
+            return writes;
+        }
+
+        int getCheckThenActs() {
+            return checkThenActs;
+        }
+
+        int getNumAccessingMethods() {
+            return accessingMethods.size();
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.FieldAnnotation;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for maps held in static fields, or in fields of singletons, that are used as memoization caches, either with computeIfAbsent, or by checking for a key
+ * with get or containsKey and then putting a value for that key, but that are never evicted from. When the keys come from request data, such caches grow
+ * without bound for the life of the application.
+ */
+public class UnboundedMemoizationCache extends BytecodeScanningDetector {
+
+    private static final Set<String> MAP_CLASSES = UnmodifiableSet.create("java/util/Map", "java/util/concurrent/ConcurrentMap", "java/util/HashMap",
+            "java/util/concurrent/ConcurrentHashMap", "java/util/Hashtable", "java/util/TreeMap", "java/util/concurrent/ConcurrentSkipListMap");
+
+    private static final Set<String> UNBOUNDED_MAP_SIGS = UnmodifiableSet.create("Ljava/util/HashMap;", "Ljava/util/concurrent/ConcurrentHashMap;",
+            "Ljava/util/Hashtable;", "Ljava/util/TreeMap;", "Ljava/util/concurrent/ConcurrentSkipListMap;");
+
+    private static final Set<String> FIELD_SIGS = UnmodifiableSet.create("Ljava/util/Map;", "Ljava/util/concurrent/ConcurrentMap;", "Ljava/util/HashMap;",
+            "Ljava/util/concurrent/ConcurrentHashMap;", "Ljava/util/Hashtable;", "Ljava/util/TreeMap;", "Ljava/util/concurrent/ConcurrentSkipListMap;");
+
+    private static final Set<String> LOOKUP_METHODS = UnmodifiableSet.create("get", "containsKey");
+
+    private static final Set<String> INSERT_METHODS = UnmodifiableSet.create("put", "putIfAbsent");
+
+    private static final Set<String> EVICTION_METHODS = UnmodifiableSet.create("remove", "clear", "keySet", "values", "entrySet", "replaceAll", "compute",
+            "computeIfPresent", "merge", "pollFirstEntry", "pollLastEntry", "headMap", "tailMap", "subMap");
+
+    private final BugReporter bugReporter;
+    private JavaClass enumClass;
+    private OpcodeStack stack;
+    private String clsName;
+    private Map<String, CacheInfo> caches;
+    private Map<Integer, Set<String>> lookedUpKeys;
+    private BitSet parameterRegs;
+    private boolean isInitializer;
+
+    /**
+     * constructs a UMC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public UnboundedMemoizationCache(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to collect the map fields that live as long as the application, and after parsing the class, to report the ones that are used
+     * as memoization caches, and never evicted from
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            JavaClass cls = classContext.getJavaClass();
+            clsName = cls.getClassName();
+            boolean isSingleton = cls.isEnum() || Statistics.getStatistics().isAutowiredBean(clsName);
+
+            caches = new HashMap<>();
+            for (Field f : cls.getFields()) {
+                if ((f.isStatic() || isSingleton) && !f.isSynthetic() && FIELD_SIGS.contains(f.getSignature())) {
+                    caches.put(f.getName(), new CacheInfo(new FieldAnnotation(clsName, f.getName(), f.getSignature(), f.isStatic())));
+                }
+            }
+
+            if (!caches.isEmpty()) {
+                enumClass = Repository.lookupClass("java/lang/Enum");
+                stack = new OpcodeStack();
+                lookedUpKeys = new HashMap<>();
+                parameterRegs = new BitSet();
+                super.visitClassContext(classContext);
+
+                for (CacheInfo info : caches.values()) {
+                    if (info.isUnbounded() && !info.isEvicted() && (info.getInsertion() != null)) {
+                        bugReporter.reportBug(new BugInstance(this, BugType.UMC_UNBOUNDED_MEMOIZATION_CACHE.name(),
+                                info.isRequestKeyed() ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addField(info.getFieldAnnotation())
+                                        .addString(info.getKeyType()).addSourceLine(info.getInsertion()));
+                    }
+                }
+            }
+        } catch (ClassNotFoundException cnfe) {
+            bugReporter.reportMissingClass(cnfe);
+        } finally {
+            enumClass = null;
+            stack = null;
+            caches = null;
+            lookedUpKeys = null;
+            parameterRegs = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the stack and the keys looked up in the method
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        Method m = getMethod();
+        String methodName = m.getName();
+        isInitializer = Values.CONSTRUCTOR.equals(methodName) || Values.STATIC_INITIALIZER.equals(methodName);
+
+        parameterRegs.clear();
+        for (int reg : RegisterUtils.getParameterRegisters(m)) {
+            parameterRegs.set(reg);
+        }
+        lookedUpKeys.clear();
+        stack.resetForMethodEntry(this);
+        super.visitCode(obj);
+    }
+
+    /**
+     * implements the visitor to find how the cache fields are created, looked up, inserted into and evicted from
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        try {
+            stack.precomputation(this);
+
+            switch (seen) {
+                case Const.PUTFIELD:
+                case Const.PUTSTATIC:
+                    processFieldStore();
+                break;
+
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKEVIRTUAL:
+                    processMapCall();
+                break;
+
+                default:
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+        }
+    }
+
+    /**
+     * records whether a cache field is created as an unbounded map in an initializer, and treats any other store as a way of evicting the cache
+     */
+    private void processFieldStore() {
+        if (!clsName.equals(getDottedClassConstantOperand())) {
+            return;
+        }
+
+        CacheInfo info = caches.get(getNameConstantOperand());
+        if ((info == null) || (stack.getStackDepth() == 0)) {
+            return;
+        }
+
+        if (isInitializer && UNBOUNDED_MAP_SIGS.contains(stack.getStackItem(0).getSignature())) {
+            info.setUnbounded();
+        } else {
+            caches.remove(getNameConstantOperand());
+        }
+    }
+
+    /**
+     * records lookups of keys in cache fields, and insertions of keys that were looked up, or computed with computeIfAbsent, as well as calls that may evict
+     * entries
+     */
+    private void processMapCall() {
+        if (!MAP_CLASSES.contains(getClassConstantOperand())) {
+            return;
+        }
+
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        XField field = stack.getStackItem(numParms).getXField();
+        if ((field == null) || !clsName.equals(field.getClassName())) {
+            return;
+        }
+
+        CacheInfo info = caches.get(field.getName());
+        if (info == null) {
+            return;
+        }
+
+        String methodName = getNameConstantOperand();
+        if (EVICTION_METHODS.contains(methodName)) {
+            info.setEvicted();
+            return;
+        }
+
+        if (numParms == 0) {
+            return;
+        }
+
+        OpcodeStack.Item key = stack.getStackItem(numParms - 1);
+        int keyReg = key.getRegisterNumber();
+        if (LOOKUP_METHODS.contains(methodName)) {
+            if (keyReg >= 0) {
+                Integer reg = Integer.valueOf(keyReg);
+                Set<String> fields = lookedUpKeys.get(reg);
+                if (fields == null) {
+                    fields = new HashSet<>();
+                    lookedUpKeys.put(reg, fields);
+                }
+                fields.add(field.getName());
+            }
+        } else if ("computeIfAbsent".equals(methodName)) {
+            recordInsertion(info, key);
+        } else if (INSERT_METHODS.contains(methodName) && (keyReg >= 0)) {
+            Set<String> fields = lookedUpKeys.get(Integer.valueOf(keyReg));
+            if ((fields != null) && fields.contains(field.getName())) {
+                recordInsertion(info, key);
+            }
+        }
+    }
+
+    /**
+     * records where a cache is first inserted into, and with what type of key, unless the key comes from a small, fixed set of values, such as classes and
+     * enums
+     *
+     * @param info
+     *            the cache being inserted into
+     * @param key
+     *            the key inserted
+     */
+    private void recordInsertion(CacheInfo info, OpcodeStack.Item key) {
+        if ((info.getInsertion() != null) || isBoundedKey(key)) {
+            return;
+        }
+
+        String keySig = key.getSignature();
+        info.setInsertion(SourceLineAnnotation.fromVisitedInstruction(getClassContext(), this, getPC()),
+                keySig.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX) ? SignatureUtils.stripSignature(keySig) : keySig,
+                (key.getRegisterNumber() >= 0) && parameterRegs.get(key.getRegisterNumber()));
+    }
+
+    private boolean isBoundedKey(OpcodeStack.Item key) {
+        String keySig = key.getSignature();
+        if ("Ljava/lang/Class;".equals(keySig) || Values.SIG_JAVA_LANG_BOOLEAN.equals(keySig)) {
+            return true;
+        }
+
+        try {
+            JavaClass keyClass = key.getJavaClass();
+            return (keyClass != null) && keyClass.instanceOf(enumClass);
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * holds what is known about a map field that may be used as a cache
+     */
+    static class CacheInfo {
+        private final FieldAnnotation fieldAnnotation;
+        private boolean unbounded;
+        private boolean evicted;
+        private SourceLineAnnotation insertion;
+        private String keyType;
+        private boolean requestKeyed;
+
+        CacheInfo(FieldAnnotation fieldAnnotation) {
+            this.fieldAnnotation = fieldAnnotation;
+        }
+
+        FieldAnnotation getFieldAnnotation() {
+            return fieldAnnotation;
+        }
+
+        boolean isUnbounded() {
+            return unbounded;
+        }
+
+        void setUnbounded() {
+            unbounded = true;
+        }
+
+        boolean isEvicted() {
+            return evicted;
+        }
+
+        void setEvicted() {
+            evicted = true;
+        }
+
+        SourceLineAnnotation getInsertion() {
+            return insertion;
+        }
+
+        String getKeyType() {
+            return keyType;
+        }
+
+        boolean isRequestKeyed() {
+            return requestKeyed;
+        }
+
+        void setInsertion(SourceLineAnnotation insertion, String keyType, boolean requestKeyed) {
+            this.insertion = insertion;
+            this.keyType = keyType;
+            this.requestKeyed = requestKeyed;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.FieldAnnotation;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+
+/**
+ * looks for private AtomicLong or AtomicInteger fields that are only used as statistics counters, that is, they are only incremented or added to, without
+ * looking at the result, and occasionally read. Under contention from many threads, these fields become hot spots, and java.util.concurrent.atomic.LongAdder
+ * would scale much better.
+ */
+@CustomUserValue
+public class UseLongAdder extends BytecodeScanningDetector {
+
+    private static final Set<String> ATOMIC_COUNTER_SIGS = UnmodifiableSet.create("Ljava/util/concurrent/atomic/AtomicLong;",
+            "Ljava/util/concurrent/atomic/AtomicInteger;");
+
+    private static final Set<String> UPDATE_METHODS = UnmodifiableSet.create("incrementAndGet", "getAndIncrement", "decrementAndGet", "getAndDecrement",
+            "addAndGet", "getAndAdd");
+
+    private static final Set<String> READ_METHODS = UnmodifiableSet.create("get", "intValue", "longValue", "floatValue", "doubleValue", Values.TOSTRING);
+
+    private static final Set<String> RESET_METHODS = UnmodifiableSet.create("set", "getAndSet");
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private String clsName;
+    /** field name to counter usage */
+    private Map<String, CounterInfo> counterFields;
+
+    /**
+     * constructs a ULA detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public UseLongAdder(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to collect private atomic counter fields, and after parsing the class, report those that were only used as counters
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        JavaClass cls = classContext.getJavaClass();
+        if (cls.getMajor() < Const.MAJOR_1_8) {
+            return;
+        }
+
+        try {
+            clsName = cls.getClassName();
+            counterFields = new HashMap<>();
+            for (Field f : cls.getFields()) {
+                if (f.isPrivate() && !f.isSynthetic() && ATOMIC_COUNTER_SIGS.contains(f.getSignature())) {
+                    counterFields.put(f.getName(), new CounterInfo(new FieldAnnotation(clsName, f.getName(), f.getSignature(), f.isStatic())));
+                }
+            }
+
+            if (!counterFields.isEmpty()) {
+                stack = new OpcodeStack();
+                super.visitClassContext(classContext);
+
+                boolean isSingleton = Statistics.getStatistics().isAutowiredBean(clsName);
+                for (CounterInfo info : counterFields.values()) {
+                    if (info.getUpdates() > 0) {
+                        FieldAnnotation fa = info.getFieldAnnotation();
+                        bugReporter.reportBug(new BugInstance(this, BugType.ULA_USE_LONG_ADDER.name(),
+                                (fa.isStatic() || isSingleton) ? NORMAL_PRIORITY : LOW_PRIORITY).addClass(this).addField(fa).addInt(info.getUpdates())
+                                        .addInt(info.getReads()));
+                    }
+                }
+            }
+        } finally {
+            stack = null;
+            counterFields = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        if (!counterFields.isEmpty()) {
+            stack.resetForMethodEntry(this);
+            super.visitCode(obj);
+        }
+    }
+
+    /**
+     * implements the visitor to tag loads of the counter fields, and to remove any counter field that is used in a way other than as a counter
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        String sawCounterField = null;
+        try {
+            switch (seen) {
+                case Const.GETFIELD:
+                case Const.GETSTATIC:
+                    if (clsName.equals(getDottedClassConstantOperand()) && counterFields.containsKey(getNameConstantOperand())) {
+                        sawCounterField = getNameConstantOperand();
+                    }
+                break;
+
+                case Const.PUTFIELD:
+                case Const.PUTSTATIC:
+                    if (clsName.equals(getDottedClassConstantOperand())) {
+                        String methodName = getMethodName();
+                        if (!Values.CONSTRUCTOR.equals(methodName) && !Values.STATIC_INITIALIZER.equals(methodName)) {
+                            counterFields.remove(getNameConstantOperand());
+                        }
+                    }
+                    removeEscapingCounter(0);
+                break;
+
+                case Const.INVOKEVIRTUAL:
+                    processInvokeVirtual();
+                break;
+
+                case Const.INVOKEINTERFACE:
+                case Const.INVOKESPECIAL:
+                case Const.INVOKESTATIC:
+                case Const.INVOKEDYNAMIC:
+                    removeEscapingArguments();
+                break;
+
+                case Const.ARETURN:
+                case Const.ASTORE:
+                case Const.ASTORE_0:
+                case Const.ASTORE_1:
+                case Const.ASTORE_2:
+                case Const.ASTORE_3:
+                case Const.MONITORENTER:
+                case Const.AASTORE:
+                    removeEscapingCounter(0);
+                break;
+
+                default:
+                break;
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((sawCounterField != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(sawCounterField);
+            }
+        }
+    }
+
+    private void processInvokeVirtual() {
+        removeEscapingArguments();
+
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+        if (stack.getStackDepth() <= numParms) {
+            return;
+        }
+
+        String fieldName = (String) stack.getStackItem(numParms).getUserValue();
+        if (fieldName == null) {
+            return;
+        }
+
+        CounterInfo info = counterFields.get(fieldName);
+        if (info == null) {
+            return;
+        }
+
+        String methodName = getNameConstantOperand();
+        if (UPDATE_METHODS.contains(methodName)) {
+            if (nextOpIsPop()) {
+                info.addUpdate();
+            } else {
+                counterFields.remove(fieldName);
+            }
+        } else if (READ_METHODS.contains(methodName)) {
+            info.addRead();
+        } else if (RESET_METHODS.contains(methodName) && isZeroArgument()) {
+            // LongAdder.reset() or LongAdder.sumThenReset()
+            info.addRead();
+        } else {
+            counterFields.remove(fieldName);
+        }
+    }
+
+    private void removeEscapingArguments() {
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        for (int i = 0; i < numParms; i++) {
+            removeEscapingCounter(i);
+        }
+    }
+
+    private void removeEscapingCounter(int stackOffset) {
+        if (stack.getStackDepth() > stackOffset) {
+            String fieldName = (String) stack.getStackItem(stackOffset).getUserValue();
+            if (fieldName != null) {
+                counterFields.remove(fieldName);
+            }
+        }
+    }
+
+    private boolean isZeroArgument() {
+        if (stack.getStackDepth() == 0) {
+            return false;
+        }
+
+        Object cons = stack.getStackItem(0).getConstant();
+        return (cons instanceof Number) && (((Number) cons).longValue() == 0);
+    }
+
+    private boolean nextOpIsPop() {
+        int nextOp = getCode().getCode()[getNextPC()] & 0x00FF;
+        return (nextOp == Const.POP) || (nextOp == Const.POP2);
+    }
+
+    /**
+     * holds how a counter field is used throughout the class
+     */
+    static class CounterInfo {
+        private final FieldAnnotation fieldAnnotation;
+        private int updates;
+        private int reads;
+
+        CounterInfo(FieldAnnotation fa) {
+            fieldAnnotation = fa;
+        }
+
+        FieldAnnotation getFieldAnnotation() {
+            return fieldAnnotation;
+        }
+
+        int getUpdates() {
+            return updates;
+        }
+
+        void addUpdate() {
+            updates++;
+        }
+
+        int getReads() {
+            return reads;
+        }
+
+        void addRead() {
+            reads++;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
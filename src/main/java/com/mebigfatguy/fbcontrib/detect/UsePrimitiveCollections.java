@@ -0,0 +1,595 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.OpcodeUtils;
+import com.mebigfatguy.fbcontrib.utils.RegisterUtils;
+import com.mebigfatguy.fbcontrib.utils.SignatureUtils;
+import com.mebigfatguy.fbcontrib.utils.ToString;
+import com.mebigfatguy.fbcontrib.utils.UnmodifiableSet;
+import com.mebigfatguy.fbcontrib.utils.Values;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.FieldAnnotation;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.OpcodeStack.CustomUserValue;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.XField;
+
+/**
+ * looks for maps, lists and sets, held in private fields or created locally, where every key or element inserted is a boxed primitive, created with
+ * Integer.valueOf, Long.valueOf and the like, and values read back out are unboxed. Each entry then holds an extra object for each boxed primitive, which for
+ * large, long lived collections such as id caches adds up to a lot of memory, and gc time. Primitive specialized collections avoid this overhead.
+ */
+@CustomUserValue
+public class UsePrimitiveCollections extends BytecodeScanningDetector {
+
+    /** box class to the size in bytes of its primitive */
+    private static final Map<String, Integer> BOX_PRIMITIVE_SIZES;
+
+    static {
+        Map<String, Integer> bps = new HashMap<>();
+        bps.put("java/lang/Byte", Integer.valueOf(1));
+        bps.put("java/lang/Short", Integer.valueOf(2));
+        bps.put("java/lang/Character", Integer.valueOf(2));
+        bps.put("java/lang/Integer", Integer.valueOf(4));
+        bps.put("java/lang/Float", Integer.valueOf(4));
+        bps.put("java/lang/Long", Integer.valueOf(8));
+        bps.put("java/lang/Double", Integer.valueOf(8));
+        BOX_PRIMITIVE_SIZES = Collections.unmodifiableMap(bps);
+    }
+
+    /** the size of a reference, assuming compressed oops */
+    private static final int REFERENCE_SIZE = 4;
+    /** the size of a HashMap.Node or TreeMap.Entry, plus the table slot pointing to it */
+    private static final int MAP_ENTRY_SIZE = 36;
+
+    private static final Set<String> MAP_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_MAP, "java/util/HashMap", "java/util/LinkedHashMap",
+            "java/util/TreeMap", "java/util/SortedMap", "java/util/NavigableMap", "java/util/concurrent/ConcurrentMap", "java/util/concurrent/ConcurrentHashMap");
+
+    private static final Set<String> SET_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_SET, "java/util/HashSet", "java/util/LinkedHashSet",
+            "java/util/TreeSet", "java/util/SortedSet", "java/util/NavigableSet");
+
+    private static final Set<String> LIST_CLASSES = UnmodifiableSet.create(Values.SLASHED_JAVA_UTIL_LIST, Values.SLASHED_JAVA_UTIL_COLLECTION,
+            "java/util/ArrayList", "java/util/LinkedList");
+
+    private static final Set<String> KEYED_METHODS = UnmodifiableSet.create("get", "getOrDefault", "containsKey", "remove", "contains", "indexOf",
+            "lastIndexOf");
+
+    private static final Set<String> READ_METHODS = UnmodifiableSet.create("get", "getOrDefault", "remove");
+
+    private static final Set<String> BULK_METHODS = UnmodifiableSet.create("putAll", "addAll", "removeAll", "retainAll", "containsAll", "equals");
+
+    private final BugReporter bugReporter;
+    private OpcodeStack stack;
+    private String clsName;
+    private Map<String, CollectionInfo> fieldCollections;
+    private Map<Integer, CollectionInfo> localCollections;
+    private Map<Integer, CollectionInfo> localReads;
+    private List<CollectionInfo> methodCollections;
+
+    /**
+     * constructs a UPC detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public UsePrimitiveCollections(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to collect private collection fields, and after parsing the class, report those that only hold boxed primitives
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            JavaClass cls = classContext.getJavaClass();
+            clsName = cls.getClassName();
+            fieldCollections = new HashMap<>();
+            for (Field f : cls.getFields()) {
+                if (f.isPrivate() && !f.isSynthetic()) {
+                    String signature = f.getSignature();
+                    if (signature.startsWith(Values.SIG_QUALIFIED_CLASS_PREFIX) && isCollectionClass(SignatureUtils.trimSignature(signature))) {
+                        CollectionInfo info = new CollectionInfo();
+                        info.setFieldAnnotation(new FieldAnnotation(clsName, f.getName(), signature, f.isStatic()));
+                        fieldCollections.put(f.getName(), info);
+                    }
+                }
+            }
+
+            stack = new OpcodeStack();
+            localCollections = new HashMap<>();
+            localReads = new HashMap<>();
+            methodCollections = new ArrayList<>();
+            super.visitClassContext(classContext);
+
+            for (CollectionInfo info : fieldCollections.values()) {
+                if (info.isPrimitiveCandidate()) {
+                    bugReporter.reportBug(new BugInstance(this, BugType.UPC_BOXED_COLLECTION_FIELD.name(), NORMAL_PRIORITY).addClass(this)
+                            .addField(info.getFieldAnnotation()).addString(info.getDescription()).addInt(info.getInserts()).addInt(info.getUnboxedReads())
+                            .addInt(info.getEstimatedEntryOverhead()));
+                }
+            }
+        } finally {
+            stack = null;
+            fieldCollections = null;
+            localCollections = null;
+            localReads = null;
+            methodCollections = null;
+        }
+    }
+
+    /**
+     * implements the visitor to reset the opcode stack, and after parsing the method, report local collections that only hold boxed primitives
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        stack.resetForMethodEntry(this);
+        localCollections.clear();
+        localReads.clear();
+        methodCollections.clear();
+        super.visitCode(obj);
+
+        for (CollectionInfo info : methodCollections) {
+            if (info.isPrimitiveCandidate()) {
+                bugReporter.reportBug(new BugInstance(this, BugType.UPC_BOXED_COLLECTION_LOCAL.name(), LOW_PRIORITY).addClass(this).addMethod(this)
+                        .addString(info.getDescription()).addInt(info.getInserts()).addInt(info.getUnboxedReads()).addInt(info.getEstimatedEntryOverhead())
+                        .addSourceLine(this, info.getFirstInsertPC()));
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to track boxed values inserted into collections, and values read from collections that are unboxed
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        Object userValue = null;
+        try {
+            stack.precomputation(this);
+
+            if (OpcodeUtils.isAStore(seen)) {
+                processLocalStore(RegisterUtils.getAStoreReg(this, seen));
+            } else {
+                switch (seen) {
+                    case Const.INVOKESPECIAL:
+                        if (Values.CONSTRUCTOR.equals(getNameConstantOperand()) && isCollectionClass(getClassConstantOperand())) {
+                            userValue = Boolean.TRUE;
+                        } else {
+                            disqualifyArguments();
+                        }
+                    break;
+
+                    case Const.INVOKESTATIC:
+                        userValue = getBoxedClass();
+                        if (userValue == null) {
+                            disqualifyArguments();
+                        }
+                    break;
+
+                    case Const.INVOKEVIRTUAL:
+                    case Const.INVOKEINTERFACE:
+                        userValue = processInstanceCall();
+                    break;
+
+                    case Const.INVOKEDYNAMIC:
+                        disqualifyArguments();
+                    break;
+
+                    case Const.CHECKCAST:
+                        if (stack.getStackDepth() > 0) {
+                            userValue = stack.getStackItem(0).getUserValue();
+                        }
+                    break;
+
+                    case Const.PUTFIELD:
+                    case Const.PUTSTATIC:
+                        processFieldStore();
+                    break;
+
+                    case Const.ARETURN:
+                    case Const.AASTORE:
+                        disqualify(0);
+                    break;
+
+                    case Const.IF_ACMPEQ:
+                    case Const.IF_ACMPNE:
+                        disqualifyRead(0);
+                        disqualifyRead(1);
+                    break;
+
+                    default:
+                    break;
+                }
+            }
+        } finally {
+            stack.sawOpcode(this, seen);
+            if ((userValue != null) && (stack.getStackDepth() > 0)) {
+                OpcodeStack.Item itm = stack.getStackItem(0);
+                itm.setUserValue(userValue);
+            }
+        }
+    }
+
+    /**
+     * returns the box class if the current instruction is a boxing call such as Long.valueOf(long)
+     *
+     * @return the slashed box class name, or null if not a boxing call
+     */
+    private String getBoxedClass() {
+        String boxClass = getClassConstantOperand();
+        if (!"valueOf".equals(getNameConstantOperand()) || !BOX_PRIMITIVE_SIZES.containsKey(boxClass)) {
+            return null;
+        }
+
+        String signature = getSigConstantOperand();
+        if ((signature.charAt(2) == ')') && SignatureUtils.PRIMITIVE_TYPES.contains(signature.substring(1, 2))) {
+            return boxClass;
+        }
+        return null;
+    }
+
+    /**
+     * processes a call on a collection, recording the boxed keys and values passed to it, and marking the values read from it, or a call on a value read from
+     * a collection, counting it as an unboxed read if it is a call such as longValue, and disqualifying the collection for any other use of the value. An
+     * iterator of the collection is marked the same way as a value read from it, so that the elements it returns are checked too.
+     *
+     * @return the collection the value returned by the call was read from, or null
+     */
+    private Object processInstanceCall() {
+        String calledClass = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+        int numParms = SignatureUtils.getNumParameters(signature);
+
+        if (stack.getStackDepth() > numParms) {
+            CollectionInfo readInfo = getReadInfo(stack.getStackItem(numParms));
+            if (readInfo != null) {
+                disqualifyArguments();
+                if (BOX_PRIMITIVE_SIZES.containsKey(calledClass) && methodName.endsWith("Value") && (numParms == 0)) {
+                    readInfo.addUnboxedRead();
+                } else if ("java/util/Iterator".equals(calledClass) && "next".equals(methodName)) {
+                    return readInfo;
+                } else if (!"java/util/Iterator".equals(calledClass)) {
+                    readInfo.disqualify();
+                }
+                return null;
+            }
+        }
+
+        CollectionInfo info = null;
+        if (isCollectionClass(calledClass) && (stack.getStackDepth() > numParms)) {
+            info = getCollectionInfo(stack.getStackItem(numParms));
+        }
+
+        if (info == null) {
+            disqualifyArguments();
+            return null;
+        }
+
+        for (int i = 0; i < numParms; i++) {
+            disqualify(i);
+        }
+
+        if (BULK_METHODS.contains(methodName)) {
+            info.disqualify();
+            return null;
+        }
+
+        boolean isMap = MAP_CLASSES.contains(calledClass);
+        info.setCollectionClass(calledClass, isMap);
+        if (isMap) {
+            if (("put".equals(methodName) || "putIfAbsent".equals(methodName)) && (numParms == 2)) {
+                info.recordKey(stack.getStackItem(1));
+                info.recordValue(stack.getStackItem(0));
+                info.addInsert(getPC());
+            } else if (KEYED_METHODS.contains(methodName) && (numParms >= 1)) {
+                info.recordKey(stack.getStackItem(numParms - 1));
+            }
+        } else {
+            if ("add".equals(methodName) && ((numParms == 1) || (numParms == 2))) {
+                info.recordKey(stack.getStackItem(0));
+                info.addInsert(getPC());
+            } else if ("set".equals(methodName) && (numParms == 2)) {
+                info.recordKey(stack.getStackItem(0));
+            } else if (KEYED_METHODS.contains(methodName) && (numParms == 1) && !signature.startsWith("(I)")) {
+                info.recordKey(stack.getStackItem(0));
+            }
+        }
+
+        return (READ_METHODS.contains(methodName) || "iterator".equals(methodName)) ? info : null;
+    }
+
+    private void processLocalStore(int reg) {
+        if ((reg < 0) || (stack.getStackDepth() == 0)) {
+            return;
+        }
+
+        Integer register = Integer.valueOf(reg);
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        CollectionInfo storedInfo = getCollectionInfo(itm);
+        if (storedInfo != null) {
+            storedInfo.disqualify();
+        }
+        CollectionInfo existingInfo = localCollections.remove(register);
+        if (Boolean.TRUE.equals(itm.getUserValue())) {
+            CollectionInfo info = new CollectionInfo();
+            localCollections.put(register, info);
+            methodCollections.add(info);
+        } else if (existingInfo != null) {
+            existingInfo.disqualify();
+        }
+
+        CollectionInfo readInfo = getReadInfo(itm);
+        if (readInfo != null) {
+            localReads.put(register, readInfo);
+        } else {
+            localReads.remove(register);
+        }
+    }
+
+    private void processFieldStore() {
+        if (stack.getStackDepth() == 0) {
+            return;
+        }
+
+        OpcodeStack.Item itm = stack.getStackItem(0);
+        disqualify(0);
+        if (clsName.equals(getDottedClassConstantOperand())) {
+            CollectionInfo info = fieldCollections.get(getNameConstantOperand());
+            if ((info != null) && !itm.isNull() && !Boolean.TRUE.equals(itm.getUserValue())) {
+                info.disqualify();
+            }
+        }
+    }
+
+    private void disqualifyArguments() {
+        int numParms = SignatureUtils.getNumParameters(getSigConstantOperand());
+        for (int i = 0; i < numParms; i++) {
+            disqualify(i);
+        }
+    }
+
+    private void disqualify(int stackOffset) {
+        if (stack.getStackDepth() > stackOffset) {
+            CollectionInfo info = getCollectionInfo(stack.getStackItem(stackOffset));
+            if (info != null) {
+                info.disqualify();
+            }
+            disqualifyRead(stackOffset);
+        }
+    }
+
+    /**
+     * disqualifies the collection a value was read from, when the value is used as an object, by being returned, passed on or compared, rather than unboxed
+     *
+     * @param stackOffset
+     *            the offset of the value on the stack
+     */
+    private void disqualifyRead(int stackOffset) {
+        if (stack.getStackDepth() > stackOffset) {
+            CollectionInfo info = getReadInfo(stack.getStackItem(stackOffset));
+            if (info != null) {
+                info.disqualify();
+            }
+        }
+    }
+
+    /**
+     * returns the collection a value, or iterator, was read from, either from the user value of the item, or when the item was loaded from a local, the
+     * collection recorded when the local was stored, as the user value is lost where branches meet, such as at the top of a loop
+     *
+     * @param itm
+     *            the stack item to check
+     * @return the collection the value was read from, or null
+     */
+    private CollectionInfo getReadInfo(OpcodeStack.Item itm) {
+        Object uv = itm.getUserValue();
+        if (uv instanceof CollectionInfo) {
+            return (CollectionInfo) uv;
+        }
+
+        int reg = itm.getRegisterNumber();
+        return (reg >= 0) ? localReads.get(Integer.valueOf(reg)) : null;
+    }
+
+    private CollectionInfo getCollectionInfo(OpcodeStack.Item itm) {
+        XField xf = itm.getXField();
+        if (xf != null) {
+            return clsName.equals(xf.getClassName()) ? fieldCollections.get(xf.getName()) : null;
+        }
+
+        int reg = itm.getRegisterNumber();
+        if (reg >= 0) {
+            return localCollections.get(Integer.valueOf(reg));
+        }
+        return null;
+    }
+
+    private static boolean isCollectionClass(String clsName) {
+        return MAP_CLASSES.contains(clsName) || SET_CLASSES.contains(clsName) || LIST_CLASSES.contains(clsName);
+    }
+
+    /**
+     * holds how a collection is used, namely whether all keys, elements or values placed in it were boxed primitives of the same type
+     */
+    static class CollectionInfo {
+        private FieldAnnotation fieldAnnotation;
+        private String collectionClass;
+        private boolean isMap;
+        private String keyBox;
+        private boolean keyConsistent = true;
+        private String valueBox;
+        private boolean valueConsistent = true;
+        private int inserts;
+        private int firstInsertPC = -1;
+        private int unboxedReads;
+        private boolean disqualified;
+
+        FieldAnnotation getFieldAnnotation() {
+            return fieldAnnotation;
+        }
+
+        void setFieldAnnotation(FieldAnnotation fa) {
+            fieldAnnotation = fa;
+        }
+
+        void setCollectionClass(String clsName, boolean map) {
+            if (collectionClass == null) {
+                collectionClass = clsName;
+                isMap = map;
+            } else if (isMap != map) {
+                disqualified = true;
+            }
+        }
+
+        void recordKey(OpcodeStack.Item itm) {
+            Object uv = itm.getUserValue();
+            if (uv instanceof String) {
+                if (keyBox == null) {
+                    keyBox = (String) uv;
+                } else if (!keyBox.equals(uv)) {
+                    keyConsistent = false;
+                }
+            } else {
+                keyConsistent = false;
+            }
+        }
+
+        void recordValue(OpcodeStack.Item itm) {
+            Object uv = itm.getUserValue();
+            if (uv instanceof String) {
+                if (valueBox == null) {
+                    valueBox = (String) uv;
+                } else if (!valueBox.equals(uv)) {
+                    valueConsistent = false;
+                }
+            } else {
+                valueConsistent = false;
+            }
+        }
+
+        void addInsert(int pc) {
+            if (firstInsertPC < 0) {
+                firstInsertPC = pc;
+            }
+            inserts++;
+        }
+
+        int getInserts() {
+            return inserts;
+        }
+
+        int getFirstInsertPC() {
+            return firstInsertPC;
+        }
+
+        void addUnboxedRead() {
+            unboxedReads++;
+        }
+
+        int getUnboxedReads() {
+            return unboxedReads;
+        }
+
+        void disqualify() {
+            disqualified = true;
+        }
+
+        boolean isKeyBoxed() {
+            return keyConsistent && (keyBox != null);
+        }
+
+        boolean isValueBoxed() {
+            return isMap && valueConsistent && (valueBox != null);
+        }
+
+        boolean isPrimitiveCandidate() {
+            return !disqualified && (inserts > 0) && (unboxedReads > 0) && (isKeyBoxed() || isValueBoxed());
+        }
+
+        String getDescription() {
+            String simpleName = collectionClass.substring(collectionClass.lastIndexOf('/') + 1);
+            String keyName = isKeyBoxed() ? keyBox.substring(keyBox.lastIndexOf('/') + 1) : "?";
+            if (!isMap) {
+                return simpleName + '<' + keyName + '>';
+            }
+
+            String valueName = isValueBoxed() ? valueBox.substring(valueBox.lastIndexOf('/') + 1) : "?";
+            return simpleName + '<' + keyName + ", " + valueName + '>';
+        }
+
+        /**
+         * estimates the bytes per entry that could be saved by using a primitive collection, which is the size of each box, and the reference to it, less the
+         * size of the primitive stored in its place, plus the size of the map or set entry object, assuming compressed oops
+         *
+         * @return the estimated bytes saved per entry
+         */
+        int getEstimatedEntryOverhead() {
+            int overhead = 0;
+            if (isKeyBoxed()) {
+                overhead += getBoxOverhead(keyBox);
+            }
+            if (isValueBoxed()) {
+                overhead += getBoxOverhead(valueBox);
+            }
+            if (isMap || SET_CLASSES.contains(collectionClass)) {
+                overhead += MAP_ENTRY_SIZE;
+            }
+            return overhead;
+        }
+
+        private static int getBoxOverhead(String boxClass) {
+            int primitiveSize = BOX_PRIMITIVE_SIZES.get(boxClass).intValue();
+            // 12 byte object header, plus the primitive, aligned to 8 bytes
+            int boxSize = ((12 + primitiveSize + 7) / 8) * 8;
+            return (boxSize + REFERENCE_SIZE) - primitiveSize;
+        }
+
+        @Override
+        public String toString() {
+            return ToString.build(this);
+        }
+    }
+}
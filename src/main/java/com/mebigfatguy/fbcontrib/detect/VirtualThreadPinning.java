@@ -0,0 +1,213 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.detect;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
+import org.apache.bcel.classfile.Method;
+
+import com.mebigfatguy.fbcontrib.collect.MethodInfo;
+import com.mebigfatguy.fbcontrib.collect.Statistics;
+import com.mebigfatguy.fbcontrib.utils.BlockingCallUtils;
+import com.mebigfatguy.fbcontrib.utils.BugType;
+import com.mebigfatguy.fbcontrib.utils.CodeRange;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.ba.ClassContext;
+
+/**
+ * looks for synchronized methods and blocks that make calls that block the thread, such as I/O, jdbc calls, Thread.sleep, Object.wait, or Future.get, either
+ * directly, or through private or static methods of the same class. When run on a virtual thread, a thread blocked while holding a monitor pins its carrier
+ * thread, preventing other virtual threads from using it.
+ */
+public class VirtualThreadPinning extends BytecodeScanningDetector {
+
+    private final BugReporter bugReporter;
+    private List<CodeRange> syncRanges;
+    private boolean methodIsSynchronized;
+
+    /**
+     * constructs a VTP detector given the reporter to report bugs on
+     *
+     * @param bugReporter
+     *            the sync of bug reports
+     */
+    public VirtualThreadPinning(BugReporter bugReporter) {
+        this.bugReporter = bugReporter;
+    }
+
+    /**
+     * implements the visitor to create and clear the sync ranges
+     *
+     * @param classContext
+     *            the context object of the currently parsed class
+     */
+    @Override
+    public void visitClassContext(ClassContext classContext) {
+        try {
+            syncRanges = new ArrayList<>();
+            super.visitClassContext(classContext);
+        } finally {
+            syncRanges = null;
+        }
+    }
+
+    /**
+     * looks for methods that are synchronized, or contain a MONITORENTER opcode
+     *
+     * @param method
+     *            the context object of the current method
+     * @return if the method uses synchronization
+     */
+    private boolean prescreen(Method method) {
+        if (method.isSynchronized()) {
+            return true;
+        }
+        BitSet bytecodeSet = getClassContext().getBytecodeSet(method);
+        return (bytecodeSet != null) && bytecodeSet.get(Const.MONITORENTER);
+    }
+
+    /**
+     * implements the visitor to collect the ranges of code protected by a monitor, and parse the method if it has any
+     *
+     * @param obj
+     *            the context object of the currently parsed code block
+     */
+    @Override
+    public void visitCode(Code obj) {
+        Method m = getMethod();
+        if (prescreen(m)) {
+            methodIsSynchronized = m.isSynchronized();
+            syncRanges.clear();
+            if (!methodIsSynchronized) {
+                collectSyncRanges(obj);
+            }
+
+            if (methodIsSynchronized || !syncRanges.isEmpty()) {
+                super.visitCode(obj);
+            }
+        }
+    }
+
+    /**
+     * implements the visitor to look for calls to blocking methods while a monitor is held
+     *
+     * @param seen
+     *            the currently parsed opcode
+     */
+    @Override
+    public void sawOpcode(int seen) {
+        switch (seen) {
+            case Const.INVOKEVIRTUAL:
+            case Const.INVOKEINTERFACE:
+            case Const.INVOKESPECIAL:
+            case Const.INVOKESTATIC:
+                if (isInSyncRange(getPC())) {
+                    processInvoke();
+                }
+            break;
+
+            default:
+            break;
+        }
+    }
+
+    private void processInvoke() {
+        String clsName = getClassConstantOperand();
+        String methodName = getNameConstantOperand();
+        String signature = getSigConstantOperand();
+
+        if (BlockingCallUtils.isBlockingCall(clsName, methodName, signature)) {
+            int priority = BlockingCallUtils.isObjectWait(methodName, signature) ? LOW_PRIORITY : NORMAL_PRIORITY;
+            bugReporter.reportBug(new BugInstance(this, BugType.VTP_BLOCKING_CALL_IN_SYNCHRONIZED.name(), priority).addClass(this).addMethod(this)
+                    .addCalledMethod(this).addSourceLine(this));
+        } else if (clsName.equals(getClassName())) {
+            MethodInfo mi = Statistics.getStatistics().getMethodStatistics(clsName, methodName, signature);
+            if (mi.getMayBlock() && !mi.canBeOverridden()) {
+                bugReporter.reportBug(new BugInstance(this, BugType.VTP_BLOCKING_CALLEE_IN_SYNCHRONIZED.name(), NORMAL_PRIORITY).addClass(this)
+                        .addMethod(this).addCalledMethod(this).addSourceLine(this));
+            }
+        }
+    }
+
+    /**
+     * finds the code ranges protected by synchronized blocks, by looking for the catch-all exception handlers that the compiler generates to release the
+     * monitor, which start with storing the exception, loading the monitor, and exiting it.
+     *
+     * @param obj
+     *            the code block of the current method
+     */
+    private void collectSyncRanges(Code obj) {
+        CodeException[] exceptionTable = obj.getExceptionTable();
+        if (exceptionTable == null) {
+            return;
+        }
+
+        byte[] code = obj.getCode();
+        for (CodeException ce : exceptionTable) {
+            if ((ce.getCatchType() == 0) && isMonitorReleaseHandler(code, ce.getHandlerPC())) {
+                syncRanges.add(new CodeRange(ce.getStartPC(), ce.getEndPC() - 1));
+            }
+        }
+    }
+
+    private static boolean isMonitorReleaseHandler(byte[] code, int handlerPC) {
+        int pc = skipLocalAccess(code, handlerPC, Const.ASTORE, Const.ASTORE_0, Const.ASTORE_3);
+        if (pc < 0) {
+            return false;
+        }
+        pc = skipLocalAccess(code, pc, Const.ALOAD, Const.ALOAD_0, Const.ALOAD_3);
+        return (pc >= 0) && (pc < code.length) && ((code[pc] & 0x00FF) == Const.MONITOREXIT);
+    }
+
+    private static int skipLocalAccess(byte[] code, int pc, int wideOp, int firstShortOp, int lastShortOp) {
+        if (pc >= code.length) {
+            return -1;
+        }
+
+        int op = code[pc] & 0x00FF;
+        if (op == wideOp) {
+            return pc + 2;
+        }
+        if ((op >= firstShortOp) && (op <= lastShortOp)) {
+            return pc + 1;
+        }
+        return -1;
+    }
+
+    private boolean isInSyncRange(int pc) {
+        if (methodIsSynchronized) {
+            return true;
+        }
+
+        for (CodeRange range : syncRanges) {
+            if (range.contains(pc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.internalAnnotations.SlashedClassName;
+
+/**
+ * Utility class for identifying well known jdk and library methods that block the calling thread, either waiting on I/O, a database, another thread, or time.
+ */
+public final class BlockingCallUtils {
+
+    private static final Set<String> IO_METHODS = UnmodifiableSet.create("read", "readLine", "readFully", "readAllBytes", "readNBytes", "skip", "write",
+            "flush", "transferTo");
+
+    private static final Set<String> IN_MEMORY_IO_CLASSES = UnmodifiableSet.create("java/io/ByteArrayInputStream", "java/io/ByteArrayOutputStream",
+            "java/io/CharArrayReader", "java/io/CharArrayWriter", "java/io/StringReader", "java/io/StringWriter", "java/io/StringBufferInputStream");
+
+    private static final Set<String> WAIT_SIGS = UnmodifiableSet.create("()V", "(J)V", "(JI)V");
+
+    private static final Map<String, Set<String>> BLOCKING_METHODS;
+
+    static {
+        Map<String, Set<String>> bm = new HashMap<>();
+        bm.put("java/lang/Thread", UnmodifiableSet.create("sleep", "join"));
+        bm.put("java/util/concurrent/TimeUnit", UnmodifiableSet.create("sleep", "timedJoin", "timedWait"));
+        bm.put("java/util/concurrent/locks/LockSupport", UnmodifiableSet.create("park", "parkNanos", "parkUntil"));
+
+        Set<String> futureMethods = UnmodifiableSet.create("get");
+        bm.put("java/util/concurrent/Future", futureMethods);
+        bm.put("java/util/concurrent/FutureTask", futureMethods);
+        bm.put("java/util/concurrent/ForkJoinTask", UnmodifiableSet.create("get", "join", "invoke"));
+        bm.put("java/util/concurrent/CompletableFuture", UnmodifiableSet.create("get", "join"));
+        bm.put("java/util/concurrent/CountDownLatch", UnmodifiableSet.create("await"));
+        bm.put("java/util/concurrent/CyclicBarrier", UnmodifiableSet.create("await"));
+        bm.put("java/util/concurrent/Semaphore", UnmodifiableSet.create("acquire", "acquireUninterruptibly"));
+        bm.put("java/util/concurrent/ExecutorService", UnmodifiableSet.create("awaitTermination", "invokeAll", "invokeAny"));
+
+        Set<String> queueMethods = UnmodifiableSet.create("take", "put");
+        bm.put("java/util/concurrent/BlockingQueue", queueMethods);
+        bm.put("java/util/concurrent/BlockingDeque", UnmodifiableSet.create("take", "put", "takeFirst", "takeLast", "putFirst", "putLast"));
+        bm.put("java/util/concurrent/ArrayBlockingQueue", queueMethods);
+        bm.put("java/util/concurrent/LinkedBlockingQueue", queueMethods);
+        bm.put("java/util/concurrent/LinkedBlockingDeque", queueMethods);
+        bm.put("java/util/concurrent/PriorityBlockingQueue", queueMethods);
+        bm.put("java/util/concurrent/SynchronousQueue", queueMethods);
+        bm.put("java/util/concurrent/DelayQueue", queueMethods);
+
+        bm.put("java/net/Socket", UnmodifiableSet.create("connect"));
+        bm.put("java/net/ServerSocket", UnmodifiableSet.create("accept"));
+        bm.put("java/net/InetAddress", UnmodifiableSet.create("getByName", "getAllByName", "getLocalHost"));
+        bm.put("java/net/URL", UnmodifiableSet.create("openStream", "getContent"));
+        Set<String> connectionMethods = UnmodifiableSet.create("connect", "getInputStream", "getOutputStream", "getContent", "getResponseCode",
+                "getResponseMessage");
+        bm.put("java/net/URLConnection", connectionMethods);
+        bm.put("java/net/HttpURLConnection", connectionMethods);
+        bm.put("java/net/http/HttpClient", UnmodifiableSet.create("send"));
+        Set<String> httpClientMethods = UnmodifiableSet.create("execute");
+        bm.put("org/apache/http/client/HttpClient", httpClientMethods);
+        bm.put("org/apache/http/impl/client/CloseableHttpClient", httpClientMethods);
+
+        bm.put("java/nio/file/Files", UnmodifiableSet.create("readAllBytes", "readAllLines", "readString", "write", "writeString", "copy", "lines", "list",
+                "walk", "find"));
+        Set<String> channelMethods = UnmodifiableSet.create("read", "write", "accept", "connect", "finishConnect", "force", "lock", "transferTo",
+                "transferFrom");
+        bm.put("java/nio/channels/FileChannel", channelMethods);
+        bm.put("java/nio/channels/SocketChannel", channelMethods);
+        bm.put("java/nio/channels/ServerSocketChannel", channelMethods);
+        bm.put("java/nio/channels/DatagramChannel", UnmodifiableSet.create("read", "write", "receive", "send", "connect"));
+        bm.put("java/nio/channels/Selector", UnmodifiableSet.create("select"));
+
+        Set<String> statementMethods = UnmodifiableSet.create("execute", "executeQuery", "executeUpdate", "executeBatch", "executeLargeUpdate",
+                "executeLargeBatch");
+        bm.put("java/sql/Statement", statementMethods);
+        bm.put("java/sql/PreparedStatement", statementMethods);
+        bm.put("java/sql/CallableStatement", statementMethods);
+        bm.put("java/sql/Connection", UnmodifiableSet.create("commit", "rollback", "prepareStatement", "prepareCall", "setAutoCommit"));
+        bm.put("java/sql/ResultSet", UnmodifiableSet.create("next"));
+        bm.put("java/sql/DriverManager", UnmodifiableSet.create("getConnection"));
+        bm.put("javax/sql/DataSource", UnmodifiableSet.create("getConnection"));
+
+        BLOCKING_METHODS = Collections.unmodifiableMap(bm);
+    }
+
+    /**
+     * private to enforce the helper nature of this static class
+     */
+    private BlockingCallUtils() {
+    }
+
+    /**
+     * returns whether the specified method is a well known jdk or library method that blocks the calling thread
+     *
+     * @param className
+     *            the slashed name of the class the method is invoked on
+     * @param methodName
+     *            the name of the method
+     * @param signature
+     *            the signature of the method
+     * @return whether the method may block
+     */
+    public static boolean isBlockingCall(@SlashedClassName String className, String methodName, String signature) {
+        if (isObjectWait(methodName, signature)) {
+            return true;
+        }
+
+        Set<String> methods = BLOCKING_METHODS.get(className);
+        if (methods != null) {
+            return methods.contains(methodName);
+        }
+
+        return isStreamIO(className, methodName);
+    }
+
+    /**
+     * returns whether the specified method is one of the Object.wait methods
+     *
+     * @param methodName
+     *            the name of the method
+     * @param signature
+     *            the signature of the method
+     * @return whether the method is Object.wait
+     */
+    public static boolean isObjectWait(String methodName, String signature) {
+        return "wait".equals(methodName) && WAIT_SIGS.contains(signature);
+    }
+
+    private static boolean isStreamIO(String className, String methodName) {
+        if (!className.startsWith("java/io/") || !IO_METHODS.contains(methodName) || IN_MEMORY_IO_CLASSES.contains(className)) {
+            return false;
+        }
+
+        return className.endsWith("InputStream") || className.endsWith("OutputStream") || className.endsWith("Reader") || className.endsWith("Writer")
+                || "java/io/RandomAccessFile".equals(className) || "java/io/PrintStream".equals(className) || "java/io/Console".equals(className);
+    }
+}
@@ -37,8 +37,13 @@ public enum BugType {
 	BED_HIERARCHICAL_EXCEPTION_DECLARATION,
 	BL_BURYING_LOGIC,
 	BRPI_BACKPORT_REUSE_PUBLIC_IDENTIFIERS,
+	BSB_ALLOCATION_UNDER_LOCK,
 	BSB_BLOATED_SYNCHRONIZED_BLOCK,
+	BSB_EXPENSIVE_CALL_UNDER_LOCK,
+	BSB_LOGGING_UNDER_LOCK,
 
+	BWL_SLEEP_POLLING_LOOP,
+	BWL_SPIN_WAIT_LOOP,
     CAAL_CONFUSING_ARRAY_AS_LIST,
 	CAO_CONFUSING_AUTOBOXED_OVERLOADING,
 	CBC_CONTAINS_BASED_CONDITIONAL,
@@ -48,7 +53,12 @@ public enum BugType {
 	CCNE_COMPARE_CLASS_EQUALS_NAME,
 	CEBE_COMMONS_EQUALS_BUILDER_ISEQUALS,
 	CE_CLASS_ENVY,
+	CFI_BLOCKING_CALL_IN_COMMON_POOL,
+	CFI_JOIN_IMMEDIATELY_AFTER_ASYNC,
+	CFI_NEEDLESS_ASYNC_STAGE,
 	CFS_CONFUSING_FUNCTION_SEMANTICS,
+	CGL_INDEPENDENT_FIELDS_SHARE_LOCK,
+	CGL_READ_MOSTLY_EXCLUSIVE_LOCK,
 	CHTH_COMMONS_HASHCODE_BUILDER_TOHASHCODE,
 	CLI_CONSTANT_LIST_INDEX,
     CNC_COLLECTION_NAMING_CONFUSION,
@@ -82,6 +92,9 @@ public enum BugType {
 
 	FCBL_FIELD_COULD_BE_LOCAL,
     FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY,
+	FC_FINALIZABLE_ALLOCATION_IN_LOOP,
+	FC_FINALIZER_OVERRIDE,
+	FC_PER_OBJECT_CLEANUP_REGISTRATION,
     FII_AVOID_CONTAINS_ON_COLLECTED_STREAM,
     FII_AVOID_SIZE_ON_COLLECTED_STREAM,
     FII_COMBINE_FILTERS,
@@ -89,14 +102,18 @@ public enum BugType {
     FII_USE_FIND_FIRST,
     FII_USE_FUNCTION_IDENTITY,
     FII_USE_METHOD_REFERENCE,
+    FII_USE_PRIMITIVE_STREAM,
 	FP_FINAL_PARAMETERS,
 	FPL_FLOATING_POINT_LOOPS,
 
 	HCP_HTTP_REQUEST_RESOURCES_NOT_FREED_FIELD,
 	HCP_HTTP_REQUEST_RESOURCES_NOT_FREED_LOCAL,
+	HES_CACHED_THREAD_POOL_FED_IN_LOOP,
 	HES_EXECUTOR_NEVER_SHUTDOWN,
 	HES_EXECUTOR_OVERWRITTEN_WITHOUT_SHUTDOWN,
 	HES_LOCAL_EXECUTOR_SERVICE,
+	HES_UNBOUNDED_QUEUE_IGNORES_MAX_POOL_SIZE,
+	HES_UNBOUNDED_THREAD_CREATION,
 
     ICA_INVALID_CONSTANT_ARGUMENT,
 	IICU_INCORRECT_INTERNAL_CLASS_USE,
@@ -113,12 +130,16 @@ public enum BugType {
 	IMC_IMMATURE_CLASS_LOWER_CLASS,
 	IOI_COPY_WITH_READER,
 	IOI_DOUBLE_BUFFER_COPY,
+	IOI_UNBUFFERED_SINGLE_BYTE_IO,
 	IOI_USE_OF_FILE_STREAM_CONSTRUCTORS,
 	IPU_IMPROPER_PROPERTIES_USE,
 	IPU_IMPROPER_PROPERTIES_USE_SETPROPERTY,
 	ISB_EMPTY_STRING_APPENDING,
 	ISB_INEFFICIENT_STRING_BUFFERING,
+	ISB_STRING_BUILDER_ALLOCATED_IN_LOOP,
+	ISB_STRING_CONCATENATION_IN_LOOP,
 	ISB_TOSTRING_APPENDING,
+	ISB_UNDERSIZED_STRING_BUILDER,
 	ITC_INHERITANCE_TYPE_CHECKING,
 	ITU_INAPPROPRIATE_TOSTRING_USE,
 
@@ -135,6 +156,11 @@ public enum BugType {
 	JXI_PARM_PARAM_NOT_FOUND_IN_PATH,
 	JXI_UNDEFINED_PARAMETER_SOURCE_IN_ENDPOINT,
 
+	LAC_ARRAY_LIST_AS_QUEUE,
+	LAC_COPY_ON_WRITE_MUTATION_IN_LOOP,
+	LAC_LINEAR_SEARCH_IN_LOOP,
+	LAC_LINKED_LIST_INDEXED_ACCESS,
+	LAC_REMOVE_ALL_WITH_LIST,
 	LEST_LOST_EXCEPTION_STACK_TRACE,
 	LGO_LINGERING_GRAPHICS_OBJECT,
 	LII_LIST_INDEXED_ITERATING,
@@ -157,6 +183,7 @@ public enum BugType {
 	LUI_USE_SINGLETON_LIST,
 
 	MAC_MANUAL_ARRAY_COPY,
+	MCS_MEGAMORPHIC_CALL_IN_LOOP,
 	MDM_BIGDECIMAL_EQUALS,
 	MDM_INETADDRESS_GETLOCALHOST,
 	MDM_LOCK_ISLOCKED,
@@ -177,8 +204,10 @@ public enum BugType {
     MUC_MODIFYING_UNMODIFIABLE_COLLECTION,
     MUI_CALLING_SIZE_ON_SUBCONTAINER,
     MUI_CONTAINSKEY_BEFORE_GET,
+    MUI_GET_BEFORE_PUT,
     MUI_GET_BEFORE_REMOVE,
     MUI_NULL_CHECK_ON_MAP_SUBSET_ACCESSOR,
+    MUI_REPEATED_GET,
     MUI_USE_CONTAINSKEY,
 
 	NAB_NEEDLESS_AUTOBOXING_CTOR,
@@ -189,6 +218,10 @@ public enum BugType {
 	NAB_NEEDLESS_BOXING_VALUEOF,
 	NAB_NEEDLESS_BOX_TO_CAST,
 	NAB_NEEDLESS_BOX_TO_UNBOX,
+	NBAC_BYTE_ARRAY_OUTPUT_STREAM_COPY,
+	NBAC_BYTE_BUFFER_ARRAY_COPY,
+	NBAC_STRING_BYTES_ROUND_TRIP,
+	NBAC_UNMODIFIED_ARRAY_COPY,
 	NCMU_NON_COLLECTION_METHOD_USE,
 	NCS_NEEDLESS_CUSTOM_SERIALIZATION,
 	NFF_NON_FUNCTIONAL_FIELD,
@@ -209,20 +242,41 @@ public enum BugType {
 	OI_OPTIONAL_ISSUES_USES_ORELSEGET_WITH_NULL,
 	OPM_OVERLY_PERMISSIVE_METHOD,
 
+	PCAA_ARRAY_CLONING_GETTER_IN_LOOP,
+	PCAA_ENUM_VALUES_INDEXED,
+	PCAA_ENUM_VALUES_IN_LOOP,
+	PCAA_VARARGS_CALL_IN_LOOP,
 	PCAIL_POSSIBLE_CONSTANT_ALLOCATION_IN_LOOP,
 	PCOA_PARTIALLY_CONSTRUCTED_OBJECT_ACCESS,
 	PDP_POORLY_DEFINED_PARAMETER,
+	PHD_CONSTANT_HASHCODE,
+	PHD_HASHCODE_ITERATES_COLLECTION,
+	PHD_HASHCODE_USES_LOW_CARDINALITY_FIELDS,
+	PHD_SYMMETRIC_XOR_HASHCODE,
 	PIS_POSSIBLE_INCOMPLETE_SERIALIZATION,
 	PL_PARALLEL_LISTS,
+	PMB_HEAVY_THREAD_LOCAL_INITIAL_VALUE,
 	PMB_INSTANCE_BASED_THREAD_LOCAL,
 	PMB_POSSIBLE_MEMORY_BLOAT,
+	PMB_THREAD_LOCAL_GET_IN_LOOP,
+	PMB_THREAD_LOCAL_NOT_REMOVED,
     PME_POOR_MANS_ENUM,
 	PRMC_POSSIBLY_REDUNDANT_METHOD_CALLS,
+    PSC_CAPACITY_SMALLER_THAN_INSERTS,
+    PSC_HASH_CAPACITY_IGNORES_LOAD_FACTOR,
     PSC_PRESIZE_COLLECTIONS,
     PSC_SUBOPTIMAL_COLLECTION_SIZING,
+	PSI_BLOCKING_CALL_IN_PARALLEL_STREAM,
+	PSI_PARALLEL_STREAM_ON_POOR_SPLITTER,
+	PSI_PARALLEL_STREAM_ON_SMALL_SOURCE,
+	PSI_SHARED_COLLECTION_MUTATION_IN_PARALLEL_STREAM,
+	PSI_SYNCHRONIZATION_IN_PARALLEL_STREAM,
 	PUS_POSSIBLE_UNSUSPECTED_SERIALIZATION,
 
+	RFI_REFLECTIVE_INVOKE_IN_LOOP,
+	RFI_REFLECTIVE_LOOKUP_IN_LOOP,
 	RFI_SET_ACCESSIBLE,
+	RFI_UNCACHED_REFLECTIVE_LOOKUP,
 	ROOM_REFLECTION_ON_OBJECT_METHODS,
 
 	S508C_APPENDED_STRING,
@@ -235,6 +289,8 @@ public enum BugType {
 	SACM_STATIC_ARRAY_CREATED_IN_METHOD,
 	SAT_SUSPICIOUS_ARGUMENT_TYPES,
 	SCA_SUSPICIOUS_CLONE_ALGORITHM,
+	SCC_CHECK_THEN_ACT_ON_SYNCHRONIZED_COLLECTION,
+	SCC_READ_MOSTLY_SYNCHRONIZED_COLLECTION,
 	SCII_SPOILED_CHILD_INTERFACE_IMPLEMENTOR,
 	SCI_SYNCHRONIZED_COLLECTION_ITERATORS,
 	SCR_SLOPPY_CLASS_REFLECTION,
@@ -305,8 +361,12 @@ public enum BugType {
 	UCPM_USE_CHARACTER_PARAMETERIZED_METHOD,
 	UEC_USE_ENUM_COLLECTIONS,
     UJM_UNJITABLE_METHOD,
+	ULA_USE_LONG_ADDER,
+	UMC_UNBOUNDED_MEMOIZATION_CACHE,
     UMTP_UNBOUND_METHOD_TEMPLATE_PARAMETER,
 	UNNC_UNNECESSARY_NEW_NULL_CHECK,
+	UPC_BOXED_COLLECTION_FIELD,
+	UPC_BOXED_COLLECTION_LOCAL,
     UP_UNUSED_PARAMETER,
 	URV_CHANGE_RETURN_TYPE,
 	URV_INHERITED_METHOD_WITH_RELATED_TYPES,
@@ -339,6 +399,8 @@ public enum BugType {
 	UVA_USE_VAR_ARGS,
 	UTWR_USE_TRY_WITH_RESOURCES,
 
+	VTP_BLOCKING_CALLEE_IN_SYNCHRONIZED,
+	VTP_BLOCKING_CALL_IN_SYNCHRONIZED,
 	WEM_OBSCURING_EXCEPTION,
 	WEM_WEAK_EXCEPTION_MESSAGING,
 	WI_DUPLICATE_WIRED_TYPES,
@@ -0,0 +1,68 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.utils;
+
+/**
+ * holds the start and end position, both inclusive, of a range of byte code, such as a loop, from the target of its backward branch to the branch itself
+ */
+public final class CodeRange {
+    private final int startPC;
+    private final int endPC;
+
+    public CodeRange(int start, int end) {
+        startPC = start;
+        endPC = end;
+    }
+
+    public int getStartPC() {
+        return startPC;
+    }
+
+    public int getEndPC() {
+        return endPC;
+    }
+
+    public int size() {
+        return endPC - startPC;
+    }
+
+    public boolean contains(int pc) {
+        return (pc >= startPC) && (pc <= endPC);
+    }
+
+    @Override
+    public int hashCode() {
+        return startPC ^ endPC;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CodeRange)) {
+            return false;
+        }
+
+        CodeRange that = (CodeRange) o;
+        return (startPC == that.startPC) && (endPC == that.endPC);
+    }
+
+    @Override
+    public String toString() {
+        return ToString.build(this);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * fb-contrib - Auxiliary detectors for Java programs
+ * Copyright (C) 2005-2018 Dave Brosius
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.mebigfatguy.fbcontrib.utils;
+
+import javax.annotation.Nullable;
+
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.BootstrapMethod;
+import org.apache.bcel.classfile.BootstrapMethods;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantMethodType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * a collection of static methods for resolving the bootstrap information of invokedynamic instructions used to create
+ * lambda expressions and method references
+ */
+public final class LambdaUtils {
+
+    /**
+     * private to enforce the helper nature of this static class
+     */
+    private LambdaUtils() {
+    }
+
+    /**
+     * returns the BootstrapMethods attribute of a class, if it has one
+     *
+     * @param cls
+     *            the class to look in
+     * @return the BootstrapMethods attribute or null
+     */
+    @Nullable
+    public static BootstrapMethods getBootstrapAttribute(JavaClass cls) {
+        for (Attribute att : cls.getAttributes()) {
+            if (att instanceof BootstrapMethods) {
+                return (BootstrapMethods) att;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * returns the method handle of the implementation method of a lambda bootstrap method
+     *
+     * @param bootstrapAtt
+     *            the BootstrapMethods attribute of the class
+     * @param cp
+     *            the constant pool of the class
+     * @param bootstrapIndex
+     *            the index of the bootstrap method in the attribute
+     * @return the method handle or null
+     */
+    @Nullable
+    public static ConstantMethodHandle getMethodHandle(BootstrapMethods bootstrapAtt, ConstantPool cp, int bootstrapIndex) {
+        BootstrapMethod bsMethod = bootstrapAtt.getBootstrapMethods()[bootstrapIndex];
+
+        for (int arg : bsMethod.getBootstrapArguments()) {
+            Constant c = cp.getConstant(arg);
+            if (c instanceof ConstantMethodHandle) {
+                return (ConstantMethodHandle) c;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * returns the signature of the functional interface method as it is instantiated by a lambda bootstrap method,
+     * that is with the generic types of the parameters and return value filled in
+     *
+     * @param bootstrapAtt
+     *            the BootstrapMethods attribute of the class
+     * @param cp
+     *            the constant pool of the class
+     * @param bootstrapIndex
+     *            the index of the bootstrap method in the attribute
+     * @return the instantiated signature or null
+     */
+    @Nullable
+    public static String getInstantiatedSignature(BootstrapMethods bootstrapAtt, ConstantPool cp, int bootstrapIndex) {
+        BootstrapMethod bsMethod = bootstrapAtt.getBootstrapMethods()[bootstrapIndex];
+
+        String instantiatedSig = null;
+        for (int arg : bsMethod.getBootstrapArguments()) {
+            Constant c = cp.getConstant(arg);
+            if (c instanceof ConstantMethodType) {
+                instantiatedSig = ((ConstantUtf8) cp.getConstant(((ConstantMethodType) c).getDescriptorIndex())).getBytes();
+            }
+        }
+
+        return instantiatedSig;
+    }
+}
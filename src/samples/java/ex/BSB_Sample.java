@@ -1,13 +1,24 @@
 package ex;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @SuppressWarnings("all")
 public class BSB_Sample {
+    private static final Logger LOG = LoggerFactory.getLogger(BSB_Sample.class);
     private Object lock = new Object();
     private Set<String> info = new HashSet<String>();
     private Map<String, Object> synchMap = Collections.synchronizedMap(new HashMap<String, Object>());
@@ -67,4 +78,108 @@ public class BSB_Sample {
         }
     }
 
+    private final ReentrantLock rlock = new ReentrantLock();
+    private final List<String> names = new ArrayList<>();
+    private final List<Consumer<String>> listeners = new ArrayList<>();
+    private int count;
+
+    public void testLockBeginBloated(int j) {
+        rlock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Test");
+            sb.append(j);
+            sb.append("Test");
+            names.add(sb.toString());
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    public String testEndBloated(int j) {
+        String name;
+        synchronized (lock) {
+            name = names.get(j);
+            name = name.trim().toLowerCase().replace('a', 'b').replace('c', 'd').substring(1);
+        }
+        return name;
+    }
+
+    public void testBlockingUnderLock(Path p) throws IOException {
+        synchronized (lock) {
+            count++;
+            names.addAll(Files.readAllLines(p));
+        }
+    }
+
+    public void testCallbackUnderLock(Consumer<String> c, String s) {
+        rlock.lock();
+        try {
+            count++;
+            c.accept(s);
+            names.add(s);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    public synchronized void testLoggingUnderLock(String s) {
+        names.add(s);
+        LOG.info("Added " + s);
+        count++;
+    }
+
+    public void testAllocationUnderLock(int j) {
+        synchronized (lock) {
+            count++;
+            int[] work = new int[j];
+            names.add(String.valueOf(work.length + count));
+        }
+    }
+
+    public void testBlockingAfterEarlyReturn(Path p) throws IOException {
+        synchronized (lock) {
+            if (p == null) {
+                return;
+            }
+            count++;
+            names.addAll(Files.readAllLines(p));
+        }
+    }
+
+    public void testLoggingAfterEarlyReturn(String s) {
+        rlock.lock();
+        try {
+            if (names.contains(s)) {
+                return;
+            }
+            LOG.info("Adding " + s);
+            names.add(s);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    public void fpLoggingAfterLock(String s) {
+        int c;
+        synchronized (lock) {
+            names.add(s);
+            c = ++count;
+        }
+        LOG.info("Added " + s + " " + c);
+    }
+
+    public void fpSharedAllocation() {
+        rlock.lock();
+        try {
+            names.add(new String(names.get(0)));
+            count++;
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    public synchronized int fpTightSynchronizedMethod() {
+        return ++count;
+    }
 }
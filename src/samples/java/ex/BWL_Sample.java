@@ -0,0 +1,129 @@
+package ex;
+
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BWL_Sample {
+
+    private volatile boolean done;
+    private final AtomicBoolean ready = new AtomicBoolean();
+    private int[] data = new int[100];
+
+    public void testSpinOnVolatile() {
+        while (!done) {
+        }
+    }
+
+    public void testSpinOnAtomic() {
+        while (!ready.get()) {
+            Thread.yield();
+        }
+    }
+
+    public void testSpinOnFuture(Future<?> f) {
+        while (!f.isDone()) {
+        }
+    }
+
+    public void testSleepPolling(Queue<String> q) throws InterruptedException {
+        while (q.isEmpty()) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testSleepPollingInterrupted(Future<?> f) {
+        while (!f.isDone()) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void testSleepPollingMethod() throws InterruptedException {
+        while (!isReady()) {
+            Thread.sleep(100);
+        }
+    }
+
+    public void testSleepPollingIgnoreInterrupt(Future<?> f) {
+        while (!f.isDone()) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void fpParseUntilDone(Parser p) {
+        while (!p.isDone()) {
+        }
+    }
+
+    public int fpComputeUntilCancelled() {
+        int sum = 0;
+        for (int i = 0; (i < data.length) && !done; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    public void fpDrainQueue(Queue<String> q) {
+        while (!q.isEmpty()) {
+            System.out.println(q.poll());
+        }
+    }
+
+    public void fpLongSleep() throws InterruptedException {
+        while (!done) {
+            Thread.sleep(60000);
+        }
+    }
+
+    public void fpWorkAndSleep(Queue<String> q) throws InterruptedException {
+        while (!done) {
+            String s = q.poll();
+            if (s != null) {
+                System.out.println(s);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    public void testDoWhileSleepPolling(Future<?> f) throws InterruptedException {
+        do {
+            Thread.sleep(10);
+        } while (!f.isDone());
+    }
+
+    public void fpFlushAndSleep() throws InterruptedException {
+        while (!done) {
+            flush();
+            Thread.sleep(1000);
+        }
+    }
+
+    public void fpSleepUntilCounted(Queue<String> q) throws InterruptedException {
+        do {
+            System.out.println(q.size());
+            Thread.sleep(10);
+        } while (!done);
+    }
+
+    private void flush() {
+        System.out.println(data.length);
+    }
+
+    private boolean isReady() {
+        return ready.get();
+    }
+
+    interface Parser {
+        boolean isDone();
+    }
+}
@@ -0,0 +1,128 @@
+package ex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+public class CFI_Sample {
+
+    private final ExecutorService ioPool = Executors.newFixedThreadPool(16);
+
+    public CompletableFuture<Integer> testJdbcOnCommonPool(Connection c) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (PreparedStatement ps = c.prepareStatement("select count(*) from foo"); ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> testHttpOnCommonPool(CloseableHttpClient client, String url) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+                return response.getStatusLine().getStatusCode();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> testSleepOnCommonPool() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    public CompletableFuture<List<String>> testFileIOInAsyncStage(CompletableFuture<Path> path) {
+        return path.thenApplyAsync(p -> readLines(p));
+    }
+
+    public String testJoinAfterSupply(String s) {
+        return CompletableFuture.supplyAsync(() -> s.trim()).join();
+    }
+
+    public int testGetAfterChain(String s) throws InterruptedException, ExecutionException {
+        return CompletableFuture.supplyAsync(() -> s.trim()).thenApply(t -> t.length()).get();
+    }
+
+    public CompletableFuture<Integer> testNeedlessAsyncStage(CompletableFuture<String> f) {
+        return f.thenApplyAsync(s -> s.length() + 1);
+    }
+
+    public CompletableFuture<Integer> fpJdbcOnOwnPool(Connection c) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (PreparedStatement ps = c.prepareStatement("select count(*) from foo"); ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, ioPool);
+    }
+
+    public int fpOverlappingWork(String s, List<String> other) {
+        CompletableFuture<String> f = CompletableFuture.supplyAsync(() -> s.trim());
+        int size = other.size();
+        return f.join().length() + size;
+    }
+
+    public CompletableFuture<Integer> fpSyncStage(CompletableFuture<String> f) {
+        return f.thenApply(s -> s.length() + 1);
+    }
+
+    public CompletableFuture<Integer> fpCostlyAsyncStage(CompletableFuture<List<String>> f) {
+        return f.thenApplyAsync(l -> {
+            int total = 0;
+            for (String s : l) {
+                total += s.length();
+            }
+            return total;
+        });
+    }
+
+    public int fpFanOut(String s, String t) {
+        CompletableFuture<Integer> a = CompletableFuture.supplyAsync(() -> s.length());
+        CompletableFuture<Integer> b = CompletableFuture.supplyAsync(() -> t.length());
+        return a.join() + b.join();
+    }
+
+    public String fpConcatBeforeJoin(String s) {
+        CompletableFuture<String> f = CompletableFuture.supplyAsync(() -> s.trim());
+        String prefix = s + ':';
+        return prefix + f.join();
+    }
+
+    public String fpBranchBeforeJoin(String s, boolean wait) {
+        CompletableFuture<String> f = CompletableFuture.supplyAsync(() -> s.trim());
+        if (!wait) {
+            return s;
+        }
+        return f.join();
+    }
+
+    private static List<String> readLines(Path p) {
+        try {
+            return Files.readAllLines(p);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class CGL_Sample {
+
+    public static class ReadMostlyCache {
+        private final Map<String, String> values = new HashMap<>();
+        private int updates;
+
+        public synchronized String get(String key) {
+            return values.get(key);
+        }
+
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        public synchronized int size() {
+            return values.size();
+        }
+
+        public synchronized int getUpdates() {
+            return updates;
+        }
+
+        public synchronized void put(String key, String value) {
+            values.put(key, value);
+            updates++;
+        }
+    }
+
+    public static class SharedLockCounters {
+        private final Object lock = new Object();
+        private final List<String> names = new ArrayList<>();
+        private long hits;
+        private long misses;
+
+        public void addName(String name) {
+            synchronized (lock) {
+                names.add(name);
+            }
+        }
+
+        public int nameCount() {
+            synchronized (lock) {
+                return names.size();
+            }
+        }
+
+        public void hit() {
+            synchronized (lock) {
+                hits++;
+            }
+        }
+
+        public void miss() {
+            synchronized (lock) {
+                misses++;
+            }
+        }
+
+        public double hitRatio() {
+            synchronized (lock) {
+                return hits / (double) (hits + misses);
+            }
+        }
+    }
+
+    public static class ReadMostlyLockedRegistry {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        public Integer getId(String name) {
+            lock.lock();
+            try {
+                return ids.get(name);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isRegistered(String name) {
+            lock.lock();
+            try {
+                return ids.containsKey(name);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int count() {
+            lock.lock();
+            try {
+                return lookupCount();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void register(String name, int id) {
+            lock.lock();
+            try {
+                ids.put(name, Integer.valueOf(id));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int lookupCount() {
+            return ids.size();
+        }
+    }
+
+    public static class FPWriteHeavyQueue {
+        private final List<String> items = new ArrayList<>();
+
+        public synchronized void add(String item) {
+            items.add(item);
+        }
+
+        public synchronized String remove() {
+            return items.remove(0);
+        }
+
+        public synchronized void clear() {
+            items.clear();
+        }
+
+        public synchronized int size() {
+            return items.size();
+        }
+    }
+
+    public static class FPPartiallySynchronized {
+        private final Map<String, String> values = new HashMap<>();
+
+        public synchronized String get(String key) {
+            return values.get(key);
+        }
+
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        public synchronized int size() {
+            return values.size();
+        }
+
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+    }
+}
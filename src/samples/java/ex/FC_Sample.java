@@ -0,0 +1,85 @@
+package ex;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class FC_Sample {
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    public int compressAll(List<byte[]> chunks) {
+        int total = 0;
+        byte[] out = new byte[1024];
+        for (byte[] chunk : chunks) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(chunk);
+            deflater.finish();
+            total += deflater.deflate(out);
+            deflater.end();
+        }
+        return total;
+    }
+
+    public List<Reference<Object>> trackAll(List<Object> values) {
+        List<Reference<Object>> refs = new ArrayList<>();
+        for (Object value : values) {
+            refs.add(new PhantomReference<>(value, QUEUE));
+        }
+        return refs;
+    }
+
+    public Reference<Object> trackBuffer(int size) {
+        byte[] buffer = new byte[size];
+        return new PhantomReference<Object>(buffer, QUEUE);
+    }
+
+    public Reference<Object> fpTrackParameter(Object value) {
+        return new PhantomReference<>(value, QUEUE);
+    }
+
+    public int fpReadOnce(String name) throws IOException {
+        try (FileInputStream fis = new FileInputStream(name)) {
+            return fis.read();
+        }
+    }
+
+    public static class Handle {
+        private long address;
+
+        public static List<Handle> allocate(int count) {
+            List<Handle> handles = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                handles.add(new Handle());
+            }
+            return handles;
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            address = 0;
+            super.finalize();
+        }
+    }
+
+    public static class EmptyFinalizer {
+        @Override
+        protected void finalize() {
+        }
+    }
+
+    public static class FPNoFinalizer {
+        public static List<FPNoFinalizer> allocate(int count) {
+            List<FPNoFinalizer> values = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                values.add(new FPNoFinalizer());
+            }
+            return values;
+        }
+    }
+}
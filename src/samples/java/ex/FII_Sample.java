@@ -2,13 +2,16 @@ package ex;
 
 import java.math.BigDecimal;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -90,6 +93,34 @@ public class FII_Sample {
     public void put(Function<Map<String, Object>, Map<String, Object>> updateFunction) {
     }
 
+    public int sumWeights(List<Bauble> baubles) {
+        return baubles.stream().map(Bauble::getWeight).reduce(0, Integer::sum);
+    }
+
+    public Optional<Integer> maxWeight(List<Bauble> baubles) {
+        return baubles.stream().map(Bauble::getWeight).filter(w -> w > 0).max(Comparator.naturalOrder());
+    }
+
+    public long collectSummedIds(List<Bauble> baubles) {
+        return baubles.stream().map(b -> b.getId()).distinct().collect(Collectors.summingLong(Long::longValue));
+    }
+
+    public List<Integer> sortBoxed(int[] weights) {
+        return IntStream.of(weights).boxed().sorted().collect(Collectors.toList());
+    }
+
+    public int fpSumWeights(List<Bauble> baubles) {
+        return baubles.stream().mapToInt(Bauble::getWeight).sum();
+    }
+
+    public Optional<String> fpMaxName(List<Bauble> baubles) {
+        return baubles.stream().map(Bauble::getName).max(Comparator.naturalOrder());
+    }
+
+    public List<Integer> fpCollectBoxed(List<Bauble> baubles) {
+        return baubles.stream().map(Bauble::getWeight).collect(Collectors.toList());
+    }
+
     public static class Bauble {
 
         public String getName() {
@@ -103,6 +134,14 @@ public class FII_Sample {
         public Number getCost() {
             return 0.0;
         }
+
+        public int getWeight() {
+            return 1;
+        }
+
+        public long getId() {
+            return 0L;
+        }
     }
 
     public static class SpecialBauble extends Bauble {
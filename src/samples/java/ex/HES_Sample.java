@@ -1,9 +1,14 @@
 package ex;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -416,3 +421,92 @@ class ExecutorAsBean {
         this.executorService = executorService;
     }
 }
+
+class UnboundedThreadCreationProblem {
+
+    private ExecutorService cachedPool = Executors.newCachedThreadPool();
+    private ExecutorService fixedPool = Executors.newFixedThreadPool(4);
+
+    // tag
+    public void testThreadPerRequest(Runnable r) {
+        new Thread(r).start();
+    }
+
+    // tag
+    public void testThreadPerItem(List<Runnable> tasks) {
+        for (Runnable r : tasks) {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // tag
+    public void testWorkerThreadPerItem(List<Runnable> tasks) {
+        for (Runnable r : tasks) {
+            new WorkerThread(r).start();
+        }
+    }
+
+    // tag
+    public void testCachedPoolInLoop(List<Runnable> tasks) {
+        for (Runnable r : tasks) {
+            cachedPool.execute(r);
+        }
+    }
+
+    // tag
+    public void testLocalCachedPoolInLoop(List<Runnable> tasks) {
+        ExecutorService pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        try {
+            for (Runnable r : tasks) {
+                pool.submit(r);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // tag
+    public ExecutorService testUnboundedQueueWithMax() {
+        return new ThreadPoolExecutor(2, 16, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    // no tag
+    public void fpFixedPoolInLoop(List<Runnable> tasks) {
+        for (Runnable r : tasks) {
+            fixedPool.execute(r);
+        }
+    }
+
+    // no tag
+    public void fpCachedPoolOutsideLoop(Runnable r) {
+        cachedPool.execute(r);
+    }
+
+    // no tag
+    public ExecutorService fpBoundedQueueWithMax() {
+        return new ThreadPoolExecutor(2, 16, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(100));
+    }
+
+    // no tag
+    public ExecutorService fpUnboundedQueueFixedSize() {
+        return new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    // no tag
+    public ExecutorService fpBoundedLinkedQueueWithMax() {
+        return new ThreadPoolExecutor(2, 16, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(100));
+    }
+
+    public void shutdown() {
+        cachedPool.shutdown();
+        fixedPool.shutdown();
+    }
+
+    static class WorkerThread extends Thread {
+        WorkerThread(Runnable r) {
+            super(r);
+        }
+    }
+}
@@ -8,7 +8,13 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -49,6 +55,59 @@ public class IOI_Sample {
 		}
 	}
 
+	public int countNewLines(File f) throws IOException {
+		int count = 0;
+		try (InputStream is = new FileInputStream(f)) {
+			int b = is.read();
+			while (b >= 0) {
+				if (b == '\n') {
+					count++;
+				}
+				b = is.read();
+			}
+		}
+		return count;
+	}
+
+	public void echoSocket(Socket s) throws IOException {
+		InputStream is = s.getInputStream();
+		OutputStream os = s.getOutputStream();
+		int b;
+		while ((b = is.read()) >= 0) {
+			os.write(b);
+		}
+	}
+
+	public String readChars(Path p) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		try (Reader r = new InputStreamReader(Files.newInputStream(p), StandardCharsets.UTF_8)) {
+			int c;
+			while ((c = r.read()) >= 0) {
+				sb.append((char) c);
+			}
+		}
+		return sb.toString();
+	}
+
+	public int fpCountNewLinesBuffered(Path p) throws IOException {
+		int count = 0;
+		try (InputStream is = new BufferedInputStream(Files.newInputStream(p))) {
+			int b;
+			while ((b = is.read()) >= 0) {
+				if (b == '\n') {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public int fpReadOnce(Path p) throws IOException {
+		try (InputStream is = Files.newInputStream(p)) {
+			return is.read();
+		}
+	}
+
 	public void deflatorMisuse(byte[] in, byte[] out) {
 		Deflater compresser = new Deflater();
 		compresser.setInput(in);
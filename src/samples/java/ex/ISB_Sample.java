@@ -128,4 +128,68 @@ public class ISB_Sample {
         return 1 + s.toString();
     }
 
+    public void testBuilderInLoop(java.util.List<String> names, java.io.PrintStream ps) {
+        for (String name : names) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name).append(':').append(name.length());
+            ps.println(sb.toString());
+        }
+    }
+
+    public String testConcatInLoop(java.util.List<String> names) {
+        String result = "";
+        for (String name : names) {
+            result += name;
+        }
+        return result;
+    }
+
+    public String testUndersizedBuilder(String name) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("The quick brown fox ");
+        sb.append(name);
+        sb.append(" jumped over the lazy dog");
+        return sb.toString();
+    }
+
+    public void fpBuilderInLoopEscapes(java.util.List<String> names, java.util.List<StringBuilder> out) {
+        for (String name : names) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name);
+            out.add(sb);
+        }
+    }
+
+    public String fpBuilderReused(java.util.List<String> names) {
+        StringBuilder sb = new StringBuilder(64);
+        for (String name : names) {
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    public String fpConcatOutsideLoop(String a, String b) {
+        String result = a;
+        result += b;
+        return result;
+    }
+
+    public String fpSmallBuilder(String name) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Hi ");
+        sb.append(name);
+        return sb.toString();
+    }
+
+    public String fpConditionalAppends(String name, boolean formal) {
+        StringBuilder sb = new StringBuilder();
+        if (formal) {
+            sb.append("Salutations and greetings, ");
+        } else {
+            sb.append("Hi ");
+        }
+        sb.append(name);
+        return sb.toString();
+    }
+
 }
@@ -0,0 +1,118 @@
+package ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class LAC_Sample {
+
+    private List<String> names = new LinkedList<>();
+    private List<String> pending = new ArrayList<>();
+
+    public int testLinkedListGet() {
+        List<String> l = new LinkedList<>();
+        l.add("a");
+        l.add("b");
+        int len = 0;
+        for (int i = 0; i < l.size(); i++) {
+            len += l.get(i).length();
+        }
+        return len;
+    }
+
+    public int testLinkedListFieldGet() {
+        int len = 0;
+        for (int i = 0; i < names.size(); i++) {
+            len += names.get(i).length();
+        }
+        return len;
+    }
+
+    public void testArrayListAsQueue() {
+        while (!pending.isEmpty()) {
+            String s = pending.remove(0);
+            System.out.println(s);
+        }
+    }
+
+    public List<String> testDedupe(String[] values) {
+        List<String> unique = new ArrayList<>();
+        for (String v : values) {
+            if (!unique.contains(v)) {
+                unique.add(v);
+            }
+        }
+        return unique;
+    }
+
+    public List<String> testCopyOnWriteInLoop(List<String> src) {
+        List<String> cow = new CopyOnWriteArrayList<>();
+        for (String s : src) {
+            cow.add(s);
+        }
+        return cow;
+    }
+
+    public void testRemoveAllWithList(Set<String> all, List<String> toRemove) {
+        all.removeAll(toRemove);
+    }
+
+    public int fpArrayListGet(List<String> l) {
+        List<String> al = new ArrayList<>(l);
+        int len = 0;
+        for (int i = 0; i < al.size(); i++) {
+            len += al.get(i).length();
+        }
+        return len;
+    }
+
+    public String fpLinkedListGetOutsideLoop() {
+        LinkedList<String> l = new LinkedList<>(names);
+        return l.get(0);
+    }
+
+    public void fpArrayListRemoveLast() {
+        while (!pending.isEmpty()) {
+            pending.remove(pending.size() - 1);
+        }
+    }
+
+    public void fpRemoveAllWithSet(List<String> all, List<String> toRemove) {
+        all.removeAll(new HashSet<>(toRemove));
+    }
+
+    public void fpLinkedListHeadAccess(List<String> src) {
+        LinkedList<String> queue = new LinkedList<>();
+        for (String s : src) {
+            queue.add(0, s);
+            if (queue.get(0).isEmpty()) {
+                queue.remove(0);
+            }
+        }
+    }
+
+    public void fpRemoveAllOnNonCollection(Filter filter, List<String> toRemove) {
+        for (int i = 0; i < 10; i++) {
+            filter.removeAll(toRemove);
+        }
+    }
+
+    static class Filter {
+        void removeAll(List<String> values) {
+        }
+    }
+
+    public int testAsListConstantLowPriority(String[] values) {
+        int count = 0;
+        for (String v : values) {
+            if (Arrays.asList("a", "b").contains(v)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,278 @@
+package ex;
+
+import java.util.Iterator;
+import java.util.List;
+
+public class MCS_Sample {
+
+    public double totalArea(List<Shape> shapes) {
+        double total = 0.0;
+        for (Shape shape : shapes) {
+            total += shape.area();
+        }
+        return total;
+    }
+
+    public String describeAll(List<Shape> shapes) {
+        StringBuilder sb = new StringBuilder();
+        for (Shape shape : shapes) {
+            sb.append(shape.name()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    public long totalCost(List<Cost> costs) {
+        long total = 0;
+        for (Cost cost : costs) {
+            total += cost.cents();
+        }
+        return total;
+    }
+
+    public double totalVolume(List<Solid> solids) {
+        double total = 0.0;
+        for (Solid solid : solids) {
+            total += solid.volume();
+        }
+        return total;
+    }
+
+    public long totalDuty(List<Duty> duties) {
+        long total = 0;
+        for (Duty duty : duties) {
+            total += duty.cents();
+        }
+        return total;
+    }
+
+    public double fpSingleArea(Shape shape) {
+        return shape.area();
+    }
+
+    public long fpTotalWeight(List<Weight> weights) {
+        long total = 0;
+        for (Weight weight : weights) {
+            total += weight.grams();
+        }
+        return total;
+    }
+
+    public int fpCountChars(List<String> names) {
+        int count = 0;
+        for (String name : names) {
+            count += name.length();
+        }
+        return count;
+    }
+
+    interface Shape {
+        double area();
+
+        String name();
+    }
+
+    static class Circle implements Shape {
+        double r;
+
+        @Override
+        public double area() {
+            return Math.PI * r * r;
+        }
+
+        @Override
+        public String name() {
+            return "circle";
+        }
+    }
+
+    static class Square implements Shape {
+        double side;
+
+        @Override
+        public double area() {
+            return side * side;
+        }
+
+        @Override
+        public String name() {
+            return "square";
+        }
+    }
+
+    static class Triangle implements Shape {
+        double base;
+        double height;
+
+        @Override
+        public double area() {
+            return 0.5 * base * height;
+        }
+
+        @Override
+        public String name() {
+            return "triangle";
+        }
+    }
+
+    static class Rectangle implements Shape {
+        double width;
+        double height;
+
+        @Override
+        public double area() {
+            return width * height;
+        }
+
+        @Override
+        public String name() {
+            return "rectangle";
+        }
+    }
+
+    static class Hexagon implements Shape {
+        double side;
+
+        @Override
+        public double area() {
+            return 2.598076 * side * side;
+        }
+
+        @Override
+        public String name() {
+            return "hexagon";
+        }
+    }
+
+    abstract static class Cost {
+        abstract long cents();
+    }
+
+    static class Labor extends Cost {
+        @Override
+        long cents() {
+            return 100;
+        }
+    }
+
+    static class Material extends Cost {
+        @Override
+        long cents() {
+            return 200;
+        }
+    }
+
+    static class Shipping extends Cost {
+        @Override
+        long cents() {
+            return 300;
+        }
+    }
+
+    abstract static class Duty extends Cost {
+    }
+
+    static class ImportDuty extends Duty {
+        @Override
+        long cents() {
+            return 10;
+        }
+    }
+
+    static class ExportDuty extends Duty {
+        @Override
+        long cents() {
+            return 20;
+        }
+    }
+
+    static class TransitDuty extends Duty {
+        @Override
+        long cents() {
+            return 30;
+        }
+    }
+
+    interface HasVolume {
+        double volume();
+    }
+
+    interface Solid extends HasVolume {
+    }
+
+    static class Cube implements Solid {
+        @Override
+        public double volume() {
+            return 1.0;
+        }
+    }
+
+    static class Sphere implements Solid {
+        @Override
+        public double volume() {
+            return 4.18879;
+        }
+    }
+
+    static class Cylinder implements Solid {
+        @Override
+        public double volume() {
+            return 3.14159;
+        }
+    }
+
+    interface Weight {
+        long grams();
+    }
+
+    static class Light implements Weight {
+        @Override
+        public long grams() {
+            return 1;
+        }
+    }
+
+    static class Heavy implements Weight {
+        @Override
+        public long grams() {
+            return 1000;
+        }
+    }
+
+    static class Countdown implements Iterator<Integer> {
+        int n;
+
+        @Override
+        public boolean hasNext() {
+            return n > 0;
+        }
+
+        @Override
+        public Integer next() {
+            return Integer.valueOf(n--);
+        }
+    }
+
+    static class Repeat implements Iterator<String> {
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public String next() {
+            return "again";
+        }
+    }
+
+    static class Nothing implements Iterator<Object> {
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public Object next() {
+            return null;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Map;
 public class MUI_Sample {
 
     Map<String, String> fieldMap = new HashMap<>();
+    Map<String, List<String>> listMap = new HashMap<>();
 
     public String testGetAfterContainsKeyLocal() {
         Map<String, String> localMap = new HashMap<>();
@@ -87,6 +88,94 @@ public class MUI_Sample {
         return new ArrayList<>(m.values().size());
     }
 
+    public void testPutAfterGet(Map<String, Integer> counts, String word) {
+        Integer count = counts.get(word);
+        counts.put(word, (count == null) ? 1 : count.intValue() + 1);
+    }
+
+    public List<String> testPutAfterGetField(String key) {
+        List<String> values = listMap.get(key);
+        if (values == null) {
+            values = new ArrayList<>();
+            listMap.put(key, values);
+        }
+        return values;
+    }
+
+    public void testPutAfterContainsKey(Map<String, String> m, String key) {
+        if (!m.containsKey(key)) {
+            m.put(key, "Foo");
+        }
+    }
+
+    public String testRepeatedGet(Map<String, String> m, String key) {
+        if (m.get(key) != null) {
+            return m.get(key).trim() + m.get(key).length();
+        }
+        return "";
+    }
+
+    public String testRepeatedGetTwice(Map<String, String> m, String key) {
+        if (m.get(key) == null) {
+            return "";
+        }
+        return m.get(key).trim();
+    }
+
+    public void fpPutAfterGetOtherKey(Map<String, Integer> counts, String word, String other) {
+        Integer count = counts.get(word);
+        counts.put(other, count);
+    }
+
+    public String fpGetAfterModify(Map<String, String> m, String key) {
+        String v = m.get(key);
+        m.clear();
+        String w = m.get(key);
+        return v + w;
+    }
+
+    public int fpGetWithReassignedKey(Map<String, Integer> m, List<String> keys) {
+        int total = 0;
+        for (String key : keys) {
+            total += m.get(key).intValue();
+        }
+        return total;
+    }
+
+    public String fpGetInEachBranch(Map<String, String> m, String key, boolean trim) {
+        String v;
+        if (trim) {
+            v = m.get(key).trim();
+        } else {
+            v = m.get(key).toLowerCase();
+        }
+        return v;
+    }
+
+    public String testRepeatedGetAfterBranches(Map<String, String> m, String key, boolean trim) {
+        String v;
+        if (trim) {
+            v = m.get(key).trim();
+        } else {
+            v = m.get(key).toLowerCase();
+        }
+        return v + m.get(key);
+    }
+
+    public String fpFieldGetAfterReload(String key) {
+        String v = fieldMap.get(key);
+        if (v == null) {
+            reload();
+            v = fieldMap.get(key);
+        }
+        return v;
+    }
+
+    private void reload() {
+        fieldMap.clear();
+        fieldMap.put("foo", "bar");
+    }
+
     public String getAValue() {
         return MUI_Sample.class.getName();
     }
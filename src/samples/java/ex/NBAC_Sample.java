@@ -0,0 +1,93 @@
+package ex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class NBAC_Sample {
+
+    public InputStream testBAOSToBAIS(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(data);
+        return new ByteArrayInputStream(baos.toByteArray());
+    }
+
+    public String testBAOSToString(ByteArrayOutputStream baos) {
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public void testBAOSToOutputStream(ByteArrayOutputStream baos, OutputStream os) throws IOException {
+        byte[] data = baos.toByteArray();
+        os.write(data);
+    }
+
+    public String testStringRoundTrip(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    public int testUnmodifiedCopy(byte[] data) {
+        byte[] copy = Arrays.copyOf(data, data.length);
+        int sum = 0;
+        for (int i = 0; i < copy.length; i++) {
+            sum += copy[i];
+        }
+        return sum;
+    }
+
+    public byte[] testByteBufferCopy(ByteBuffer bb) {
+        return Arrays.copyOf(bb.array(), bb.limit());
+    }
+
+    public byte[] fpDefensiveCopy(byte[] data) {
+        return data.clone();
+    }
+
+    public int fpModifiedCopy(byte[] data) {
+        byte[] copy = Arrays.copyOf(data, data.length);
+        copy[0] = 0;
+        return copy[0] + copy.length;
+    }
+
+    public int fpModifiedSource(byte[] data) {
+        byte[] copy = data.clone();
+        Arrays.fill(data, (byte) 0);
+        return copy[0];
+    }
+
+    public int fpHandedOffCopy(byte[] data) {
+        byte[] copy = data.clone();
+        Arrays.sort(copy);
+        return copy[0];
+    }
+
+    public byte[] fpBAOS(ByteArrayOutputStream baos) {
+        return baos.toByteArray();
+    }
+
+    public int testTwoUnmodifiedCopies(byte[] data) {
+        byte[] first = Arrays.copyOf(data, data.length);
+        byte[] second = Arrays.copyOfRange(data, 1, data.length);
+        return first[0] + second[0];
+    }
+
+    public String fpTranscode(String s) {
+        return new String(s.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    public String fpDefaultToCharset(String s) {
+        return new String(s.getBytes(), StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("deprecation")
+    public String fpGetBytesIntoArray(String s) {
+        byte[] b = new byte[s.length()];
+        s.getBytes(0, s.length(), b, 0);
+        return new String(b);
+    }
+}
@@ -0,0 +1,107 @@
+package ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PCAA_Sample {
+
+    enum Color {
+        RED, GREEN, BLUE;
+
+        private static final Color[] VALUES = values();
+
+        static Color fromOrdinal(int ordinal) {
+            return VALUES[ordinal];
+        }
+    }
+
+    private final int[] weights = { 1, 2, 3 };
+
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    public List<String> testValuesInLoop(List<String> names) {
+        List<String> matches = new ArrayList<>();
+        for (String name : names) {
+            for (Color c : Color.values()) {
+                if (c.name().equalsIgnoreCase(name)) {
+                    matches.add(name);
+                }
+            }
+        }
+        return matches;
+    }
+
+    public Color testValuesIndexed(int ordinal) {
+        return Color.values()[ordinal];
+    }
+
+    public List<String> testFormatInLoop(List<String> names) {
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            result.add(String.format("%s:%d", name, name.length()));
+        }
+        return result;
+    }
+
+    public int testAsListInLoop(String[] names) {
+        int count = 0;
+        for (String name : names) {
+            if (Arrays.asList("a", "b", "c").contains(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int testCloningGetterInLoop(PCAA_Sample other) {
+        int sum = 0;
+        for (int i = 0; i < other.getWeights().length; i++) {
+            sum += other.getWeights()[i];
+        }
+        return sum;
+    }
+
+    public Color fpCachedValues(int ordinal) {
+        return Color.fromOrdinal(ordinal);
+    }
+
+    public List<String> fpValuesOutsideLoop(List<String> names) {
+        List<String> matches = new ArrayList<>();
+        Color[] colors = Color.values();
+        for (String name : names) {
+            for (Color c : colors) {
+                if (c.name().equalsIgnoreCase(name)) {
+                    matches.add(name);
+                }
+            }
+        }
+        return matches;
+    }
+
+    public String fpFormatOutsideLoop(String name) {
+        return String.format("%s:%d", name, name.length());
+    }
+
+    public int fpCloningGetterOutsideLoop(PCAA_Sample other) {
+        int sum = 0;
+        int[] w = other.getWeights();
+        for (int i = 0; i < w.length; i++) {
+            sum += w[i];
+        }
+        return sum;
+    }
+
+    public int fpPrebuiltArray(List<Object> items) {
+        Object[] args = new Object[2];
+        int len = 0;
+        for (Object item : items) {
+            args[0] = item;
+            args[1] = item;
+            len += String.format("%s %s", args).length();
+        }
+        return len;
+    }
+}
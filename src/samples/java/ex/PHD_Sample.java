@@ -0,0 +1,264 @@
+package ex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+public class PHD_Sample {
+
+    enum Kind {
+        SMALL, LARGE
+    };
+
+    private final Map<ConstantKey, String> constants = new HashMap<>();
+    private final Set<FlagKey> flags = new HashSet<>();
+    private final Map<Point, String> points = new HashMap<>();
+    private final Set<PathKey> paths = new HashSet<>();
+    private final Map<GoodPoint, String> goodPoints = new HashMap<>();
+
+    public void testKeys(ConstantKey ck, FlagKey fk, Point p, PathKey pk, GoodPoint gp) {
+        constants.put(ck, "c");
+        flags.add(fk);
+        points.put(p, "p");
+        paths.add(pk);
+        goodPoints.put(gp, "g");
+    }
+
+    public void testMoreKeys(Map<Object, String> m, NamesKey nk, WordsKey wk, UnsupportedKey uk, DigitsKey dk, PartsKey pk) {
+        m.put(nk, "n");
+        m.put(wk, "w");
+        m.put(uk, "u");
+        m.put(dk, "d");
+        m.put(pk, "p");
+    }
+
+    static class ConstantKey {
+        private String name;
+
+        ConstantKey(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof ConstantKey) && name.equals(((ConstantKey) o).name);
+        }
+    }
+
+    static class FlagKey {
+        private boolean active;
+        private Kind kind;
+        private String id;
+
+        FlagKey(boolean active, Kind kind, String id) {
+            this.active = active;
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (active ? 1 : 0) + kind.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlagKey)) {
+                return false;
+            }
+            FlagKey that = (FlagKey) o;
+            return (active == that.active) && (kind == that.kind) && id.equals(that.id);
+        }
+    }
+
+    static class Point {
+        private Integer x;
+        private Integer y;
+
+        Point(Integer x, Integer y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public int hashCode() {
+            return x.hashCode() ^ y.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Point)) {
+                return false;
+            }
+            Point that = (Point) o;
+            return x.equals(that.x) && y.equals(that.y);
+        }
+    }
+
+    static class PathKey {
+        private List<String> segments;
+
+        PathKey(List<String> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public int hashCode() {
+            return segments.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof PathKey) && segments.equals(((PathKey) o).segments);
+        }
+    }
+
+    static class GoodPoint {
+        private int x;
+        private int y;
+        private boolean visible;
+
+        GoodPoint(int x, int y, boolean visible) {
+            this.x = x;
+            this.y = y;
+            this.visible = visible;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * x) + y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GoodPoint)) {
+                return false;
+            }
+            GoodPoint that = (GoodPoint) o;
+            return (x == that.x) && (y == that.y) && (visible == that.visible);
+        }
+    }
+
+    static class UnusedXorKey {
+        private String first;
+        private String last;
+
+        UnusedXorKey(String first, String last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(first) ^ Objects.hashCode(last);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UnusedXorKey)) {
+                return false;
+            }
+            UnusedXorKey that = (UnusedXorKey) o;
+            return Objects.equals(first, that.first) && Objects.equals(last, that.last);
+        }
+    }
+
+    static class NamesKey {
+        private String[] names;
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (String name : names) {
+                hash = (31 * hash) + name.hashCode();
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof NamesKey) && Arrays.equals(names, ((NamesKey) o).names);
+        }
+    }
+
+    static class WordsKey {
+        private List<String> words;
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (String word : words) {
+                hash += word.length();
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof WordsKey) && words.equals(((WordsKey) o).words);
+        }
+    }
+
+    static class UnsupportedKey {
+        @Override
+        public int hashCode() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this;
+        }
+    }
+
+    static class DigitsKey {
+        private int[] digits;
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (int digit : digits) {
+                hash = (31 * hash) + digit;
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof DigitsKey) && Arrays.equals(digits, ((DigitsKey) o).digits);
+        }
+    }
+
+    static class PartsKey {
+        private String first;
+        private String middle;
+        private String last;
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (String part : new String[] { first, middle, last }) {
+                hash = (31 * hash) + Objects.hashCode(part);
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PartsKey)) {
+                return false;
+            }
+            PartsKey that = (PartsKey) o;
+            return Objects.equals(first, that.first) && Objects.equals(middle, that.middle) && Objects.equals(last, that.last);
+        }
+    }
+}
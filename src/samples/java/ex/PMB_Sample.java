@@ -3,6 +3,7 @@ package ex;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -10,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.WeakHashMap;
 
 public class PMB_Sample {
@@ -114,4 +116,53 @@ public class PMB_Sample {
             fpEmptyWithIterator.put(key, "foo");
         }
     }
+
+    public static class ThreadLocalUses {
+        private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+        private static final ThreadLocal<List<String>> CONTEXT = new ThreadLocal<>();
+        private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+        private static final ThreadLocal<Map<String, String>> FP_SCOPED = new ThreadLocal<>();
+        private static final ThreadLocal<DateFormat> FORMAT = ThreadLocal.withInitial(SimpleDateFormat::new);
+
+        public int sumLengths(List<String> values) {
+            int total = 0;
+            for (String value : values) {
+                total += BUILDER.get().append(value).length();
+            }
+            return total;
+        }
+
+        public void startRequest(List<String> values) {
+            CONTEXT.set(values);
+        }
+
+        public void fill(Consumer<byte[]> consumer) {
+            consumer.accept(BUFFER.get());
+        }
+
+        public void fpScoped(Map<String, String> values, Runnable r) {
+            FP_SCOPED.set(values);
+            try {
+                r.run();
+            } finally {
+                FP_SCOPED.remove();
+            }
+        }
+
+        public String fpGetOutsideLoop(List<Date> dates) {
+            DateFormat df = FORMAT.get();
+            StringBuilder sb = new StringBuilder();
+            for (Date d : dates) {
+                sb.append(df.format(d));
+            }
+            return sb.toString();
+        }
+
+        public void fpSetInLoop(List<List<String>> batches) {
+            for (List<String> batch : batches) {
+                CONTEXT.set(batch);
+                System.out.println(CONTEXT.get().size());
+            }
+        }
+    }
 }
@@ -9,6 +9,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -290,6 +291,107 @@ public class PSC_Sample {
         return ss;
     }
 
+    public Map<String, Integer> testHashSizedByLength(String[] names) {
+        Map<String, Integer> lengths = new HashMap<>(names.length);
+        for (String name : names) {
+            lengths.put(name, name.length());
+        }
+        return lengths;
+    }
+
+    public Set<String> testHashSizedByVariable(List<String> names, int count) {
+        Set<String> result = new HashSet<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(names.get(i));
+        }
+        return result;
+    }
+
+    public Map<String, String> testHashConstant() {
+        Map<String, String> m = new HashMap<>(4);
+        m.put("a", "1");
+        m.put("b", "2");
+        m.put("c", "3");
+        m.put("d", "4");
+        return m;
+    }
+
+    public List<String> testListTwicePerElement(String[] names) {
+        List<String> result = new ArrayList<>(names.length);
+        for (String name : names) {
+            result.add(name);
+            result.add(name.toUpperCase());
+        }
+        return result;
+    }
+
+    public List<String> testListConstant() {
+        List<String> l = new ArrayList<>(2);
+        l.add("a");
+        l.add("b");
+        l.add("c");
+        return l;
+    }
+
+    public Map<String, Integer> fpHashLoadFactorAware(String[] names) {
+        Map<String, Integer> lengths = new HashMap<>((int) (names.length / 0.75f) + 1);
+        for (String name : names) {
+            lengths.put(name, name.length());
+        }
+        return lengths;
+    }
+
+    public Map<String, String> fpHashConstantRoomy() {
+        Map<String, String> m = new HashMap<>(8);
+        m.put("a", "1");
+        m.put("b", "2");
+        m.put("c", "3");
+        return m;
+    }
+
+    public Set<String> fpHashFiltered(String[] names) {
+        Set<String> result = new HashSet<>(names.length);
+        for (String name : names) {
+            if (name.startsWith("x")) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    public List<String> fpListOncePerElement(String[] names) {
+        List<String> result = new ArrayList<>(names.length);
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+
+    public Set<String> testHashSizedByCollection(Collection<String> names) {
+        Set<String> result = new LinkedHashSet<>(names.size());
+        for (String name : names) {
+            result.add(name.trim());
+        }
+        return result;
+    }
+
+    public Set<String> testHashSizedByOtherSource(Collection<String> names, List<String> others) {
+        Set<String> result = new LinkedHashSet<>(names.size());
+        for (String other : others) {
+            result.add(other);
+        }
+        return result;
+    }
+
+    public List<String> testListSizedByOtherSource(String[] names, String[] others) {
+        List<String> result = new ArrayList<>(names.length);
+        for (String other : others) {
+            result.add(other);
+            result.add(other.trim());
+        }
+        return result;
+    }
+
     public void fpIterable269(final Iterable<String> strings) {
         final List<String> stringList = new ArrayList<>();
         for (final String string : strings) {
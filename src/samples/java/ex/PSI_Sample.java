@@ -0,0 +1,134 @@
+package ex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class PSI_Sample {
+
+    private final List<String> seen = new ArrayList<>();
+    private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+    private int total;
+
+    public int testSmallAsList() {
+        return Arrays.asList("a", "b", "c").parallelStream().mapToInt(String::length).sum();
+    }
+
+    public long testSmallStreamOf() {
+        return Stream.of("a", "b").parallel().filter(s -> s.isEmpty()).count();
+    }
+
+    public int testSmallRange() {
+        return IntStream.range(0, 8).parallel().map(i -> i * i).sum();
+    }
+
+    public long testLinkedList(LinkedList<String> names) {
+        return names.parallelStream().filter(n -> n.startsWith("x")).count();
+    }
+
+    public long testNewLinkedList(Collection<String> src) {
+        List<String> names = new LinkedList<>(src);
+        return names.stream().parallel().filter(n -> n.startsWith("x")).count();
+    }
+
+    public long testIteratorSpliterator(Iterator<String> it) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), true).count();
+    }
+
+    public List<String> testForEachMutation(List<String> names) {
+        List<String> result = new ArrayList<>();
+        names.parallelStream().filter(n -> n.length() > 3).forEach(n -> result.add(n));
+        return result;
+    }
+
+    public void testFieldMutation(List<String> names) {
+        names.parallelStream().forEach(n -> seen.add(n));
+    }
+
+    public void testSynchronized(List<String> names) {
+        names.parallelStream().forEach(n -> {
+            synchronized (this) {
+                total += n.length();
+            }
+        });
+    }
+
+    public void testSynchronizedCallee(List<String> names) {
+        names.parallelStream().forEach(this::accumulate);
+    }
+
+    public long testBlocking(List<Path> paths) {
+        return paths.parallelStream().mapToLong(p -> {
+            try {
+                return Files.readAllBytes(p).length;
+            } catch (IOException e) {
+                return 0;
+            }
+        }).sum();
+    }
+
+    private synchronized void accumulate(String n) {
+        total += n.length();
+    }
+
+    public int fpSequentialSmall() {
+        return Arrays.asList("a", "b", "c").stream().mapToInt(String::length).sum();
+    }
+
+    public long fpArrayListParallel(List<String> names) {
+        return new ArrayList<>(names).parallelStream().filter(n -> n.startsWith("x")).count();
+    }
+
+    public List<String> fpCollect(List<String> names) {
+        return names.parallelStream().filter(n -> n.length() > 3).collect(Collectors.toList());
+    }
+
+    public void fpConcurrentMutation(List<String> names) {
+        names.parallelStream().forEach(n -> counts.merge(n, 1, Integer::sum));
+    }
+
+    public void fpLocalCollection(List<String> names) {
+        names.parallelStream().forEach(n -> {
+            List<String> parts = new ArrayList<>();
+            parts.add(n);
+            System.out.println(parts);
+        });
+    }
+
+    public void fpSequentialMutation(List<String> names) {
+        List<String> result = new ArrayList<>();
+        names.stream().forEach(n -> result.add(n));
+    }
+
+    public int fpLargeRange() {
+        return IntStream.range(0, 1_000_000).parallel().map(i -> i * i).sum();
+    }
+
+    public void testStaticFieldMutation(List<String> names) {
+        names.parallelStream().forEach(n -> ALL_NAMES.add(n));
+    }
+
+    public void fpElementFieldMutation(List<Node> nodes, String child) {
+        nodes.parallelStream().forEach(node -> node.children.add(child));
+    }
+
+    private static final List<String> ALL_NAMES = new ArrayList<>();
+
+    static class Node {
+        final List<String> children = new ArrayList<>();
+    }
+}
@@ -2,9 +2,22 @@ package ex;
 
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RFI_Sample {
 
+    private static final Method LENGTH;
+
+    static {
+        try {
+            LENGTH = String.class.getMethod("length");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public void accessSingleField() throws Exception {
 
         String s = "Hello";
@@ -32,4 +45,43 @@ public class RFI_Sample {
 
         System.out.println(s);
     }
+
+    public List<Object> testLookupInLoop(List<Object> beans) throws Exception {
+        List<Object> names = new ArrayList<>();
+        for (Object bean : beans) {
+            Method m = bean.getClass().getMethod("getName");
+            names.add(m.invoke(bean));
+        }
+        return names;
+    }
+
+    public int testConstantLookupInLoop(List<String> values) throws Exception {
+        int total = 0;
+        for (String v : values) {
+            Field f = String.class.getDeclaredField("hash");
+            total += f.getInt(v);
+        }
+        return total;
+    }
+
+    public Object testUncachedLookup(String s) throws Exception {
+        Method m = String.class.getMethod("trim");
+        return m.invoke(s);
+    }
+
+    public Class<?> testUncachedForName() throws Exception {
+        return Class.forName("java.util.ArrayList");
+    }
+
+    public int fpCachedLookup(String s) throws Exception {
+        return ((Integer) LENGTH.invoke(s)).intValue();
+    }
+
+    public Class<?> fpVariableForName(String name) throws Exception {
+        return Class.forName(name);
+    }
+
+    public Method fpVariableLookup(Class<?> cls, String name) throws Exception {
+        return cls.getMethod(name);
+    }
 }
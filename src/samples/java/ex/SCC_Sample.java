@@ -0,0 +1,119 @@
+package ex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+public class SCC_Sample {
+
+    private final Map<String, Integer> counts = Collections.synchronizedMap(new HashMap<String, Integer>());
+    private final List<String> listeners = new Vector<>();
+    private static final Map<String, String> CONFIG = new Hashtable<>();
+
+    public void testCount(String key) {
+        Integer c = counts.get(key);
+        if (c == null) {
+            counts.put(key, Integer.valueOf(1));
+        } else {
+            counts.put(key, Integer.valueOf(c.intValue() + 1));
+        }
+    }
+
+    public void testRegister(String key) {
+        if (!counts.containsKey(key)) {
+            counts.put(key, Integer.valueOf(0));
+        }
+    }
+
+    public int testCountSize() {
+        return counts.size();
+    }
+
+    public void addListener(String l) {
+        listeners.add(l);
+    }
+
+    public boolean testHasListener(String l) {
+        return listeners.contains(l);
+    }
+
+    public int testListenerCount() {
+        return listeners.size();
+    }
+
+    public String testFirstListener() {
+        return listeners.isEmpty() ? null : listeners.get(0);
+    }
+
+    public List<String> testCopyListeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    public static void testSetConfig(String key, String value) {
+        CONFIG.put(key, value);
+    }
+
+    public static String testGetConfig(String key) {
+        return CONFIG.get(key);
+    }
+
+    public static boolean testHasConfig(String key) {
+        return CONFIG.containsKey(key);
+    }
+
+    public static int testConfigSize() {
+        return CONFIG.size();
+    }
+
+    public static boolean testConfigEmpty() {
+        return CONFIG.isEmpty();
+    }
+
+    static class FPUnsynchronized {
+        private final Map<String, Integer> counts = new HashMap<>();
+
+        public void fpRegister(String key) {
+            if (!counts.containsKey(key)) {
+                counts.put(key, Integer.valueOf(0));
+            }
+        }
+
+        public int fpSize() {
+            return counts.size();
+        }
+    }
+
+    static class FPEscapes {
+        private final Map<String, Integer> counts = Collections.synchronizedMap(new HashMap<String, Integer>());
+
+        public void fpRegister(String key) {
+            if (!counts.containsKey(key)) {
+                counts.put(key, Integer.valueOf(0));
+            }
+        }
+
+        public Map<String, Integer> fpGetCounts() {
+            return counts;
+        }
+    }
+
+    static class FPWriteHeavy {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void fpAdd(String e) {
+            events.add(e);
+        }
+
+        public void fpClear() {
+            events.clear();
+        }
+
+        public int fpSize() {
+            return events.size();
+        }
+    }
+}
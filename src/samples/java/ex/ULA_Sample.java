@@ -0,0 +1,81 @@
+package ex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ULA_Sample {
+
+    private static final AtomicLong REQUESTS = new AtomicLong();
+
+    private final AtomicInteger hits = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void testStaticCounter() {
+        REQUESTS.incrementAndGet();
+    }
+
+    public void testHit(int size) {
+        hits.getAndIncrement();
+        bytes.addAndGet(size);
+    }
+
+    public String testReport() {
+        return "hits: " + hits.get() + " bytes: " + bytes.get() + " requests: " + REQUESTS.longValue();
+    }
+
+    public long testResetBytes() {
+        return bytes.getAndSet(0);
+    }
+
+    static class FPSequence {
+        private final AtomicLong nextId = new AtomicLong();
+
+        public long fpNextId() {
+            return nextId.incrementAndGet();
+        }
+    }
+
+    static class FPCompareAndSet {
+        private final AtomicInteger state = new AtomicInteger();
+
+        public void fpIncrement() {
+            state.incrementAndGet();
+        }
+
+        public boolean fpStart() {
+            return state.compareAndSet(0, 1);
+        }
+    }
+
+    static class FPEscapes {
+        private final AtomicLong count = new AtomicLong();
+
+        public void fpIncrement() {
+            count.incrementAndGet();
+        }
+
+        public AtomicLong fpGetCount() {
+            return count;
+        }
+    }
+
+    static class FPReassigned {
+        private AtomicLong count = new AtomicLong();
+
+        public void fpIncrement() {
+            count.incrementAndGet();
+        }
+
+        public void fpReset() {
+            count = new AtomicLong();
+        }
+    }
+
+    static class FPReadOnly {
+        private final AtomicLong value = new AtomicLong(10);
+
+        public long fpGet() {
+            return value.get();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ex;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+public class UMC_Sample {
+
+    private static final Map<String, String> normalized = new HashMap<>();
+    private static final Map<Class<?>, String> fpClassNames = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> fpCleared = new HashMap<>();
+    private static final Map<String, String> fpLru = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > 100;
+        }
+    };
+
+    public static String normalize(String url) {
+        if (!normalized.containsKey(url)) {
+            normalized.put(url, url.trim().toLowerCase());
+        }
+        return normalized.get(url);
+    }
+
+    public static String fpClassName(Class<?> cls) {
+        return fpClassNames.computeIfAbsent(cls, c -> c.getSimpleName());
+    }
+
+    public static int fpLength(String s) {
+        Integer len = fpCleared.get(s);
+        if (len == null) {
+            len = Integer.valueOf(s.length());
+            fpCleared.put(s, len);
+        }
+        return len.intValue();
+    }
+
+    public static void fpReset() {
+        fpCleared.clear();
+    }
+
+    public static String fpLruLookup(String key) {
+        String value = fpLru.get(key);
+        if (value == null) {
+            value = key.trim();
+            fpLru.put(key, value);
+        }
+        return value;
+    }
+
+    public String fpLocalCache(String key) {
+        Map<String, String> local = new HashMap<>();
+        return local.computeIfAbsent(key, String::trim);
+    }
+
+    @Service
+    public static class UserService {
+        private final Map<Long, String> names = new ConcurrentHashMap<>();
+        private final Map<TimeUnit, Long> fpUnits = new ConcurrentHashMap<>();
+
+        public String getName(Long userId) {
+            return names.computeIfAbsent(userId, id -> "user" + id);
+        }
+
+        public long fpToMillis(TimeUnit unit) {
+            return fpUnits.computeIfAbsent(unit, u -> Long.valueOf(u.toMillis(1))).longValue();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class UPC_Sample {
+
+    private final Map<Long, Long> parentIds = new HashMap<>();
+    private final Set<Integer> seen = new HashSet<>();
+    private final Map<Long, String> names = new HashMap<>();
+
+    public void testAddParent(long id, long parentId) {
+        parentIds.put(id, parentId);
+    }
+
+    public long testGetParent(long id) {
+        Long parent = parentIds.get(id);
+        return parent == null ? -1 : parent.longValue();
+    }
+
+    public boolean testSeen(int id) {
+        if (seen.contains(id)) {
+            return true;
+        }
+        seen.add(id);
+        return false;
+    }
+
+    public int testSumSeen() {
+        int sum = 0;
+        for (int id : seen) {
+            sum += id;
+        }
+        return sum;
+    }
+
+    public void fpAddName(long id, String name) {
+        names.put(id, name);
+    }
+
+    public String fpGetName(long id) {
+        return names.get(id);
+    }
+
+    public int testLocalList(int[] values) {
+        List<Integer> l = new ArrayList<>();
+        for (int v : values) {
+            l.add(v);
+        }
+        int sum = 0;
+        for (int i = 0; i < l.size(); i++) {
+            sum += l.get(i);
+        }
+        return sum;
+    }
+
+    static class FPEscapes {
+        private final Map<Integer, Integer> counts = new HashMap<>();
+
+        public void fpCount(int key) {
+            counts.put(key, 1);
+        }
+
+        public Map<Integer, Integer> fpGetCounts() {
+            return counts;
+        }
+    }
+
+    static class FPObjectKeys {
+        private final Map<String, String> props = new HashMap<>();
+
+        public void fpPut(String k, String v) {
+            props.put(k, v);
+        }
+    }
+
+    static class FPMixedKeys {
+        private final Set<Object> keys = new HashSet<>();
+
+        public void fpAddInt(int i) {
+            keys.add(i);
+        }
+
+        public void fpAddObject(Object o) {
+            keys.add(o);
+        }
+    }
+
+    static class FPBoxedReads {
+        private final Map<Integer, Integer> sizes = new HashMap<>();
+        private final List<Long> stamps = new ArrayList<>();
+        private final Set<Integer> ids = new HashSet<>();
+
+        public void fpPut(int k, int v) {
+            sizes.put(k, v);
+        }
+
+        public int fpGetSize(int k) {
+            return sizes.get(k);
+        }
+
+        public Integer fpGetBoxed(int k) {
+            return sizes.get(k);
+        }
+
+        public void fpAdd(long s) {
+            stamps.add(s);
+        }
+
+        public long fpFirst() {
+            return stamps.get(0);
+        }
+
+        public boolean fpIsFirst(Long s) {
+            return stamps.get(0).equals(s);
+        }
+
+        public void fpAddId(int id) {
+            ids.add(id);
+        }
+
+        public boolean fpHasId(int id) {
+            return ids.contains(id);
+        }
+    }
+
+    public List<Integer> fpLocalReturned(int[] values) {
+        List<Integer> l = new ArrayList<>();
+        for (int v : values) {
+            l.add(v);
+        }
+        return l;
+    }
+}
@@ -0,0 +1,120 @@
+package ex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class VTP_Sample {
+
+    private final Object lock = new Object();
+    private byte[] buffer = new byte[1024];
+    private int count;
+
+    public synchronized int testSyncMethodRead(InputStream is) throws IOException {
+        return is.read(buffer);
+    }
+
+    public void testSyncBlockWrite(OutputStream os) throws IOException {
+        synchronized (lock) {
+            os.write(buffer, 0, count);
+        }
+    }
+
+    public void testSleep() throws InterruptedException {
+        synchronized (lock) {
+            count++;
+            Thread.sleep(100);
+        }
+    }
+
+    public String testFutureGet(Future<String> f) throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            if (count == 0) {
+                return null;
+            }
+            return f.get();
+        }
+    }
+
+    public int testJdbc(Connection c) throws SQLException {
+        synchronized (lock) {
+            try (PreparedStatement ps = c.prepareStatement("update foo set bar = 1")) {
+                return ps.executeUpdate();
+            }
+        }
+    }
+
+    public synchronized void testTransitive(Connection c) throws SQLException {
+        count++;
+        save(c);
+    }
+
+    public synchronized void testTransitiveTwoLevels() throws InterruptedException {
+        pause();
+    }
+
+    private void save(Connection c) throws SQLException {
+        c.commit();
+    }
+
+    private void pause() throws InterruptedException {
+        backoff(10);
+    }
+
+    private static void backoff(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    public void testWait() throws InterruptedException {
+        synchronized (lock) {
+            while (count == 0) {
+                lock.wait();
+            }
+        }
+    }
+
+    public void fpBlockingOutsideSync(OutputStream os) throws IOException {
+        synchronized (lock) {
+            count++;
+        }
+        os.write(buffer, 0, count);
+    }
+
+    public int fpNestedSyncThenRead(InputStream is) throws IOException {
+        synchronized (lock) {
+            synchronized (this) {
+                count++;
+            }
+        }
+        return is.read();
+    }
+
+    public synchronized void fpNonBlockingCallee() {
+        bump();
+    }
+
+    private void bump() {
+        count++;
+    }
+
+    public synchronized int testFinalCallee(InputStream is) throws IOException {
+        return readHeader(is);
+    }
+
+    public final int readHeader(InputStream is) throws IOException {
+        return is.read();
+    }
+
+    public synchronized void fpOverridableCallee(OutputStream os) throws IOException {
+        writeTrailer(os);
+    }
+
+    protected void writeTrailer(OutputStream os) throws IOException {
+        os.write(buffer, 0, count);
+    }
+}
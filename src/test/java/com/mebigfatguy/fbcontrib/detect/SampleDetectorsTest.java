@@ -0,0 +1,256 @@
+package com.mebigfatguy.fbcontrib.detect;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import edu.umd.cs.findbugs.AbstractBugReporter;
+import edu.umd.cs.findbugs.BugCollectionBugReporter;
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugPattern;
+import edu.umd.cs.findbugs.DetectorFactory;
+import edu.umd.cs.findbugs.DetectorFactoryCollection;
+import edu.umd.cs.findbugs.FindBugs2;
+import edu.umd.cs.findbugs.Plugin;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.config.UserPreferences;
+
+/**
+ * runs the classes of each of the samples in src/samples/java/ex through the detectors that report its bug abbreviation, in process, and compares the bugs reported
+ * against the ones recorded in samples-expected.txt. Samples are analyzed one at a time, each in its own FindBugs2 engine, as the plugin keeps analysis state,
+ * such as the collected statistics, in statics. A few samples are named after an older abbreviation than the one their detector reports, and are mapped
+ * to it in SAMPLE_ABBREVS.
+ * <p>
+ * Run with -Dfbcontrib.samples.record=true to rewrite src/test/resources/samples-expected.txt from the current results, and with
+ * -Dfbcontrib.samples.maxMillis=n to fail any sample whose analysis takes longer than n milliseconds.
+ */
+public class SampleDetectorsTest {
+
+    private static final File PLUGIN_DIR = new File("target/classes/main");
+    private static final File SAMPLES_DIR = new File("target/test-classes/ex");
+    private static final String EXPECTED_RESOURCE = "/samples-expected.txt";
+    private static final File EXPECTED_FILE = new File("src/test/resources/samples-expected.txt");
+    private static final String SAMPLE_SUFFIX = ".class";
+    private static final Map<String, String> SAMPLE_ABBREVS = new HashMap<>();
+
+    static {
+        SAMPLE_ABBREVS.put("CHBH", "CHTH");
+        SAMPLE_ABBREVS.put("MTA", "UTA");
+    }
+
+    private final boolean record = Boolean.getBoolean("fbcontrib.samples.record");
+    private final long maxMillis = Long.getLong("fbcontrib.samples.maxMillis", 0L).longValue();
+
+    private Map<String, Set<DetectorFactory>> abbrevDetectors;
+    private Map<String, List<File>> sampleClassFiles;
+    private Map<String, List<String>> expectedBugs;
+    private Map<String, List<String>> actualBugs;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Plugin plugin = Plugin.getByPluginId("com.mebigfatguy.fbcontrib");
+        if (plugin == null) {
+            plugin = Plugin.addCustomPlugin(PLUGIN_DIR.toURI(), getClass().getClassLoader());
+        }
+
+        abbrevDetectors = new HashMap<>();
+        for (DetectorFactory factory : plugin.getDetectorFactories()) {
+            for (BugPattern pattern : factory.getReportedBugPatterns()) {
+                Set<DetectorFactory> factories = abbrevDetectors.get(pattern.getAbbrev());
+                if (factories == null) {
+                    factories = new HashSet<>();
+                    abbrevDetectors.put(pattern.getAbbrev(), factories);
+                }
+                factories.add(factory);
+            }
+        }
+
+        expectedBugs = readExpectedBugs();
+        actualBugs = new HashMap<>();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (record) {
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : new TreeMap<>(actualBugs).entrySet()) {
+                for (String bug : entry.getValue()) {
+                    lines.add(entry.getKey() + ' ' + bug);
+                }
+            }
+            Files.createDirectories(EXPECTED_FILE.getParentFile().toPath());
+            Files.write(EXPECTED_FILE.toPath(), lines, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * groups the compiled sample classes by the source file they were compiled from, and provides the names of the source files that follow the sample naming
+     * convention
+     */
+    @DataProvider(name = "samples")
+    public Object[][] samples() throws IOException {
+        sampleClassFiles = new HashMap<>();
+        File[] classFiles = SAMPLES_DIR.listFiles();
+        if (classFiles != null) {
+            for (File classFile : classFiles) {
+                if (classFile.getName().endsWith(SAMPLE_SUFFIX)) {
+                    JavaClass cls = new ClassParser(classFile.getPath()).parse();
+                    String sourceName = cls.getSourceFileName();
+                    String sampleName = sourceName.substring(0, sourceName.lastIndexOf('.'));
+                    List<File> files = sampleClassFiles.get(sampleName);
+                    if (files == null) {
+                        files = new ArrayList<>();
+                        sampleClassFiles.put(sampleName, files);
+                    }
+                    files.add(classFile);
+                }
+            }
+        }
+
+        List<Object[]> samples = new ArrayList<>();
+        for (String sampleName : new TreeMap<>(sampleClassFiles).keySet()) {
+            if (sampleName.indexOf('_') > 0) {
+                samples.add(new Object[] { sampleName });
+            }
+        }
+        return samples.toArray(new Object[samples.size()][]);
+    }
+
+    @Test(dataProvider = "samples")
+    public void testSample(String sampleName) throws Exception {
+        String abbrev = sampleName.substring(0, sampleName.indexOf('_'));
+        if (SAMPLE_ABBREVS.containsKey(abbrev)) {
+            abbrev = SAMPLE_ABBREVS.get(abbrev);
+        }
+        Set<DetectorFactory> detectors = abbrevDetectors.get(abbrev);
+        if (detectors == null) {
+            throw new SkipException("No detector reports " + abbrev + " for sample " + sampleName);
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> bugs = analyze(sampleName, abbrev, detectors);
+        long elapsed = System.currentTimeMillis() - start;
+        actualBugs.put(sampleName, bugs);
+
+        if (!record) {
+            List<String> expected = expectedBugs.get(sampleName);
+            assertEquals(bugs, (expected == null) ? Collections.<String> emptyList() : expected, "Unexpected bugs reported for " + sampleName);
+        }
+        if (maxMillis > 0) {
+            assertTrue(elapsed <= maxMillis, sampleName + " took " + elapsed + "ms to analyze, more than the allowed " + maxMillis + "ms");
+        }
+    }
+
+    /**
+     * analyzes all the classes compiled from the sample's source file with the detectors that report the sample's abbreviation, along with the default
+     * non reporting detectors, which collect information for them
+     *
+     * @return the bug types and lines reported for the abbreviation, sorted, after checking that no detector failed
+     */
+    private List<String> analyze(String sampleName, String abbrev, Set<DetectorFactory> detectors) throws Exception {
+        Project project = new Project();
+        for (File classFile : sampleClassFiles.get(sampleName)) {
+            project.addFile(classFile.getPath());
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            project.addAuxClasspathEntry(entry);
+        }
+
+        DetectorFactoryCollection factories = DetectorFactoryCollection.instance();
+        UserPreferences prefs = UserPreferences.createDefaultUserPreferences();
+        prefs.setEffort(UserPreferences.EFFORT_MAX);
+        prefs.getFilterSettings().setMinPriority("Low");
+        for (DetectorFactory factory : factories.getFactories()) {
+            prefs.enableDetector(factory, factory.isReportingDetector() ? detectors.contains(factory) : factory.isDefaultEnabled());
+        }
+
+        BugCollectionBugReporter reporter = new BugCollectionBugReporter(project);
+        reporter.setPriorityThreshold(Priorities.LOW_PRIORITY);
+
+        FindBugs2 engine = new FindBugs2();
+        try {
+            engine.setProject(project);
+            engine.setDetectorFactoryCollection(factories);
+            engine.setUserPreferences(prefs);
+            engine.setAnalysisFeatureSettings(prefs.getAnalysisFeatureSettings());
+            engine.setBugReporter(reporter);
+            engine.setNoClassOk(true);
+            engine.execute();
+        } finally {
+            engine.dispose();
+        }
+
+        List<String> errors = new ArrayList<>();
+        for (AbstractBugReporter.Error error : reporter.getQueuedErrors()) {
+            errors.add(error.getMessage() + ((error.getCause() == null) ? "" : ": " + error.getCause()));
+        }
+        assertEquals(errors, Collections.<String> emptyList(), "Errors occurred analyzing " + sampleName);
+
+        List<String> bugs = new ArrayList<>();
+        for (BugInstance bug : reporter.getBugCollection()) {
+            BugPattern pattern = bug.getBugPattern();
+            if (abbrev.equals(pattern.getAbbrev())) {
+                SourceLineAnnotation sla = bug.getPrimarySourceLineAnnotation();
+                bugs.add(bug.getType() + ' ' + sla.getStartLine());
+            }
+        }
+        Collections.sort(bugs);
+        return bugs;
+    }
+
+    private static Map<String, List<String>> readExpectedBugs() throws IOException {
+        Map<String, List<String>> expected = new HashMap<>();
+        try (InputStream is = SampleDetectorsTest.class.getResourceAsStream(EXPECTED_RESOURCE)) {
+            if (is == null) {
+                return expected;
+            }
+
+            BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                String sampleName = line.substring(0, space);
+                List<String> bugs = expected.get(sampleName);
+                if (bugs == null) {
+                    bugs = new ArrayList<>();
+                    expected.put(sampleName, bugs);
+                }
+                bugs.add(line.substring(space + 1));
+            }
+        }
+
+        for (List<String> bugs : expected.values()) {
+            Collections.sort(bugs);
+        }
+        return expected;
+    }
+}